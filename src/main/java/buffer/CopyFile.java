@@ -4,7 +4,6 @@ package buffer;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 
@@ -35,18 +34,11 @@ public class CopyFile {
         FileChannel fisChannel = fis.getChannel();
         FileOutputStream fos = new FileOutputStream("w0.txt");
         FileChannel fosChannel = fos.getChannel();
-        //内存映射   零拷贝
+        //内存映射   零拷贝：直接把映射区写到目标通道，不再经过中间缓冲区
+        //大文件要按窗口映射，见file.CopyEngine
         MappedByteBuffer mbb = fisChannel.map(FileChannel.MapMode.READ_ONLY, 0, fisChannel.size());
-        //直接缓冲区  零拷贝
-        ByteBuffer direct = ByteBuffer.allocateDirect(1024);
-        while (true) {
-            direct.clear();
-            int read = fisChannel.read(direct);
-            if (read == -1) {
-                break;
-            }
-            direct.flip();
-            fosChannel.write(direct);
+        while (mbb.hasRemaining()) {
+            fosChannel.write(mbb);
         }
         fosChannel.close();
         fos.close();
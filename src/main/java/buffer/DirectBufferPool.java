@@ -0,0 +1,321 @@
+package buffer;
+
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 直接内存缓冲区池（slab分配）
+ * 按2的幂划分大小等级（默认512B ~ 1MB），每个等级从1MB的直接内存slab上切片，切出的ByteBuffer对象本身也复用。
+ * 直接缓冲区交给SocketChannel/DatagramChannel读写时，JDK不需要再拷贝到内部的临时直接缓冲区。
+ *
+ * 每个线程有自己的缓存，acquire/release先走线程缓存，不加锁；缓存空了从等级的全局空闲栈批量取，
+ * 满了批量归还一半，全局空闲栈用数组实现，稳态下获取和释放都不产生堆分配。
+ * 所有slab和超大缓冲区的总字节数受上限约束，超过上限时acquire抛出IllegalStateException。
+ *
+ * 缓冲区必须显式{@link #release}，释放后不能再使用。
+ * 调试模式（-Dnio.pool.debug=true）记录每个未释放缓冲区的分配位置，重复释放立即报错，
+ * 用{@link #reportLeaks()}打印仍未释放的缓冲区及其分配栈。
+ *
+ * @author MyAcme
+ */
+public class DirectBufferPool {
+
+    /**
+     * 默认池，参数可用系统属性调整：
+     * nio.pool.minSize（默认512）、nio.pool.maxSize（默认1MB）、nio.pool.maxBytes（默认256MB）、nio.pool.debug
+     */
+    public static final DirectBufferPool DEFAULT = new DirectBufferPool(
+            Integer.getInteger("nio.pool.minSize", 512),
+            Integer.getInteger("nio.pool.maxSize", 1024 * 1024),
+            Long.getLong("nio.pool.maxBytes", 256L * 1024 * 1024),
+            Boolean.getBoolean("nio.pool.debug"));
+
+    private static final int SLAB_SIZE = 1024 * 1024;
+
+    /**
+     * 每个线程缓存在单个等级上最多缓存的字节数，决定该等级的缓存个数
+     */
+    private static final int THREAD_CACHE_BYTES = 256 * 1024;
+    private static final int MIN_THREAD_CACHE_BUFFERS = 4;
+    private static final int MAX_THREAD_CACHE_BUFFERS = 128;
+
+    private final int minShift;
+    private final int maxSize;
+    private final long maxBytes;
+    private final boolean debug;
+    private final SizeClass[] classes;
+    private final ThreadLocal<ThreadCache> caches;
+
+    private final AtomicLong reservedBytes = new AtomicLong();
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder released = new LongAdder();
+    private final LongAdder slabs = new LongAdder();
+    private final LongAdder globalTransfers = new LongAdder();
+    private final Map<ByteBuffer, Throwable> outstanding;
+
+    /**
+     * @param minSize  最小等级（向上取2的幂）
+     * @param maxSize  最大等级（向上取2的幂），更大的请求单独分配，不缓存
+     * @param maxBytes 池占用的直接内存上限
+     * @param debug    是否记录分配位置用于泄漏和重复释放检查
+     */
+    public DirectBufferPool(int minSize, int maxSize, long maxBytes, boolean debug) {
+        if (minSize <= 0 || maxSize < minSize) {
+            throw new IllegalArgumentException("大小等级范围无效: " + minSize + " ~ " + maxSize);
+        }
+        this.minShift = shiftFor(minSize);
+        int maxShift = shiftFor(maxSize);
+        this.maxSize = 1 << maxShift;
+        this.maxBytes = maxBytes;
+        this.debug = debug;
+        this.classes = new SizeClass[maxShift - minShift + 1];
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = new SizeClass(1 << (minShift + i));
+        }
+        this.caches = ThreadLocal.withInitial(ThreadCache::new);
+        this.outstanding = debug ? Collections.synchronizedMap(new IdentityHashMap<>()) : null;
+    }
+
+    /**
+     * 取一个至少size字节的直接缓冲区，position为0、limit为size
+     *
+     * @throws IllegalStateException 池占用已达上限
+     */
+    public ByteBuffer acquire(int size) {
+        ByteBuffer buffer;
+        if (size > maxSize) {
+            reserve(size);
+            buffer = ByteBuffer.allocateDirect(size);
+        } else {
+            int index = indexFor(size);
+            ThreadCache cache = caches.get();
+            buffer = cache.pop(index);
+            if (buffer == null) {
+                buffer = cache.refill(index);
+            }
+            buffer.clear();
+        }
+        buffer.limit(size);
+        acquired.increment();
+        if (debug) {
+            outstanding.put(buffer, new Throwable("缓冲区分配位置（" + size + "字节）"));
+        }
+        return buffer;
+    }
+
+    /**
+     * 归还acquire得到的缓冲区（必须是同一个对象，不能是它的duplicate或slice）
+     */
+    public void release(ByteBuffer buffer) {
+        if (debug && outstanding.remove(buffer) == null) {
+            throw new IllegalStateException("重复释放或不属于本池的缓冲区: " + buffer);
+        }
+        released.increment();
+        int capacity = buffer.capacity();
+        if (capacity > maxSize) {
+            reservedBytes.addAndGet(-capacity);
+            return;
+        }
+        int index = indexFor(capacity);
+        if (!buffer.isDirect() || classes[index].size != capacity) {
+            throw new IllegalArgumentException("不是本池分配的缓冲区: " + buffer);
+        }
+        caches.get().push(index, buffer);
+    }
+
+    /**
+     * 把当前线程缓存的缓冲区全部还给全局空闲栈，线程退出前调用，否则这些缓冲区在线程结束后不再可用
+     */
+    public void releaseThreadCache() {
+        ThreadCache cache = caches.get();
+        for (int i = 0; i < classes.length; i++) {
+            cache.drain(i);
+        }
+        caches.remove();
+    }
+
+    /**
+     * 尚未释放的缓冲区数
+     */
+    public long outstanding() {
+        return acquired.sum() - released.sum();
+    }
+
+    /**
+     * 打印未释放缓冲区的分配位置（仅调试模式），返回未释放的个数
+     */
+    public int reportLeaks() {
+        if (!debug) {
+            return (int) outstanding();
+        }
+        List<Throwable> traces;
+        synchronized (outstanding) {
+            traces = new ArrayList<>(outstanding.values());
+        }
+        for (Throwable trace : traces) {
+            System.err.println("缓冲区泄漏：");
+            trace.printStackTrace();
+        }
+        return traces.size();
+    }
+
+    public boolean isDebug() {
+        return debug;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("reservedBytes", reservedBytes.get());
+        stats.put("maxBytes", maxBytes);
+        stats.put("slabs", slabs.sum());
+        stats.put("acquired", acquired.sum());
+        stats.put("released", released.sum());
+        stats.put("outstanding", outstanding());
+        stats.put("globalTransfers", globalTransfers.sum());
+        return stats;
+    }
+
+    private void reserve(int bytes) {
+        long reserved;
+        do {
+            reserved = reservedBytes.get();
+            if (reserved + bytes > maxBytes) {
+                throw new IllegalStateException("直接缓冲区池已达上限 " + maxBytes + " 字节，已占用 " + reserved);
+            }
+        } while (!reservedBytes.compareAndSet(reserved, reserved + bytes));
+    }
+
+    private int indexFor(int size) {
+        return Math.max(shiftFor(size), minShift) - minShift;
+    }
+
+    private static int shiftFor(int size) {
+        return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    /**
+     * 一个大小等级的全局空闲栈
+     */
+    private final class SizeClass {
+        final int size;
+        final int cacheCapacity;
+        ByteBuffer[] free = new ByteBuffer[16];
+        int count;
+
+        SizeClass(int size) {
+            this.size = size;
+            this.cacheCapacity = Math.max(MIN_THREAD_CACHE_BUFFERS,
+                    Math.min(MAX_THREAD_CACHE_BUFFERS, THREAD_CACHE_BYTES / size));
+        }
+
+        /**
+         * 取最多max个到dst，空闲栈为空时先切一块新slab
+         */
+        synchronized int take(ByteBuffer[] dst, int max) {
+            if (count == 0) {
+                carveSlab();
+            }
+            int n = Math.min(max, count);
+            for (int i = 0; i < n; i++) {
+                dst[i] = free[--count];
+                free[count] = null;
+            }
+            globalTransfers.increment();
+            return n;
+        }
+
+        synchronized void give(ByteBuffer[] src, int from, int n) {
+            if (count + n > free.length) {
+                ByteBuffer[] grown = new ByteBuffer[Math.max(free.length * 2, count + n)];
+                System.arraycopy(free, 0, grown, 0, count);
+                free = grown;
+            }
+            for (int i = 0; i < n; i++) {
+                free[count++] = src[from + i];
+                src[from + i] = null;
+            }
+            globalTransfers.increment();
+        }
+
+        private void carveSlab() {
+            int slabSize = Math.max(SLAB_SIZE, size);
+            reserve(slabSize);
+            ByteBuffer slab = ByteBuffer.allocateDirect(slabSize);
+            slabs.increment();
+            int pieces = slabSize / size;
+            if (free.length < pieces) {
+                free = new ByteBuffer[pieces];
+            }
+            for (int i = 0; i < pieces; i++) {
+                slab.limit((i + 1) * size).position(i * size);
+                free[count++] = slab.slice();
+            }
+        }
+    }
+
+    /**
+     * 线程缓存：每个等级一个数组栈
+     */
+    private final class ThreadCache {
+        final ByteBuffer[][] stacks = new ByteBuffer[classes.length][];
+        final int[] counts = new int[classes.length];
+
+        ThreadCache() {
+            for (int i = 0; i < classes.length; i++) {
+                stacks[i] = new ByteBuffer[classes[i].cacheCapacity];
+            }
+        }
+
+        ByteBuffer pop(int index) {
+            int n = counts[index];
+            if (n == 0) {
+                return null;
+            }
+            ByteBuffer[] stack = stacks[index];
+            ByteBuffer buffer = stack[--n];
+            stack[n] = null;
+            counts[index] = n;
+            return buffer;
+        }
+
+        /**
+         * 从全局取半个缓存的量，返回其中一个
+         */
+        ByteBuffer refill(int index) {
+            ByteBuffer[] stack = stacks[index];
+            int n = classes[index].take(stack, Math.max(1, stack.length / 2));
+            counts[index] = n - 1;
+            ByteBuffer buffer = stack[n - 1];
+            stack[n - 1] = null;
+            return buffer;
+        }
+
+        void push(int index, ByteBuffer buffer) {
+            ByteBuffer[] stack = stacks[index];
+            int n = counts[index];
+            if (n == stack.length) {
+                // 缓存满了，上半部分还给全局
+                int half = stack.length / 2;
+                classes[index].give(stack, n - half, half);
+                n -= half;
+            }
+            stack[n++] = buffer;
+            counts[index] = n;
+        }
+
+        void drain(int index) {
+            if (counts[index] > 0) {
+                classes[index].give(stacks[index], 0, counts[index]);
+                counts[index] = 0;
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package channel;
 
 
+import buffer.DirectBufferPool;
 import org.junit.Test;
 
 import java.io.IOException;
@@ -22,7 +23,14 @@ public class DatagramChannelDemo {
     public void send() throws IOException {
         DatagramChannel channel = DatagramChannel.open();
         InetSocketAddress address = new InetSocketAddress("127.0.0.1",8080);
-        channel.send(ByteBuffer.wrap("hello world".getBytes()), address);
+        byte[] bytes = "hello world".getBytes();
+        ByteBuffer buffer = DirectBufferPool.DEFAULT.acquire(bytes.length);
+        try {
+            buffer.put(bytes).flip();
+            channel.send(buffer, address);
+        } finally {
+            DirectBufferPool.DEFAULT.release(buffer);
+        }
         System.out.println("发送成功");
     }
 
@@ -32,10 +40,13 @@ public class DatagramChannelDemo {
         DatagramChannel channel = DatagramChannel.open();
         InetSocketAddress address = new InetSocketAddress(8080);
         channel.bind(address);
-        ByteBuffer buffer = ByteBuffer.allocate(1024);
-        buffer.clear();
-        SocketAddress receive = channel.receive(buffer);
-        buffer.flip();
-        System.out.println(StandardCharsets.UTF_8.decode(buffer));
+        ByteBuffer buffer = DirectBufferPool.DEFAULT.acquire(1024);
+        try {
+            SocketAddress receive = channel.receive(buffer);
+            buffer.flip();
+            System.out.println(StandardCharsets.UTF_8.decode(buffer));
+        } finally {
+            DirectBufferPool.DEFAULT.release(buffer);
+        }
     }
 }
\ No newline at end of file
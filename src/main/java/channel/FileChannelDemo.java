@@ -1,12 +1,13 @@
 package channel;
 
 
+import charset.Utf8;
+
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -27,12 +28,19 @@ public class FileChannelDemo {
         int size = channel.read(buffer);
         while (size != -1) {
             buffer.flip();
-            while (buffer.hasRemaining()) {
-                System.out.println(StandardCharsets.UTF_8.decode(buffer));
-            }
-            buffer.clear();
+            //多字节字符可能被截断在块尾，只解码完整的部分，剩下的字节留到下一块
+            ByteBuffer complete = buffer.duplicate();
+            complete.limit(complete.position() + Utf8.completeLength(buffer));
+            System.out.print(Utf8.decode(complete));
+            buffer.position(complete.limit());
+            buffer.compact();
             size = channel.read(buffer);
         }
+        buffer.flip();
+        if (buffer.hasRemaining()) {
+            System.out.print(Utf8.decode(buffer));
+        }
+        System.out.println();
         channel.close();
         rafile.close();
     }
@@ -67,12 +75,21 @@ public class FileChannelDemo {
      * @throws Exception
      */
     public static void transfer() throws Exception {
-        RandomAccessFile rafile = new RandomAccessFile("r0.txt", "rw");
+        RandomAccessFile rafile = new RandomAccessFile("r0.txt", "r");
         FileChannel channel = rafile.getChannel();
         RandomAccessFile rafile2 = new RandomAccessFile("w0.txt", "rw");
         FileChannel channel2 = rafile2.getChannel();
-        channel.transferTo(0, channel.size(), channel2);
-        channel2.transferFrom(channel, 0, channel.size());
+        //transferTo一次不一定复制完（单次最多约2GB），要按返回值循环；不需要再transferFrom一遍
+        long size = channel.size();
+        long position = 0;
+        while (position < size) {
+            long n = channel.transferTo(position, size - position, channel2);
+            if (n <= 0) {
+                break;
+            }
+            position += n;
+        }
+        channel2.truncate(position);
         channel2.close();
         channel.close();
         rafile2.close();
@@ -89,7 +106,11 @@ public class FileChannelDemo {
              RandomAccessFile targetFile = new RandomAccessFile("w0.txt", "rw")) {
             FileChannel sourceChannel = sourceFile.getChannel();
             MappedByteBuffer buffer = sourceChannel.map(FileChannel.MapMode.READ_ONLY, 0, sourceChannel.size());
-            targetFile.getChannel().write(buffer);
+            FileChannel targetChannel = targetFile.getChannel();
+            while (buffer.hasRemaining()) {
+                targetChannel.write(buffer);
+            }
+            targetChannel.truncate(sourceChannel.size());
         }
     }
 
@@ -2,10 +2,7 @@ package channel;
 
 
 import java.io.IOException;
-import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
-import java.nio.channels.ServerSocketChannel;
-import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 
 /**
  * @author ljx
@@ -14,21 +11,11 @@ import java.nio.channels.SocketChannel;
  */
 public class ServiceSocketChannelDemo {
 
-    public static void main(String[] args) throws IOException {
+    public static void main(String[] args) throws Exception {
         int port = 8080;
-        ByteBuffer wrap = ByteBuffer.wrap("heoll world".getBytes());
-        ServerSocketChannel ssc = ServerSocketChannel.open();
-        ssc.socket().bind(new InetSocketAddress(port));
-        //设置非阻塞模式
-        ssc.configureBlocking(false);
-        while (true) {
-            SocketChannel accept = ssc.accept();
-            if (accept != null) {
-                System.out.println(accept.socket().getLocalAddress());
-                wrap.rewind();
-                accept.write(wrap);
-                accept.close();
-            }
-        }
+        //原来在非阻塞模式下while(true)轮询accept，空闲时也占满一个核；
+        //改为阻塞在Selector上，每次唤醒批量接收，共享预编码的响应，写完即关闭
+        byte[] response = "heoll world".getBytes(StandardCharsets.UTF_8);
+        new ShortConnectionResponder(response).start(port);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,483 @@
+package channel;
+
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 短连接应答器：连上、拿到一段固定响应（横幅/令牌）、断开
+ * 替代ServiceSocketChannelDemo里非阻塞accept空转的写法：
+ * 每个线程阻塞在自己的Selector上，空闲时不占CPU；每次唤醒把积压的连接一次接收完（单次最多1024个），
+ * 响应预先编码在只读直接缓冲区里，所有连接共享，通常每个连接一次write系统调用写出，不产生任何对象。
+ *
+ * 接收到的套接字切成非阻塞模式后写一次：新连接的发送缓冲区是空的，小响应一般一次写完；
+ * 写不完时（响应超过初始发送缓冲区，或对端接收窗口很小）记下已写的字节数，注册OP_WRITE在后续唤醒中写完，
+ * 慢客户端不会卡住接收线程，超过writeTimeout仍没写完的连接复位。
+ * 每个线程同时挂起的连接（等待写完或HALF_CLOSE时等待对端关闭）不超过maxPending个，
+ * 达到上限时暂停接收，新连接留在内核的积压队列里，挂起的连接减少后恢复。
+ * 多个线程时每个线程用SO_REUSEPORT各开一个监听套接字，由内核分摊新连接；不支持时共享一个监听套接字。
+ *
+ * 关闭方式见{@link CloseMode}，决定TIME_WAIT留在哪一端。
+ *
+ * @author MyAcme
+ */
+public class ShortConnectionResponder {
+
+    /**
+     * 响应写出后的关闭方式
+     */
+    public enum CloseMode {
+        /**
+         * 直接close，服务端先发FIN，TIME_WAIT留在服务端（只占内核的少量内存，不影响继续接收新连接）。
+         * 最省系统调用；但客户端发来的数据没读就close时内核会发RST，客户端可能读不到响应
+         */
+        CLOSE,
+        /**
+         * shutdownOutput发FIN后继续读并丢弃，等客户端先关闭再close，TIME_WAIT留在客户端；
+         * 客户端会发请求数据时用这种方式，超时仍不关闭的连接直接复位
+         */
+        HALF_CLOSE,
+        /**
+         * SO_LINGER=0复位，两端都不留TIME_WAIT；RST可能先于客户端读取到达而丢掉响应，只适合容忍失败的客户端
+         */
+        RESET
+    }
+
+    private static final int MAX_RESPONSE = 64 * 1024;
+    private static final int MAX_ACCEPTS_PER_WAKEUP = 1024;
+
+    private final ByteBuffer response;
+
+    private int threads = 1;
+    private int backlog = 4096;
+    private CloseMode closeMode = CloseMode.CLOSE;
+    private long peerCloseTimeoutMillis = 5000;
+    private long writeTimeoutMillis = 5000;
+    private int maxPending = 65536;
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder peerCloseTimeouts = new LongAdder();
+    private final LongAdder writeTimeouts = new LongAdder();
+    private final LongAdder lingering = new LongAdder();
+    private final LongAdder writing = new LongAdder();
+    private final LongAdder acceptPauses = new LongAdder();
+
+    private Worker[] workers;
+    private volatile boolean running;
+
+    /**
+     * @param response 每个连接收到的响应字节，不超过64KB
+     */
+    public ShortConnectionResponder(byte[] response) {
+        if (response.length > MAX_RESPONSE) {
+            throw new IllegalArgumentException("响应超过" + MAX_RESPONSE + "字节，大响应请用selector.NioServer: " + response.length);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(response.length);
+        buffer.put(response).flip();
+        this.response = buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * 接收线程数，默认1
+     */
+    public ShortConnectionResponder threads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    public ShortConnectionResponder backlog(int backlog) {
+        this.backlog = backlog;
+        return this;
+    }
+
+    public ShortConnectionResponder closeMode(CloseMode closeMode) {
+        this.closeMode = closeMode;
+        return this;
+    }
+
+    /**
+     * HALF_CLOSE时等待客户端关闭的最长时间
+     */
+    public ShortConnectionResponder peerCloseTimeout(long millis) {
+        this.peerCloseTimeoutMillis = millis;
+        return this;
+    }
+
+    /**
+     * 响应一次没写完时，等待写完的最长时间
+     */
+    public ShortConnectionResponder writeTimeout(long millis) {
+        this.writeTimeoutMillis = millis;
+        return this;
+    }
+
+    /**
+     * 每个线程同时挂起的连接数上限，达到后暂停接收
+     */
+    public ShortConnectionResponder maxPending(int maxPending) {
+        this.maxPending = maxPending;
+        return this;
+    }
+
+    /**
+     * 绑定端口并启动接收线程，不阻塞调用线程，端口为0时由操作系统分配
+     */
+    public InetSocketAddress bind(int port) throws IOException {
+        ServerSocketChannel first = openServerChannel(port, threads > 1);
+        InetSocketAddress address = (InetSocketAddress) first.getLocalAddress();
+        boolean reusePort = threads > 1 && first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        running = true;
+        workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            ServerSocketChannel serverChannel = i == 0 || !reusePort ? first : openServerChannel(address.getPort(), true);
+            workers[i] = new Worker(serverChannel);
+            workers[i].thread = new Thread(workers[i], "responder-" + i);
+            workers[i].thread.start();
+        }
+        System.out.println(String.format("短连接应答器启动，端口: %s，线程数: %d%s，关闭方式: %s",
+                address, threads, reusePort ? "（SO_REUSEPORT）" : "", closeMode));
+        return address;
+    }
+
+    private ServerSocketChannel openServerChannel(int port, boolean reusePort) throws IOException {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        if (reusePort && serverChannel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+            serverChannel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        }
+        serverChannel.configureBlocking(false);
+        serverChannel.bind(new InetSocketAddress(port), backlog);
+        return serverChannel;
+    }
+
+    /**
+     * 启动后阻塞，每秒打印一次连接速率（没有新连接时不打印）
+     */
+    public void start(int port) throws Exception {
+        bind(port);
+        long last = 0;
+        long lastTime = System.nanoTime();
+        while (running) {
+            Thread.sleep(1000);
+            long now = System.nanoTime();
+            long total = accepted.sum();
+            if (total != last) {
+                System.out.println(String.format("连接 %.0f/s，累计 %d，失败 %d，等待写完 %d，等待对端关闭 %d，超时复位 %d",
+                        (total - last) * 1e9 / (now - lastTime), total, failures.sum(), writing.sum(),
+                        lingering.sum(), peerCloseTimeouts.sum() + writeTimeouts.sum()));
+            }
+            last = total;
+            lastTime = now;
+        }
+    }
+
+    public void stop() throws InterruptedException {
+        running = false;
+        if (workers == null) {
+            return;
+        }
+        for (Worker worker : workers) {
+            worker.selector.wakeup();
+        }
+        for (Worker worker : workers) {
+            worker.thread.join();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("accepted", accepted.sum());
+        stats.put("failures", failures.sum());
+        stats.put("writing", writing.sum());
+        stats.put("lingering", lingering.sum());
+        stats.put("writeTimeouts", writeTimeouts.sum());
+        stats.put("peerCloseTimeouts", peerCloseTimeouts.sum());
+        stats.put("acceptPauses", acceptPauses.sum());
+        stats.put("closeMode", closeMode.name());
+        return stats;
+    }
+
+    /**
+     * 挂起的连接：响应还没写完，或HALF_CLOSE时等待对端关闭
+     * 同一阶段的超时时间相同，截止时间按进入顺序递增，用按插入顺序迭代的集合即可，关闭时O(1)移除
+     */
+    private static final class Pending {
+        final SocketChannel channel;
+        long deadline;
+        /**
+         * 已写出的响应字节数
+         */
+        int written;
+
+        Pending(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    private final class Worker implements Runnable {
+        private final ServerSocketChannel serverChannel;
+        private final Selector selector;
+        private final SelectionKey acceptKey;
+        private final ByteBuffer view = response.duplicate();
+        private final ByteBuffer discard = ByteBuffer.allocateDirect(4096);
+        private final Set<Pending> writingSet = new LinkedHashSet<>();
+        private final Set<Pending> lingeringSet = new LinkedHashSet<>();
+        private boolean acceptPaused;
+        private Thread thread;
+
+        Worker(ServerSocketChannel serverChannel) throws IOException {
+            this.serverChannel = serverChannel;
+            this.selector = Selector.open();
+            this.acceptKey = serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select(selectTimeout(System.nanoTime()));
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            acceptBatch();
+                        } else if (key.isWritable()) {
+                            writeRest(key);
+                        } else if (key.isReadable()) {
+                            drainPeer(key);
+                        }
+                    }
+                    long now = System.nanoTime();
+                    expire(writingSet, now, writeTimeouts, writing);
+                    expire(lingeringSet, now, peerCloseTimeouts, lingering);
+                    if (acceptPaused && pending() < maxPending) {
+                        acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+                        acceptPaused = false;
+                    }
+                }
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("接收连接异常: " + e.getMessage());
+                }
+            } finally {
+                shutdown();
+            }
+        }
+
+        /**
+         * 到最近一个挂起连接超时的毫秒数，没有挂起的连接时为0（一直等）
+         */
+        private long selectTimeout(long now) {
+            long deadline = Long.MAX_VALUE;
+            if (!writingSet.isEmpty()) {
+                deadline = writingSet.iterator().next().deadline;
+            }
+            if (!lingeringSet.isEmpty()) {
+                long first = lingeringSet.iterator().next().deadline;
+                deadline = deadline == Long.MAX_VALUE || first - deadline < 0 ? first : deadline;
+            }
+            return deadline == Long.MAX_VALUE ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - now));
+        }
+
+        private int pending() {
+            return writingSet.size() + lingeringSet.size();
+        }
+
+        /**
+         * 一次唤醒接收积压的连接，达到上限后回到select，剩下的连接下一轮继续（水平触发）；
+         * 挂起的连接达到maxPending时暂停接收
+         */
+        private void acceptBatch() throws IOException {
+            int n = 0;
+            SocketChannel channel;
+            while (n < MAX_ACCEPTS_PER_WAKEUP && pending() < maxPending && (channel = serverChannel.accept()) != null) {
+                n++;
+                respond(channel);
+            }
+            accepted.add(n);
+            if (pending() >= maxPending) {
+                acceptKey.interestOps(0);
+                acceptPaused = true;
+                acceptPauses.increment();
+            }
+        }
+
+        /**
+         * 写一次，写完就按关闭方式结束；没写完的注册OP_WRITE，由writeRest继续
+         */
+        private void respond(SocketChannel channel) {
+            try {
+                channel.configureBlocking(false);
+                view.rewind();
+                channel.write(view);
+                if (!view.hasRemaining()) {
+                    finish(channel, null);
+                    return;
+                }
+                Pending pending = new Pending(channel);
+                pending.written = view.position();
+                pending.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(writeTimeoutMillis);
+                channel.register(selector, SelectionKey.OP_WRITE, pending);
+                writingSet.add(pending);
+                writing.increment();
+            } catch (IOException e) {
+                failures.increment();
+                closeQuietly(channel);
+            }
+        }
+
+        private void writeRest(SelectionKey key) {
+            Pending pending = (Pending) key.attachment();
+            try {
+                view.limit(view.capacity()).position(pending.written);
+                pending.channel.write(view);
+                pending.written = view.position();
+                if (!view.hasRemaining()) {
+                    writingSet.remove(pending);
+                    writing.decrement();
+                    finish(pending.channel, key);
+                }
+            } catch (IOException e) {
+                writingSet.remove(pending);
+                writing.decrement();
+                failures.increment();
+                closeQuietly(pending.channel);
+            }
+        }
+
+        /**
+         * 响应已写完，按关闭方式结束连接；key为null表示还没有注册到选择器
+         */
+        private void finish(SocketChannel channel, SelectionKey key) throws IOException {
+            switch (closeMode) {
+                case HALF_CLOSE:
+                    channel.shutdownOutput();
+                    Pending pending = key == null ? new Pending(channel) : (Pending) key.attachment();
+                    pending.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(peerCloseTimeoutMillis);
+                    if (key == null) {
+                        channel.register(selector, SelectionKey.OP_READ, pending);
+                    } else {
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+                    lingeringSet.add(pending);
+                    lingering.increment();
+                    break;
+                case RESET:
+                    channel.setOption(StandardSocketOptions.SO_LINGER, 0);
+                    channel.close();
+                    break;
+                default:
+                    channel.close();
+                    break;
+            }
+        }
+
+        /**
+         * HALF_CLOSE：读掉客户端发来的数据，读到EOF说明客户端已关闭，此时再close，TIME_WAIT留在客户端
+         */
+        private void drainPeer(SelectionKey key) {
+            Pending pending = (Pending) key.attachment();
+            try {
+                int n;
+                do {
+                    discard.clear();
+                    n = pending.channel.read(discard);
+                } while (n > 0);
+                if (n < 0) {
+                    lingeringSet.remove(pending);
+                    lingering.decrement();
+                    pending.channel.close();
+                }
+            } catch (IOException e) {
+                lingeringSet.remove(pending);
+                lingering.decrement();
+                closeQuietly(pending.channel);
+            }
+        }
+
+        /**
+         * 超时的挂起连接复位
+         */
+        private void expire(Set<Pending> set, long now, LongAdder timeouts, LongAdder gauge) {
+            Iterator<Pending> it = set.iterator();
+            while (it.hasNext()) {
+                Pending first = it.next();
+                if (first.deadline - now > 0) {
+                    break;
+                }
+                it.remove();
+                timeouts.increment();
+                gauge.decrement();
+                try {
+                    first.channel.setOption(StandardSocketOptions.SO_LINGER, 0);
+                } catch (IOException e) {
+                    // 连接已失效，直接关闭
+                }
+                closeQuietly(first.channel);
+            }
+        }
+
+        private void shutdown() {
+            for (Pending p : writingSet) {
+                writing.decrement();
+                closeQuietly(p.channel);
+            }
+            for (Pending p : lingeringSet) {
+                lingering.decrement();
+                closeQuietly(p.channel);
+            }
+            writingSet.clear();
+            lingeringSet.clear();
+            closeQuietly(serverChannel);
+            try {
+                selector.close();
+            } catch (IOException e) {
+                System.err.println("关闭选择器失败: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void closeQuietly(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // 关闭失败不影响后续连接
+        }
+    }
+
+    /**
+     * 主方法
+     * @param args 命令行参数：[端口号] [线程数]，默认8080、1
+     * 系统属性：responder.text（响应内容，默认hello world）、responder.closeMode（CLOSE、HALF_CLOSE或RESET）
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        String text = System.getProperty("responder.text", "hello world\n");
+        CloseMode closeMode = CloseMode.valueOf(System.getProperty("responder.closeMode", "CLOSE"));
+        new ShortConnectionResponder(text.getBytes(StandardCharsets.UTF_8))
+                .threads(threads)
+                .closeMode(closeMode)
+                .start(port);
+    }
+}
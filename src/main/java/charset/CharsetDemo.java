@@ -18,8 +18,8 @@ public class CharsetDemo {
     public static void main(String[] args) throws CharacterCodingException {
         //获取charset
         Charset charset = Charset.forName("utf-8");
-        //获取编码器
-        CharsetEncoder charsetEncoder = charset.newEncoder();
+        //获取编码器（按线程复用，不必每次newEncoder）
+        CharsetEncoder charsetEncoder = ThreadLocalCoders.encoder(charset);
         //创建缓冲区
         CharBuffer buffer = CharBuffer.allocate(1024);
         buffer.put("hello world");
@@ -32,12 +32,18 @@ public class CharsetDemo {
         }
         //获取解码器
         byteBuffer.flip();
-        CharsetDecoder charsetDecoder = charset.newDecoder();
+        CharsetDecoder charsetDecoder = ThreadLocalCoders.decoder(charset);
         //解码
         CharBuffer charBuffer = charsetDecoder.decode(byteBuffer);
         System.out.println("解码结果：");
         System.out.println(charBuffer);
 
+        //UTF-8直接在字符串与ByteBuffer之间转换，不经过CharBuffer和编解码器
+        ByteBuffer direct = ByteBuffer.allocateDirect(64);
+        Utf8.encode("hello 世界", direct);
+        direct.flip();
+        System.out.println("Utf8编码字节数：" + direct.remaining() + "，解码结果：" + Utf8.decode(direct));
+
         //获取所有字符编码
         SortedMap<String, Charset> map = Charset.availableCharsets();
         System.out.println("所有字符编码：");
@@ -0,0 +1,411 @@
+package charset;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * 大文件字符集转换（例如GBK/ISO-8859-1导出文件转UTF-8），分块并行，输出与顺序转换逐字节相同
+ *
+ * 输入按chunkSize切块，每块在ForkJoinPool上映射（FileChannel.map只读）后解码再编码，
+ * 调用线程按块的顺序等待结果并写出，同时在途的块不超过maxInFlight个，内存占用与文件大小无关。
+ *
+ * 切分点要落在字符边界上，按输入字符集选择：
+ * 1. 单字节字符集（ISO-8859-x、windows-125x等）：任意位置；
+ * 2. UTF-8：向后跳过续字节（10xxxxxx），自同步；
+ * 3. 其他换行符编码为单字节0x0A的字符集（GBK、GB18030、Big5、Shift_JIS、EUC-*等）：切在换行符之后，
+ *    合法输入里这些编码的多字节序列不会包含0x0A（GBK的尾字节可能落在ASCII区，不能随便找个ASCII字节切）；
+ * 4. 其余（UTF-16/32、ISO-2022这类有状态编码）：不切分，整个文件顺序转换。
+ * 非法输入里换行符前可能是半个字符（例如GB18030的81 30 0A），解码器在那里吞掉几个字节还是替换，
+ * 取决于后面的字节。所以块尾不当作输入结束：最后一个字符不完整时继续读块尾之后的字节解完它，
+ * 写出时核对每块的起点是否等于上一块实际解码到的位置，不等就从正确位置重新转换这一块（stats里的respeculated）。
+ * 目标字符集也要求无状态（分块编码后拼接等于整体编码，例如带BOM的UTF-16不满足），否则同样退回顺序转换。
+ *
+ * 非法输入与顺序转换一样替换（解码为U+FFFD，编码为目标字符集的替换字节）。
+ * 单核机器上没有并行收益，吞吐随可用核数增长。
+ *
+ * @author MyAcme
+ */
+public class ParallelTranscoder {
+
+    /**
+     * 输入字符集允许的切分方式
+     */
+    enum Split {
+        ANYWHERE, UTF8, NEWLINE, NONE
+    }
+
+    private static final int SCAN_BLOCK = 64 * 1024;
+    private static final int CHAR_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_ALIGN = 1024 * 1024;
+    private static final int TAIL_SIZE = 16;
+
+    private static final ThreadLocal<CharBuffer> CHARS = ThreadLocal.withInitial(() -> CharBuffer.allocate(CHAR_BUFFER_SIZE));
+
+    private final Charset from;
+    private final Charset to;
+
+    private int chunkSize = 8 * 1024 * 1024;
+    private int maxInFlight = Math.max(2, Runtime.getRuntime().availableProcessors() * 2);
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    private long bytesIn;
+    private long bytesOut;
+    private int chunks;
+    private int respeculated;
+    private Split split;
+
+    public ParallelTranscoder(Charset from, Charset to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * 每块的目标字节数（实际切分点会向后对齐到字符边界）
+     */
+    public ParallelTranscoder chunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * 同时在途（转换中或等待写出）的最大块数，决定内存上限
+     */
+    public ParallelTranscoder maxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    public ParallelTranscoder pool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    /**
+     * 转换整个文件，返回写出的字节数
+     */
+    public long transcode(Path input, Path output) throws IOException {
+        split = splitOf(from);
+        if (!isStatelessEncoder(to)) {
+            split = Split.NONE;
+        }
+        bytesIn = 0;
+        bytesOut = 0;
+        chunks = 0;
+        respeculated = 0;
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            if (split == Split.NONE) {
+                bytesOut = transcodeStream(in, out, from, to);
+                bytesIn = size;
+                chunks = 1;
+                return bytesOut;
+            }
+            ArrayDeque<ForkJoinTask<Chunk>> pending = new ArrayDeque<>();
+            ByteBuffer scan = ByteBuffer.allocateDirect(SCAN_BLOCK);
+            long start = 0;
+            long written = 0;
+            while (start < size) {
+                long end = start + chunkSize >= size ? size : align(in, start + chunkSize, size, scan);
+                long chunkStart = start;
+                pending.add(pool.submit(() -> transcodeChunk(in, chunkStart, end, size)));
+                chunks++;
+                start = end;
+                // 在途块数达到上限时先写出最早的块
+                while (pending.size() >= maxInFlight || (!pending.isEmpty() && pending.peek().isDone())) {
+                    written = write(in, out, pending.poll().join(), written, size);
+                }
+            }
+            while (!pending.isEmpty()) {
+                written = write(in, out, pending.poll().join(), written, size);
+            }
+            bytesIn = size;
+            return bytesOut;
+        }
+    }
+
+    /**
+     * 按顺序写出一块。expected是上一块实际解码到的位置，块的起点与之不符时说明
+     * 上一块的最后一个字符越过了切分点（只在非法输入里出现），从expected开始重新转换这一块
+     */
+    private long write(FileChannel in, FileChannel out, Chunk chunk, long expected, long size) throws IOException {
+        if (chunk.start != expected) {
+            respeculated++;
+            if (expected >= chunk.limit) {
+                return expected;
+            }
+            chunk = transcodeChunk(in, expected, chunk.limit, size);
+        }
+        bytesOut += chunk.bytes.remaining();
+        while (chunk.bytes.hasRemaining()) {
+            out.write(chunk.bytes);
+        }
+        return chunk.end;
+    }
+
+    /**
+     * 把名义切分点position向后调整到可能的字符边界，最多向后找MAX_ALIGN字节，找不到就用原位置
+     * （切分点只影响效率，正确性由transcodeChunk越过块尾解完最后一个字符、write核对起点保证）
+     */
+    private long align(FileChannel in, long position, long size, ByteBuffer scan) throws IOException {
+        if (split == Split.ANYWHERE) {
+            return position;
+        }
+        long base = position;
+        long limit = Math.min(size, position + MAX_ALIGN);
+        while (base < limit) {
+            scan.clear();
+            int n = in.read(scan, base);
+            if (n <= 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                byte b = scan.get(i);
+                if (split == Split.UTF8 ? (b & 0xC0) != 0x80 : b == '\n') {
+                    return split == Split.UTF8 ? base + i : base + i + 1;
+                }
+            }
+            base += n;
+        }
+        return position;
+    }
+
+    /**
+     * 映射并转换[start, limit)。解码器在块尾还差字节时不当作输入结束，
+     * 而是继续读块尾之后的几个字节，逐字符解码到越过limit为止，和顺序转换在这里的行为一致
+     */
+    private Chunk transcodeChunk(FileChannel in, long start, long limit, long size) throws IOException {
+        ByteBuffer src = in.map(FileChannel.MapMode.READ_ONLY, start, limit - start);
+        boolean last = limit == size;
+        CharsetDecoder decoder = ThreadLocalCoders.decoder(from);
+        CharsetEncoder encoder = ThreadLocalCoders.encoder(to);
+        CharBuffer chars = CHARS.get();
+        chars.clear();
+        ByteBuffer out = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE - 16,
+                (long) ((limit - start) * decoder.averageCharsPerByte() * encoder.averageBytesPerChar()) + 16));
+        while (true) {
+            CoderResult result = decoder.decode(src, chars, last);
+            chars.flip();
+            out = encode(encoder, chars, out, false);
+            chars.compact();
+            if (result.isUnderflow()) {
+                break;
+            }
+            throwIfError(result);
+        }
+        long end = start + src.position();
+        if (end < limit) {
+            ByteBuffer tail = ByteBuffer.allocate(TAIL_SIZE);
+            while (tail.hasRemaining() && in.read(tail, end + tail.position()) > 0) {
+                // 读满或读到文件末尾
+            }
+            tail.flip();
+            last = end + tail.limit() == size;
+            while (end + tail.position() < limit) {
+                int before = tail.position();
+                // 输出空间只留一个字符（解出代理对时放宽到两个），让解码器一次只前进一个字符
+                chars.limit(chars.position() + 1);
+                CoderResult result = decoder.decode(tail, chars, last);
+                if (result.isOverflow() && tail.position() == before) {
+                    chars.limit(chars.position() + 2);
+                    result = decoder.decode(tail, chars, last);
+                }
+                throwIfError(result);
+                if (tail.position() == before) {
+                    throw new IllegalStateException("块尾 " + limit + " 处的字符超过 " + TAIL_SIZE + " 字节");
+                }
+            }
+            chars.limit(chars.capacity());
+            end += tail.position();
+            last = end == size;
+        }
+        if (last) {
+            throwIfError(decoder.flush(chars));
+        }
+        chars.flip();
+        out = encode(encoder, chars, out, true);
+        while (encoder.flush(out).isOverflow()) {
+            out = grow(out);
+        }
+        out.flip();
+        return new Chunk(start, limit, end, out);
+    }
+
+    private static ByteBuffer encode(CharsetEncoder encoder, CharBuffer chars, ByteBuffer out, boolean endOfInput)
+            throws CharacterCodingException {
+        while (true) {
+            CoderResult result = encoder.encode(chars, out, endOfInput);
+            if (result.isUnderflow()) {
+                return out;
+            }
+            if (result.isOverflow()) {
+                out = grow(out);
+            } else {
+                throwIfError(result);
+            }
+        }
+    }
+
+    private static ByteBuffer grow(ByteBuffer out) {
+        ByteBuffer bigger = ByteBuffer.allocate(out.capacity() * 2 + 16);
+        out.flip();
+        return bigger.put(out);
+    }
+
+    private static void throwIfError(CoderResult result) throws CharacterCodingException {
+        if (result.isError()) {
+            result.throwException();
+        }
+    }
+
+    /**
+     * 顺序转换：逐块读入、解码、编码、写出，用作不能切分时的退路和对照基准
+     */
+    public static long transcodeStream(FileChannel in, FileChannel out, Charset from, Charset to) throws IOException {
+        CharsetDecoder decoder = ThreadLocalCoders.decoder(from);
+        CharsetEncoder encoder = ThreadLocalCoders.encoder(to);
+        ByteBuffer src = ByteBuffer.allocateDirect(1024 * 1024);
+        CharBuffer chars = CharBuffer.allocate(1024 * 1024);
+        ByteBuffer dst = ByteBuffer.allocateDirect(4 * 1024 * 1024);
+        long written = 0;
+        boolean eof = false;
+        while (true) {
+            if (!eof && in.read(src) < 0) {
+                eof = true;
+            }
+            src.flip();
+            CoderResult result = decoder.decode(src, chars, eof);
+            throwIfError(result);
+            if (eof && result.isUnderflow()) {
+                throwIfError(decoder.flush(chars));
+            }
+            src.compact();
+            chars.flip();
+            boolean last = eof && result.isUnderflow();
+            while (true) {
+                CoderResult encoded = encoder.encode(chars, dst, last);
+                throwIfError(encoded);
+                if (last && encoded.isUnderflow()) {
+                    while (encoder.flush(dst).isOverflow()) {
+                        written += drain(out, dst);
+                    }
+                }
+                if (encoded.isUnderflow()) {
+                    break;
+                }
+                written += drain(out, dst);
+            }
+            chars.compact();
+            if (last) {
+                written += drain(out, dst);
+                return written;
+            }
+        }
+    }
+
+    private static long drain(FileChannel out, ByteBuffer dst) throws IOException {
+        dst.flip();
+        long n = dst.remaining();
+        while (dst.hasRemaining()) {
+            out.write(dst);
+        }
+        dst.clear();
+        return n;
+    }
+
+    /**
+     * 判断输入字符集可以在哪里切分
+     */
+    static Split splitOf(Charset charset) {
+        if (charset.equals(StandardCharsets.UTF_8)) {
+            return Split.UTF8;
+        }
+        if (!charset.canEncode() || charset.name().startsWith("ISO-2022")) {
+            return Split.NONE;
+        }
+        CharsetEncoder encoder = charset.newEncoder();
+        if (encoder.maxBytesPerChar() == 1 && charset.newDecoder().maxCharsPerByte() == 1) {
+            return Split.ANYWHERE;
+        }
+        byte[] newline = "\n".getBytes(charset);
+        return newline.length == 1 && newline[0] == '\n' ? Split.NEWLINE : Split.NONE;
+    }
+
+    /**
+     * 分块编码后拼接是否等于整体编码（排除每次编码都写BOM、以及ISO-2022这类带移位状态的编码）
+     */
+    static boolean isStatelessEncoder(Charset charset) {
+        if (!charset.canEncode() || charset.name().startsWith("ISO-2022")) {
+            return false;
+        }
+        byte[] one = "a".getBytes(charset);
+        byte[] two = "aa".getBytes(charset);
+        return two.length == one.length * 2;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("from", from.name());
+        stats.put("to", to.name());
+        stats.put("split", split);
+        stats.put("chunks", chunks);
+        stats.put("bytesIn", bytesIn);
+        stats.put("bytesOut", bytesOut);
+        stats.put("respeculated", respeculated);
+        return stats;
+    }
+
+    /**
+     * 一块的转换结果：[start, limit)是分配的范围，end是实际解码到的位置（可能越过limit几个字节）
+     */
+    private static class Chunk {
+        final long start;
+        final long limit;
+        final long end;
+        final ByteBuffer bytes;
+
+        Chunk(long start, long limit, long end, ByteBuffer bytes) {
+            this.start = start;
+            this.limit = limit;
+            this.end = end;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * 用法：ParallelTranscoder 输入文件 输出文件 [源字符集=GBK] [目标字符集=UTF-8] [块大小MB=8]
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("用法：ParallelTranscoder 输入文件 输出文件 [源字符集=GBK] [目标字符集=UTF-8] [块大小MB=8]");
+            return;
+        }
+        Charset from = Charset.forName(args.length > 2 ? args[2] : "GBK");
+        Charset to = Charset.forName(args.length > 3 ? args[3] : "UTF-8");
+        int chunkMb = args.length > 4 ? Integer.parseInt(args[4]) : 8;
+        ParallelTranscoder transcoder = new ParallelTranscoder(from, to).chunkSize(chunkMb * 1024 * 1024);
+        long start = System.nanoTime();
+        transcoder.transcode(Paths.get(args[0]), Paths.get(args[1]));
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("转换完成，耗时 %.3f 秒，%.1f MB/s，%s", seconds,
+                transcoder.bytesIn / 1048576.0 / seconds, transcoder.stats()));
+    }
+}
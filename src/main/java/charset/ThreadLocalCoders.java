@@ -0,0 +1,46 @@
+package charset;
+
+
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * 按线程复用的CharsetEncoder/CharsetDecoder
+ * 编解码器有内部状态、不能跨线程共享，但创建一个要查表、分配替换字节等，逐条消息新建很浪费；
+ * 这里每个线程每种字符集各缓存一个，取出时reset，错误处理统一为REPLACE（与String的行为一致）。
+ * UTF-8优先用{@link Utf8}，这里用于其他字符集。
+ *
+ * @author MyAcme
+ */
+public final class ThreadLocalCoders {
+
+    private static final ThreadLocal<Map<Charset, CharsetEncoder>> ENCODERS =
+            ThreadLocal.withInitial(IdentityHashMap::new);
+    private static final ThreadLocal<Map<Charset, CharsetDecoder>> DECODERS =
+            ThreadLocal.withInitial(IdentityHashMap::new);
+
+    private ThreadLocalCoders() {
+    }
+
+    /**
+     * 当前线程的编码器，已reset，只能在当前线程使用
+     */
+    public static CharsetEncoder encoder(Charset charset) {
+        return ENCODERS.get().computeIfAbsent(charset, c -> c.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)).reset();
+    }
+
+    /**
+     * 当前线程的解码器，已reset，只能在当前线程使用
+     */
+    public static CharsetDecoder decoder(Charset charset) {
+        return DECODERS.get().computeIfAbsent(charset, c -> c.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)).reset();
+    }
+}
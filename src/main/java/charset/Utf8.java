@@ -0,0 +1,441 @@
+package charset;
+
+
+import io.netty.buffer.ByteBuf;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.MalformedInputException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * UTF-8编解码工具：CharSequence与byte[]/ByteBuffer/ByteBuf之间直接转换
+ *
+ * 逐字符的转换交给String自己做：JDK 9+紧凑字符串的UTF-8编解码对纯ASCII/Latin1内容有内建快速路径
+ * （检查最高位和拷贝都是向量化的内建函数），实测比手写的每次8字节检查快5到10倍（见perf.Utf8Benchmark）。
+ * 本类省掉的是它周围的开销：
+ * 1. 从直接内存（ByteBuffer/ByteBuf）解码时批量拷贝到线程私有的暂存数组再构造String，
+ *    不经过Charset.decode的CharBuffer和新建的CharsetDecoder；
+ * 2. 宽松模式的编码同样用String.getBytes：得到的数组一次批量写进目标缓冲区，代价是每次一个临时byte[]（TLAB上分配，
+ *    很便宜）；换成本类的编码循环逐字符写进目标缓冲区不分配，但实测纯ASCII时慢2到6倍，见perf.Utf8Benchmark。
+ *    {@link #encodedLength}不分配内存计算编码后的长度；
+ * 3. 严格模式（遇到孤立代理字符或非法序列时抛出异常）用自己的编解码循环和线程暂存数组，ASCII部分每次检查8个字节（一个long）。
+ * 暂存数组按线程复用，超过{@link #MAX_CACHED_CHARS}的大文本临时分配，避免线程长期持有大数组。
+ *
+ * 错误处理与JDK一致：编码时孤立的代理字符替换为'?'，解码时非法序列（过长编码、代理区码点、截断、多余的续字节）
+ * 按与new String(bytes, UTF_8)相同的规则替换为U+FFFD；strict系列方法改为抛出MalformedInputException。
+ * 输入不完整时（例如按块读取时末尾截断的多字节字符）用{@link #completeLength}找到最后一个完整字符的边界。
+ *
+ * @author MyAcme
+ */
+public final class Utf8 {
+
+    /**
+     * 线程暂存数组缓存的最大字符数，超过时临时分配
+     */
+    public static final int MAX_CACHED_CHARS = 64 * 1024;
+
+    private static final char REPLACEMENT = '\uFFFD';
+    private static final long ASCII_MASK = 0x8080808080808080L;
+    private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private Utf8() {
+    }
+
+    /**
+     * 线程私有的暂存数组
+     */
+    private static final class Scratch {
+        char[] chars = new char[256];
+        byte[] bytes = new byte[768];
+
+        char[] chars(int length) {
+            if (length <= chars.length) {
+                return chars;
+            }
+            if (length > MAX_CACHED_CHARS) {
+                return new char[length];
+            }
+            return chars = new char[Math.min(MAX_CACHED_CHARS, Integer.highestOneBit(length - 1) << 1)];
+        }
+
+        byte[] bytes(int length) {
+            if (length <= bytes.length) {
+                return bytes;
+            }
+            if (length > MAX_CACHED_CHARS * 3) {
+                return new byte[length];
+            }
+            return bytes = new byte[Math.min(MAX_CACHED_CHARS * 3, Integer.highestOneBit(length - 1) << 1)];
+        }
+    }
+
+    // ---------------- 编码 ----------------
+
+    /**
+     * 编码后的字节数，孤立代理字符按'?'计1字节
+     */
+    public static int encodedLength(CharSequence s) {
+        int length = s.length();
+        int bytes = length;
+        int i = 0;
+        while (i < length && s.charAt(i) < 0x80) {
+            i++;
+        }
+        for (; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                bytes += 1;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                bytes += 2;
+                i++;
+            } else if (!Character.isSurrogate(c)) {
+                bytes += 2;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * 编码为新数组，等同于getBytes(UTF_8)
+     */
+    public static byte[] encode(CharSequence s) {
+        return s.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 编码写入dst（从position开始），返回写入的字节数
+     *
+     * @throws BufferOverflowException dst剩余空间不够，此时dst不变
+     */
+    public static int encode(CharSequence s, ByteBuffer dst) {
+        return encodeTo(s, dst, false);
+    }
+
+    /**
+     * 同{@link #encode(CharSequence, ByteBuffer)}，遇到孤立代理字符抛出异常，此时dst的position不变
+     */
+    public static int encodeStrict(CharSequence s, ByteBuffer dst) throws CharacterCodingException {
+        try {
+            return encodeTo(s, dst, true);
+        } catch (MalformedRuntimeException e) {
+            throw new MalformedInputException(1);
+        }
+    }
+
+    private static int encodeTo(CharSequence s, ByteBuffer dst, boolean strict) {
+        byte[] out;
+        int n;
+        if (strict) {
+            int length = s.length();
+            Scratch scratch = SCRATCH.get();
+            char[] chars = toChars(s, length, scratch);
+            out = scratch.bytes(length * 3);
+            n = encode(chars, 0, length, out, 0, true);
+        } else {
+            out = encode(s);
+            n = out.length;
+        }
+        if (n > dst.remaining()) {
+            throw new BufferOverflowException();
+        }
+        dst.put(out, 0, n);
+        return n;
+    }
+
+    /**
+     * 编码写入dst的writerIndex处（空间不够时自动扩容），返回写入的字节数
+     * 不用ByteBufUtil.writeUtf8：4.1里它在高代理字符后跟非ASCII字符时会写出非法字节
+     */
+    public static int encode(CharSequence s, ByteBuf dst) {
+        byte[] out = encode(s);
+        dst.writeBytes(out);
+        return out.length;
+    }
+
+    /**
+     * 编码chars[sp, sl)写入dst[dp...]，调用方保证dst至少有(sl - sp) * 3字节空间，返回写入的字节数
+     * strict为false时孤立代理字符写为'?'，与String.getBytes一致
+     */
+    static int encode(char[] src, int sp, int sl, byte[] dst, int dp, boolean strict) {
+        int start = dp;
+        while (true) {
+            // ASCII快速路径：8个字符一组
+            while (sp + 8 <= sl && (src[sp] | src[sp + 1] | src[sp + 2] | src[sp + 3]
+                    | src[sp + 4] | src[sp + 5] | src[sp + 6] | src[sp + 7]) < 0x80) {
+                for (int i = 0; i < 8; i++) {
+                    dst[dp + i] = (byte) src[sp + i];
+                }
+                sp += 8;
+                dp += 8;
+            }
+            if (sp >= sl) {
+                return dp - start;
+            }
+            char c = src[sp++];
+            if (c < 0x80) {
+                dst[dp++] = (byte) c;
+            } else if (c < 0x800) {
+                dst[dp++] = (byte) (0xC0 | (c >> 6));
+                dst[dp++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && sp < sl && Character.isLowSurrogate(src[sp])) {
+                    int cp = Character.toCodePoint(c, src[sp++]);
+                    dst[dp++] = (byte) (0xF0 | (cp >> 18));
+                    dst[dp++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    dst[dp++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    dst[dp++] = (byte) (0x80 | (cp & 0x3F));
+                } else if (strict) {
+                    throw new MalformedRuntimeException();
+                } else {
+                    dst[dp++] = '?';
+                }
+            } else {
+                dst[dp++] = (byte) (0xE0 | (c >> 12));
+                dst[dp++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                dst[dp++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private static char[] toChars(CharSequence s, int length, Scratch scratch) {
+        char[] chars = scratch.chars(length);
+        if (s instanceof String) {
+            ((String) s).getChars(0, length, chars, 0);
+        } else if (s instanceof StringBuilder) {
+            ((StringBuilder) s).getChars(0, length, chars, 0);
+        } else if (s instanceof CharBuffer) {
+            ((CharBuffer) s).duplicate().get(chars, 0, length);
+        } else {
+            for (int i = 0; i < length; i++) {
+                chars[i] = s.charAt(i);
+            }
+        }
+        return chars;
+    }
+
+    // ---------------- 解码 ----------------
+
+    /**
+     * 解码bytes[offset, offset + length)
+     */
+    public static String decode(byte[] bytes, int offset, int length) {
+        return decodeArray(bytes, offset, length, false);
+    }
+
+    /**
+     * 解码src的剩余字节，position移到limit
+     */
+    public static String decode(ByteBuffer src) {
+        return decodeBuffer(src, false);
+    }
+
+    /**
+     * 同{@link #decode(ByteBuffer)}，遇到非法序列抛出异常，此时src不变
+     */
+    public static String decodeStrict(ByteBuffer src) throws CharacterCodingException {
+        try {
+            return decodeBuffer(src, true);
+        } catch (MalformedRuntimeException e) {
+            throw new MalformedInputException(1);
+        }
+    }
+
+    /**
+     * 解码src[index, index + length)，不改变读写索引
+     */
+    public static String decode(ByteBuf src, int index, int length) {
+        if (src.hasArray()) {
+            return decodeArray(src.array(), src.arrayOffset() + index, length, false);
+        }
+        byte[] bytes = SCRATCH.get().bytes(length);
+        src.getBytes(index, bytes, 0, length);
+        return decodeArray(bytes, 0, length, false);
+    }
+
+    private static String decodeBuffer(ByteBuffer src, boolean strict) {
+        int length = src.remaining();
+        int position = src.position();
+        String result;
+        if (src.hasArray()) {
+            result = decodeArray(src.array(), src.arrayOffset() + position, length, strict);
+        } else {
+            // 直接内存：一次批量拷贝到暂存数组后按数组解码
+            byte[] bytes = SCRATCH.get().bytes(length);
+            src.duplicate().get(bytes, 0, length);
+            result = decodeArray(bytes, 0, length, strict);
+        }
+        src.position(position + length);
+        return result;
+    }
+
+    private static String decodeArray(byte[] bytes, int offset, int length, boolean strict) {
+        if (!strict) {
+            return new String(bytes, offset, length, StandardCharsets.UTF_8);
+        }
+        int ascii = asciiPrefix(bytes, offset, length);
+        if (ascii == length) {
+            return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+        }
+        char[] chars = SCRATCH.get().chars(length);
+        for (int i = 0; i < ascii; i++) {
+            chars[i] = (char) bytes[offset + i];
+        }
+        int n = decode(bytes, offset + ascii, offset + length, chars, ascii, true);
+        return new String(chars, 0, n);
+    }
+
+    /**
+     * 开头连续ASCII字节的个数，每次检查8个字节
+     */
+    static int asciiPrefix(byte[] bytes, int offset, int length) {
+        int i = 0;
+        while (i + 8 <= length && ((long) LONG_VIEW.get(bytes, offset + i) & ASCII_MASK) == 0) {
+            i += 8;
+        }
+        while (i < length && bytes[offset + i] >= 0) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * 解码src[sp, sl)写入dst[dp...]，调用方保证dst至少有sl - sp个字符的空间，返回dst的结束位置
+     */
+    static int decode(byte[] src, int sp, int sl, char[] dst, int dp, boolean strict) {
+        while (sp < sl) {
+            // ASCII快速路径：8字节一组
+            while (sp + 8 <= sl && ((long) LONG_VIEW.get(src, sp) & ASCII_MASK) == 0) {
+                for (int i = 0; i < 8; i++) {
+                    dst[dp + i] = (char) src[sp + i];
+                }
+                sp += 8;
+                dp += 8;
+            }
+            if (sp >= sl) {
+                break;
+            }
+            int b1 = src[sp++];
+            if (b1 >= 0) {
+                dst[dp++] = (char) b1;
+                continue;
+            }
+            b1 &= 0xFF;
+            if (b1 >= 0xC2 && b1 <= 0xDF) {
+                if (sp < sl && isContinuation(src[sp])) {
+                    dst[dp++] = (char) (((b1 & 0x1F) << 6) | (src[sp++] & 0x3F));
+                    continue;
+                }
+            } else if (b1 >= 0xE0 && b1 <= 0xEF) {
+                // 第二字节的合法范围：E0后A0..BF（排除过长编码）；代理区码点（ED A0..BF）与JDK一样解码完整后整体替换
+                if (sp < sl && secondByteValid(b1, src[sp] & 0xFF)) {
+                    if (sp + 1 < sl && isContinuation(src[sp + 1])) {
+                        char c = (char) (((b1 & 0x0F) << 12) | ((src[sp] & 0x3F) << 6) | (src[sp + 1] & 0x3F));
+                        sp += 2;
+                        if (!Character.isSurrogate(c)) {
+                            dst[dp++] = c;
+                            continue;
+                        }
+                    } else {
+                        sp++;
+                    }
+                }
+            } else if (b1 >= 0xF0 && b1 <= 0xF4) {
+                // F0后90..BF，F4后80..8F（不超过U+10FFFF）
+                if (sp < sl && secondByteValid(b1, src[sp] & 0xFF)) {
+                    if (sp + 1 < sl && isContinuation(src[sp + 1])) {
+                        if (sp + 2 < sl && isContinuation(src[sp + 2])) {
+                            int cp = ((b1 & 0x07) << 18) | ((src[sp] & 0x3F) << 12)
+                                    | ((src[sp + 1] & 0x3F) << 6) | (src[sp + 2] & 0x3F);
+                            dst[dp++] = Character.highSurrogate(cp);
+                            dst[dp++] = Character.lowSurrogate(cp);
+                            sp += 3;
+                            continue;
+                        }
+                        sp += 2;
+                    } else {
+                        sp++;
+                    }
+                }
+            }
+            // 非法序列：已经跳过了它的最大合法前缀，替换为一个U+FFFD
+            if (strict) {
+                throw new MalformedRuntimeException();
+            }
+            dst[dp++] = REPLACEMENT;
+        }
+        return dp;
+    }
+
+    private static boolean isContinuation(byte b) {
+        return (b & 0xC0) == 0x80;
+    }
+
+    private static boolean secondByteValid(int b1, int b2) {
+        switch (b1) {
+            case 0xE0:
+                return b2 >= 0xA0 && b2 <= 0xBF;
+            case 0xF0:
+                return b2 >= 0x90 && b2 <= 0xBF;
+            case 0xF4:
+                return b2 >= 0x80 && b2 <= 0x8F;
+            default:
+                return b2 >= 0x80 && b2 <= 0xBF;
+        }
+    }
+
+    /**
+     * bytes[offset, offset + length)里以完整字符结尾的最大长度：
+     * 末尾是被截断的多字节序列时去掉它（最多3字节），其余情况返回length
+     */
+    public static int completeLength(byte[] bytes, int offset, int length) {
+        int end = offset + length;
+        for (int back = 1; back <= Math.min(3, length); back++) {
+            int b = bytes[end - back] & 0xFF;
+            if ((b & 0xC0) == 0x80) {
+                continue;
+            }
+            int need = b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : b >= 0xC0 ? 2 : 1;
+            return need > back && b >= 0xC0 ? length - back : length;
+        }
+        return length;
+    }
+
+    /**
+     * 同{@link #completeLength(byte[], int, int)}，检查buffer的剩余字节，不改变position
+     */
+    public static int completeLength(ByteBuffer buffer) {
+        int length = buffer.remaining();
+        int end = buffer.limit();
+        for (int back = 1; back <= Math.min(3, length); back++) {
+            int b = buffer.get(end - back) & 0xFF;
+            if ((b & 0xC0) == 0x80) {
+                continue;
+            }
+            int need = b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : b >= 0xC0 ? 2 : 1;
+            return need > back && b >= 0xC0 ? length - back : length;
+        }
+        return length;
+    }
+
+    /**
+     * 编解码内部用于跳出循环的异常，不填充栈
+     */
+    private static final class MalformedRuntimeException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        MalformedRuntimeException() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package file;
+
+
+import charset.Utf8;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 批量写行：编码结果攒在一块大的直接缓冲区里，满了才调用一次FileChannel.write
+ *
+ * Files.write(path, lines)每行经过BufferedWriter -> OutputStreamWriter -> StreamEncoder，
+ * 行被拆成多次小的编码调用，底层8KB缓冲区写满就是一次系统调用。这里：
+ * 1. UTF-8每行用{@link Utf8#encode(CharSequence)}（getBytes，紧凑字符串的快速路径）编码一次，得到的数组批量put进缓冲区，
+ *    放不下时先写出缓冲区；其他字符集用同一个CharsetEncoder直接编码进缓冲区；
+ * 2. 缓冲区默认4MB直接内存，写文件时不再经过JDK的临时直接缓冲区复制；
+ * 3. {@link #write(MappedLineReader.Line)}直接复制原始字节，读一个文件写另一个文件时不解码也不编码。
+ * 行分隔符默认与Files.write相同（System.lineSeparator()）。无法编码的字符写替换字节（Files.write会抛异常）。
+ *
+ * @author MyAcme
+ */
+public class BulkLineWriter implements AutoCloseable {
+
+    public static final int DEFAULT_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final Charset charset;
+    private final boolean utf8;
+    private final CharsetEncoder encoder;
+    private final ByteBuffer buffer;
+    private final byte[] separator;
+
+    private long lines;
+    private long bytes;
+    private long writes;
+
+    private BulkLineWriter(FileChannel channel, Charset charset, int bufferSize, String separator) {
+        this.channel = channel;
+        this.charset = charset;
+        this.utf8 = charset.equals(StandardCharsets.UTF_8);
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.separator = separator.getBytes(charset);
+    }
+
+    public static BulkLineWriter open(Path path) throws IOException {
+        return open(path, StandardCharsets.UTF_8, DEFAULT_BUFFER_SIZE, System.lineSeparator());
+    }
+
+    /**
+     * 打开文件（不存在就创建，存在就清空）
+     */
+    public static BulkLineWriter open(Path path, Charset charset, int bufferSize, String separator)
+            throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        return new BulkLineWriter(channel, charset, bufferSize, separator);
+    }
+
+    /**
+     * 与Files.write(path, lines, charset)等价
+     */
+    public static void write(Path path, Iterable<? extends CharSequence> lines, Charset charset) throws IOException {
+        try (BulkLineWriter writer = open(path, charset, DEFAULT_BUFFER_SIZE, System.lineSeparator())) {
+            writer.writeAll(lines);
+        }
+    }
+
+    /**
+     * 写一行并追加行分隔符
+     */
+    public BulkLineWriter write(CharSequence line) throws IOException {
+        if (utf8) {
+            byte[] encoded = Utf8.encode(line);
+            if (encoded.length > buffer.remaining()) {
+                flush();
+            }
+            if (encoded.length > buffer.remaining()) {
+                writeFully(ByteBuffer.wrap(encoded));
+            } else {
+                buffer.put(encoded);
+            }
+            bytes += encoded.length;
+        } else {
+            encode(line);
+        }
+        return writeSeparator();
+    }
+
+    /**
+     * 写一行的原始字节并追加行分隔符，要求读写两边字符集相同
+     */
+    public BulkLineWriter write(MappedLineReader.Line line) throws IOException {
+        if (line.byteLength() > buffer.remaining()) {
+            flush();
+        }
+        if (line.byteLength() > buffer.remaining()) {
+            writeFully(line.bytes());
+        } else {
+            line.copyTo(buffer);
+        }
+        bytes += line.byteLength();
+        return writeSeparator();
+    }
+
+    public BulkLineWriter writeAll(Iterable<? extends CharSequence> lines) throws IOException {
+        for (CharSequence line : lines) {
+            write(line);
+        }
+        return this;
+    }
+
+    private BulkLineWriter writeSeparator() throws IOException {
+        if (buffer.remaining() < separator.length) {
+            flush();
+        }
+        buffer.put(separator);
+        bytes += separator.length;
+        lines++;
+        return this;
+    }
+
+    /**
+     * 用CharsetEncoder编码，缓冲区满了就写出后继续
+     */
+    private void encode(CharSequence line) throws IOException {
+        CharBuffer chars = CharBuffer.wrap(line);
+        encoder.reset();
+        int start = buffer.position();
+        while (encoder.encode(chars, buffer, true).isOverflow()) {
+            bytes += buffer.position() - start;
+            flush();
+            start = 0;
+        }
+        while (encoder.flush(buffer).isOverflow()) {
+            bytes += buffer.position() - start;
+            flush();
+            start = 0;
+        }
+        bytes += buffer.position() - start;
+    }
+
+    /**
+     * 把缓冲区里的字节写到文件
+     */
+    public void flush() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            channel.write(src);
+        }
+        writes++;
+    }
+
+    public Charset charset() {
+        return charset;
+    }
+
+    public long lines() {
+        return lines;
+    }
+
+    public long bytes() {
+        return bytes;
+    }
+
+    /**
+     * 调用FileChannel.write的批次数
+     */
+    public long writes() {
+        return writes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package file;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * 文件复制引擎：按文件大小和所在文件系统选择复制方式，支持进度回调和从指定偏移续传
+ *
+ * 四种方式：
+ * 1. BUFFERED：一块直接缓冲区循环读写，建立成本最低，小文件用；
+ * 2. TRANSFER：循环调用transferTo，数据在内核里复制（Linux上是sendfile），本地文件系统上的大文件用；
+ *    transferTo一次最多复制2GB左右，不循环的话大文件只复制一部分；
+ * 3. MMAP：按窗口映射源文件再写出，少一次read的复制，transferTo在内核里不可用时JDK自己也是这么退回的；
+ * 4. ASYNC：AsynchronousFileChannel双缓冲，写一块的同时读下一块，读写延迟都高的网络文件系统（NFS、SMB、FUSE）用。
+ * AUTO时按大小和文件系统类型选：小于smallFile用BUFFERED，源或目标在网络文件系统上用ASYNC，其余用TRANSFER。
+ *
+ * 续传：{@link #copy(Path, Path, long)}从offset开始复制，目标文件里offset之前的内容保留；
+ * {@link #resume(Path, Path)}以目标文件的当前长度作为offset（只按长度判断，不校验已有内容）。
+ * 复制完成后目标文件截断到复制结束的位置（正常情况下就是源文件长度）。
+ *
+ * @author MyAcme
+ */
+public class CopyEngine {
+
+    public enum Strategy {
+        AUTO, BUFFERED, TRANSFER, MMAP, ASYNC
+    }
+
+    /**
+     * 进度回调，在复制线程上调用
+     */
+    public interface Progress {
+        void progress(long copied, long total);
+    }
+
+    public static final long DEFAULT_SMALL_FILE = 1024 * 1024;
+
+    /**
+     * 按文件系统类型判断的远程文件系统
+     */
+    private static final String[] REMOTE_TYPES = {"nfs", "nfs4", "cifs", "smb", "smbfs", "smb3", "9p", "fuse", "sshfs"};
+
+    /**
+     * 每个引擎最多缓存多少个目录的文件系统类型
+     */
+    private static final int MAX_CACHED_DIRECTORIES = 1024;
+
+    private static final ThreadLocal<ByteBuffer> BUFFERS = new ThreadLocal<>();
+
+    private Strategy strategy = Strategy.AUTO;
+    private long smallFile = DEFAULT_SMALL_FILE;
+    private int bufferSize = 1024 * 1024;
+    private int chunkSize = 64 * 1024 * 1024;
+    private Progress progress;
+
+    /**
+     * 目录到“是否远程文件系统”的缓存，Files.getFileStore每次都要读挂载表；超过上限就整个清空
+     */
+    private final Map<Path, Boolean> remote = new ConcurrentHashMap<>();
+
+    public CopyEngine strategy(Strategy strategy) {
+        this.strategy = strategy;
+        return this;
+    }
+
+    /**
+     * AUTO时小于这个长度的文件用BUFFERED
+     */
+    public CopyEngine smallFile(long smallFile) {
+        this.smallFile = smallFile;
+        return this;
+    }
+
+    /**
+     * BUFFERED和ASYNC每块的字节数（ASYNC用两块）
+     */
+    public CopyEngine bufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+    /**
+     * TRANSFER每次transferTo和MMAP每个窗口的字节数，也是进度回调的间隔
+     */
+    public CopyEngine chunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    public CopyEngine progress(Progress progress) {
+        this.progress = progress;
+        return this;
+    }
+
+    /**
+     * 复制整个文件，目标存在就覆盖
+     */
+    public Result copy(Path source, Path target) throws IOException {
+        return copy(source, target, 0);
+    }
+
+    /**
+     * 以目标文件当前长度为起点续传；目标比源文件还长时从头复制
+     */
+    public Result resume(Path source, Path target) throws IOException {
+        long offset = Files.exists(target) ? Files.size(target) : 0;
+        return copy(source, target, offset > Files.size(source) ? 0 : offset);
+    }
+
+    /**
+     * 从offset开始复制，目标文件里offset之前的内容保留
+     */
+    public Result copy(Path source, Path target, long offset) throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            long size = in.size();
+            if (offset < 0 || offset > size) {
+                throw new IllegalArgumentException("offset " + offset + " 超出源文件长度 " + size);
+            }
+            Strategy chosen = strategy == Strategy.AUTO ? choose(size - offset, source, target) : strategy;
+            long copied;
+            if (chosen == Strategy.ASYNC) {
+                copied = copyAsync(source, target, offset, size, progress);
+            } else {
+                try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                    switch (chosen) {
+                        case TRANSFER:
+                            copied = copyTransfer(in, out, offset, size, progress);
+                            break;
+                        case MMAP:
+                            copied = copyMapped(in, out, offset, size, progress);
+                            break;
+                        default:
+                            copied = copyBuffered(in, out, offset, size, progress);
+                            break;
+                    }
+                    out.truncate(offset + copied);
+                }
+            }
+            return new Result(chosen, offset, copied, size, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 把in的[position, end)复制到out的相同位置，返回复制的字节数，用于大文件分段并行复制
+     * 每段要用自己打开的通道（TRANSFER会移动out的position）；ASYNC在这里按BUFFERED处理，不触发进度回调
+     */
+    public long copyRange(FileChannel in, FileChannel out, long position, long end) throws IOException {
+        Strategy chosen = strategy;
+        if (chosen == Strategy.AUTO) {
+            chosen = end - position < smallFile ? Strategy.BUFFERED : Strategy.TRANSFER;
+        }
+        switch (chosen) {
+            case TRANSFER:
+                return copyTransfer(in, out, position, end, null);
+            case MMAP:
+                return copyMapped(in, out, position, end, null);
+            default:
+                return copyBuffered(in, out, position, end, null);
+        }
+    }
+
+    /**
+     * AUTO时的选择
+     */
+    Strategy choose(long length, Path source, Path target) throws IOException {
+        if (length < smallFile) {
+            return Strategy.BUFFERED;
+        }
+        if (isRemote(source) || isRemote(target)) {
+            return Strategy.ASYNC;
+        }
+        return Strategy.TRANSFER;
+    }
+
+    /**
+     * 文件所在目录是否在远程文件系统上，按目录缓存
+     */
+    boolean isRemote(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Boolean cached = remote.get(directory);
+        if (cached != null) {
+            return cached;
+        }
+        FileStore store = Files.getFileStore(Files.exists(file) ? file : directory);
+        String type = store.type().toLowerCase(Locale.ROOT);
+        boolean result = false;
+        for (String prefix : REMOTE_TYPES) {
+            if (type.startsWith(prefix)) {
+                result = true;
+                break;
+            }
+        }
+        if (remote.size() >= MAX_CACHED_DIRECTORIES) {
+            remote.clear();
+        }
+        remote.put(directory, result);
+        return result;
+    }
+
+    private long copyBuffered(FileChannel in, FileChannel out, long offset, long size, Progress progress)
+            throws IOException {
+        ByteBuffer buffer = buffer();
+        long position = offset;
+        while (position < size) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), size - position));
+            int n = in.read(buffer, position);
+            if (n < 0) {
+                break;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += out.write(buffer, position);
+            }
+            report(progress, position, size);
+        }
+        return position - offset;
+    }
+
+    /**
+     * 当前线程的直接缓冲区，小文件逐个复制时不用每次都分配、清零一块直接内存
+     */
+    private ByteBuffer buffer() {
+        ByteBuffer buffer = BUFFERS.get();
+        if (buffer == null || buffer.capacity() != bufferSize) {
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+            BUFFERS.set(buffer);
+        }
+        return buffer;
+    }
+
+    private long copyTransfer(FileChannel in, FileChannel out, long offset, long size, Progress progress)
+            throws IOException {
+        long position = offset;
+        out.position(offset);
+        while (position < size) {
+            long n = in.transferTo(position, Math.min(chunkSize, size - position), out);
+            if (n <= 0) {
+                // 源文件在复制过程中被截断
+                break;
+            }
+            position += n;
+            report(progress, position, size);
+        }
+        return position - offset;
+    }
+
+    private long copyMapped(FileChannel in, FileChannel out, long offset, long size, Progress progress)
+            throws IOException {
+        long position = offset;
+        while (position < size) {
+            ByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, position, Math.min(chunkSize, size - position));
+            while (window.hasRemaining()) {
+                position += out.write(window, position);
+            }
+            report(progress, position, size);
+        }
+        return position - offset;
+    }
+
+    /**
+     * 双缓冲：当前块写出的同时读下一块
+     */
+    private long copyAsync(Path source, Path target, long offset, long size, Progress progress) throws IOException {
+        try (AsynchronousFileChannel in = AsynchronousFileChannel.open(source, StandardOpenOption.READ);
+             AsynchronousFileChannel out = AsynchronousFileChannel.open(target, StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE)) {
+            ByteBuffer reading = ByteBuffer.allocateDirect(bufferSize);
+            ByteBuffer writing = ByteBuffer.allocateDirect(bufferSize);
+            long readPosition = offset;
+            long position = offset;
+            Future<Integer> read = size > offset ? in.read(reading, readPosition) : null;
+            while (read != null) {
+                int n = read.get();
+                if (n <= 0) {
+                    break;
+                }
+                readPosition += n;
+                ByteBuffer full = reading;
+                reading = writing;
+                writing = full;
+                writing.flip();
+                reading.clear();
+                read = readPosition < size ? in.read(reading, readPosition) : null;
+                while (writing.hasRemaining()) {
+                    position += out.write(writing, position).get();
+                }
+                report(progress, position, size);
+            }
+            out.truncate(position);
+            return position - offset;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("复制被中断", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    private static void report(Progress progress, long copied, long total) {
+        if (progress != null) {
+            progress.progress(copied, total);
+        }
+    }
+
+    /**
+     * 用法：CopyEngine 源文件 目标文件 [策略=AUTO] [resume]
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("用法：CopyEngine 源文件 目标文件 [AUTO|BUFFERED|TRANSFER|MMAP|ASYNC] [resume]");
+            return;
+        }
+        long[] lastReport = {System.nanoTime()};
+        CopyEngine engine = new CopyEngine()
+                .strategy(args.length > 2 ? Strategy.valueOf(args[2]) : Strategy.AUTO)
+                .progress((copied, total) -> {
+                    long now = System.nanoTime();
+                    if (now - lastReport[0] > 1_000_000_000L || copied == total) {
+                        lastReport[0] = now;
+                        System.out.println(String.format("已复制 %d / %d 字节（%.1f%%）", copied, total,
+                                total == 0 ? 100.0 : copied * 100.0 / total));
+                    }
+                });
+        Path source = Paths.get(args[0]);
+        Path target = Paths.get(args[1]);
+        Result result = args.length > 3 && args[3].equals("resume")
+                ? engine.resume(source, target) : engine.copy(source, target);
+        System.out.println("复制完成: " + result);
+    }
+
+    /**
+     * 一次复制的结果
+     */
+    public static class Result {
+        private final Strategy strategy;
+        private final long offset;
+        private final long copied;
+        private final long size;
+        private final long nanos;
+
+        Result(Strategy strategy, long offset, long copied, long size, long nanos) {
+            this.strategy = strategy;
+            this.offset = offset;
+            this.copied = copied;
+            this.size = size;
+            this.nanos = nanos;
+        }
+
+        public Strategy strategy() {
+            return strategy;
+        }
+
+        public long offset() {
+            return offset;
+        }
+
+        /**
+         * 本次复制的字节数（不含续传前已有的部分）
+         */
+        public long copied() {
+            return copied;
+        }
+
+        public long size() {
+            return size;
+        }
+
+        public long nanos() {
+            return nanos;
+        }
+
+        public Map<String, Object> stats() {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("strategy", strategy);
+            stats.put("offset", offset);
+            stats.put("copied", copied);
+            stats.put("size", size);
+            stats.put("millis", nanos / 1_000_000);
+            stats.put("MB/s", String.format("%.1f", copied / 1048576.0 / Math.max(nanos, 1) * 1e9));
+            return stats;
+        }
+
+        @Override
+        public String toString() {
+            return stats().toString();
+        }
+    }
+}
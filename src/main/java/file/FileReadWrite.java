@@ -2,10 +2,8 @@ package file;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.List;
 
 /**
  * @author ljx
@@ -16,11 +14,17 @@ public class FileReadWrite {
 
     public static void main(String[] args) throws IOException {
         Path path = Paths.get("r0.txt");
-        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
-        for (String line : lines) {
-            System.out.println(line);
-        }
         Path path1 = Paths.get("w0.txt");
-        Files.write(path1, lines, StandardCharsets.UTF_8);
+        //按窗口映射逐行读取，不把整个文件读成List<String>，大文件也只占固定内存
+        //同一字符集原样写出时直接复制行字节，不解码也不编码
+        try (MappedLineReader reader = MappedLineReader.open(path, StandardCharsets.UTF_8,
+                MappedLineReader.DEFAULT_WINDOW_SIZE);
+             BulkLineWriter writer = BulkLineWriter.open(path1, StandardCharsets.UTF_8,
+                     BulkLineWriter.DEFAULT_BUFFER_SIZE, System.lineSeparator())) {
+            for (MappedLineReader.Line line : reader) {
+                System.out.println(line);
+                writer.write(line);
+            }
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,399 @@
+package file;
+
+
+import charset.Utf8;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * 按窗口映射文件的逐行读取，内存占用与文件大小无关
+ *
+ * 文件按windowSize分段映射（FileChannel.map只读），在当前窗口里找换行符，一行跨窗口时
+ * 从这一行的起点重新映射下一个窗口；单行比窗口还长时窗口加倍，超过2GB的单行抛出IOException。
+ * 迭代器每次返回同一个{@link Line}对象，只记录行在窗口里的字节范围，不复制字节、不创建String：
+ * 字节按需从映射区读取，字符在第一次调用length/charAt时才解码（纯ASCII的行不解码，直接按字节取）。
+ * Line只在下一次next之前有效，需要保留时调用toString。
+ *
+ * 行以\n或\r\n结尾，单独的\r不算换行（Files.readAllLines算）；文件末尾没有换行符的最后一行也会返回。
+ * 字符集需要与ASCII兼容、换行符编码为单字节0x0A（UTF-8、GBK、ISO-8859-1等），非法字节按替换字符解码。
+ * 堆上只有当前窗口的MappedByteBuffer对象和一行的解码缓冲区；旧窗口的映射在对象被GC回收时解除。
+ *
+ * @author MyAcme
+ */
+public class MappedLineReader implements Iterable<MappedLineReader.Line>, AutoCloseable {
+
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * 一个窗口最大的字节数，也是一行的长度上限
+     */
+    private static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE - 8;
+
+    private static final long NEWLINES = 0x0A0A0A0A0A0A0A0AL;
+    private static final long LOW_BITS = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    private final FileChannel channel;
+    private final boolean ownsChannel;
+    private final long begin;
+    private final long end;
+    private final Charset charset;
+    private final CharsetDecoder decoder;
+    private final Line line = new Line();
+
+    private int windowSize;
+    private ByteBuffer window;
+    /**
+     * 窗口的复制品，批量复制一行字节时调整它的position/limit，不为每行新建视图
+     */
+    private ByteBuffer view;
+    private long windowStart;
+    private int position;
+    private long lines;
+    private int remaps;
+
+    private MappedLineReader(FileChannel channel, boolean ownsChannel, long begin, long end, Charset charset,
+                             int windowSize) {
+        this.channel = channel;
+        this.ownsChannel = ownsChannel;
+        this.begin = begin;
+        this.end = end;
+        this.windowStart = begin;
+        this.charset = charset;
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.windowSize = windowSize;
+    }
+
+    public static MappedLineReader open(Path path) throws IOException {
+        return open(path, StandardCharsets.UTF_8, DEFAULT_WINDOW_SIZE);
+    }
+
+    public static MappedLineReader open(Path path, Charset charset, int windowSize) throws IOException {
+        checkCharset(charset);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        return new MappedLineReader(channel, true, 0, channel.size(), charset, windowSize);
+    }
+
+    /**
+     * 读取共享通道里[begin, end)范围内的行，begin应在行首；关闭时不关闭通道
+     */
+    public static MappedLineReader range(FileChannel channel, long begin, long end, Charset charset, int windowSize) {
+        checkCharset(charset);
+        return new MappedLineReader(channel, false, begin, end, charset, windowSize);
+    }
+
+    private static void checkCharset(Charset charset) {
+        byte[] newline = "\n".getBytes(charset);
+        if (newline.length != 1 || newline[0] != '\n') {
+            throw new IllegalArgumentException("换行符不是单字节0x0A的字符集不支持: " + charset);
+        }
+    }
+
+    /**
+     * 读下一行，没有了返回null；返回的Line在下一次调用前有效
+     */
+    public Line next() throws IOException {
+        while (true) {
+            if (window == null || (position == window.limit() && windowStart + position < end)) {
+                if (!map(windowStart + position)) {
+                    return null;
+                }
+            }
+            int limit = window.limit();
+            if (position == limit) {
+                return null;
+            }
+            int newline = indexOfNewline(position, limit);
+            if (newline >= 0) {
+                int end = newline > position && window.get(newline - 1) == '\r' ? newline - 1 : newline;
+                line.set(position, end - position);
+                position = newline + 1;
+                lines++;
+                return line;
+            }
+            if (windowStart + limit == end) {
+                // 最后一行没有换行符
+                line.set(position, limit - position);
+                position = limit;
+                lines++;
+                return line;
+            }
+            if (position == 0) {
+                // 整个窗口放不下一行
+                if (window.limit() >= MAX_WINDOW_SIZE) {
+                    throw new IOException("行长度超过" + MAX_WINDOW_SIZE + "字节，无法映射，行首偏移 " + windowStart);
+                }
+                windowSize = (int) Math.min(MAX_WINDOW_SIZE, windowSize * 2L);
+            }
+            if (!map(windowStart + position)) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * 从start开始映射一个窗口
+     */
+    private boolean map(long start) throws IOException {
+        if (start >= end) {
+            return false;
+        }
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, end - start))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        view = window.duplicate();
+        windowStart = start;
+        position = 0;
+        remaps++;
+        return true;
+    }
+
+    /**
+     * [from, limit)里第一个换行符的位置，每次检查8个字节；小端读取保证最低的标志位就是第一个匹配
+     */
+    private int indexOfNewline(int from, int limit) {
+        int i = from;
+        for (; i + 8 <= limit; i += 8) {
+            long word = window.getLong(i) ^ NEWLINES;
+            long found = (word - LOW_BITS) & ~word & HIGH_BITS;
+            if (found != 0) {
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+        }
+        for (; i < limit; i++) {
+            if (window.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public Iterator<Line> iterator() {
+        return new Iterator<Line>() {
+            private Line next;
+            private boolean fetched;
+
+            @Override
+            public boolean hasNext() {
+                if (!fetched) {
+                    try {
+                        next = MappedLineReader.this.next();
+                    } catch (IOException e) {
+                        throw new IllegalStateException("读取失败", e);
+                    }
+                    fetched = true;
+                }
+                return next != null;
+            }
+
+            @Override
+            public Line next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                fetched = false;
+                return next;
+            }
+        };
+    }
+
+    /**
+     * 读取范围的字节数
+     */
+    public long size() {
+        return end - begin;
+    }
+
+    public long lines() {
+        return lines;
+    }
+
+    /**
+     * 映射过的窗口数
+     */
+    public int remaps() {
+        return remaps;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        view = null;
+        if (ownsChannel) {
+            channel.close();
+        }
+    }
+
+    /**
+     * 一行的视图：当前窗口里的字节范围，不含换行符
+     */
+    public final class Line implements CharSequence {
+
+        private int start;
+        private int byteLength;
+        /**
+         * -1未检查，0含非ASCII字节，1纯ASCII
+         */
+        private int ascii;
+        private CharBuffer chars = CharBuffer.allocate(256);
+        private boolean decoded;
+
+        private Line() {
+        }
+
+        private void set(int start, int byteLength) {
+            this.start = start;
+            this.byteLength = byteLength;
+            this.ascii = -1;
+            this.decoded = false;
+        }
+
+        /**
+         * 行首在文件里的字节偏移
+         */
+        public long offset() {
+            return windowStart + start;
+        }
+
+        public int byteLength() {
+            return byteLength;
+        }
+
+        public byte byteAt(int index) {
+            if (index < 0 || index >= byteLength) {
+                throw new IndexOutOfBoundsException("index " + index + ", byteLength " + byteLength);
+            }
+            return window.get(start + index);
+        }
+
+        /**
+         * 行字节的只读视图（共享映射区，不复制）
+         */
+        public ByteBuffer bytes() {
+            ByteBuffer slice = window.duplicate();
+            slice.limit(start + byteLength).position(start);
+            return slice.slice().asReadOnlyBuffer();
+        }
+
+        /**
+         * 把行字节复制到dst
+         */
+        public void copyTo(ByteBuffer dst) {
+            view.limit(start + byteLength).position(start);
+            dst.put(view);
+        }
+
+        /**
+         * 行字节里从from开始第一次出现pattern的位置，没有返回-1，不解码
+         */
+        public int indexOf(byte[] pattern, int from) {
+            int last = byteLength - pattern.length;
+            outer:
+            for (int i = Math.max(0, from); i <= last; i++) {
+                for (int j = 0; j < pattern.length; j++) {
+                    if (window.get(start + i + j) != pattern[j]) {
+                        continue outer;
+                    }
+                }
+                return i;
+            }
+            return -1;
+        }
+
+        public boolean isAscii() {
+            if (ascii < 0) {
+                ascii = 1;
+                int i = 0;
+                for (; i + 8 <= byteLength; i += 8) {
+                    if ((window.getLong(start + i) & HIGH_BITS) != 0) {
+                        ascii = 0;
+                        return false;
+                    }
+                }
+                for (; i < byteLength; i++) {
+                    if (window.get(start + i) < 0) {
+                        ascii = 0;
+                        return false;
+                    }
+                }
+            }
+            return ascii == 1;
+        }
+
+        private CharBuffer decoded() {
+            if (!decoded) {
+                if (chars.capacity() < byteLength) {
+                    chars = CharBuffer.allocate(Math.max(byteLength, chars.capacity() * 2));
+                }
+                view.limit(start + byteLength).position(start);
+                chars.clear();
+                decoder.reset();
+                // 与ASCII兼容的字符集每字节最多解出一个字符，一般不会溢出
+                while (decoder.decode(view, chars, true).isOverflow()) {
+                    chars.flip();
+                    chars = CharBuffer.allocate(chars.capacity() * 2).put(chars);
+                }
+                decoder.flush(chars);
+                chars.flip();
+                decoded = true;
+            }
+            return chars;
+        }
+
+        @Override
+        public int length() {
+            return isAscii() ? byteLength : decoded().remaining();
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (isAscii()) {
+                return (char) byteAt(index);
+            }
+            return decoded().get(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            if (from < 0 || to < from || to > length()) {
+                throw new IndexOutOfBoundsException("from " + from + ", to " + to + ", length " + length());
+            }
+            if (isAscii()) {
+                byte[] bytes = new byte[to - from];
+                view.limit(start + to).position(start + from);
+                view.get(bytes);
+                return new String(bytes, StandardCharsets.ISO_8859_1);
+            }
+            return decoded().subSequence(from, to).toString();
+        }
+
+        @Override
+        public String toString() {
+            if (isAscii()) {
+                byte[] bytes = new byte[byteLength];
+                view.limit(start + byteLength).position(start);
+                view.get(bytes);
+                return new String(bytes, StandardCharsets.ISO_8859_1);
+            }
+            if (charset.equals(StandardCharsets.UTF_8)) {
+                view.limit(start + byteLength).position(start);
+                return Utf8.decode(view);
+            }
+            return decoded().toString();
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package file;
+
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 目录树并行复制/同步：把源目录下的文件复制到目标目录，长度和修改时间都没变的文件跳过
+ *
+ * 调用线程用Files.walkFileTree遍历源目录，边遍历边把复制任务交给ForkJoinPool（工作窃取，
+ * 大量小文件时空闲线程会去别的线程队列里拿任务）：
+ * 1. 小于largeFile的文件一个任务，用{@link CopyEngine#copyRange}整个复制；
+ * 2. 更大的文件按segmentSize切成多段，每段一个任务，各自打开通道按位置复制（{@link CopyEngine#copyRange}），
+ *    最后一段完成时截断到源文件长度、设置修改时间。
+ * 同时在途的任务（一个小文件或一段）不超过maxOutstanding个，满了遍历线程就等，磁盘队列不会被无限加深。
+ *
+ * 跳过判断：目标是普通文件、长度相同、修改时间相同（按毫秒比较）。复制完成后把目标的修改时间设成源文件的，
+ * 复制失败或中途退出的文件修改时间与源不同，下次同步会重新复制。
+ * 只复制和更新，不删除目标里多出来的文件；符号链接按链接本身复制，其他特殊文件跳过。
+ *
+ * 目标里同名的符号链接不会被跟随：要写文件的位置上不是普通文件（或者要建目录的位置上不是目录）时先删掉它，
+ * 目标文件用NOFOLLOW_LINKS打开、修改时间也按链接本身设置，目标目录里预先放的链接不能让复制写到目标树外面。
+ * 单个文件或目录失败（包括遍历线程上的建目录、复制符号链接、截断大文件）只记下来继续同步其他文件，最后一起抛出。
+ *
+ * @author MyAcme
+ */
+public class TreeSync {
+
+    public static final long DEFAULT_LARGE_FILE = 64 * 1024 * 1024;
+    public static final long DEFAULT_SEGMENT_SIZE = 32 * 1024 * 1024;
+
+    private final CopyEngine engine;
+    private int parallelism = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private int maxOutstanding = 16;
+    private long largeFile = DEFAULT_LARGE_FILE;
+    private long segmentSize = DEFAULT_SEGMENT_SIZE;
+
+    private final LongAdder directories = new LongAdder();
+    private final LongAdder files = new LongAdder();
+    private final LongAdder copied = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder segments = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public TreeSync() {
+        this(new CopyEngine());
+    }
+
+    public TreeSync(CopyEngine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * 复制线程数
+     */
+    public TreeSync parallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * 同时在途的复制任务数上限
+     */
+    public TreeSync maxOutstanding(int maxOutstanding) {
+        this.maxOutstanding = maxOutstanding;
+        return this;
+    }
+
+    /**
+     * 不小于这个长度的文件分段并行复制
+     */
+    public TreeSync largeFile(long largeFile) {
+        this.largeFile = largeFile;
+        return this;
+    }
+
+    public TreeSync segmentSize(long segmentSize) {
+        this.segmentSize = segmentSize;
+        return this;
+    }
+
+    /**
+     * 把source目录同步到target目录，全部任务完成后返回；有文件失败时抛出第一个异常，其余的附在suppressed里
+     */
+    public Map<String, Object> sync(Path source, Path target) throws IOException, InterruptedException {
+        reset();
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        Semaphore outstanding = new Semaphore(maxOutstanding);
+        Queue<IOException> errors = new ConcurrentLinkedQueue<>();
+        try {
+            try {
+                Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                        Path to = target.resolve(source.relativize(dir).toString());
+                        try {
+                            if (!dir.equals(source)) {
+                                BasicFileAttributes existing = targetAttributes(to);
+                                if (existing != null && !existing.isDirectory()) {
+                                    Files.delete(to);
+                                }
+                            }
+                            Files.createDirectories(to);
+                        } catch (IOException e) {
+                            // 目标目录建不起来，整个子树都没法复制
+                            failed.increment();
+                            errors.add(e);
+                            return FileVisitResult.SKIP_SUBTREE;
+                        }
+                        directories.increment();
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                        Path to = target.resolve(source.relativize(file).toString());
+                        try {
+                            submit(pool, outstanding, errors, file, to, attrs);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new IOException("同步被中断", e);
+                        } catch (IOException e) {
+                            failed.increment();
+                            errors.add(e);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        failed.increment();
+                        errors.add(e);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } finally {
+                // 拿到全部许可说明所有任务都已结束
+                outstanding.acquire(maxOutstanding);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        if (!errors.isEmpty()) {
+            IOException first = errors.poll();
+            for (IOException e : errors) {
+                first.addSuppressed(e);
+            }
+            throw first;
+        }
+        Map<String, Object> stats = stats();
+        stats.put("millis", (System.nanoTime() - start) / 1_000_000);
+        return stats;
+    }
+
+    /**
+     * 为一个文件提交复制任务，或者判断可以跳过
+     */
+    private void submit(ForkJoinPool pool, Semaphore outstanding, Queue<IOException> errors, Path from, Path to,
+                        BasicFileAttributes attrs) throws IOException, InterruptedException {
+        files.increment();
+        if (attrs.isSymbolicLink()) {
+            if (Files.isSymbolicLink(to) && Files.readSymbolicLink(to).equals(Files.readSymbolicLink(from))) {
+                skipped.increment();
+            } else {
+                Files.copy(from, to, LinkOption.NOFOLLOW_LINKS, StandardCopyOption.REPLACE_EXISTING);
+                copied.increment();
+            }
+            return;
+        }
+        if (!attrs.isRegularFile()) {
+            skipped.increment();
+            return;
+        }
+        BasicFileAttributes existing = targetAttributes(to);
+        if (existing != null && !existing.isRegularFile()) {
+            // 符号链接、目录等：删掉链接本身，不跟随
+            Files.deleteIfExists(to);
+        } else if (existing != null && existing.size() == attrs.size()
+                && existing.lastModifiedTime().toMillis() == attrs.lastModifiedTime().toMillis()) {
+            skipped.increment();
+            return;
+        }
+        long size = attrs.size();
+        FileTime modified = attrs.lastModifiedTime();
+        if (size < largeFile || size == 0) {
+            outstanding.acquire();
+            pool.execute(() -> {
+                try {
+                    try (FileChannel in = FileChannel.open(from, StandardOpenOption.READ);
+                         FileChannel out = FileChannel.open(to, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                 LinkOption.NOFOLLOW_LINKS)) {
+                        if (engine.copyRange(in, out, 0, size) != size) {
+                            throw new IOException("复制 " + from + " 时源文件被截断");
+                        }
+                        out.truncate(size);
+                    }
+                    setLastModifiedTime(to, modified);
+                    copied.increment();
+                    bytes.add(size);
+                } catch (IOException e) {
+                    failed.increment();
+                    errors.add(e);
+                } finally {
+                    outstanding.release();
+                }
+            });
+            return;
+        }
+        // 大文件：先截断到源文件长度，各段再按位置写入
+        try (FileChannel out = FileChannel.open(to, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                LinkOption.NOFOLLOW_LINKS)) {
+            if (out.size() > size) {
+                out.truncate(size);
+            }
+        }
+        int count = (int) ((size + segmentSize - 1) / segmentSize);
+        AtomicInteger remaining = new AtomicInteger(count);
+        for (int i = 0; i < count; i++) {
+            long begin = i * segmentSize;
+            long end = Math.min(size, begin + segmentSize);
+            outstanding.acquire();
+            pool.execute(() -> {
+                try {
+                    try (FileChannel in = FileChannel.open(from, StandardOpenOption.READ);
+                         FileChannel out = FileChannel.open(to, StandardOpenOption.WRITE, LinkOption.NOFOLLOW_LINKS)) {
+                        if (engine.copyRange(in, out, begin, end) != end - begin) {
+                            throw new IOException("复制 " + from + " [" + begin + ", " + end + ") 时源文件被截断");
+                        }
+                    }
+                    segments.increment();
+                    bytes.add(end - begin);
+                    if (remaining.decrementAndGet() == 0) {
+                        setLastModifiedTime(to, modified);
+                        copied.increment();
+                    }
+                } catch (IOException e) {
+                    // 这个文件的修改时间不会被设置，下次同步会重新复制
+                    remaining.set(-count);
+                    failed.increment();
+                    errors.add(e);
+                } finally {
+                    outstanding.release();
+                }
+            });
+        }
+    }
+
+    /**
+     * 目标本身（不跟随符号链接）的属性，不存在时返回null
+     */
+    private static BasicFileAttributes targetAttributes(Path to) throws IOException {
+        try {
+            return Files.readAttributes(to, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 设置修改时间，不跟随符号链接
+     */
+    private static void setLastModifiedTime(Path to, FileTime modified) throws IOException {
+        Files.getFileAttributeView(to, BasicFileAttributeView.class, LinkOption.NOFOLLOW_LINKS)
+                .setTimes(modified, null, null);
+    }
+
+    private void reset() {
+        directories.reset();
+        files.reset();
+        copied.reset();
+        skipped.reset();
+        segments.reset();
+        bytes.reset();
+        failed.reset();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("directories", directories.sum());
+        stats.put("files", files.sum());
+        stats.put("copied", copied.sum());
+        stats.put("skipped", skipped.sum());
+        stats.put("segments", segments.sum());
+        stats.put("bytes", bytes.sum());
+        stats.put("failed", failed.sum());
+        return stats;
+    }
+
+    /**
+     * 用法：TreeSync 源目录 目标目录 [线程数] [在途任务上限=16]
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("用法：TreeSync 源目录 目标目录 [线程数] [在途任务上限=16]");
+            return;
+        }
+        TreeSync sync = new TreeSync();
+        if (args.length > 2) {
+            sync.parallelism(Integer.parseInt(args[2]));
+        }
+        if (args.length > 3) {
+            sync.maxOutstanding(Integer.parseInt(args[3]));
+        }
+        System.out.println("同步完成: " + sync.sync(Paths.get(args[0]), Paths.get(args[1])));
+    }
+}
@@ -1,4 +1,3 @@
-
 package filelock;
 
 
@@ -6,6 +5,8 @@ import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 
 /**
  * @author ljx
@@ -14,14 +15,37 @@ import java.nio.channels.FileLock;
  */
 public class FileLockDemo {
     public static void main(String[] args) throws Exception {
-        RandomAccessFile rafile = new RandomAccessFile("w0.txt", "rw");
-        FileChannel channel = rafile.getChannel();
-        //独占锁
-        FileLock lock = channel.lock();
-        //共享锁 channel.lock(0, Long.MAX_VALUE, false);
-        System.out.println("是否共享锁" + lock.isShared());
-        channel.write(ByteBuffer.wrap("hello world".getBytes()));
-        channel.close();
+        try (RandomAccessFile rafile = new RandomAccessFile("w0.txt", "rw");
+             FileChannel channel = rafile.getChannel()) {
+            //独占锁，锁住整个文件，写完立即释放
+            //共享锁 channel.lock(0, Long.MAX_VALUE, true);
+            try (FileLock lock = channel.lock()) {
+                System.out.println("是否共享锁" + lock.isShared());
+                channel.write(ByteBuffer.wrap("hello world".getBytes()));
+            }
+        }
         System.out.println("文件锁成功");
+
+        //区域锁：两个线程各自锁住、写入不相交的区域，互不等待
+        try (RegionLockManager manager = RegionLockManager.open(Paths.get("w1.txt"), 4096)) {
+            Thread[] writers = new Thread[2];
+            for (int i = 0; i < writers.length; i++) {
+                long position = i * 4096L;
+                writers[i] = new Thread(() -> {
+                    try (RegionLockManager.RegionLock lock = manager.lock(position, 4096, false)) {
+                        manager.channel().write(ByteBuffer.wrap(
+                                ("区域 " + position + "\n").getBytes(StandardCharsets.UTF_8)), position);
+                        System.out.println(Thread.currentThread().getName() + " 持有 " + lock);
+                    } catch (Exception e) {
+                        System.err.println("区域锁写入失败: " + e);
+                    }
+                });
+                writers[i].start();
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            System.out.println("区域锁统计: " + manager.stats());
+        }
     }
 }
@@ -0,0 +1,402 @@
+package filelock;
+
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 文件区域锁管理器：同一个文件的不相交区域可以被多个线程、多个进程同时写
+ *
+ * FileChannel.lock加的是进程级的锁：同一JVM里两个线程锁重叠区域会抛OverlappingFileLockException，
+ * 而不是等待；POSIX记录锁在同一进程内也不互斥。所以这里分两层：
+ * 1. JVM内：文件按stripeSize切成条带，每个条带一个读写状态，线程之间在这里排队（共享/独占，等待中的独占优先）；
+ * 2. 进程间：每个条带第一个持有者加一把只覆盖该条带的FileChannel.lock(位置, 长度, 共享)，
+ *    同一条带的其他共享持有者复用这把锁（引用计数），最后一个持有者释放时解锁。
+ * 条带互不重叠，JVM内永远不会出现重叠的FileLock；一个区域跨多个条带时按条带序号升序加锁，
+ * 使用相同条带大小的线程和进程之间不会死锁。
+ *
+ * 进程间等待用tryLock轮询（1毫秒起退避到10毫秒），这样才能支持超时，等待期间不占用JVM内的任何监视器。
+ * 同一个文件在一个JVM里只应有一个管理器，否则两个管理器的FileLock会互相冲突。
+ * 锁不可重入，同一线程不要同时持有落在同一条带上的两把锁。
+ *
+ * @author MyAcme
+ */
+public class RegionLockManager implements Closeable {
+
+    /**
+     * 默认条带大小
+     */
+    public static final long DEFAULT_STRIPE_SIZE = 64 * 1024;
+
+    private static final long MIN_OS_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long MAX_OS_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final FileChannel channel;
+    private final long stripeSize;
+    private final boolean ownsChannel;
+    private boolean crossProcess = true;
+
+    /**
+     * 正在被使用（持有或等待）的条带，没有使用者时移除
+     */
+    private final ConcurrentHashMap<Long, Stripe> stripes = new ConcurrentHashMap<>();
+
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder contended = new LongAdder();
+    private final LongAdder osWaits = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    /**
+     * @param channel    可读写的文件通道（共享锁要求可读，独占锁要求可写）
+     * @param stripeSize 条带大小，区域锁的实际粒度
+     */
+    public RegionLockManager(FileChannel channel, long stripeSize) {
+        this(channel, stripeSize, false);
+    }
+
+    private RegionLockManager(FileChannel channel, long stripeSize, boolean ownsChannel) {
+        if (stripeSize <= 0) {
+            throw new IllegalArgumentException("条带大小必须大于0: " + stripeSize);
+        }
+        this.channel = channel;
+        this.stripeSize = stripeSize;
+        this.ownsChannel = ownsChannel;
+    }
+
+    /**
+     * 以读写方式打开（不存在则创建）文件，关闭管理器时一并关闭通道
+     */
+    public static RegionLockManager open(Path path, long stripeSize) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new RegionLockManager(channel, stripeSize, true);
+    }
+
+    /**
+     * 是否同时加操作系统文件锁，默认true；只有本JVM访问文件时可以关闭，省掉每次加解锁的系统调用
+     */
+    public RegionLockManager crossProcess(boolean crossProcess) {
+        this.crossProcess = crossProcess;
+        return this;
+    }
+
+    public FileChannel channel() {
+        return channel;
+    }
+
+    public long stripeSize() {
+        return stripeSize;
+    }
+
+    /**
+     * 加锁，一直等到成功
+     */
+    public RegionLock lock(long position, long size, boolean shared) throws IOException, InterruptedException {
+        return acquire(position, size, shared, false, 0);
+    }
+
+    /**
+     * 在timeout内加锁，超时返回null
+     */
+    public RegionLock tryLock(long position, long size, boolean shared, long timeout, TimeUnit unit)
+            throws IOException, InterruptedException {
+        return acquire(position, size, shared, true, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * 立即尝试加锁，JVM内或其他进程持有冲突的锁时返回null
+     */
+    public RegionLock tryLock(long position, long size, boolean shared) throws IOException, InterruptedException {
+        return acquire(position, size, shared, true, System.nanoTime());
+    }
+
+    /**
+     * @param timed    为false时一直等，忽略deadline
+     * @param deadline System.nanoTime()时间的截止点
+     */
+    private RegionLock acquire(long position, long size, boolean shared, boolean timed, long deadline)
+            throws IOException, InterruptedException {
+        if (position < 0 || size <= 0 || position + size < 0) {
+            throw new IllegalArgumentException("区域无效: position=" + position + ", size=" + size);
+        }
+        long first = position / stripeSize;
+        long last = (position + size - 1) / stripeSize;
+        long done = first;
+        try {
+            for (; done <= last; done++) {
+                if (!acquireStripe(done, shared, timed, deadline)) {
+                    timeouts.increment();
+                    return null;
+                }
+            }
+        } finally {
+            if (done <= last) {
+                // 超时或异常：按相反顺序退还已经拿到的条带
+                for (long i = done - 1; i >= first; i--) {
+                    releaseStripe(i, shared);
+                }
+            }
+        }
+        acquired.increment();
+        return new RegionLock(position, size, shared, first, last);
+    }
+
+    /**
+     * 一个条带的状态，所有字段由条带对象的监视器保护
+     */
+    private static final class Stripe {
+        /**
+         * 持有或等待本条带的线程数，由stripes.compute维护，归零时从表中移除
+         */
+        int users;
+        int readers;
+        boolean writer;
+        int waitingWriters;
+        /**
+         * 某个线程正在（监视器外）获取进程间锁，期间其他线程等待
+         */
+        boolean osPending;
+        FileLock osLock;
+    }
+
+    private Stripe retain(long index) {
+        return stripes.compute(index, (k, s) -> {
+            if (s == null) {
+                s = new Stripe();
+            }
+            s.users++;
+            return s;
+        });
+    }
+
+    private void unretain(long index) {
+        stripes.computeIfPresent(index, (k, s) -> --s.users == 0 ? null : s);
+    }
+
+    private boolean acquireStripe(long index, boolean shared, boolean timed, long deadline)
+            throws IOException, InterruptedException {
+        Stripe stripe = retain(index);
+        boolean ok = false;
+        try {
+            boolean needOs;
+            synchronized (stripe) {
+                boolean waited = false;
+                if (!shared) {
+                    stripe.waitingWriters++;
+                }
+                try {
+                    while (shared ? stripe.writer || stripe.osPending || stripe.waitingWriters > 0
+                            : stripe.writer || stripe.osPending || stripe.readers > 0) {
+                        waited = true;
+                        if (!timed) {
+                            stripe.wait();
+                            continue;
+                        }
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            return false;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(stripe, remaining);
+                    }
+                } finally {
+                    if (!shared) {
+                        stripe.waitingWriters--;
+                        // 放弃等待的写线程可能挡住了读线程
+                        stripe.notifyAll();
+                    }
+                }
+                if (waited) {
+                    contended.increment();
+                }
+                if (shared) {
+                    stripe.readers++;
+                } else {
+                    stripe.writer = true;
+                }
+                needOs = crossProcess && stripe.osLock == null;
+                stripe.osPending = needOs;
+            }
+            if (!needOs) {
+                ok = true;
+                return true;
+            }
+            FileLock lock = null;
+            try {
+                lock = lockOs(index, shared, timed, deadline);
+            } finally {
+                synchronized (stripe) {
+                    stripe.osPending = false;
+                    stripe.osLock = lock;
+                    if (lock == null) {
+                        if (shared) {
+                            stripe.readers--;
+                        } else {
+                            stripe.writer = false;
+                        }
+                    }
+                    stripe.notifyAll();
+                }
+            }
+            ok = lock != null;
+            return ok;
+        } finally {
+            if (!ok) {
+                unretain(index);
+            }
+        }
+    }
+
+    /**
+     * 轮询tryLock获取进程间锁，超时返回null
+     */
+    private FileLock lockOs(long index, boolean shared, boolean timed, long deadline)
+            throws IOException, InterruptedException {
+        long backoff = MIN_OS_BACKOFF_NANOS;
+        boolean waited = false;
+        while (true) {
+            FileLock lock = channel.tryLock(index * stripeSize, stripeSize, shared);
+            if (lock != null) {
+                if (waited) {
+                    osWaits.increment();
+                }
+                return lock;
+            }
+            long sleep = backoff;
+            if (timed) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return null;
+                }
+                sleep = Math.min(sleep, remaining);
+            }
+            waited = true;
+            TimeUnit.NANOSECONDS.sleep(sleep);
+            backoff = Math.min(MAX_OS_BACKOFF_NANOS, backoff * 2);
+        }
+    }
+
+    private void releaseStripe(long index, boolean shared) throws IOException {
+        Stripe stripe = stripes.get(index);
+        try {
+            synchronized (stripe) {
+                if (shared) {
+                    stripe.readers--;
+                } else {
+                    stripe.writer = false;
+                }
+                // 在监视器内解锁：解锁前其他线程不能对同一条带再加FileLock
+                if (stripe.readers == 0 && !stripe.writer && stripe.osLock != null) {
+                    FileLock lock = stripe.osLock;
+                    stripe.osLock = null;
+                    lock.release();
+                }
+                stripe.notifyAll();
+            }
+        } finally {
+            unretain(index);
+        }
+    }
+
+    /**
+     * 已持有的区域锁，用完调用release（或try-with-resources）
+     */
+    public final class RegionLock implements AutoCloseable {
+        private final long position;
+        private final long size;
+        private final boolean shared;
+        private final long firstStripe;
+        private final long lastStripe;
+        private boolean valid = true;
+
+        private RegionLock(long position, long size, boolean shared, long firstStripe, long lastStripe) {
+            this.position = position;
+            this.size = size;
+            this.shared = shared;
+            this.firstStripe = firstStripe;
+            this.lastStripe = lastStripe;
+        }
+
+        public long position() {
+            return position;
+        }
+
+        public long size() {
+            return size;
+        }
+
+        public boolean isShared() {
+            return shared;
+        }
+
+        public synchronized boolean isValid() {
+            return valid;
+        }
+
+        public FileChannel channel() {
+            return channel;
+        }
+
+        /**
+         * 释放锁，重复调用无效果
+         */
+        public synchronized void release() throws IOException {
+            if (!valid) {
+                return;
+            }
+            valid = false;
+            IOException failure = null;
+            for (long i = lastStripe; i >= firstStripe; i--) {
+                try {
+                    releaseStripe(i, shared);
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            release();
+        }
+
+        @Override
+        public String toString() {
+            return "RegionLock[" + position + ":" + size + (shared ? " shared" : " exclusive")
+                    + (isValid() ? "" : " invalid") + "]";
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("stripeSize", stripeSize);
+        stats.put("crossProcess", crossProcess);
+        stats.put("acquired", acquired.sum());
+        stats.put("contended", contended.sum());
+        stats.put("osWaits", osWaits.sum());
+        stats.put("timeouts", timeouts.sum());
+        stats.put("activeStripes", stripes.size());
+        return stats;
+    }
+
+    /**
+     * 关闭管理器；通过open创建时关闭通道，通道关闭会释放所有进程间锁
+     */
+    @Override
+    public void close() throws IOException {
+        if (ownsChannel) {
+            channel.close();
+        }
+    }
+}
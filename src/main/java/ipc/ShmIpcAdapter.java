@@ -0,0 +1,198 @@
+package ipc;
+
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalServerChannel;
+import io.netty.util.ReferenceCountUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 把共享内存环接入Netty：环里读出的消息帧原样（CustomProtocol字节格式）送进一条普通的子通道，
+ * 子通道的处理器链由调用方给出，可以直接用TCP服务器的那一套（解码器、业务处理器），处理器不需要知道消息从哪来。
+ *
+ * 实现上在进程内绑定一个LocalServerChannel，子通道用childHandler初始化，再连一个LocalChannel客户端；
+ * 泵线程轮询环，每次把最多{@link #BATCH_FRAMES}帧拷进一个池化ByteBuf后writeAndFlush（空轮询时沿用同一个缓冲区，不重新分配），
+ * 客户端不可写（服务端处理不过来）时暂停轮询，环写满后写入方自然等待，形成端到端背压。
+ * 环里的帧只在poll回调内有效，所以必须拷贝一次；相比TCP回环少了两次系统调用和两次内核拷贝。
+ *
+ * 共享内存环是单向的，处理器写回的响应（例如回显）到达客户端后只计数丢弃。
+ * 写入方关闭且环读空后关闭客户端，子通道随之收到channelInactive。
+ *
+ * @author MyAcme
+ */
+public class ShmIpcAdapter implements AutoCloseable {
+
+    /**
+     * 每批最多拷贝的帧数
+     */
+    static final int BATCH_FRAMES = 256;
+
+    private static final int INITIAL_BATCH_BYTES = 16 * 1024;
+
+    private final ShmRing ring;
+    private final EventLoopGroup group;
+    private final ChannelHandler childHandler;
+
+    private final LongAdder frames = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder replies = new LongAdder();
+    private final LongAdder pauses = new LongAdder();
+
+    private Channel serverChannel;
+    private Channel client;
+    private Thread pump;
+    private volatile boolean running;
+
+    /**
+     * @param ring         读取方的环（{@link ShmRing#create}创建）
+     * @param group        本地通道使用的事件循环组，可以与TCP服务器的worker组共用
+     * @param childHandler 子通道处理器，通常是与TCP服务器相同的ChannelInitializer
+     */
+    public ShmIpcAdapter(ShmRing ring, EventLoopGroup group, ChannelHandler childHandler) {
+        this.ring = ring;
+        this.group = group;
+        this.childHandler = childHandler;
+    }
+
+    /**
+     * 建立本地通道并启动泵线程
+     */
+    public ShmIpcAdapter start() throws InterruptedException {
+        LocalAddress address = new LocalAddress("shm-ipc-" + ring.path().getFileName());
+        serverChannel = new ServerBootstrap()
+                .group(group)
+                .channel(LocalServerChannel.class)
+                .childHandler(childHandler)
+                .bind(address).sync().channel();
+        client = new Bootstrap()
+                .group(group)
+                .channel(LocalChannel.class)
+                .handler(new ReplySink())
+                .connect(address).sync().channel();
+        running = true;
+        pump = new Thread(this::pump, "shm-ipc-" + ring.path().getFileName());
+        pump.setDaemon(true);
+        pump.start();
+        System.out.println("共享内存IPC已接入: " + ring.path() + "，容量 " + ring.capacity() + " 字节");
+        return this;
+    }
+
+    private void pump() {
+        FrameCopier copier = new FrameCopier();
+        int attempt = 0;
+        try {
+            while (running && client.isActive()) {
+                if (!client.isWritable()) {
+                    pauses.increment();
+                    ShmRing.idle(attempt++);
+                    continue;
+                }
+                if (copier.batch == null) {
+                    copier.batch = client.alloc().directBuffer(INITIAL_BATCH_BYTES);
+                }
+                int n = ring.poll(copier, BATCH_FRAMES);
+                if (n > 0) {
+                    frames.add(n);
+                    bytes.add(copier.batch.readableBytes());
+                    batches.increment();
+                    client.writeAndFlush(copier.batch, client.voidPromise());
+                    copier.batch = null;
+                    attempt = 0;
+                    continue;
+                }
+                if (ring.isFinished()) {
+                    System.out.println("共享内存IPC写入方已关闭: " + ring.path());
+                    break;
+                }
+                ShmRing.idle(attempt++);
+            }
+        } catch (Exception e) {
+            System.err.println("共享内存IPC泵线程异常: " + e);
+        } finally {
+            if (copier.batch != null) {
+                copier.batch.release();
+            }
+            client.close();
+        }
+    }
+
+    /**
+     * 把环里的帧按CustomProtocol格式拷进当前批次
+     */
+    private static final class FrameCopier implements ShmRing.FrameHandler {
+        ByteBuf batch;
+
+        @Override
+        public void onFrame(int type, long timestamp, ByteBuffer content) {
+            batch.writeInt(type);
+            batch.writeInt(content.remaining());
+            batch.writeLong(timestamp);
+            batch.writeBytes(content);
+        }
+    }
+
+    /**
+     * 客户端收到的响应：计数后释放
+     */
+    private final class ReplySink extends ChannelInboundHandlerAdapter {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            replies.increment();
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("path", ring.path().toString());
+        stats.put("frames", frames.sum());
+        stats.put("bytes", bytes.sum());
+        stats.put("batches", batches.sum());
+        stats.put("replies", replies.sum());
+        stats.put("pauses", pauses.sum());
+        stats.put("backlog", ring.backlog());
+        return stats;
+    }
+
+    public long frames() {
+        return frames.sum();
+    }
+
+    /**
+     * 停止泵线程，关闭本地通道和环；等待泵线程时被中断仍会等它退出（最多一次退避的时间），关闭完成后恢复中断标志
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        boolean interrupted = false;
+        while (pump != null && pump.isAlive()) {
+            try {
+                pump.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (serverChannel != null) {
+            serverChannel.close().syncUninterruptibly();
+        }
+        ring.close();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
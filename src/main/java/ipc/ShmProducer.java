@@ -0,0 +1,91 @@
+package ipc;
+
+
+import netty.CustomProtocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * 共享内存IPC写入方示例，与读取方在两个JVM里运行：
+ * 先启动 CustomProtocolServer -Dshm.ring=路径（或者本类的reader模式），再启动本类的writer模式，
+ * 写入方按CustomProtocol格式写入count条消息后关闭，读取方处理完后看到结束。
+ *
+ * 用法：
+ * ShmProducer writer [路径=/dev/shm/nio-ipc] [条数=10] [内容字节数=0]   0表示TEXT消息"消息 i"，否则FILE消息，前8字节为序号
+ * ShmProducer reader [路径=/dev/shm/nio-ipc] [容量=1048576]   不经过Netty，直接读环并校验序号
+ *
+ * @author MyAcme
+ */
+public class ShmProducer {
+
+    private static final String DEFAULT_NAME = "nio-ipc";
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "writer";
+        Path path = args.length > 1 ? Paths.get(args[1]) : ShmRing.defaultPath(DEFAULT_NAME);
+        if ("reader".equals(mode)) {
+            read(path, args.length > 2 ? Integer.parseInt(args[2]) : 1024 * 1024);
+        } else {
+            write(path, args.length > 2 ? Long.parseLong(args[2]) : 10, args.length > 3 ? Integer.parseInt(args[3]) : 0);
+        }
+    }
+
+    private static void write(Path path, long count, int payloadSize) throws Exception {
+        ShmRing ring = ShmRing.attach(path, 10_000);
+        System.out.println("已连接共享内存环: " + path + "，容量 " + ring.capacity() + " 字节");
+        // 定长内容是二进制（前8字节为序号），按FILE类型发送
+        int type = (payloadSize > 0 ? CustomProtocol.MessageType.FILE : CustomProtocol.MessageType.TEXT).getValue();
+        ByteBuffer fixed = payloadSize > 0 ? ByteBuffer.allocateDirect(Math.max(8, payloadSize)) : null;
+        long start = System.nanoTime();
+        for (long i = 0; i < count; i++) {
+            ByteBuffer content;
+            if (fixed != null) {
+                fixed.clear();
+                fixed.putLong(0, i);
+                content = fixed;
+            } else {
+                content = ByteBuffer.wrap(("消息 " + i).getBytes(StandardCharsets.UTF_8));
+            }
+            ring.write(type, System.currentTimeMillis(), content);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        ring.closeWriter();
+        System.out.println(String.format("写入 %d 条消息，耗时 %.3f 秒，%.0f 条/秒", count, seconds, count / seconds));
+    }
+
+    /**
+     * 直接读环：FILE类型（定长内容）校验前8字节的序号是否连续
+     */
+    private static void read(Path path, int capacity) throws Exception {
+        ShmRing ring = ShmRing.create(path, capacity);
+        System.out.println("已创建共享内存环: " + path + "，容量 " + ring.capacity() + " 字节，等待写入方...");
+        int fileType = CustomProtocol.MessageType.FILE.getValue();
+        long[] state = new long[2];
+        ShmRing.FrameHandler handler = (type, timestamp, content) -> {
+            if (type == fileType && content.getLong(content.position()) != state[0]) {
+                throw new IllegalStateException("序号不连续，期望 " + state[0] + " 实际 " + content.getLong(content.position()));
+            }
+            state[0]++;
+            state[1] += content.remaining();
+        };
+        long start = 0;
+        int attempt = 0;
+        while (!ring.isFinished()) {
+            if (ring.poll(handler, 1024) > 0) {
+                if (start == 0) {
+                    start = System.nanoTime();
+                }
+                attempt = 0;
+            } else {
+                ShmRing.idle(attempt++);
+            }
+        }
+        double seconds = start == 0 ? 0 : (System.nanoTime() - start) / 1e9;
+        ring.close();
+        System.out.println(String.format("读取 %d 条消息，%d 字节，耗时 %.3f 秒，%.0f 条/秒",
+                state[0], state[1], seconds, seconds > 0 ? state[0] / seconds : 0));
+    }
+}
@@ -0,0 +1,343 @@
+package ipc;
+
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 共享内存环形缓冲区，用于同一台机器上两个进程之间单向传递CustomProtocol消息
+ * 文件用FileChannel.map映射（Linux上放在/dev/shm，数据只在内存里），两个进程映射同一个文件，
+ * 写入方拷进去、发布写游标，读取方看到游标变化后就地读取，全程没有系统调用和内核拷贝。
+ *
+ * 文件布局：
+ * 0     魔数(4) 版本(4) 数据区容量(4)
+ * 64    写游标(8)，只由写入方修改
+ * 128   读游标(8)，只由读取方修改
+ * 192   写入方关闭标记(8)
+ * 4096  数据区，容量为2的幂
+ * 控制字段各占一个缓存行，游标用VarHandle的release/acquire读写，保证对方看到游标时也能看到之前写入的数据。
+ *
+ * 数据区里每条记录就是一帧CustomProtocol消息：类型(4) + 长度(4) + 时间戳(8) + 内容，大端字节序，
+ * 记录按8字节对齐，不跨越数据区末尾：放不下时写一条类型为-1的填充记录（剩余不足16字节时省略）后回到开头。
+ *
+ * 只支持一个写入方和一个读取方，写入方attach时用文件锁独占，第二个写入进程会失败；
+ * 写入方关闭后这个环就结束了，再次通信需要读取方重新create。
+ * 跨进程无法unpark对方，等待方用写/读游标本身作为序号：先自旋，再让出CPU，再逐步加长parkNanos定时检查，
+ * 见{@link #idle(int)}。
+ *
+ * @author MyAcme
+ */
+public class ShmRing implements Closeable {
+
+    /**
+     * CustomProtocol消息头长度：类型(4) + 长度(4) + 时间戳(8)
+     */
+    public static final int HEADER_LENGTH = 16;
+
+    private static final int MAGIC = 0x53484D52;
+    private static final int VERSION = 1;
+    private static final int PADDING_TYPE = -1;
+    private static final int ALIGN = 8;
+
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int WRITE_OFFSET = 64;
+    private static final int READ_OFFSET = 128;
+    private static final int CLOSED_OFFSET = 192;
+    private static final int DATA_OFFSET = 4096;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * 消息帧处理器，content只在本次调用内有效（直接指向共享内存）
+     */
+    public interface FrameHandler {
+        void onFrame(int type, long timestamp, ByteBuffer content) throws Exception;
+    }
+
+    private final Path path;
+    private final FileChannel fileChannel;
+    private final MappedByteBuffer control;
+    private final ByteBuffer data;
+    private final ByteBuffer view;
+    private final int capacity;
+    private final int mask;
+    private FileLock writerLock;
+
+    /**
+     * 写入方：本地写游标和读游标缓存；读取方：本地读游标和写游标缓存
+     */
+    private long localCursor;
+    private long remoteCache;
+
+    private ShmRing(Path path, FileChannel fileChannel, MappedByteBuffer control, int capacity) {
+        this.path = path;
+        this.fileChannel = fileChannel;
+        this.control = control;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        control.limit(DATA_OFFSET + capacity).position(DATA_OFFSET);
+        this.data = control.slice().order(ByteOrder.BIG_ENDIAN);
+        control.clear();
+        this.view = data.duplicate();
+    }
+
+    /**
+     * 读取方创建环：删除已有文件，新建并初始化控制区
+     *
+     * @param capacity 数据区容量，向上取2的幂，不小于4096
+     */
+    public static ShmRing create(Path path, int capacity) throws IOException {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("容量无效: " + capacity);
+        }
+        int size = Math.max(4096, Integer.highestOneBit(capacity - 1) << 1);
+        Files.deleteIfExists(path);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer control = channel.map(FileChannel.MapMode.READ_WRITE, 0, DATA_OFFSET + size);
+        control.putInt(VERSION_OFFSET, VERSION);
+        control.putInt(CAPACITY_OFFSET, size);
+        LONGS.setRelease(control, WRITE_OFFSET, 0L);
+        LONGS.setRelease(control, READ_OFFSET, 0L);
+        LONGS.setRelease(control, CLOSED_OFFSET, 0L);
+        // 魔数最后发布，写入方看到魔数时其他字段都已初始化
+        INTS.setRelease(control, MAGIC_OFFSET, MAGIC);
+        return new ShmRing(path, channel, control, size);
+    }
+
+    /**
+     * 写入方连接到读取方创建的环，文件还不存在或未初始化时最多等待timeoutMillis
+     *
+     * @throws IllegalStateException 已有其他写入方
+     */
+    public static ShmRing attach(Path path, long timeoutMillis) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (!Files.exists(path) || Files.size(path) < DATA_OFFSET) {
+            if (System.nanoTime() > deadline) {
+                throw new IOException("共享内存环不存在或未初始化: " + path);
+            }
+            Thread.sleep(10);
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, DATA_OFFSET);
+        while ((int) INTS.getAcquire(header, MAGIC_OFFSET) != MAGIC) {
+            if (System.nanoTime() > deadline) {
+                channel.close();
+                throw new IOException("共享内存环未初始化: " + path);
+            }
+            Thread.sleep(10);
+        }
+        if (header.getInt(VERSION_OFFSET) != VERSION) {
+            channel.close();
+            throw new IOException("共享内存环版本不匹配: " + header.getInt(VERSION_OFFSET));
+        }
+        int capacity = header.getInt(CAPACITY_OFFSET);
+        ShmRing ring = new ShmRing(path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, DATA_OFFSET + capacity), capacity);
+        try {
+            ring.writerLock = channel.tryLock(WRITE_OFFSET, 8, false);
+        } catch (OverlappingFileLockException e) {
+            ring.writerLock = null;
+        }
+        if (ring.writerLock == null) {
+            channel.close();
+            throw new IllegalStateException("共享内存环已有写入方: " + path);
+        }
+        ring.localCursor = (long) LONGS.getAcquire(ring.control, WRITE_OFFSET);
+        ring.remoteCache = (long) LONGS.getAcquire(ring.control, READ_OFFSET);
+        return ring;
+    }
+
+    /**
+     * 默认位置：Linux上/dev/shm/name（tmpfs，不落盘），否则系统临时目录
+     */
+    public static Path defaultPath(String name) {
+        Path shm = Paths.get("/dev/shm");
+        return Files.isDirectory(shm) ? shm.resolve(name) : Paths.get(System.getProperty("java.io.tmpdir"), name);
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * 单条消息内容的最大字节数
+     */
+    public int maxContentLength() {
+        return capacity / 2 - HEADER_LENGTH;
+    }
+
+    // ---------------- 写入方 ----------------
+
+    /**
+     * 写入一帧，空间不够时立即返回false
+     * 成功时content的剩余字节全部写入，position移到limit
+     */
+    public boolean offer(int type, long timestamp, ByteBuffer content) {
+        int length = content.remaining();
+        if (length > maxContentLength()) {
+            throw new IllegalArgumentException("消息内容超过" + maxContentLength() + "字节: " + length);
+        }
+        int record = align(HEADER_LENGTH + length);
+        long w = localCursor;
+        int index = (int) w & mask;
+        int toEnd = capacity - index;
+        int need = toEnd < record ? toEnd + record : record;
+        if (w + need - remoteCache > capacity) {
+            remoteCache = (long) LONGS.getAcquire(control, READ_OFFSET);
+            if (w + need - remoteCache > capacity) {
+                return false;
+            }
+        }
+        if (toEnd < record) {
+            if (toEnd >= HEADER_LENGTH) {
+                data.putInt(index, PADDING_TYPE);
+                data.putInt(index + 4, toEnd - HEADER_LENGTH);
+            }
+            w += toEnd;
+            index = 0;
+        }
+        data.putInt(index, type);
+        data.putInt(index + 4, length);
+        data.putLong(index + 8, timestamp);
+        view.limit(index + HEADER_LENGTH + length).position(index + HEADER_LENGTH);
+        view.put(content);
+        w += record;
+        localCursor = w;
+        LONGS.setRelease(control, WRITE_OFFSET, w);
+        return true;
+    }
+
+    /**
+     * 写入一帧，空间不够时按{@link #idle}等待读取方腾出空间
+     */
+    public void write(int type, long timestamp, ByteBuffer content) {
+        int attempt = 0;
+        while (!offer(type, timestamp, content)) {
+            idle(attempt++);
+        }
+    }
+
+    /**
+     * 写入方关闭：设置关闭标记，读取方读完剩余消息后看到结束
+     */
+    public void closeWriter() throws IOException {
+        LONGS.setRelease(control, CLOSED_OFFSET, 1L);
+        close();
+    }
+
+    // ---------------- 读取方 ----------------
+
+    /**
+     * 就地处理最多maxFrames帧，处理完再发布读游标，返回处理的帧数
+     * handler抛出异常时，之前正常处理完的帧照常确认，抛出异常的这一帧不确认（下次poll重新交给handler），异常向上抛出
+     */
+    public int poll(FrameHandler handler, int maxFrames) throws Exception {
+        long r = localCursor;
+        if (r == remoteCache) {
+            remoteCache = (long) LONGS.getAcquire(control, WRITE_OFFSET);
+            if (r == remoteCache) {
+                return 0;
+            }
+        }
+        long w = remoteCache;
+        int frames = 0;
+        try {
+            while (r < w && frames < maxFrames) {
+                int index = (int) r & mask;
+                int toEnd = capacity - index;
+                if (toEnd < HEADER_LENGTH) {
+                    r += toEnd;
+                    continue;
+                }
+                int type = data.getInt(index);
+                int length = data.getInt(index + 4);
+                if (type == PADDING_TYPE) {
+                    r += toEnd;
+                    continue;
+                }
+                if (length < 0 || length > toEnd - HEADER_LENGTH) {
+                    throw new IllegalStateException("共享内存环数据损坏，位置 " + r + " 长度 " + length);
+                }
+                long timestamp = data.getLong(index + 8);
+                view.limit(index + HEADER_LENGTH + length).position(index + HEADER_LENGTH);
+                handler.onFrame(type, timestamp, view);
+                // handler正常返回后才算处理完
+                r += align(HEADER_LENGTH + length);
+                frames++;
+            }
+        } finally {
+            localCursor = r;
+            LONGS.setRelease(control, READ_OFFSET, r);
+        }
+        return frames;
+    }
+
+    /**
+     * 写入方已关闭且所有消息都已读完
+     */
+    public boolean isFinished() {
+        if ((long) LONGS.getAcquire(control, CLOSED_OFFSET) == 0) {
+            return false;
+        }
+        return localCursor == (long) LONGS.getAcquire(control, WRITE_OFFSET);
+    }
+
+    /**
+     * 未读字节数（含填充）
+     */
+    public long backlog() {
+        return (long) LONGS.getAcquire(control, WRITE_OFFSET) - (long) LONGS.getAcquire(control, READ_OFFSET);
+    }
+
+    /**
+     * 等待对方的退避：先自旋，再让出CPU，之后parkNanos从1微秒起逐次翻倍，最长1毫秒
+     * 对方只是更新共享内存里的游标，不会唤醒本线程，空闲越久检查间隔越长
+     */
+    public static void idle(int attempt) {
+        if (attempt < SPIN_TRIES) {
+            Thread.onSpinWait();
+        } else if (attempt < SPIN_TRIES + YIELD_TRIES) {
+            Thread.yield();
+        } else {
+            int shift = Math.min(20, attempt - SPIN_TRIES - YIELD_TRIES);
+            LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, 1000L << shift));
+        }
+    }
+
+    private static int align(int length) {
+        return (length + ALIGN - 1) & -ALIGN;
+    }
+
+    /**
+     * 关闭文件通道（映射在缓冲区被回收前保持有效），写入方的文件锁随之释放
+     */
+    @Override
+    public void close() throws IOException {
+        fileChannel.close();
+    }
+}
@@ -0,0 +1,270 @@
+package netty;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 静态文件压缩版本仓库
+ * 每个（文件, 编码）只压缩一次：压缩结果写到临时目录，之后和原文件一样经FileHandleCache零拷贝发送，
+ * 同样的字节不会第二次消耗CPU。文件旁已有更新的.gz预压缩文件时直接使用。
+ *
+ * 首次访问时把压缩任务交给后台线程，压缩完成前仍发送原文，事件循环从不等待压缩；
+ * 也可以在启动时调用{@link #precompress(Path)}预先压缩整个目录。
+ * 压缩后体积超过原文maxRatio的文件记为不值得压缩，以后直接发原文。
+ * 条目数有上限，超出后删除最早生成的压缩文件。
+ *
+ * @author MyAcme
+ */
+public class CompressedVariantStore {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final Path directory;
+    private final int level;
+    private final long minSize;
+    private final double maxRatio;
+    private final int maxVariants;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "compressed-variants");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LinkedHashMap<String, Variant> variants = new LinkedHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder pending = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder sidecars = new LongAdder();
+    private final LongAdder notWorth = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder cpuNanos = new LongAdder();
+
+    /**
+     * @param level       压缩级别，离线压缩通常取9
+     * @param minSize     小于该字节数的文件不压缩
+     * @param maxRatio    压缩后/原文超过该比例时不使用压缩版本
+     * @param maxVariants 最多保留的压缩文件数
+     */
+    public CompressedVariantStore(int level, long minSize, double maxRatio, int maxVariants) throws IOException {
+        this.directory = Files.createTempDirectory("nio-http-variants");
+        this.directory.toFile().deleteOnExit();
+        this.level = level;
+        this.minSize = minSize;
+        this.maxRatio = maxRatio;
+        this.maxVariants = maxVariants;
+    }
+
+    /**
+     * 查找已就绪的压缩版本，未就绪时安排后台压缩并返回null（本次请求发送原文）
+     *
+     * @param source       原文件
+     * @param length       原文件大小
+     * @param lastModified 原文件修改时间，和大小一起判断压缩版本是否过期
+     * @param encoding     {@link HttpCompression#GZIP}或{@link HttpCompression#DEFLATE}
+     */
+    public Path lookup(Path source, long length, long lastModified, String encoding) {
+        if (length < minSize) {
+            return null;
+        }
+        String key = encoding + ':' + source;
+        Variant stale = null;
+        synchronized (this) {
+            Variant variant = variants.get(key);
+            if (variant != null && variant.length == length && variant.lastModified == lastModified) {
+                if (variant.state == State.READY) {
+                    hits.increment();
+                    return variant.path;
+                }
+                if (variant.state == State.PENDING) {
+                    pending.increment();
+                }
+                return null;
+            }
+            if (variant != null) {
+                variants.remove(key);
+                stale = variant;
+            }
+            variant = new Variant(length, lastModified);
+            variants.put(key, variant);
+            evictOverflow();
+            pending.increment();
+            Variant scheduled = variant;
+            executor.execute(() -> create(key, source, encoding, scheduled));
+        }
+        if (stale != null) {
+            stale.delete();
+        }
+        return null;
+    }
+
+    /**
+     * 启动时预先压缩目录下所有可压缩的文件
+     */
+    public void precompress(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && HttpCompression.isCompressible(StaticFileHandler.contentType(file))) {
+                    lookup(file.toAbsolutePath().normalize(), attrs.size(),
+                            attrs.lastModifiedTime().toMillis(), HttpCompression.GZIP);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void create(String key, Path source, String encoding, Variant variant) {
+        try {
+            Path sidecar = source.resolveSibling(source.getFileName() + ".gz");
+            if (encoding.equals(HttpCompression.GZIP) && Files.isRegularFile(sidecar)
+                    && Files.getLastModifiedTime(sidecar).toMillis() >= variant.lastModified) {
+                sidecars.increment();
+                variant.ready(sidecar, false);
+                return;
+            }
+            Path target = Files.createTempFile(directory, "variant-", encoding.equals(HttpCompression.GZIP) ? ".gz" : ".zz");
+            long cpuStart = THREADS.getCurrentThreadCpuTime();
+            try (InputStream in = Files.newInputStream(source);
+                 OutputStream out = compressor(Files.newOutputStream(target), encoding)) {
+                in.transferTo(out);
+            }
+            cpuNanos.add(THREADS.getCurrentThreadCpuTime() - cpuStart);
+            long compressedSize = Files.size(target);
+            bytesIn.add(variant.length);
+            bytesOut.add(compressedSize);
+            if (compressedSize > variant.length * maxRatio) {
+                Files.deleteIfExists(target);
+                notWorth.increment();
+                variant.state = State.NOT_WORTH;
+                return;
+            }
+            created.increment();
+            variant.ready(target, true);
+            synchronized (this) {
+                // 压缩期间条目可能已被淘汰或替换
+                if (variants.get(key) != variant) {
+                    variant.delete();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("生成压缩文件失败: " + source + " " + e);
+            variant.state = State.NOT_WORTH;
+        }
+    }
+
+    private OutputStream compressor(OutputStream out, String encoding) throws IOException {
+        if (encoding.equals(HttpCompression.GZIP)) {
+            return new GZIPOutputStream(out, 64 * 1024) {
+                {
+                    def.setLevel(level);
+                }
+            };
+        }
+        return new DeflaterOutputStream(out, new Deflater(level), 64 * 1024) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                def.end();
+            }
+        };
+    }
+
+    private void evictOverflow() {
+        Iterator<Variant> it = variants.values().iterator();
+        while (variants.size() > maxVariants && it.hasNext()) {
+            Variant eldest = it.next();
+            it.remove();
+            eldest.delete();
+        }
+    }
+
+    /**
+     * 停止后台压缩并删除生成的压缩文件
+     */
+    public void close() {
+        executor.shutdownNow();
+        synchronized (this) {
+            for (Variant variant : variants.values()) {
+                variant.delete();
+            }
+            variants.clear();
+        }
+        try {
+            Files.deleteIfExists(directory);
+        } catch (IOException e) {
+            System.err.println("删除压缩目录失败: " + directory + " " + e);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long in = bytesIn.sum();
+        long out = bytesOut.sum();
+        stats.put("variantHits", hits.sum());
+        stats.put("variantPending", pending.sum());
+        stats.put("variantsCreated", created.sum());
+        stats.put("variantSidecars", sidecars.sum());
+        stats.put("variantsNotWorth", notWorth.sum());
+        stats.put("variantRatio", in == 0 ? 1.0 : (double) out / in);
+        stats.put("variantCpuMillis", cpuNanos.sum() / 1_000_000);
+        return stats;
+    }
+
+    private enum State {
+        PENDING, READY, NOT_WORTH
+    }
+
+    private static final class Variant {
+        final long length;
+        final long lastModified;
+        volatile State state = State.PENDING;
+        volatile Path path;
+        volatile boolean owned;
+
+        Variant(long length, long lastModified) {
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        void ready(Path path, boolean owned) {
+            this.path = path;
+            this.owned = owned;
+            this.state = State.READY;
+        }
+
+        /**
+         * 删除自己生成的压缩文件（已打开的句柄在Unix上仍可读完）；预压缩的.gz文件不删
+         */
+        void delete() {
+            Path p = path;
+            if (p != null && owned) {
+                try {
+                    Files.deleteIfExists(p);
+                } catch (IOException e) {
+                    System.err.println("删除压缩文件失败: " + p + " " + e);
+                }
+            }
+        }
+    }
+}
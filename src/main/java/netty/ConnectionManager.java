@@ -1,17 +1,21 @@
 package netty;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.util.concurrent.GlobalEventExecutor;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 连接管理器
- * 用于管理所有客户端连接
+ * 用于管理所有客户端连接：TCP行协议客户端（{@link NettyServer}）和WebSocket订阅者（{@link WebSocketBridge}），
+ * 广播同时到达两类客户端，每类消息只编码一次
  * @author MyAcme
  */
 public class ConnectionManager {
@@ -26,6 +30,11 @@ public class ConnectionManager {
     private final ChannelGroup allChannels =
             new DefaultChannelGroup("all-channels", GlobalEventExecutor.INSTANCE);
 
+    /**
+     * WebSocket订阅者（HttpServer的/ws路由）
+     */
+    private final WebSocketBridge webSockets = new WebSocketBridge();
+
     /**
      * 连接映射表
      * Key: Channel ID
@@ -70,6 +79,24 @@ public class ConnectionManager {
         System.out.println("添加连接: " + info + ", 当前连接数: " + count);
     }
 
+    /**
+     * 添加WebSocket连接，通道由{@link WebSocketBridge}维护，这里只登记连接信息
+     */
+    public void addWebSocketConnection(Channel channel) {
+        String channelId = channel.id().asShortText();
+
+        ConnectionInfo info = new ConnectionInfo(
+                channelId,
+                "ws:" + channel.remoteAddress(),
+                System.currentTimeMillis()
+        );
+
+        connections.put(channelId, info);
+
+        int count = connectionCounter.incrementAndGet();
+        System.out.println("添加WebSocket连接: " + info + ", 当前连接数: " + count);
+    }
+
     /**
      * 移除连接
      */
@@ -99,6 +126,13 @@ public class ConnectionManager {
         return allChannels;
     }
 
+    /**
+     * WebSocket订阅者桥接，用于挂载路由和调整压缩、水位线等参数
+     */
+    public WebSocketBridge webSockets() {
+        return webSockets;
+    }
+
     /**
      * 获取连接数量
      */
@@ -110,13 +144,19 @@ public class ConnectionManager {
      * 向所有客户端广播消息
      */
     public void broadcast(String message) {
-        if (allChannels.isEmpty()) {
+        if (allChannels.isEmpty() && webSockets.channels().isEmpty()) {
             System.out.println("没有活跃连接，无法广播");
             return;
         }
 
-        System.out.println("广播消息到 " + allChannels.size() + " 个客户端: " + message);
-        allChannels.writeAndFlush(message + "\r\n");
+        System.out.println("广播消息到 " + allChannels.size() + " 个TCP客户端、"
+                + webSockets.channels().size() + " 个WebSocket客户端: " + message);
+        if (!allChannels.isEmpty()) {
+            // 只编码一次，ChannelGroup为每个通道写出retainedDuplicate，不再逐连接经过StringEncoder
+            ByteBuf line = Unpooled.copiedBuffer(message + "\r\n", StandardCharsets.UTF_8);
+            allChannels.writeAndFlush(line);
+        }
+        webSockets.broadcast(message);
     }
 
     /**
@@ -1,12 +1,12 @@
 package netty;
 
 
+import charset.Utf8;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
 import io.netty.handler.codec.MessageToByteEncoder;
 
-import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 /**
@@ -20,7 +20,7 @@ class CustomMessage {
     public CustomMessage(int type, String content) {
         this.type = type;
         this.content = content;
-        this.length = content.getBytes(StandardCharsets.UTF_8).length;
+        this.length = Utf8.encodedLength(content);
     }
 
     // getters and setters
@@ -38,7 +38,7 @@ class CustomEncoder extends MessageToByteEncoder<CustomMessage> {
         // 协议格式: type(4字节) + length(4字节) + content
         out.writeInt(msg.getType());
         out.writeInt(msg.getLength());
-        out.writeBytes(msg.getContent().getBytes(StandardCharsets.UTF_8));
+        Utf8.encode(msg.getContent(), out);
     }
 }
 
@@ -63,9 +63,8 @@ class CustomDecoder extends ByteToMessageDecoder {
             return;
         }
 
-        byte[] contentBytes = new byte[length];
-        in.readBytes(contentBytes);
-        String content = new String(contentBytes, StandardCharsets.UTF_8);
+        String content = Utf8.decode(in, in.readerIndex(), length);
+        in.skipBytes(length);
 
         out.add(new CustomMessage(type, content));
     }
@@ -1,11 +1,11 @@
 package netty;
 
+import charset.Utf8;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
 import io.netty.handler.codec.MessageToByteEncoder;
 
-import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 /**
@@ -62,7 +62,7 @@ public class CustomProtocol {
         public CustomMessage(MessageType type, String content) {
             this.type = type;
             this.content = content;
-            this.length = content.getBytes(StandardCharsets.UTF_8).length;
+            this.length = Utf8.encodedLength(content);
             this.timestamp = System.currentTimeMillis();
         }
 
@@ -113,9 +113,9 @@ public class CustomProtocol {
             // 写入时间戳
             out.writeLong(msg.getTimestamp());
 
-            // 写入数据内容
+            // 写入数据内容（getBytes走紧凑字符串的快速路径，得到的数组一次写进out）
             if (msg.getLength() > 0) {
-                out.writeBytes(msg.getContent().getBytes(StandardCharsets.UTF_8));
+                Utf8.encode(msg.getContent(), out);
             }
 
             System.out.println("编码消息: " + msg);
@@ -173,10 +173,9 @@ public class CustomProtocol {
                 return;
             }
 
-            // 读取消息体
-            byte[] contentBytes = new byte[length];
-            in.readBytes(contentBytes);
-            String content = new String(contentBytes, StandardCharsets.UTF_8);
+            // 读取消息体（直接内存批量拷到线程暂存数组再解码，不为每条消息分配byte[]）
+            String content = Utf8.decode(in, in.readerIndex(), length);
+            in.skipBytes(length);
 
             // 创建消息对象
             MessageType type = MessageType.fromValue(typeValue);
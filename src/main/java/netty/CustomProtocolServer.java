@@ -0,0 +1,150 @@
+package netty;
+
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import ipc.ShmIpcAdapter;
+import ipc.ShmRing;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * 基于CustomProtocol的回显服务器
+ * 收到的每条消息按原类型、原内容回写，心跳消息同样原样返回
+ * 设置系统属性shm.ring=路径时，同时创建共享内存环接收同机进程的消息（见ipc.ShmProducer），
+ * 环里的消息走同一套处理器链，回显结果因环是单向的而被丢弃
+ *
+ * @author MyAcme
+ */
+public class CustomProtocolServer {
+
+    private final int port;
+
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private Channel serverChannel;
+    private ShmIpcAdapter shmAdapter;
+
+    public CustomProtocolServer(int port) {
+        this.port = port;
+    }
+
+    public void start() throws Exception {
+        Channel channel = bind();
+        try {
+            channel.closeFuture().sync();
+        } finally {
+            stop();
+        }
+    }
+
+    /**
+     * 绑定端口并返回服务器通道，不阻塞调用线程
+     * 端口为0时由操作系统分配临时端口
+     */
+    public Channel bind() throws InterruptedException {
+        bossGroup = new NioEventLoopGroup(1);
+        workerGroup = new NioEventLoopGroup();
+
+        ServerBootstrap bootstrap = new ServerBootstrap();
+        bootstrap.group(bossGroup, workerGroup)
+                .channel(NioServerSocketChannel.class)
+                .option(ChannelOption.SO_BACKLOG, 128)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) throws Exception {
+                        initPipeline(ch.pipeline());
+                    }
+                });
+
+        serverChannel = bootstrap.bind(port).sync().channel();
+        System.out.println("CustomProtocol服务器启动，地址: " + serverChannel.localAddress());
+
+        String shmPath = System.getProperty("shm.ring");
+        if (shmPath != null) {
+            int capacity = Integer.getInteger("shm.capacity", 1024 * 1024);
+            try {
+                ShmRing ring = ShmRing.create(Paths.get(shmPath), capacity);
+                shmAdapter = new ShmIpcAdapter(ring, workerGroup, new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        initPipeline(ch.pipeline());
+                    }
+                }).start();
+            } catch (IOException e) {
+                System.err.println("共享内存环创建失败: " + e.getMessage());
+            }
+        }
+        return serverChannel;
+    }
+
+    /**
+     * 初始化子通道的处理器链，也供EmbeddedChannel复用
+     */
+    public static void initPipeline(ChannelPipeline pipeline) {
+        pipeline.addLast(new CustomProtocol.CustomDecoder());
+        pipeline.addLast(new CustomProtocol.CustomEncoder());
+        pipeline.addLast(new EchoHandler());
+    }
+
+    /**
+     * 关闭服务器通道并释放线程组
+     */
+    public void stop() {
+        if (shmAdapter != null) {
+            try {
+                shmAdapter.close();
+            } catch (Exception e) {
+                System.err.println("共享内存IPC关闭异常: " + e.getMessage());
+            }
+        }
+        if (serverChannel != null) {
+            serverChannel.close().syncUninterruptibly();
+        }
+        if (bossGroup != null) {
+            bossGroup.shutdownGracefully().syncUninterruptibly();
+        }
+        if (workerGroup != null) {
+            workerGroup.shutdownGracefully().syncUninterruptibly();
+        }
+    }
+
+    /**
+     * 回显处理器
+     * 只write不flush，由channelReadComplete统一刷新，一次读事件中的多条消息合并成一次系统调用
+     */
+    static class EchoHandler extends SimpleChannelInboundHandler<CustomProtocol.CustomMessage> {
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, CustomProtocol.CustomMessage msg) {
+            ctx.write(msg);
+        }
+
+        @Override
+        public void channelReadComplete(ChannelHandlerContext ctx) {
+            ctx.flush();
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            System.err.println("CustomProtocol服务器异常: " + cause.getMessage());
+            ctx.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 9999;
+        new CustomProtocolServer(port).start();
+    }
+}
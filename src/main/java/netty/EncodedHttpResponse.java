@@ -0,0 +1,122 @@
+package netty;
+
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.DefaultByteBufHolder;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpResponse;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 已经完整编码好的HTTP响应字节（状态行 + 头部 + 正文）
+ * 由{@link HttpServerResponseEncoder}原样写出，跳过逐条编码状态行和头部的开销。
+ * 用于固定路由的预计算响应和响应缓存：同一块缓冲区通过duplicate/retainedDuplicate在所有连接间共享。
+ *
+ * @author MyAcme
+ */
+public class EncodedHttpResponse extends DefaultByteBufHolder {
+
+    private static final int CRLF_SHORT = ('\r' << 8) | '\n';
+    private static final int COLON_AND_SPACE_SHORT = (':' << 8) | ' ';
+
+    public EncodedHttpResponse(ByteBuf content) {
+        super(content);
+    }
+
+    /**
+     * 把完整响应编码为一块常驻的只读直接缓冲区，供常量响应在所有连接间共享
+     * 返回的缓冲区不可释放，写出时用duplicate()即可；底层是JDK直接缓冲区，不再引用后随GC回收
+     */
+    public static ByteBuf encodeShared(FullHttpResponse response) {
+        ByteBuf heap = encode(response, response.content(), Unpooled.buffer(256 + response.content().readableBytes()));
+        try {
+            ByteBuffer direct = ByteBuffer.allocateDirect(heap.readableBytes());
+            heap.readBytes(direct);
+            direct.flip();
+            return Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(direct).asReadOnly());
+        } finally {
+            heap.release();
+        }
+    }
+
+    /**
+     * 把响应头和正文编码进新分配的缓冲区
+     *
+     * @param response 响应头（其中的正文不使用）
+     * @param body     正文，可为空缓冲区；不会修改其读索引
+     * @param alloc    分配器
+     */
+    public static ByteBuf encode(HttpResponse response, ByteBuf body, ByteBufAllocator alloc) {
+        return encode(response, body, alloc.directBuffer(256 + body.readableBytes()));
+    }
+
+    private static ByteBuf encode(HttpResponse response, ByteBuf body, ByteBuf buf) {
+        ByteBufUtil.writeAscii(buf, response.protocolVersion().text());
+        buf.writeByte(' ');
+        buf.writeBytes(response.status().codeAsText().array());
+        buf.writeByte(' ');
+        ByteBufUtil.writeAscii(buf, response.status().reasonPhrase());
+        ByteBufUtil.writeShortBE(buf, CRLF_SHORT);
+        Iterator<Map.Entry<CharSequence, CharSequence>> headers = response.headers().iteratorCharSequence();
+        while (headers.hasNext()) {
+            Map.Entry<CharSequence, CharSequence> header = headers.next();
+            ByteBufUtil.writeAscii(buf, header.getKey());
+            ByteBufUtil.writeShortBE(buf, COLON_AND_SPACE_SHORT);
+            ByteBufUtil.writeAscii(buf, header.getValue());
+            ByteBufUtil.writeShortBE(buf, CRLF_SHORT);
+        }
+        ByteBufUtil.writeShortBE(buf, CRLF_SHORT);
+        buf.writeBytes(body, body.readerIndex(), body.readableBytes());
+        return buf;
+    }
+
+    @Override
+    public EncodedHttpResponse copy() {
+        return (EncodedHttpResponse) super.copy();
+    }
+
+    @Override
+    public EncodedHttpResponse duplicate() {
+        return (EncodedHttpResponse) super.duplicate();
+    }
+
+    @Override
+    public EncodedHttpResponse retainedDuplicate() {
+        return (EncodedHttpResponse) super.retainedDuplicate();
+    }
+
+    @Override
+    public EncodedHttpResponse replace(ByteBuf content) {
+        return new EncodedHttpResponse(content);
+    }
+
+    @Override
+    public EncodedHttpResponse retain() {
+        super.retain();
+        return this;
+    }
+
+    @Override
+    public EncodedHttpResponse retain(int increment) {
+        super.retain(increment);
+        return this;
+    }
+
+    @Override
+    public EncodedHttpResponse touch() {
+        super.touch();
+        return this;
+    }
+
+    @Override
+    public EncodedHttpResponse touch(Object hint) {
+        super.touch(hint);
+        return this;
+    }
+}
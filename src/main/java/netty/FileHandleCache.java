@@ -0,0 +1,210 @@
+package netty;
+
+
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.ReferenceCounted;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 打开的文件句柄与元数据缓存
+ * 静态文件请求命中缓存时不再open/stat/close，只有超过重新校验间隔才重新stat一次，
+ * 发现大小或修改时间变化就换成新句柄。按访问顺序做LRU淘汰，条目数有上限。
+ *
+ * 句柄带引用计数：缓存自身持有一次，每个正在发送的FileRegion再持有一次，
+ * 被淘汰或替换的句柄等在途的发送全部结束后才真正关闭。
+ *
+ * @author MyAcme
+ */
+public class FileHandleCache {
+
+    private final int maxEntries;
+    private final long revalidateMillis;
+
+    private final LinkedHashMap<Path, CachedFile> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxEntries       最多缓存的打开文件数
+     * @param revalidateMillis 元数据重新校验间隔，0表示每次都校验
+     */
+    public FileHandleCache(int maxEntries, long revalidateMillis) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries必须大于0: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.revalidateMillis = revalidateMillis;
+    }
+
+    /**
+     * 取得文件句柄，返回值已retain一次，调用方用完后必须release
+     *
+     * @return 文件不存在或不是普通文件时返回null
+     */
+    public CachedFile acquire(Path path) throws IOException {
+        long now = System.currentTimeMillis();
+        CachedFile stale = null;
+        synchronized (this) {
+            CachedFile cached = entries.get(path);
+            if (cached != null) {
+                if (now - cached.checkedAt < revalidateMillis) {
+                    hits++;
+                    return cached.retain();
+                }
+                stale = cached;
+            }
+        }
+
+        // 重新stat和open都放在锁外，避免阻塞其他事件循环
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            attributes = null;
+        }
+        if (attributes == null || !attributes.isRegularFile()) {
+            if (stale != null) {
+                invalidate(path);
+            }
+            return null;
+        }
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        if (stale != null && stale.length == attributes.size() && stale.lastModified == lastModified) {
+            synchronized (this) {
+                // 期间可能已被淘汰（引用可能已归零），仍在表里才能复用
+                if (entries.get(path) == stale) {
+                    stale.checkedAt = now;
+                    hits++;
+                    return stale.retain();
+                }
+            }
+        }
+
+        CachedFile opened = new CachedFile(path, FileChannel.open(path, StandardOpenOption.READ),
+                attributes.size(), lastModified, now);
+        synchronized (this) {
+            misses++;
+            CachedFile previous = entries.put(path, opened);
+            if (previous != null) {
+                previous.release();
+            }
+            Iterator<CachedFile> it = entries.values().iterator();
+            while (entries.size() > maxEntries && it.hasNext()) {
+                CachedFile eldest = it.next();
+                it.remove();
+                eldest.release();
+                evictions++;
+            }
+            return opened.retain();
+        }
+    }
+
+    /**
+     * 使某个文件的缓存失效（文件被替换时调用）
+     */
+    public synchronized void invalidate(Path path) {
+        CachedFile removed = entries.remove(path);
+        if (removed != null) {
+            removed.release();
+        }
+    }
+
+    /**
+     * 关闭所有缓存的句柄（在途的发送结束后关闭）
+     */
+    public synchronized void clear() {
+        for (CachedFile file : entries.values()) {
+            file.release();
+        }
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("evictions", evictions);
+        stats.put("open", (long) entries.size());
+        return stats;
+    }
+
+    /**
+     * 一个打开的文件及其元数据
+     */
+    public static final class CachedFile extends AbstractReferenceCounted {
+        private final Path path;
+        private final FileChannel channel;
+        private final long length;
+        private final long lastModified;
+        private final String etag;
+        private volatile long checkedAt;
+
+        CachedFile(Path path, FileChannel channel, long length, long lastModified, long checkedAt) {
+            this.path = path;
+            this.channel = channel;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.checkedAt = checkedAt;
+            this.etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+        }
+
+        public Path path() {
+            return path;
+        }
+
+        /**
+         * 共享的文件通道，只能做按位置读写（transferTo/read(buf, position)），不要改动position或关闭
+         */
+        public FileChannel channel() {
+            return channel;
+        }
+
+        public long length() {
+            return length;
+        }
+
+        public long lastModified() {
+            return lastModified;
+        }
+
+        public String etag() {
+            return etag;
+        }
+
+        @Override
+        public CachedFile retain() {
+            super.retain();
+            return this;
+        }
+
+        @Override
+        public ReferenceCounted touch(Object hint) {
+            return this;
+        }
+
+        @Override
+        protected void deallocate() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("关闭文件失败: " + path + " " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package netty;
+
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.http.HttpRequestDecoder;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler;
+import io.netty.handler.codec.http2.DefaultHttp2WindowUpdateFrame;
+import io.netty.handler.codec.http2.Http2CodecUtil;
+import io.netty.handler.codec.http2.Http2Connection;
+import io.netty.handler.codec.http2.Http2FrameCodec;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2ServerUpgradeCodec;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.codec.http2.Http2StreamFrameToHttpObjectCodec;
+import io.netty.util.AsciiString;
+
+import java.util.List;
+
+/**
+ * 明文HTTP/2（h2c）入口
+ * 放在HTTP/1管道最前面，检查连接的头几个字节：
+ * 是HTTP/2连接前言（prior knowledge）就把HTTP/1处理器整体换成HTTP/2帧编解码和多路复用；
+ * 否则移除自己，连接按HTTP/1.1处理，其中带"Upgrade: h2c"的请求由{@link #upgradeHandler}升级。
+ *
+ * 每个HTTP/2流是一个子通道，管道为：流帧与HTTP对象互转 -> {@link Http2StreamResponseAdapter} -> {@link HttpRequestRouter}，
+ * 路由、响应缓存、静态文件等处理器无需区分协议。HPACK头部压缩由帧编解码器完成，动态表大小见{@link Http2ServerConfig}。
+ *
+ * @author MyAcme
+ */
+public class Http2CleartextHandler extends ByteToMessageDecoder {
+
+    private static final ByteBuf PREFACE = Http2CodecUtil.connectionPrefaceBuf();
+
+    private static final Http2StreamFrameToHttpObjectCodec STREAM_CODEC = new Http2StreamFrameToHttpObjectCodec(true);
+
+    private final HttpRoutes routes;
+    private final Http2ServerConfig config;
+
+    public Http2CleartextHandler(HttpRoutes routes, Http2ServerConfig config) {
+        this.routes = routes;
+        this.config = config;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        int prefaceLength = PREFACE.readableBytes();
+        int bytesRead = Math.min(in.readableBytes(), prefaceLength);
+        if (!ByteBufUtil.equals(PREFACE, PREFACE.readerIndex(), in, in.readerIndex(), bytesRead)) {
+            // HTTP/1.x，移除后累积的字节交给HTTP/1解码器
+            ctx.pipeline().remove(this);
+        } else if (bytesRead == prefaceLength) {
+            ChannelPipeline pipeline = ctx.pipeline();
+            addHttp2Handlers(pipeline, ctx.name(), routes, config);
+            // 连同自己一起移除，移除时连接前言和后续帧交给帧编解码器
+            removeHttp1Handlers(pipeline);
+        }
+    }
+
+    /**
+     * 处理"Upgrade: h2c"的升级处理器，放在响应编码器之后、路由之前
+     * 升级时先回101，再把HTTP/1处理器换成HTTP/2，升级请求本身作为流1交给路由
+     */
+    public static HttpServerUpgradeHandler upgradeHandler(HttpRoutes routes, Http2ServerConfig config) {
+        return new HttpServerUpgradeHandler(ctx -> removeHttp1Handlers(ctx.pipeline()), protocol -> {
+            if (!AsciiString.contentEquals(Http2CodecUtil.HTTP_UPGRADE_PROTOCOL_NAME, protocol)) {
+                return null;
+            }
+            return new Http2ServerUpgradeCodec(frameCodec(config), multiplexHandler(routes),
+                    new ConnectionWindowHandler(config.connectionWindow()));
+        }, config.maxUpgradeContentLength());
+    }
+
+    private static void addHttp2Handlers(ChannelPipeline pipeline, String baseName, HttpRoutes routes,
+                                         Http2ServerConfig config) {
+        Http2FrameCodec frameCodec = frameCodec(config);
+        pipeline.addAfter(baseName, "http2FrameCodec", frameCodec);
+        pipeline.addAfter("http2FrameCodec", "http2Multiplex", multiplexHandler(routes));
+        pipeline.addAfter("http2Multiplex", "http2ConnectionWindow", new ConnectionWindowHandler(config.connectionWindow()));
+    }
+
+    private static Http2FrameCodec frameCodec(Http2ServerConfig config) {
+        return Http2FrameCodecBuilder.forServer()
+                .initialSettings(config.settings())
+                .validateHeaders(true)
+                .build();
+    }
+
+    private static Http2MultiplexHandler multiplexHandler(HttpRoutes routes) {
+        ChannelHandler streamInitializer = new ChannelInitializer<Http2StreamChannel>() {
+            @Override
+            protected void initChannel(Http2StreamChannel ch) {
+                ch.pipeline().addLast(STREAM_CODEC)
+                        .addLast(Http2StreamResponseAdapter.INSTANCE)
+                        .addLast(new HttpRequestRouter(routes));
+            }
+        };
+        // 第二个参数处理升级请求所在的流1
+        return new Http2MultiplexHandler(streamInitializer, streamInitializer);
+    }
+
+    private static void removeHttp1Handlers(ChannelPipeline pipeline) {
+        removeIfPresent(pipeline, Http2CleartextHandler.class);
+        removeIfPresent(pipeline, HttpRequestDecoder.class);
+        removeIfPresent(pipeline, HttpServerResponseEncoder.class);
+        removeIfPresent(pipeline, HttpPipeliningHandler.class);
+        removeIfPresent(pipeline, HttpRequestRouter.class);
+    }
+
+    private static void removeIfPresent(ChannelPipeline pipeline, Class<? extends ChannelHandler> type) {
+        if (pipeline.get(type) != null) {
+            pipeline.remove(type);
+        }
+    }
+
+    /**
+     * 把连接级接收窗口扩大到配置值
+     * HTTP/2规定连接窗口初始为65535且只能用WINDOW_UPDATE扩大，帧编解码器只按流窗口做了有限扩大
+     */
+    private static final class ConnectionWindowHandler extends ChannelInboundHandlerAdapter {
+
+        private final int connectionWindow;
+
+        ConnectionWindowHandler(int connectionWindow) {
+            this.connectionWindow = connectionWindow;
+        }
+
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) {
+            Http2Connection connection = ctx.pipeline().get(Http2FrameCodec.class).connection();
+            int current = connection.local().flowController().windowSize(connection.connectionStream());
+            if (connectionWindow > current) {
+                ctx.writeAndFlush(new DefaultHttp2WindowUpdateFrame(connectionWindow - current));
+            }
+            ctx.pipeline().remove(this);
+        }
+    }
+}
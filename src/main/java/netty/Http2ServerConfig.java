@@ -0,0 +1,93 @@
+package netty;
+
+
+import io.netty.handler.codec.http2.Http2CodecUtil;
+import io.netty.handler.codec.http2.Http2Settings;
+
+/**
+ * HTTP/2服务端参数
+ * 并发流上限、流级/连接级流控窗口、最大帧和HPACK动态表大小。
+ * 连接级窗口大于协议初始值65535时，在连接建立后用WINDOW_UPDATE扩大。
+ *
+ * @author MyAcme
+ */
+public class Http2ServerConfig {
+
+    private long maxConcurrentStreams = 256;
+    private int initialStreamWindow = 1024 * 1024;
+    private int connectionWindow = 8 * 1024 * 1024;
+    private int maxFrameSize = Http2CodecUtil.DEFAULT_MAX_FRAME_SIZE;
+    private long headerTableSize = Http2CodecUtil.DEFAULT_HEADER_TABLE_SIZE;
+    private long maxHeaderListSize = 16 * 1024;
+    private int maxUpgradeContentLength = 64 * 1024;
+
+    /**
+     * 单个连接上同时打开的流数上限
+     */
+    public Http2ServerConfig maxConcurrentStreams(long maxConcurrentStreams) {
+        this.maxConcurrentStreams = maxConcurrentStreams;
+        return this;
+    }
+
+    /**
+     * 每个流的初始接收窗口（字节）
+     */
+    public Http2ServerConfig initialStreamWindow(int initialStreamWindow) {
+        this.initialStreamWindow = initialStreamWindow;
+        return this;
+    }
+
+    /**
+     * 连接级接收窗口（字节），所有流共享
+     */
+    public Http2ServerConfig connectionWindow(int connectionWindow) {
+        this.connectionWindow = connectionWindow;
+        return this;
+    }
+
+    public Http2ServerConfig maxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+        return this;
+    }
+
+    /**
+     * HPACK动态表大小
+     */
+    public Http2ServerConfig headerTableSize(long headerTableSize) {
+        this.headerTableSize = headerTableSize;
+        return this;
+    }
+
+    public Http2ServerConfig maxHeaderListSize(long maxHeaderListSize) {
+        this.maxHeaderListSize = maxHeaderListSize;
+        return this;
+    }
+
+    /**
+     * 通过Upgrade升级时，升级请求体最多聚合的字节数
+     */
+    public Http2ServerConfig maxUpgradeContentLength(int maxUpgradeContentLength) {
+        this.maxUpgradeContentLength = maxUpgradeContentLength;
+        return this;
+    }
+
+    public int connectionWindow() {
+        return connectionWindow;
+    }
+
+    public int maxUpgradeContentLength() {
+        return maxUpgradeContentLength;
+    }
+
+    /**
+     * 服务端在SETTINGS帧里通告的参数
+     */
+    public Http2Settings settings() {
+        return Http2Settings.defaultSettings()
+                .maxConcurrentStreams(maxConcurrentStreams)
+                .initialWindowSize(initialStreamWindow)
+                .maxFrameSize(maxFrameSize)
+                .headerTableSize(headerTableSize)
+                .maxHeaderListSize(maxHeaderListSize);
+    }
+}
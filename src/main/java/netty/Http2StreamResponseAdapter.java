@@ -0,0 +1,153 @@
+package netty;
+
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpHeadersFactory;
+import io.netty.handler.codec.http.EmptyHttpHeaders;
+import io.netty.handler.codec.http.HttpChunkedInput;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.stream.ChunkedInput;
+import io.netty.util.AsciiString;
+
+/**
+ * HTTP/2流上的响应适配（出站，位于路由和流帧编解码器之间）
+ * 路由层按HTTP/1写出{@link HttpPipeliningHandler.HttpPipelinedResponse}，一个流只有一个请求，不需要排序，
+ * 这里直接拆开依次写出，再按HTTP/2的需要转换其中的部分：
+ * 预编码的{@link EncodedHttpResponse}解析回响应对象（HTTP/2的头部要经HPACK重新编码），正文切片不拷贝；
+ * 字节块形式的ChunkedInput包装成HttpContent，以便流帧编解码器转成DATA帧。
+ * Connection等逐跳头部由编解码器在转换时去掉。
+ *
+ * @author MyAcme
+ */
+@Sharable
+public class Http2StreamResponseAdapter extends ChannelOutboundHandlerAdapter {
+
+    static final Http2StreamResponseAdapter INSTANCE = new Http2StreamResponseAdapter();
+
+    /**
+     * 头部来自本进程预编码的响应，不需要再校验名称和值
+     */
+    private static final DefaultHttpHeadersFactory HEADERS = DefaultHttpHeadersFactory.headersFactory()
+            .withValidation(false);
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        if (!(msg instanceof HttpPipeliningHandler.HttpPipelinedResponse)) {
+            ctx.write(adapt(msg), promise);
+            return;
+        }
+        HttpPipeliningHandler.HttpPipelinedResponse response = (HttpPipeliningHandler.HttpPipelinedResponse) msg;
+        Object[] parts = response.parts;
+        for (int i = 0; i < parts.length - 1; i++) {
+            ctx.write(adapt(parts[i]), ctx.voidPromise());
+        }
+        // 出错响应（keepAlive为false）写完后只关闭这个流，连接上的其他流不受影响
+        boolean closeAfter = !response.keepAlive && !response.interim;
+        ChannelFuture future = ctx.write(adapt(parts[parts.length - 1]), closeAfter ? promise.unvoid() : promise);
+        if (closeAfter) {
+            future.addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object adapt(Object part) {
+        if (part instanceof EncodedHttpResponse) {
+            return decode((EncodedHttpResponse) part);
+        }
+        if (part instanceof ChunkedInput && !(part instanceof HttpChunkedInput)) {
+            return new ContentChunks((ChunkedInput<ByteBuf>) part);
+        }
+        return part;
+    }
+
+    /**
+     * 把预编码的HTTP/1响应字节解析回FullHttpResponse，正文为原缓冲区的切片
+     */
+    static DefaultFullHttpResponse decode(EncodedHttpResponse encoded) {
+        ByteBuf buf = encoded.content();
+        try {
+            int end = buf.writerIndex();
+            int lineEnd = buf.indexOf(buf.readerIndex(), end, (byte) '\n');
+            int codeStart = buf.indexOf(buf.readerIndex(), lineEnd, (byte) ' ') + 1;
+            int code = (buf.getByte(codeStart) - '0') * 100 + (buf.getByte(codeStart + 1) - '0') * 10
+                    + (buf.getByte(codeStart + 2) - '0');
+            HttpHeaders headers = HEADERS.newHeaders();
+            int index = lineEnd + 1;
+            while ((lineEnd = buf.indexOf(index, end, (byte) '\n')) - index > 1) {
+                int colon = buf.indexOf(index, lineEnd, (byte) ':');
+                int valueStart = colon + 1;
+                while (buf.getByte(valueStart) == ' ') {
+                    valueStart++;
+                }
+                headers.add(ascii(buf, index, colon), ascii(buf, valueStart, lineEnd - 1));
+                index = lineEnd + 1;
+            }
+            int bodyStart = lineEnd + 1;
+            return new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.valueOf(code),
+                    buf.retainedSlice(bodyStart, end - bodyStart), headers, EmptyHttpHeaders.INSTANCE);
+        } finally {
+            encoded.release();
+        }
+    }
+
+    private static AsciiString ascii(ByteBuf buf, int start, int end) {
+        return new AsciiString(ByteBufUtil.getBytes(buf, start, end - start), false);
+    }
+
+    /**
+     * 把产出ByteBuf的ChunkedInput包装为产出HttpContent，结束标记由随后写出的LastHttpContent负责
+     */
+    private static final class ContentChunks implements ChunkedInput<HttpContent> {
+
+        private final ChunkedInput<ByteBuf> input;
+
+        ContentChunks(ChunkedInput<ByteBuf> input) {
+            this.input = input;
+        }
+
+        @Override
+        public boolean isEndOfInput() throws Exception {
+            return input.isEndOfInput();
+        }
+
+        @Override
+        public void close() throws Exception {
+            input.close();
+        }
+
+        @Deprecated
+        @Override
+        public HttpContent readChunk(ChannelHandlerContext ctx) throws Exception {
+            return readChunk(ctx.alloc());
+        }
+
+        @Override
+        public HttpContent readChunk(ByteBufAllocator allocator) throws Exception {
+            ByteBuf chunk = input.readChunk(allocator);
+            return chunk == null ? null : new DefaultHttpContent(chunk);
+        }
+
+        @Override
+        public long length() {
+            return input.length();
+        }
+
+        @Override
+        public long progress() {
+            return input.progress();
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package netty;
+
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * HTTP压缩策略与指标
+ * 按Accept-Encoding协商gzip/deflate（gzip优先，q=0视为拒绝）。
+ * 动态响应只有正文超过阈值、内容类型可压缩、且当前事件循环线程还有CPU余量时才压缩：
+ * 每个线程每隔一个采样窗口取一次线程CPU时间，算出最近窗口的CPU占用率，超过上限就直接发送原文，
+ * 把CPU让给收发。压缩在池化直接缓冲区上进行，Deflater按线程复用。
+ * 静态文件的压缩版本由{@link CompressedVariantStore}离线生成并零拷贝发送，不走这里。
+ *
+ * @author MyAcme
+ */
+public class HttpCompression {
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    /**
+     * CPU占用率采样窗口
+     */
+    private static final long SAMPLE_WINDOW_NANOS = 100_000_000L;
+
+    private final int minSize;
+    private final int level;
+    private final double maxCpuUtilization;
+    private final CompressedVariantStore variants;
+
+    private final LongAdder compressed = new LongAdder();
+    private final LongAdder skippedSmall = new LongAdder();
+    private final LongAdder skippedBusy = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder cpuNanos = new LongAdder();
+
+    private final FastThreadLocal<Deflater[]> deflaters = new FastThreadLocal<Deflater[]>() {
+        @Override
+        protected Deflater[] initialValue() {
+            return new Deflater[]{new Deflater(level, true), new Deflater(level, false)};
+        }
+
+        @Override
+        protected void onRemoval(Deflater[] value) {
+            value[0].end();
+            value[1].end();
+        }
+    };
+
+    private final FastThreadLocal<CpuSample> samples = new FastThreadLocal<CpuSample>() {
+        @Override
+        protected CpuSample initialValue() {
+            return new CpuSample();
+        }
+    };
+
+    /**
+     * @param minSize           动态响应压缩的最小正文字节数
+     * @param level             压缩级别（1-9）
+     * @param maxCpuUtilization 事件循环线程CPU占用率高于该值时跳过动态压缩，取值0-1，1表示不限制
+     * @param variants          静态文件压缩版本仓库，可为null
+     */
+    public HttpCompression(int minSize, int level, double maxCpuUtilization, CompressedVariantStore variants) {
+        this.minSize = minSize;
+        this.level = level;
+        this.maxCpuUtilization = maxCpuUtilization;
+        this.variants = variants;
+        if (maxCpuUtilization < 1 && THREADS.isCurrentThreadCpuTimeSupported() && !THREADS.isThreadCpuTimeEnabled()) {
+            THREADS.setThreadCpuTimeEnabled(true);
+        }
+    }
+
+    public CompressedVariantStore variants() {
+        return variants;
+    }
+
+    /**
+     * 按Accept-Encoding选出编码，客户端不接受任何支持的编码时返回null
+     */
+    public static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        float gzip = -1;
+        float deflate = -1;
+        float any = -1;
+        for (String part : acceptEncoding.split(",")) {
+            String coding = part.trim();
+            float q = 1;
+            int semicolon = coding.indexOf(';');
+            if (semicolon >= 0) {
+                String param = coding.substring(semicolon + 1).trim();
+                coding = coding.substring(0, semicolon).trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Float.parseFloat(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            coding = coding.toLowerCase(Locale.ROOT);
+            if (coding.equals(GZIP) || coding.equals("x-gzip")) {
+                gzip = q;
+            } else if (coding.equals(DEFLATE)) {
+                deflate = q;
+            } else if (coding.equals("*")) {
+                any = q;
+            }
+        }
+        if (gzip < 0) {
+            gzip = any;
+        }
+        if (deflate < 0) {
+            deflate = any;
+        }
+        if (gzip > 0 && gzip >= deflate) {
+            return GZIP;
+        }
+        return deflate > 0 ? DEFLATE : null;
+    }
+
+    /**
+     * 文本类内容才值得压缩，图片、压缩包等本身已压缩
+     */
+    public static boolean isCompressible(CharSequence contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.toString().toLowerCase(Locale.ROOT);
+        return type.startsWith("text/") || type.startsWith("application/json")
+                || type.startsWith("application/javascript") || type.startsWith("application/xml")
+                || type.startsWith("image/svg+xml") || type.startsWith("application/wasm");
+    }
+
+    /**
+     * 视条件压缩动态响应正文，压缩后替换正文并设置Content-Encoding和Vary
+     *
+     * @return 压缩后的响应（原响应已释放），或未压缩时的原响应
+     */
+    FullHttpResponse maybeCompress(HttpExchange exchange, FullHttpResponse response, ByteBufAllocator alloc) {
+        HttpHeaders headers = response.headers();
+        if (exchange.isHead() || headers.contains(HttpHeaderNames.CONTENT_ENCODING)
+                || !isCompressible(headers.get(HttpHeaderNames.CONTENT_TYPE))) {
+            return response;
+        }
+        String encoding = negotiate(exchange.request().headers().get(HttpHeaderNames.ACCEPT_ENCODING));
+        if (encoding == null) {
+            return response;
+        }
+        headers.add(HttpHeaderNames.VARY, HttpHeaderNames.ACCEPT_ENCODING);
+        ByteBuf body = response.content();
+        if (body.readableBytes() < minSize) {
+            skippedSmall.increment();
+            return response;
+        }
+        if (isBusy()) {
+            skippedBusy.increment();
+            return response;
+        }
+        long cpuStart = THREADS.getCurrentThreadCpuTime();
+        ByteBuf out = compress(body, encoding, alloc);
+        cpuNanos.add(THREADS.getCurrentThreadCpuTime() - cpuStart);
+        compressed.increment();
+        bytesIn.add(body.readableBytes());
+        bytesOut.add(out.readableBytes());
+
+        FullHttpResponse result = response.replace(out);
+        response.release();
+        result.headers().set(HttpHeaderNames.CONTENT_ENCODING,
+                encoding.equals(GZIP) ? HttpHeaderValues.GZIP : HttpHeaderValues.DEFLATE);
+        return result;
+    }
+
+    /**
+     * 当前线程最近一个采样窗口的CPU占用率是否超过上限
+     */
+    boolean isBusy() {
+        if (maxCpuUtilization >= 1 || !THREADS.isCurrentThreadCpuTimeSupported()) {
+            return false;
+        }
+        CpuSample sample = samples.get();
+        long now = System.nanoTime();
+        long elapsed = now - sample.wallNanos;
+        if (elapsed >= SAMPLE_WINDOW_NANOS) {
+            long cpu = THREADS.getCurrentThreadCpuTime();
+            if (sample.wallNanos != 0) {
+                sample.utilization = (double) (cpu - sample.cpuNanos) / elapsed;
+            }
+            sample.wallNanos = now;
+            sample.cpuNanos = cpu;
+        }
+        return sample.utilization > maxCpuUtilization;
+    }
+
+    /**
+     * 用本线程复用的Deflater压缩为gzip或zlib格式，输出在池化直接缓冲区
+     */
+    ByteBuf compress(ByteBuf body, String encoding, ByteBufAllocator alloc) {
+        boolean gzip = encoding.equals(GZIP);
+        Deflater deflater = deflaters.get()[gzip ? 0 : 1];
+        deflater.reset();
+        int length = body.readableBytes();
+        ByteBuf out = alloc.directBuffer(length / 2 + 64);
+        ByteBuffer input = body.nioBuffer();
+        CRC32 crc = null;
+        if (gzip) {
+            out.writeShort(0x1f8b).writeByte(Deflater.DEFLATED).writeByte(0).writeInt(0).writeByte(0).writeByte(0xff);
+            crc = new CRC32();
+            crc.update(input.duplicate());
+        }
+        deflater.setInput(input);
+        deflater.finish();
+        while (!deflater.finished()) {
+            out.ensureWritable(Math.max(256, length / 4));
+            ByteBuffer target = out.nioBuffer(out.writerIndex(), out.writableBytes());
+            int written = deflater.deflate(target);
+            out.writerIndex(out.writerIndex() + written);
+        }
+        if (gzip) {
+            out.writeIntLE((int) crc.getValue());
+            out.writeIntLE(length);
+        }
+        return out;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long in = bytesIn.sum();
+        long out = bytesOut.sum();
+        stats.put("compressed", compressed.sum());
+        stats.put("skippedSmall", skippedSmall.sum());
+        stats.put("skippedBusy", skippedBusy.sum());
+        stats.put("bytesIn", in);
+        stats.put("bytesOut", out);
+        stats.put("ratio", in == 0 ? 1.0 : (double) out / in);
+        stats.put("cpuMillis", cpuNanos.sum() / 1_000_000);
+        if (variants != null) {
+            stats.putAll(variants.stats());
+        }
+        return stats;
+    }
+
+    private static final class CpuSample {
+        long wallNanos;
+        long cpuNanos;
+        double utilization;
+    }
+}
@@ -0,0 +1,185 @@
+package netty;
+
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+
+/**
+ * 一次HTTP请求/响应交换
+ * 由{@link HttpRequestRouter}为每个请求创建，携带流水线序号和keep-alive判定，
+ * 处理器通过它回写响应，连接头、Content-Length和HEAD请求去正文都在这里统一处理。
+ * 每个交换只能响应一次，响应可以在任意线程里调用。
+ *
+ * @author MyAcme
+ */
+public class HttpExchange {
+
+    private final HttpRequestRouter router;
+    private final Channel channel;
+    private final HttpRequest request;
+    private final String path;
+    private final int sequence;
+    private final boolean keepAlive;
+
+    private Object attachment;
+    private volatile boolean responded;
+
+    HttpExchange(HttpRequestRouter router, Channel channel, HttpRequest request, String path,
+                 int sequence, boolean keepAlive) {
+        this.router = router;
+        this.channel = channel;
+        this.request = request;
+        this.path = path;
+        this.sequence = sequence;
+        this.keepAlive = keepAlive;
+    }
+
+    public HttpRequest request() {
+        return request;
+    }
+
+    /**
+     * 请求路径（不含查询串）
+     */
+    public String path() {
+        return path;
+    }
+
+    public int sequence() {
+        return sequence;
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    public boolean isHead() {
+        return HttpMethod.HEAD.equals(request.method());
+    }
+
+    public boolean isResponded() {
+        return responded;
+    }
+
+    public Channel channel() {
+        return channel;
+    }
+
+    public ByteBufAllocator alloc() {
+        return channel.alloc();
+    }
+
+    /**
+     * 路由表配置的压缩策略，未启用时为null
+     */
+    public HttpCompression compression() {
+        return router.routes().compression();
+    }
+
+    /**
+     * 处理器在一次请求内保存的状态
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T attachment() {
+        return (T) attachment;
+    }
+
+    public void attach(Object attachment) {
+        this.attachment = attachment;
+    }
+
+    /**
+     * 回写完整响应，补齐Content-Length和连接头；HEAD请求只保留头部
+     * 启用压缩时按协商结果视条件压缩正文
+     */
+    public void respond(FullHttpResponse response) {
+        HttpCompression compression = compression();
+        if (compression != null) {
+            response = compression.maybeCompress(this, response, alloc());
+        }
+        HttpUtil.setContentLength(response, response.content().readableBytes());
+        setConnectionHeader(response.headers());
+        if (isHead() && response.content().isReadable()) {
+            FullHttpResponse head = response.replace(Unpooled.EMPTY_BUFFER);
+            response.release();
+            response = head;
+        }
+        write(response);
+    }
+
+    public void respond(HttpResponseStatus status, CharSequence contentType, ByteBuf body) {
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, body);
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, contentType);
+        respond(response);
+    }
+
+    /**
+     * 回写预编码响应，字节原样写出，调用方负责其中的连接头与本次请求一致
+     */
+    public void respond(EncodedHttpResponse response) {
+        write(response);
+    }
+
+    /**
+     * 流式回写：先写响应头，再依次写正文部分，最后一部分应为LastHttpContent（或以FileRegion等结尾并自行保证完整）
+     * 连接头在这里补齐，Content-Length或chunked由调用方决定
+     */
+    public void respond(HttpResponse head, Object... body) {
+        setConnectionHeader(head.headers());
+        Object[] parts = new Object[body.length + 1];
+        parts[0] = head;
+        System.arraycopy(body, 0, parts, 1, body.length);
+        write(parts);
+    }
+
+    /**
+     * 出错时回写响应并在写完后关闭连接，出错后连接上的后续字节不再可信
+     */
+    void respondAndClose(FullHttpResponse response) {
+        HttpUtil.setContentLength(response, response.content().readableBytes());
+        response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+        markResponded(response);
+        router.write(new HttpPipeliningHandler.HttpPipelinedResponse(sequence, false, response));
+    }
+
+    /**
+     * 按连接语义设置Connection头：HTTP/1.1默认长连接不写头，HTTP/1.0长连接需显式声明
+     */
+    void setConnectionHeader(HttpHeaders headers) {
+        if (!keepAlive) {
+            headers.set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+        } else if (request.protocolVersion().isKeepAliveDefault()) {
+            headers.remove(HttpHeaderNames.CONNECTION);
+        } else {
+            headers.set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+        }
+    }
+
+    private void write(Object... parts) {
+        markResponded(parts);
+        router.write(new HttpPipeliningHandler.HttpPipelinedResponse(sequence, keepAlive, parts));
+    }
+
+    private void markResponded(Object... parts) {
+        if (responded) {
+            for (Object part : parts) {
+                HttpPipeliningHandler.HttpPipelinedResponse.releasePart(part);
+            }
+            throw new IllegalStateException("请求已响应: " + request.method() + " " + request.uri());
+        }
+        responded = true;
+    }
+}
@@ -0,0 +1,154 @@
+package netty;
+
+
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.stream.ChunkedInput;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.PriorityQueue;
+
+/**
+ * HTTP流水线响应排序器
+ * HTTP/1.1允许客户端不等响应就连续发送多个请求，但响应必须按请求顺序返回。
+ * 路由层给每个请求分配递增序号，响应以{@link HttpPipelinedResponse}写出；
+ * 序号未轮到的响应先暂存，前面的响应写出后再依次放行，异步完成的请求也不会乱序。
+ * 非keep-alive请求的响应写完后关闭连接。
+ * 100 Continue这类中间响应用interim标记写出：轮到它时放行但不推进序号，最终响应仍排在它之后。
+ *
+ * @author MyAcme
+ */
+public class HttpPipeliningHandler extends ChannelOutboundHandlerAdapter {
+
+    private final int maxPendingResponses;
+
+    private final PriorityQueue<HttpPipelinedResponse> pending = new PriorityQueue<>();
+
+    private int nextSequence;
+
+    /**
+     * 同一序号内按到达顺序排列，保证中间响应先于最终响应
+     */
+    private long arrivals;
+
+    /**
+     * @param maxPendingResponses 允许暂存的乱序响应数，超过即认为客户端滥用流水线并关闭连接
+     */
+    public HttpPipeliningHandler(int maxPendingResponses) {
+        this.maxPendingResponses = maxPendingResponses;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        if (!(msg instanceof HttpPipelinedResponse)) {
+            ctx.write(msg, promise);
+            return;
+        }
+        HttpPipelinedResponse response = (HttpPipelinedResponse) msg;
+        response.promise = promise;
+        response.arrival = arrivals++;
+        if (response.sequence != nextSequence) {
+            if (pending.size() >= maxPendingResponses) {
+                response.release();
+                promise.tryFailure(new IllegalStateException("流水线暂存响应过多: " + pending.size()));
+                ctx.close();
+                return;
+            }
+            pending.add(response);
+            return;
+        }
+        writeResponse(ctx, response);
+        while (!pending.isEmpty() && pending.peek().sequence == nextSequence) {
+            writeResponse(ctx, pending.poll());
+        }
+    }
+
+    private void writeResponse(ChannelHandlerContext ctx, HttpPipelinedResponse response) {
+        if (!response.interim) {
+            nextSequence++;
+        }
+        Object[] parts = response.parts;
+        for (int i = 0; i < parts.length - 1; i++) {
+            ctx.write(parts[i], ctx.voidPromise());
+        }
+        boolean closeAfter = !response.keepAlive && !response.interim;
+        ChannelPromise promise = closeAfter ? response.promise.unvoid() : response.promise;
+        ChannelFuture future = ctx.write(parts[parts.length - 1], promise);
+        if (closeAfter) {
+            future.addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        HttpPipelinedResponse response;
+        while ((response = pending.poll()) != null) {
+            response.release();
+            response.promise.tryFailure(new IllegalStateException("连接已关闭，流水线响应未写出"));
+        }
+    }
+
+    /**
+     * 带序号的一条完整响应
+     * parts是依次写出的消息（如FullHttpResponse，或响应头 + FileRegion + LastHttpContent）
+     */
+    public static final class HttpPipelinedResponse implements Comparable<HttpPipelinedResponse> {
+        final int sequence;
+        final boolean keepAlive;
+        final boolean interim;
+        final Object[] parts;
+        ChannelPromise promise;
+        long arrival;
+
+        public HttpPipelinedResponse(int sequence, boolean keepAlive, Object... parts) {
+            this(sequence, keepAlive, false, parts);
+        }
+
+        private HttpPipelinedResponse(int sequence, boolean keepAlive, boolean interim, Object[] parts) {
+            if (parts.length == 0) {
+                throw new IllegalArgumentException("响应至少包含一条消息");
+            }
+            this.sequence = sequence;
+            this.keepAlive = keepAlive;
+            this.interim = interim;
+            this.parts = parts;
+        }
+
+        /**
+         * 中间响应（如100 Continue）：轮到该序号时写出，但不推进序号
+         */
+        public static HttpPipelinedResponse interim(int sequence, Object message) {
+            return new HttpPipelinedResponse(sequence, true, true, new Object[]{message});
+        }
+
+        void release() {
+            for (Object part : parts) {
+                releasePart(part);
+            }
+        }
+
+        /**
+         * 释放未写出的响应部分，ChunkedInput不是引用计数对象，需要close归还底层资源
+         */
+        static void releasePart(Object part) {
+            if (part instanceof ChunkedInput) {
+                try {
+                    ((ChunkedInput<?>) part).close();
+                } catch (Exception e) {
+                    System.err.println("关闭ChunkedInput失败: " + e);
+                }
+            } else {
+                ReferenceCountUtil.release(part);
+            }
+        }
+
+        @Override
+        public int compareTo(HttpPipelinedResponse o) {
+            int c = Integer.compare(sequence, o.sequence);
+            return c != 0 ? c : Long.compare(arrival, o.arrival);
+        }
+    }
+}
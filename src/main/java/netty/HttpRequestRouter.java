@@ -0,0 +1,200 @@
+package netty;
+
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * HTTP请求路由（每个连接一个实例）
+ * 按路径和方法把请求分派给{@link HttpRouteHandler}，请求体逐块流式交给处理器，不做聚合拷贝。
+ * 每个请求分配递增的流水线序号，响应经{@link HttpPipeliningHandler}按序写出；
+ * 同一批读到的多个流水线请求的响应只在channelReadComplete里flush一次，减少系统调用。
+ * 收到非keep-alive请求后，同一连接上后续的请求直接丢弃，响应写完即关闭连接。
+ *
+ * @author MyAcme
+ */
+public class HttpRequestRouter extends ChannelInboundHandlerAdapter {
+
+    private final HttpRoutes routes;
+
+    private ChannelHandlerContext ctx;
+
+    private HttpExchange exchange;
+    private HttpRouteHandler handler;
+
+    private int nextSequence;
+
+    /**
+     * 已收到非keep-alive请求，后续请求一律丢弃
+     */
+    private boolean closing;
+
+    /**
+     * 当前请求体是否需要丢弃（请求已出错或已被拒绝）
+     */
+    private boolean discarding;
+
+    private boolean reading;
+    private boolean needsFlush;
+
+    public HttpRequestRouter(HttpRoutes routes) {
+        this.routes = routes;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        reading = true;
+        try {
+            if (msg instanceof HttpRequest) {
+                onRequest((HttpRequest) msg);
+            }
+            if (msg instanceof HttpContent) {
+                onContent((HttpContent) msg);
+            }
+        } finally {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    private void onRequest(HttpRequest request) {
+        if (closing) {
+            discarding = true;
+            return;
+        }
+        int sequence = nextSequence++;
+        boolean keepAlive = HttpUtil.isKeepAlive(request) && request.decoderResult().isSuccess();
+        closing = !keepAlive;
+        exchange = new HttpExchange(this, ctx.channel(), request, pathOf(request.uri()), sequence, keepAlive);
+        handler = null;
+        discarding = false;
+
+        if (request.decoderResult().isFailure()) {
+            // 解码失败后连接上的字节已不可信，回400并关闭
+            reject(HttpResponseStatus.BAD_REQUEST);
+            return;
+        }
+        if (isUnsupportedExpectation(request)) {
+            closing = true;
+            reject(HttpResponseStatus.EXPECTATION_FAILED);
+            return;
+        }
+        if (HttpUtil.is100ContinueExpected(request)) {
+            // 中间响应也必须排在之前请求的响应之后
+            request.headers().remove(HttpHeaderNames.EXPECT);
+            write(HttpPipeliningHandler.HttpPipelinedResponse.interim(sequence,
+                    new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.CONTINUE, Unpooled.EMPTY_BUFFER)));
+        }
+        handler = routes.match(request.method(), exchange.path());
+        try {
+            handler.onRequest(exchange);
+        } catch (Throwable cause) {
+            fail(cause);
+        }
+    }
+
+    private void onContent(HttpContent content) {
+        if (discarding || handler == null) {
+            return;
+        }
+        if (content.decoderResult().isFailure()) {
+            closing = true;
+            reject(HttpResponseStatus.BAD_REQUEST);
+            return;
+        }
+        try {
+            handler.onContent(exchange, content);
+            if (content instanceof LastHttpContent) {
+                HttpRouteHandler completed = handler;
+                handler = null;
+                completed.onComplete(exchange);
+            }
+        } catch (Throwable cause) {
+            fail(cause);
+        }
+    }
+
+    /**
+     * 处理器抛出异常：尚未响应则回500并关闭连接，已响应则只能直接关闭
+     */
+    private void fail(Throwable cause) {
+        System.err.println("处理请求失败: " + exchange.request().uri() + " " + cause);
+        closing = true;
+        if (exchange.isResponded()) {
+            discarding = true;
+            ctx.close();
+        } else {
+            reject(HttpResponseStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    private void reject(HttpResponseStatus status) {
+        discarding = true;
+        handler = null;
+        if (!exchange.isResponded()) {
+            exchange.respondAndClose(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, Unpooled.EMPTY_BUFFER));
+        }
+    }
+
+    HttpRoutes routes() {
+        return routes;
+    }
+
+    /**
+     * 写出一条带序号的响应
+     * 在事件循环内且正处于读循环中时只write，由channelReadComplete统一flush；否则立即flush
+     */
+    void write(HttpPipeliningHandler.HttpPipelinedResponse response) {
+        if (reading && ctx.executor().inEventLoop()) {
+            ctx.write(response, ctx.voidPromise());
+            needsFlush = true;
+        } else {
+            ctx.writeAndFlush(response, ctx.voidPromise());
+        }
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        reading = false;
+        if (needsFlush) {
+            needsFlush = false;
+            ctx.flush();
+        }
+        ctx.fireChannelReadComplete();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        System.err.println("HTTP连接异常: " + cause);
+        ctx.close();
+    }
+
+    /**
+     * HTTP/1.1里除100-continue外的Expect一律不支持
+     */
+    private static boolean isUnsupportedExpectation(HttpRequest request) {
+        String expect = request.headers().get(HttpHeaderNames.EXPECT);
+        return expect != null && request.protocolVersion().compareTo(HttpVersion.HTTP_1_1) >= 0
+                && !HttpHeaderValues.CONTINUE.contentEqualsIgnoreCase(expect);
+    }
+
+    static String pathOf(String uri) {
+        int query = uri.indexOf('?');
+        return query < 0 ? uri : uri.substring(0, query);
+    }
+}
@@ -0,0 +1,308 @@
+package netty;
+
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 编码后HTTP响应的LRU缓存
+ * 缓存的是完整编码好的响应字节（状态行 + 头部 + 正文），放在池化直接缓冲区里，
+ * 命中时retainedDuplicate()直接交给{@link HttpServerResponseEncoder}透传，不再编码、不拷贝正文。
+ * HTTP/1.1长连接GET之外的请求（关闭连接、HTTP/1.0长连接、HEAD）用同一份字节切片拼出对应变体。
+ *
+ * 容量按字节数限制，超出后按最近最少使用淘汰；条目有TTL，也可以显式失效。
+ * 同一个键并发未命中时只加载一次，其余请求挂在同一个加载结果上（防缓存击穿）。
+ * 只缓存200响应，其他状态码照常返回但不入缓存。
+ *
+ * @author MyAcme
+ */
+public class HttpResponseCache {
+
+    private static final ByteBuf CONNECTION_CLOSE = constant("connection: close\r\n");
+    private static final ByteBuf CONNECTION_KEEP_ALIVE = constant("connection: keep-alive\r\n");
+    private static final ByteBuf CRLF = constant("\r\n");
+
+    /**
+     * 生成响应的回调，只在未命中时调用
+     */
+    public interface ResponseLoader {
+        FullHttpResponse load(HttpExchange exchange) throws Exception;
+    }
+
+    private final long maxBytes;
+    private final long ttlNanos;
+    private final ByteBufAllocator alloc;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Loading> loading = new HashMap<>();
+    private long bytes;
+
+    private long hits;
+    private long misses;
+    private long coalesced;
+    private long evictions;
+    private long expirations;
+
+    /**
+     * @param maxBytes 缓存字节上限，单个响应超过上限的1/8时不缓存
+     * @param ttl      条目存活时间
+     */
+    public HttpResponseCache(long maxBytes, long ttl, TimeUnit unit) {
+        this(maxBytes, ttl, unit, PooledByteBufAllocator.DEFAULT);
+    }
+
+    public HttpResponseCache(long maxBytes, long ttl, TimeUnit unit, ByteBufAllocator alloc) {
+        this.maxBytes = maxBytes;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.alloc = alloc;
+    }
+
+    /**
+     * 包装一个生成响应的回调为带缓存的路由，缓存键为请求URI（含查询串）
+     * 只有GET/HEAD走缓存，其他方法每次直接调用loader
+     */
+    public HttpRouteHandler cached(ResponseLoader loader) {
+        return exchange -> {
+            HttpMethod method = exchange.request().method();
+            if (!HttpMethod.GET.equals(method) && !HttpMethod.HEAD.equals(method)) {
+                exchange.respond(loader.load(exchange));
+                return;
+            }
+            respond(exchange, exchange.request().uri(), loader);
+        };
+    }
+
+    /**
+     * 按键查找并回写响应，未命中时调用loader生成
+     */
+    public void respond(HttpExchange exchange, String key, ResponseLoader loader) throws Exception {
+        Loading joined = null;
+        Loading owned = null;
+        Entry hit = null;
+        ByteBuf hitBuf = null;
+        synchronized (this) {
+            Entry entry = lookup(key);
+            if (entry != null) {
+                // 必须在锁内retain，否则可能与淘汰并发导致引用归零
+                hits++;
+                hit = entry;
+                hitBuf = entry.encoded.retainedDuplicate();
+            } else {
+                joined = loading.get(key);
+                if (joined != null) {
+                    coalesced++;
+                    joined.waiters++;
+                } else {
+                    misses++;
+                    owned = new Loading();
+                    loading.put(key, owned);
+                }
+            }
+        }
+        if (hit != null) {
+            exchange.respond(variant(hit, hitBuf, exchange));
+            return;
+        }
+        if (joined != null) {
+            // 加载完成时已为每个等待者预先retain一次，这里不再访问缓存表
+            joined.future.whenComplete((entry, cause) -> {
+                if (cause != null) {
+                    exchange.respond(HttpResponseStatus.INTERNAL_SERVER_ERROR, HttpHeaderValues.TEXT_PLAIN,
+                            Unpooled.EMPTY_BUFFER);
+                } else if (entry == null) {
+                    // 加载结果不可缓存，各自重新生成
+                    try {
+                        exchange.respond(loader.load(exchange));
+                    } catch (Exception e) {
+                        exchange.respond(HttpResponseStatus.INTERNAL_SERVER_ERROR, HttpHeaderValues.TEXT_PLAIN,
+                                Unpooled.EMPTY_BUFFER);
+                    }
+                } else {
+                    exchange.respond(variant(entry, entry.encoded.duplicate(), exchange));
+                }
+            });
+            return;
+        }
+        load(exchange, key, loader, owned);
+    }
+
+    private void load(HttpExchange exchange, String key, ResponseLoader loader, Loading owned) throws Exception {
+        FullHttpResponse response;
+        try {
+            response = loader.load(exchange);
+        } catch (Exception e) {
+            synchronized (this) {
+                loading.remove(key);
+            }
+            owned.future.completeExceptionally(e);
+            throw e;
+        }
+
+        if (!HttpResponseStatus.OK.equals(response.status())
+                || response.content().readableBytes() > maxBytes / 8) {
+            synchronized (this) {
+                loading.remove(key);
+            }
+            owned.future.complete(null);
+            exchange.respond(response);
+            return;
+        }
+
+        Entry entry = encode(response);
+        int waiters;
+        synchronized (this) {
+            loading.remove(key);
+            waiters = owned.waiters;
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                remove(previous);
+            }
+            bytes += entry.size;
+            // 自己和每个等待者各持有一次引用，之后即使条目被淘汰也不影响在途的响应
+            entry.encoded.retain(1 + waiters);
+            evictOverflow();
+        }
+        owned.future.complete(entry);
+        exchange.respond(variant(entry, entry.encoded.duplicate(), exchange));
+    }
+
+    /**
+     * 编码为池化直接缓冲区，去掉Connection头（按请求补上），记下头部结束位置
+     */
+    private Entry encode(FullHttpResponse response) {
+        try {
+            response.headers().remove(HttpHeaderNames.CONNECTION);
+            HttpUtil.setContentLength(response, response.content().readableBytes());
+            ByteBuf encoded = EncodedHttpResponse.encode(response, response.content(), alloc);
+            int headerEnd = encoded.writerIndex() - response.content().readableBytes() - 2;
+            return new Entry(encoded, headerEnd, System.nanoTime() + ttlNanos);
+        } finally {
+            response.release();
+        }
+    }
+
+    /**
+     * 按连接语义和方法拼出要写出的字节，buf持有一次引用，所有权转交给返回值
+     */
+    private static EncodedHttpResponse variant(Entry entry, ByteBuf buf, HttpExchange exchange) {
+        boolean keepAliveDefault = exchange.request().protocolVersion().isKeepAliveDefault();
+        if (exchange.isKeepAlive() && keepAliveDefault && !exchange.isHead()) {
+            return new EncodedHttpResponse(buf);
+        }
+        ByteBuf connection = !exchange.isKeepAlive() ? CONNECTION_CLOSE.duplicate()
+                : keepAliveDefault ? Unpooled.EMPTY_BUFFER : CONNECTION_KEEP_ALIVE.duplicate();
+        ByteBuf tail = exchange.isHead() ? CRLF.duplicate()
+                : buf.retainedSlice(entry.headerEnd, buf.readableBytes() - entry.headerEnd);
+        ByteBuf composite = Unpooled.wrappedBuffer(buf.retainedSlice(0, entry.headerEnd), connection, tail);
+        buf.release();
+        return new EncodedHttpResponse(composite);
+    }
+
+    private Entry lookup(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && System.nanoTime() - entry.expiresAt >= 0) {
+            entries.remove(key);
+            remove(entry);
+            expirations++;
+            return null;
+        }
+        return entry;
+    }
+
+    private void evictOverflow() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Entry eldest = it.next();
+            it.remove();
+            remove(eldest);
+            evictions++;
+        }
+    }
+
+    private void remove(Entry entry) {
+        bytes -= entry.size;
+        entry.encoded.release();
+    }
+
+    /**
+     * 使一个键失效，正在写出的响应不受影响
+     */
+    public synchronized void invalidate(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            remove(entry);
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    public synchronized void invalidateAll() {
+        for (Entry entry : entries.values()) {
+            remove(entry);
+        }
+        entries.clear();
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public synchronized Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("coalesced", coalesced);
+        stats.put("evictions", evictions);
+        stats.put("expirations", expirations);
+        stats.put("entries", (long) entries.size());
+        stats.put("bytes", bytes);
+        return stats;
+    }
+
+    private static ByteBuf constant(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length).put(bytes);
+        direct.flip();
+        return Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(direct).asReadOnly());
+    }
+
+    private static final class Entry {
+        final ByteBuf encoded;
+        final int headerEnd;
+        final long expiresAt;
+        final int size;
+
+        Entry(ByteBuf encoded, int headerEnd, long expiresAt) {
+            this.encoded = encoded;
+            this.headerEnd = headerEnd;
+            this.expiresAt = expiresAt;
+            this.size = encoded.capacity();
+        }
+    }
+
+    /**
+     * 一次进行中的加载，waiters为挂在其上的请求数
+     */
+    private static final class Loading {
+        final CompletableFuture<Entry> future = new CompletableFuture<>();
+        int waiters;
+    }
+}
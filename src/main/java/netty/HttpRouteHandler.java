@@ -0,0 +1,33 @@
+package netty;
+
+
+import io.netty.handler.codec.http.HttpContent;
+
+/**
+ * HTTP路由处理器
+ * 请求体以流的方式逐块交给处理器，不经过HttpObjectAggregator聚合，
+ * 大请求体不会在内存里攒成一整块。处理器实例在所有连接间共享，必须无状态或线程安全，
+ * 单个请求的状态放在{@link HttpExchange#attachment()}里。
+ *
+ * @author MyAcme
+ */
+public interface HttpRouteHandler {
+
+    /**
+     * 请求头到达时调用
+     */
+    default void onRequest(HttpExchange exchange) throws Exception {
+    }
+
+    /**
+     * 每收到一块请求体调用一次（包括最后一块），content在方法返回后由框架释放，需要保留时自行retain
+     */
+    default void onContent(HttpExchange exchange, HttpContent content) throws Exception {
+    }
+
+    /**
+     * 请求体全部到达后调用，通常在这里回写响应
+     * 响应也可以稍后在任意线程里通过exchange回写，流水线顺序由框架保证
+     */
+    void onComplete(HttpExchange exchange) throws Exception;
+}
@@ -0,0 +1,192 @@
+package netty;
+
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.DateFormatter;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HTTP路由表
+ * 精确路径按方法查表，前缀路由按注册顺序匹配，GET路由同时响应HEAD。
+ * 路径存在但方法不匹配时回405，都不匹配时回404。
+ * 路由表在所有连接间共享，应在服务器启动前注册完毕。
+ *
+ * @author MyAcme
+ */
+public class HttpRoutes {
+
+    private final Map<String, Map<HttpMethod, HttpRouteHandler>> exact = new HashMap<>();
+    private final List<String> prefixes = new ArrayList<>();
+    private final List<HttpRouteHandler> prefixHandlers = new ArrayList<>();
+
+    private HttpCompression compression;
+
+    private HttpRouteHandler notFound = new FixedHttpResponse(HttpResponseStatus.NOT_FOUND,
+            HttpHeaderValues.TEXT_PLAIN, "Not Found".getBytes(StandardCharsets.US_ASCII));
+    private final HttpRouteHandler methodNotAllowed = new FixedHttpResponse(HttpResponseStatus.METHOD_NOT_ALLOWED,
+            HttpHeaderValues.TEXT_PLAIN, "Method Not Allowed".getBytes(StandardCharsets.US_ASCII));
+
+    public HttpRoutes route(HttpMethod method, String path, HttpRouteHandler handler) {
+        exact.computeIfAbsent(path, p -> new HashMap<>()).put(method, handler);
+        return this;
+    }
+
+    public HttpRoutes get(String path, HttpRouteHandler handler) {
+        return route(HttpMethod.GET, path, handler);
+    }
+
+    public HttpRoutes post(String path, HttpRouteHandler handler) {
+        return route(HttpMethod.POST, path, handler);
+    }
+
+    /**
+     * 注册前缀路由，任意方法都会分派到该处理器，由处理器自行检查方法
+     */
+    public HttpRoutes prefix(String prefix, HttpRouteHandler handler) {
+        prefixes.add(prefix);
+        prefixHandlers.add(handler);
+        return this;
+    }
+
+    /**
+     * 注册固定响应路由，响应字节在注册时预先编码
+     */
+    public HttpRoutes fixed(String path, HttpResponseStatus status, CharSequence contentType, byte[] body) {
+        return get(path, new FixedHttpResponse(status, contentType, body));
+    }
+
+    /**
+     * 以前缀挂载静态文件目录，如staticFiles("/static/", Paths.get("www"))
+     */
+    public HttpRoutes staticFiles(String prefix, Path root) {
+        return prefix(prefix, new StaticFileHandler(root, prefix));
+    }
+
+    /**
+     * 启用按Accept-Encoding的响应压缩，null表示不压缩
+     */
+    public HttpRoutes compression(HttpCompression compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    public HttpCompression compression() {
+        return compression;
+    }
+
+    public HttpRoutes notFound(HttpRouteHandler handler) {
+        this.notFound = handler;
+        return this;
+    }
+
+    HttpRouteHandler match(HttpMethod method, String path) {
+        Map<HttpMethod, HttpRouteHandler> byMethod = exact.get(path);
+        if (byMethod != null) {
+            HttpRouteHandler handler = byMethod.get(method);
+            if (handler == null && HttpMethod.HEAD.equals(method)) {
+                handler = byMethod.get(HttpMethod.GET);
+            }
+            return handler != null ? handler : methodNotAllowed;
+        }
+        for (int i = 0; i < prefixes.size(); i++) {
+            if (path.startsWith(prefixes.get(i))) {
+                return prefixHandlers.get(i);
+            }
+        }
+        return notFound;
+    }
+
+    /**
+     * 预计算的固定响应
+     * 按连接语义（HTTP/1.1长连接、关闭、HTTP/1.0长连接）和是否HEAD预先编码6份完整响应，
+     * 放在只读的直接内存里，每次请求只做一次duplicate，不再编码头部、不拷贝正文。
+     * Date头每秒变化一次，跨秒后的第一个请求重新编码（并发重建无害，结果相同）。
+     */
+    public static class FixedHttpResponse implements HttpRouteHandler {
+
+        private static final int KEEP_ALIVE = 0;
+        private static final int CLOSE = 1;
+        private static final int HTTP_1_0_KEEP_ALIVE = 2;
+
+        private final HttpResponseStatus status;
+        private final CharSequence contentType;
+        private final byte[] body;
+
+        private volatile Encoded encoded;
+
+        public FixedHttpResponse(HttpResponseStatus status, CharSequence contentType, byte[] body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body.clone();
+            this.encoded = encode(System.currentTimeMillis() / 1000);
+        }
+
+        @Override
+        public void onComplete(HttpExchange exchange) {
+            long second = System.currentTimeMillis() / 1000;
+            Encoded current = encoded;
+            if (current.second != second) {
+                current = encode(second);
+                encoded = current;
+            }
+            int connection;
+            if (!exchange.isKeepAlive()) {
+                connection = CLOSE;
+            } else if (exchange.request().protocolVersion().isKeepAliveDefault()) {
+                connection = KEEP_ALIVE;
+            } else {
+                connection = HTTP_1_0_KEEP_ALIVE;
+            }
+            int index = connection * 2 + (exchange.isHead() ? 1 : 0);
+            exchange.respond(new EncodedHttpResponse(current.responses[index].duplicate()));
+        }
+
+        private Encoded encode(long second) {
+            String date = DateFormatter.format(new Date(second * 1000));
+            ByteBuf[] responses = new ByteBuf[6];
+            for (int connection = KEEP_ALIVE; connection <= HTTP_1_0_KEEP_ALIVE; connection++) {
+                for (int head = 0; head < 2; head++) {
+                    FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status,
+                            head == 0 ? Unpooled.wrappedBuffer(body) : Unpooled.EMPTY_BUFFER);
+                    response.headers()
+                            .set(HttpHeaderNames.SERVER, "myacme-nio")
+                            .set(HttpHeaderNames.DATE, date)
+                            .set(HttpHeaderNames.CONTENT_TYPE, contentType)
+                            .setInt(HttpHeaderNames.CONTENT_LENGTH, body.length);
+                    if (connection == CLOSE) {
+                        response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+                    } else if (connection == HTTP_1_0_KEEP_ALIVE) {
+                        response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+                    }
+                    responses[connection * 2 + head] = EncodedHttpResponse.encodeShared(response);
+                }
+            }
+            return new Encoded(second, responses);
+        }
+
+        private static final class Encoded {
+            final long second;
+            final ByteBuf[] responses;
+
+            Encoded(long second, ByteBuf[] responses) {
+                this.second = second;
+                this.responses = responses;
+            }
+        }
+    }
+}
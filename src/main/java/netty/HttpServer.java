@@ -2,50 +2,288 @@ package netty;
 
 
 import io.netty.bootstrap.ServerBootstrap;
-import io.netty.channel.ChannelFuture;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpRequestDecoder;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Netty HTTP服务器
+ * 支持HTTP/1.1长连接和流水线（响应按请求顺序返回），请求体流式交给路由处理器，
+ * 固定路由的响应预先编码，每次请求只共享同一块缓冲区。
+ * 同一端口也接受明文HTTP/2（h2c）：prior knowledge直接发送连接前言，或HTTP/1.1请求带"Upgrade: h2c"升级，
+ * 一个连接上多路复用多个流，并发流数和流控窗口见{@link Http2ServerConfig}
  * @author MyAcme
  */
 public class HttpServer {
 
-    public void start(int port) throws Exception {
-        EventLoopGroup bossGroup = new NioEventLoopGroup(1);
-        EventLoopGroup workerGroup = new NioEventLoopGroup();
+    /**
+     * 单个连接允许暂存的乱序流水线响应数
+     */
+    static final int MAX_PENDING_RESPONSES = 256;
 
-        try {
-            ServerBootstrap bootstrap = new ServerBootstrap();
-            bootstrap.group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class)
-                    .handler(new LoggingHandler(LogLevel.INFO))
-                    .childHandler(new ChannelInitializer<SocketChannel>() {
-                        @Override
-                        protected void initChannel(SocketChannel ch) throws Exception {
-                            ch.pipeline()
-                                    .addLast(new HttpServerCodec()// HTTP编解码
-                                    );
+    /**
+     * POST /broadcast 接受的最大消息字节数，超过时整条消息不广播，回复413
+     */
+    static final int MAX_BROADCAST_BYTES = 64 * 1024;
+
+    private final HttpRoutes routes;
+    private final Http2ServerConfig http2;
+
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private Channel serverChannel;
+
+    public HttpServer() {
+        this(defaultRoutes());
+    }
+
+    public HttpServer(HttpRoutes routes) {
+        this(routes, new Http2ServerConfig());
+    }
+
+    /**
+     * @param http2 HTTP/2参数，为null时只支持HTTP/1.x
+     */
+    public HttpServer(HttpRoutes routes, Http2ServerConfig http2) {
+        this.routes = routes;
+        this.http2 = http2;
+    }
+
+    /**
+     * 示例路由：
+     * GET  /plaintext  固定文本（压测用）
+     * GET  /json       固定JSON
+     * GET  /           欢迎页
+     * POST /upload     流式统计请求体字节数，不缓存请求体
+     * GET  /cached     经响应缓存的动态内容（1秒TTL）
+     * GET  /ws         升级为WebSocket，订阅{@link ConnectionManager#broadcast}
+     * POST /broadcast  请求体（UTF-8文本）广播给所有TCP行协议客户端和WebSocket订阅者
+     */
+    public static HttpRoutes defaultRoutes() {
+        HttpResponseCache cache = new HttpResponseCache(16 * 1024 * 1024, 1, TimeUnit.SECONDS);
+        return new HttpRoutes()
+                .fixed("/plaintext", HttpResponseStatus.OK, HttpHeaderValues.TEXT_PLAIN,
+                        "Hello, World!".getBytes(StandardCharsets.US_ASCII))
+                .fixed("/json", HttpResponseStatus.OK, HttpHeaderValues.APPLICATION_JSON,
+                        "{\"message\":\"Hello, World!\"}".getBytes(StandardCharsets.US_ASCII))
+                .fixed("/", HttpResponseStatus.OK, "text/plain; charset=UTF-8",
+                        "欢迎访问Netty HTTP服务器\n".getBytes(StandardCharsets.UTF_8))
+                .post("/upload", new HttpRouteHandler() {
+                    @Override
+                    public void onRequest(HttpExchange exchange) {
+                        exchange.attach(new long[1]);
+                    }
+
+                    @Override
+                    public void onContent(HttpExchange exchange, HttpContent content) {
+                        long[] received = exchange.attachment();
+                        received[0] += content.content().readableBytes();
+                    }
+
+                    @Override
+                    public void onComplete(HttpExchange exchange) {
+                        long[] received = exchange.attachment();
+                        exchange.respond(HttpResponseStatus.OK, HttpHeaderValues.TEXT_PLAIN,
+                                ByteBufUtil.writeAscii(exchange.alloc(), "received " + received[0] + " bytes\n"));
+                    }
+                })
+                .get("/cached", cache.cached(exchange -> {
+                    FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                            ByteBufUtil.writeAscii(exchange.alloc(), "generated at " + System.currentTimeMillis() + "\n"));
+                    response.headers().set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.TEXT_PLAIN);
+                    return response;
+                }))
+                .get("/ws", ConnectionManager.getInstance().webSockets().handler())
+                .post("/broadcast", new HttpRouteHandler() {
+                    @Override
+                    public void onRequest(HttpExchange exchange) {
+                        exchange.attach(new ByteArrayOutputStream());
+                    }
+
+                    @Override
+                    public void onContent(HttpExchange exchange, HttpContent content) throws IOException {
+                        ByteArrayOutputStream body = exchange.attachment();
+                        if (body == null) {
+                            // 已经超过上限，后面的内容都不要
+                            return;
+                        }
+                        ByteBuf buf = content.content();
+                        if (body.size() + buf.readableBytes() > MAX_BROADCAST_BYTES) {
+                            exchange.attach(null);
+                            return;
                         }
-                    });
+                        buf.readBytes(body, buf.readableBytes());
+                    }
+
+                    @Override
+                    public void onComplete(HttpExchange exchange) {
+                        ByteArrayOutputStream body = exchange.attachment();
+                        if (body == null) {
+                            exchange.respond(HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE, HttpHeaderValues.TEXT_PLAIN,
+                                    ByteBufUtil.writeAscii(exchange.alloc(),
+                                            "broadcast message exceeds " + MAX_BROADCAST_BYTES + " bytes\n"));
+                            return;
+                        }
+                        ConnectionManager.getInstance().broadcast(new String(body.toByteArray(), StandardCharsets.UTF_8));
+                        exchange.respond(HttpResponseStatus.ACCEPTED, HttpHeaderValues.TEXT_PLAIN,
+                                ByteBufUtil.writeAscii(exchange.alloc(), "broadcast " + body.size() + " bytes\n"));
+                    }
+                });
+    }
+
+    /**
+     * 配置HTTP管道：
+     * 请求解码 -> 路由（入站）
+     * 流水线排序 -> 响应编码（出站，预编码响应直接透传）
+     */
+    public static void initPipeline(ChannelPipeline pipeline, HttpRoutes routes) {
+        pipeline.addLast(new HttpRequestDecoder())
+                .addLast(new HttpServerResponseEncoder())
+                .addLast(new HttpPipeliningHandler(MAX_PENDING_RESPONSES))
+                .addLast(new HttpRequestRouter(routes));
+    }
 
-            ChannelFuture future = bootstrap.bind(port).sync();
-            System.out.println("HTTP服务器启动，端口: " + port);
-            future.channel().closeFuture().sync();
+    /**
+     * 在HTTP/1管道基础上支持h2c：
+     * 最前面检测HTTP/2连接前言，编码器之后处理"Upgrade: h2c"，两种方式都把连接切换为HTTP/2多路复用
+     *
+     * @param http2 HTTP/2参数，为null时等同于{@link #initPipeline(ChannelPipeline, HttpRoutes)}
+     */
+    public static void initPipeline(ChannelPipeline pipeline, HttpRoutes routes, Http2ServerConfig http2) {
+        if (http2 == null) {
+            initPipeline(pipeline, routes);
+            return;
+        }
+        pipeline.addLast(new Http2CleartextHandler(routes, http2))
+                .addLast(new HttpRequestDecoder())
+                .addLast(new HttpServerResponseEncoder())
+                .addLast(Http2CleartextHandler.upgradeHandler(routes, http2))
+                .addLast(new HttpPipeliningHandler(MAX_PENDING_RESPONSES))
+                .addLast(new HttpRequestRouter(routes));
+    }
+
+    public void start(int port) throws Exception {
+        Channel channel = bind(port);
+        try {
+            channel.closeFuture().sync();
         } finally {
-            bossGroup.shutdownGracefully();
-            workerGroup.shutdownGracefully();
+            stop();
         }
     }
 
+    /**
+     * 绑定端口并返回服务器通道，不阻塞调用线程
+     * 端口为0时由操作系统分配临时端口
+     */
+    public Channel bind(int port) throws InterruptedException {
+        bossGroup = new NioEventLoopGroup(1);
+        workerGroup = new NioEventLoopGroup();
+
+        ServerBootstrap bootstrap = new ServerBootstrap();
+        bootstrap.group(bossGroup, workerGroup)
+                .channel(NioServerSocketChannel.class)
+                .option(ChannelOption.SO_BACKLOG, 1024)
+                .handler(new LoggingHandler(LogLevel.INFO))
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) throws Exception {
+                        initPipeline(ch.pipeline(), routes, http2);
+                    }
+                });
+
+        serverChannel = bootstrap.bind(port).sync().channel();
+        System.out.println("HTTP服务器启动，端口: " + serverChannel.localAddress());
+        return serverChannel;
+    }
+
+    /**
+     * 关闭服务器通道并释放线程组
+     */
+    public void stop() {
+        if (serverChannel != null) {
+            serverChannel.close().syncUninterruptibly();
+        }
+        if (bossGroup != null) {
+            bossGroup.shutdownGracefully().syncUninterruptibly();
+        }
+        if (workerGroup != null) {
+            workerGroup.shutdownGracefully().syncUninterruptibly();
+        }
+    }
+
+    /**
+     * 启用压缩：动态响应超过1KB、事件循环CPU占用低于75%时gzip，静态文件离线压缩一次后零拷贝发送
+     */
+    public static HttpCompression defaultCompression() throws IOException {
+        return new HttpCompression(1024, 6, 0.75, new CompressedVariantStore(9, 1024, 0.9, 10_000));
+    }
+
+    private static String toJson(Map<String, Object> stats) {
+        StringBuilder sb = new StringBuilder("{");
+        for (Map.Entry<String, Object> entry : stats.entrySet()) {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            sb.append('"').append(entry.getKey()).append("\":").append(entry.getValue());
+        }
+        return sb.append("}\n").toString();
+    }
+
     public static void main(String[] args) throws Exception {
-        new HttpServer().start(8080);
+        HttpCompression compression = defaultCompression();
+        HttpRoutes routes = defaultRoutes().compression(compression);
+        // 压缩率、压缩CPU时间等指标
+        routes.get("/stats/compression", exchange -> exchange.respond(HttpResponseStatus.OK,
+                HttpHeaderValues.APPLICATION_JSON, ByteBufUtil.writeUtf8(exchange.alloc(),
+                        toJson(compression.stats()))));
+        // WebSocket广播投递、丢弃和断开的慢消费者数
+        routes.get("/stats/websocket", exchange -> exchange.respond(HttpResponseStatus.OK,
+                HttpHeaderValues.APPLICATION_JSON, ByteBufUtil.writeUtf8(exchange.alloc(),
+                        toJson(ConnectionManager.getInstance().webSockets().stats()))));
+        // -Dhttp.root=目录 时在/static/下提供静态文件，启动时预先压缩可压缩的文件
+        String root = System.getProperty("http.root");
+        if (root != null) {
+            routes.staticFiles("/static/", Paths.get(root));
+            compression.variants().precompress(Paths.get(root));
+        }
+        // -Dline.port=端口 时同时启动TCP行协议服务器，与/ws订阅者共用ConnectionManager广播
+        Integer linePort = Integer.getInteger("line.port");
+        if (linePort != null) {
+            Thread lineServer = new Thread(() -> {
+                try {
+                    new NettyServer(linePort).start();
+                } catch (Exception e) {
+                    System.err.println("行协议服务器启动失败: " + e.getMessage());
+                }
+            }, "line-server");
+            lineServer.setDaemon(true);
+            lineServer.start();
+        }
+        new HttpServer(routes).start(8080);
     }
 }
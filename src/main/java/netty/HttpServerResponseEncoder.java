@@ -0,0 +1,33 @@
+package netty;
+
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpResponseEncoder;
+
+import java.util.List;
+
+/**
+ * 服务端响应编码器
+ * 在HttpResponseEncoder的基础上识别{@link EncodedHttpResponse}：预编码的响应字节直接交给下一个处理器，
+ * 不经过状态行/头部编码。HttpResponseEncoder在初始状态下遇到非空ByteBuf会抛出异常，
+ * 所以预编码响应必须包在EncodedHttpResponse里写出。
+ *
+ * @author MyAcme
+ */
+public class HttpServerResponseEncoder extends HttpResponseEncoder {
+
+    @Override
+    public boolean acceptOutboundMessage(Object msg) throws Exception {
+        return msg instanceof EncodedHttpResponse || super.acceptOutboundMessage(msg);
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, Object msg, List<Object> out) throws Exception {
+        if (msg instanceof EncodedHttpResponse) {
+            // 所有权随content一起转交，不需要额外retain/release
+            out.add(((EncodedHttpResponse) msg).content());
+            return;
+        }
+        super.encode(ctx, msg, out);
+    }
+}
@@ -6,8 +6,7 @@ import io.netty.channel.*;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.codec.string.StringDecoder;
-import io.netty.handler.codec.string.StringEncoder;
+import io.netty.handler.codec.LineBasedFrameDecoder;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.handler.timeout.IdleStateEvent;
@@ -23,13 +22,44 @@ import java.util.concurrent.TimeUnit;
  */
 public class NettyServer {
 
+    /**
+     * 单行消息的最大长度（字节）
+     */
+    private static final int MAX_LINE_LENGTH = 8192;
+
     private final int port;
 
+    /*
+     * 运行中的线程组与服务器通道，由bind()创建、stop()释放
+     */
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private Channel serverChannel;
+
     public NettyServer(int port) {
         this.port = port;
     }
 
     public void start() throws Exception {
+        Channel channel = bind();
+        try {
+            /*
+             * 等待服务器通道关闭
+             * 这会使当前线程阻塞，直到服务器通道关闭
+             * 通常在主线程中调用，防止程序退出
+             */
+            channel.closeFuture().sync();
+        } finally {
+            stop();
+        }
+    }
+
+    /**
+     * 绑定端口并返回服务器通道，不阻塞调用线程
+     * 端口为0时由操作系统分配临时端口，可通过返回通道的localAddress()获取实际端口
+     * 供进程内的测试/压测工具启动服务器使用
+     */
+    public Channel bind() throws InterruptedException {
         /*
          * 创建两个EventLoopGroup：
          * 1. bossGroup: 用于处理客户端的连接请求
@@ -41,117 +71,134 @@ public class NettyServer {
          */
 
         // 通常只需一个线程处理连接
-        EventLoopGroup bossGroup = new NioEventLoopGroup(1);
+        bossGroup = new NioEventLoopGroup(1);
         // 默认CPU核心数*2个线程
-        EventLoopGroup workerGroup = new NioEventLoopGroup();
+        workerGroup = new NioEventLoopGroup();
 
-        try {
-            /*
-             * ServerBootstrap是Netty的服务器启动引导类
-             * 用于简化服务器的配置和启动过程
-             */
-            ServerBootstrap bootstrap = new ServerBootstrap();
-            // 设置线程组
-            bootstrap.group(bossGroup, workerGroup)
-                    // 使用NIO传输通道
-                    .channel(NioServerSocketChannel.class)
-                    /*
-                     * SO_BACKLOG参数说明：
-                     * 1. 当服务端处理连接请求较慢时，可以排队等待的连接数
-                     * 2. 超过队列长度的连接会被拒绝
-                     * 3. 默认值根据平台不同而不同，通常设置为128
-                     */
-                    .option(ChannelOption.SO_BACKLOG, 128)
-                    /*
-                     * 设置子通道（客户端连接）的选项
-                     * SO_KEEPALIVE: 启用TCP心跳机制，检测连接是否存活
-                     */
-                    .childOption(ChannelOption.SO_KEEPALIVE, true)
-                    /*
-                     * TCP_NODELAY: 禁用Nagle算法
-                     * Nagle算法会缓冲小数据包，延迟发送以提高网络效率
-                     * 在要求低延迟的场景下需要禁用
-                     */
-                    .childOption(ChannelOption.TCP_NODELAY, true)
-                    /*
-                     * 为服务器通道添加日志处理器
-                     * 用于记录连接建立、断开等事件
-                     */
-                    .handler(new LoggingHandler(LogLevel.INFO))
-                    /*
-                     * 设置子通道的处理器链
-                     * ChannelInitializer是一个特殊的ChannelHandler
-                     * 用于初始化新建立的连接通道
-                     */
-                    .childHandler(new ChannelInitializer<SocketChannel>() {
-                        @Override
-                        protected void initChannel(SocketChannel ch) throws Exception {
-                            /*
-                             * ChannelPipeline是Netty的核心组件之一
-                             * 它是一个Handler的链表，按顺序处理入站和出站事件
-                             * 类似于Servlet的Filter链
-                             */
-                            ChannelPipeline pipeline = ch.pipeline();
-                            /*
-                             * 添加编解码器：
-                             * 1. StringDecoder: 将ByteBuf解码为String
-                             * 2. StringEncoder: 将String编码为ByteBuf
-                             * 注意：编解码器的顺序很重要，必须按照处理流程添加
-                             */
-                            pipeline.addLast(new StringDecoder());
-                            pipeline.addLast(new StringEncoder());
-                            /*
-                             * 添加空闲状态检测处理器
-                             * 参数说明：
-                             * 1. readerIdleTime: 读空闲时间（秒），0表示禁用
-                             * 2. writerIdleTime: 写空闲时间（秒）
-                             * 3. allIdleTime: 所有类型空闲时间（秒）
-                             * 当连接空闲时间超过设定值，会触发IdleStateEvent事件
-                             */
-                            pipeline.addLast("idleStateHandler",
-                                    new IdleStateHandler(30, 0, 0, TimeUnit.SECONDS));
-                            /*
-                             * 添加自定义的业务处理器
-                             * 这是服务器处理业务逻辑的核心
-                             */
-                            pipeline.addLast(new ServerHandler());
-                        }
-                    });
+        /*
+         * ServerBootstrap是Netty的服务器启动引导类
+         * 用于简化服务器的配置和启动过程
+         */
+        ServerBootstrap bootstrap = new ServerBootstrap();
+        // 设置线程组
+        bootstrap.group(bossGroup, workerGroup)
+                // 使用NIO传输通道
+                .channel(NioServerSocketChannel.class)
+                /*
+                 * SO_BACKLOG参数说明：
+                 * 1. 当服务端处理连接请求较慢时，可以排队等待的连接数
+                 * 2. 超过队列长度的连接会被拒绝
+                 * 3. 默认值根据平台不同而不同，通常设置为128
+                 */
+                .option(ChannelOption.SO_BACKLOG, 128)
+                /*
+                 * 设置子通道（客户端连接）的选项
+                 * SO_KEEPALIVE: 启用TCP心跳机制，检测连接是否存活
+                 */
+                .childOption(ChannelOption.SO_KEEPALIVE, true)
+                /*
+                 * TCP_NODELAY: 禁用Nagle算法
+                 * Nagle算法会缓冲小数据包，延迟发送以提高网络效率
+                 * 在要求低延迟的场景下需要禁用
+                 */
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                /*
+                 * 为服务器通道添加日志处理器
+                 * 用于记录连接建立、断开等事件
+                 */
+                .handler(new LoggingHandler(LogLevel.INFO))
+                /*
+                 * 设置子通道的处理器链
+                 * ChannelInitializer是一个特殊的ChannelHandler
+                 * 用于初始化新建立的连接通道
+                 */
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) throws Exception {
+                        /*
+                         * ChannelPipeline是Netty的核心组件之一
+                         * 它是一个Handler的链表，按顺序处理入站和出站事件
+                         * 类似于Servlet的Filter链
+                         */
+                        initPipeline(ch.pipeline());
+                    }
+                });
 
-            /*
-             * bind(): 绑定端口，开始接受连接
-             * sync(): 同步等待绑定完成
-             * 返回的ChannelFuture表示异步操作的结果
-             */
-            ChannelFuture future = bootstrap.bind(port).sync();
+        /*
+         * bind(): 绑定端口，开始接受连接
+         * sync(): 同步等待绑定完成
+         * 返回的ChannelFuture表示异步操作的结果
+         */
+        ChannelFuture future = bootstrap.bind(port).sync();
 
-            System.out.println("✅ Netty服务器启动成功，监听端口: " + port);
-            System.out.println("服务器地址: " + future.channel().localAddress());
+        serverChannel = future.channel();
+        System.out.println("✅ Netty服务器启动成功，监听端口: " + port);
+        System.out.println("服务器地址: " + future.channel().localAddress());
+        return serverChannel;
+    }
 
-            /*
-             * 等待服务器通道关闭
-             * 这会使当前线程阻塞，直到服务器通道关闭
-             * 通常在主线程中调用，防止程序退出
-             */
-            future.channel().closeFuture().sync();
-        } finally {
-            /*
-             * 优雅关闭线程组
-             * shutdownGracefully()会：
-             * 1. 不再接受新任务
-             * 2. 等待已提交任务完成
-             * 3. 释放所有资源
-             *
-             * 参数说明：
-             * quietPeriod: 安静期，单位时间
-             * timeout: 超时时间
-             * 在安静期内没有任务到达则关闭，否则等待超时
-             */
-            System.out.println("正在关闭服务器...");
-            bossGroup.shutdownGracefully();
-            workerGroup.shutdownGracefully();
-            System.out.println("服务器已关闭");
+    /**
+     * 初始化子通道的处理器链
+     * 单独抽出供EmbeddedChannel复用，保证分配预算测试压的是与线上完全相同的管道
+     */
+    public static void initPipeline(ChannelPipeline pipeline) {
+        /*
+         * 按行拆分消息（兼容\n与\r\n），解决TCP粘包/拆包
+         * 客户端与ConnectionManager广播都以\r\n结尾
+         */
+        pipeline.addLast(new LineBasedFrameDecoder(MAX_LINE_LENGTH));
+        /*
+         * 添加编解码器（UTF-8，无状态共享实例）：
+         * 1. Utf8StringCodec.DECODER: 将ByteBuf解码为String
+         * 2. Utf8StringCodec.ENCODER: 将String编码为ByteBuf
+         * 注意：编解码器的顺序很重要，必须按照处理流程添加
+         */
+        pipeline.addLast(Utf8StringCodec.DECODER);
+        pipeline.addLast(Utf8StringCodec.ENCODER);
+        /*
+         * 添加空闲状态检测处理器
+         * 参数说明：
+         * 1. readerIdleTime: 读空闲时间（秒），0表示禁用
+         * 2. writerIdleTime: 写空闲时间（秒）
+         * 3. allIdleTime: 所有类型空闲时间（秒）
+         * 当连接空闲时间超过设定值，会触发IdleStateEvent事件
+         */
+        pipeline.addLast("idleStateHandler",
+                new IdleStateHandler(30, 0, 0, TimeUnit.SECONDS));
+        /*
+         * 添加自定义的业务处理器
+         * 这是服务器处理业务逻辑的核心
+         */
+        pipeline.addLast(new ServerHandler());
+    }
+
+    /**
+     * 关闭服务器通道并释放线程组
+     */
+    public void stop() {
+        /*
+         * 优雅关闭线程组
+         * shutdownGracefully()会：
+         * 1. 不再接受新任务
+         * 2. 等待已提交任务完成
+         * 3. 释放所有资源
+         *
+         * 参数说明：
+         * quietPeriod: 安静期，单位时间
+         * timeout: 超时时间
+         * 在安静期内没有任务到达则关闭，否则等待超时
+         */
+        System.out.println("正在关闭服务器...");
+        if (serverChannel != null) {
+            serverChannel.close().syncUninterruptibly();
+        }
+        if (bossGroup != null) {
+            bossGroup.shutdownGracefully().syncUninterruptibly();
         }
+        if (workerGroup != null) {
+            workerGroup.shutdownGracefully().syncUninterruptibly();
+        }
+        System.out.println("服务器已关闭");
     }
 
     /**
@@ -175,9 +222,12 @@ public class NettyServer {
             String clientAddress = ctx.channel().remoteAddress().toString();
             System.out.println("🔗 新客户端连接: " + clientAddress);
 
-            // 统计当前连接数（示例）
-            int activeConnections = ((NioEventLoopGroup) ctx.channel().eventLoop().parent()).executorCount();
-            System.out.println("当前活跃连接数: " + activeConnections);
+            // 统计当前连接数（示例），EmbeddedChannel等没有所属线程组的通道跳过
+            EventLoopGroup group = ctx.channel().eventLoop().parent();
+            if (group instanceof NioEventLoopGroup) {
+                int activeConnections = ((NioEventLoopGroup) group).executorCount();
+                System.out.println("当前活跃连接数: " + activeConnections);
+            }
 
             // 向客户端发送欢迎消息
             String welcomeMsg = "欢迎连接到Netty服务器！\r\n" +
@@ -191,6 +241,9 @@ public class NettyServer {
              */
             ctx.channel().attr(ChannelAttributes.CLIENT_ID).set("client_" + System.currentTimeMillis());
 
+            // 登记到连接管理器，参与ConnectionManager.broadcast
+            ConnectionManager.getInstance().addConnection(ctx.channel());
+
             // 调用父类方法，确保事件可以继续传播
             super.channelActive(ctx);
         }
@@ -198,7 +251,7 @@ public class NettyServer {
         /**
          * 当从客户端读取到数据时调用
          * @param ctx ChannelHandlerContext
-         * @param msg 解码后的消息对象（经过StringDecoder处理，这里是String）
+         * @param msg 解码后的消息对象（经过Utf8StringCodec.DECODER处理，这里是String）
          */
         @Override
         public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
@@ -332,6 +385,7 @@ public class NettyServer {
 
             // 清理资源（如果有的话）
             cleanupResources(ctx);
+            ConnectionManager.getInstance().removeConnection(ctx.channel());
 
             super.channelInactive(ctx);
         }
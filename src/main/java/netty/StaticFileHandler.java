@@ -0,0 +1,435 @@
+package netty;
+
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.DateFormatter;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContentEncoder;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.handler.codec.http2.Http2StreamFrameToHttpObjectCodec;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.stream.ChunkedNioFile;
+import io.netty.handler.stream.ChunkedWriteHandler;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 静态文件处理器
+ * 以前缀路由挂载一个目录，文件正文不经过JVM堆：
+ * 明文连接用DefaultFileRegion走sendfile，管道里有SslHandler或压缩这类需要改写字节的处理器时，
+ * 退回ChunkedNioFile按块读入池化直接缓冲区。
+ *
+ * 支持单区间Range（206/416）、If-Range，以及ETag/Last-Modified条件请求（304）。
+ * 打开的文件句柄和元数据由{@link FileHandleCache}缓存，命中时不再open/stat。
+ * 路由表启用压缩时，可压缩类型的文件按Accept-Encoding发送{@link CompressedVariantStore}里的压缩版本。
+ *
+ * @author MyAcme
+ */
+public class StaticFileHandler implements HttpRouteHandler {
+
+    /**
+     * ChunkedNioFile每块大小
+     */
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final Map<String, String> CONTENT_TYPES = new HashMap<>();
+
+    static {
+        CONTENT_TYPES.put("html", "text/html; charset=UTF-8");
+        CONTENT_TYPES.put("htm", "text/html; charset=UTF-8");
+        CONTENT_TYPES.put("txt", "text/plain; charset=UTF-8");
+        CONTENT_TYPES.put("md", "text/markdown; charset=UTF-8");
+        CONTENT_TYPES.put("css", "text/css; charset=UTF-8");
+        CONTENT_TYPES.put("js", "application/javascript; charset=UTF-8");
+        CONTENT_TYPES.put("json", "application/json");
+        CONTENT_TYPES.put("xml", "application/xml");
+        CONTENT_TYPES.put("svg", "image/svg+xml");
+        CONTENT_TYPES.put("png", "image/png");
+        CONTENT_TYPES.put("jpg", "image/jpeg");
+        CONTENT_TYPES.put("jpeg", "image/jpeg");
+        CONTENT_TYPES.put("gif", "image/gif");
+        CONTENT_TYPES.put("ico", "image/x-icon");
+        CONTENT_TYPES.put("wasm", "application/wasm");
+        CONTENT_TYPES.put("pdf", "application/pdf");
+        CONTENT_TYPES.put("zip", "application/zip");
+        CONTENT_TYPES.put("gz", "application/gzip");
+        CONTENT_TYPES.put("jar", "application/java-archive");
+    }
+
+    private final Path root;
+    private final String prefix;
+    private final FileHandleCache cache;
+
+    /**
+     * @param root   对外提供的目录
+     * @param prefix 路由前缀，如"/static/"，请求路径去掉前缀后相对root解析
+     * @param cache  文件句柄缓存
+     */
+    public StaticFileHandler(Path root, String prefix, FileHandleCache cache) {
+        this.root = root.toAbsolutePath().normalize();
+        this.prefix = prefix;
+        this.cache = cache;
+    }
+
+    public StaticFileHandler(Path root, String prefix) {
+        this(root, prefix, new FileHandleCache(1024, 1000));
+    }
+
+    public FileHandleCache cache() {
+        return cache;
+    }
+
+    @Override
+    public void onComplete(HttpExchange exchange) throws IOException {
+        HttpMethod method = exchange.request().method();
+        if (!HttpMethod.GET.equals(method) && !HttpMethod.HEAD.equals(method)) {
+            respondError(exchange, HttpResponseStatus.METHOD_NOT_ALLOWED);
+            return;
+        }
+        Path file = resolve(exchange.path());
+        if (file == null) {
+            respondError(exchange, HttpResponseStatus.NOT_FOUND);
+            return;
+        }
+        FileHandleCache.CachedFile cached = cache.acquire(file);
+        if (cached == null) {
+            respondError(exchange, HttpResponseStatus.NOT_FOUND);
+            return;
+        }
+        try {
+            serve(exchange, cached);
+        } finally {
+            cached.release();
+        }
+    }
+
+    /**
+     * 客户端接受压缩且有就绪的压缩版本时发送压缩文件（同样零拷贝），否则发送原文件
+     * Range请求总是针对原文件，不与压缩版本组合
+     */
+    private void serve(HttpExchange exchange, FileHandleCache.CachedFile file) throws IOException {
+        HttpHeaders requestHeaders = exchange.request().headers();
+        String contentType = contentType(file.path());
+        HttpCompression compression = exchange.compression();
+        boolean negotiable = compression != null && compression.variants() != null
+                && HttpCompression.isCompressible(contentType);
+
+        FileHandleCache.CachedFile variant = null;
+        String encoding = null;
+        if (negotiable && !requestHeaders.contains(HttpHeaderNames.RANGE)) {
+            encoding = HttpCompression.negotiate(requestHeaders.get(HttpHeaderNames.ACCEPT_ENCODING));
+            if (encoding != null) {
+                Path path = compression.variants().lookup(file.path(), file.length(), file.lastModified(), encoding);
+                variant = path == null ? null : cache.acquire(path);
+            }
+        }
+        if (variant == null) {
+            serve(exchange, file, file.etag(), file.lastModified(), contentType, null, negotiable);
+            return;
+        }
+        try {
+            // 压缩版本是另一种表示，ETag必须不同
+            String etag = file.etag().substring(0, file.etag().length() - 1) + "-" + encoding + "\"";
+            serve(exchange, variant, etag, file.lastModified(), contentType, encoding, true);
+        } finally {
+            variant.release();
+        }
+    }
+
+    private void serve(HttpExchange exchange, FileHandleCache.CachedFile body, String etag, long lastModifiedMillis,
+                       String contentType, String encoding, boolean vary) {
+        HttpHeaders requestHeaders = exchange.request().headers();
+        String lastModified = DateFormatter.format(new Date(lastModifiedMillis));
+
+        if (notModified(requestHeaders, etag, lastModifiedMillis)) {
+            HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_MODIFIED);
+            response.headers()
+                    .set(HttpHeaderNames.ETAG, etag)
+                    .set(HttpHeaderNames.LAST_MODIFIED, lastModified);
+            if (vary) {
+                response.headers().set(HttpHeaderNames.VARY, HttpHeaderNames.ACCEPT_ENCODING);
+            }
+            exchange.respond(response, LastHttpContent.EMPTY_LAST_CONTENT);
+            return;
+        }
+
+        long length = body.length();
+        long start = 0;
+        long count = length;
+        HttpResponseStatus status = HttpResponseStatus.OK;
+        String range = requestHeaders.get(HttpHeaderNames.RANGE);
+        if (range != null && encoding == null && ifRangeMatches(requestHeaders, etag, lastModifiedMillis)) {
+            long[] parsed = parseRange(range, length);
+            if (parsed == UNSATISFIABLE) {
+                FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
+                        HttpResponseStatus.REQUESTED_RANGE_NOT_SATISFIABLE, Unpooled.EMPTY_BUFFER);
+                response.headers().set(HttpHeaderNames.CONTENT_RANGE, "bytes */" + length);
+                exchange.respond(response);
+                return;
+            }
+            if (parsed != null) {
+                start = parsed[0];
+                count = parsed[1] - parsed[0] + 1;
+                status = HttpResponseStatus.PARTIAL_CONTENT;
+            }
+        }
+
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, status);
+        response.headers()
+                .set(HttpHeaderNames.CONTENT_TYPE, contentType)
+                .set(HttpHeaderNames.CONTENT_LENGTH, count)
+                .set(HttpHeaderNames.ACCEPT_RANGES, HttpHeaderValues.BYTES)
+                .set(HttpHeaderNames.ETAG, etag)
+                .set(HttpHeaderNames.LAST_MODIFIED, lastModified);
+        if (encoding != null) {
+            response.headers().set(HttpHeaderNames.CONTENT_ENCODING, encoding);
+        }
+        if (vary) {
+            response.headers().set(HttpHeaderNames.VARY, HttpHeaderNames.ACCEPT_ENCODING);
+        }
+        if (status == HttpResponseStatus.PARTIAL_CONTENT) {
+            response.headers().set(HttpHeaderNames.CONTENT_RANGE,
+                    "bytes " + start + "-" + (start + count - 1) + "/" + length);
+        }
+        if (exchange.isHead() || count == 0) {
+            exchange.respond(response, LastHttpContent.EMPTY_LAST_CONTENT);
+            return;
+        }
+
+        ChannelPipeline pipeline = exchange.channel().pipeline();
+        if (isZeroCopyCapable(exchange)) {
+            exchange.respond(response, new CachedFileRegion(body.retain(), start, count),
+                    LastHttpContent.EMPTY_LAST_CONTENT);
+        } else {
+            ensureChunkedWriter(pipeline);
+            CachedChunkedFile chunked;
+            try {
+                chunked = new CachedChunkedFile(body.retain(), start, count);
+            } catch (IOException e) {
+                body.release();
+                throw new IllegalStateException("文件已关闭: " + body.path(), e);
+            }
+            exchange.respond(response, chunked, LastHttpContent.EMPTY_LAST_CONTENT);
+        }
+    }
+
+    /**
+     * 把请求路径映射为root下的文件，越界（..）或目录返回null；目录尝试index.html
+     */
+    Path resolve(String path) {
+        if (!path.startsWith(prefix)) {
+            return null;
+        }
+        // 按路径规则解码：只解%XX，'+'保持原样（decodeComponent按表单规则会把'+'变成空格）
+        String relative = new QueryStringDecoder(path.substring(prefix.length()), StandardCharsets.UTF_8).path();
+        if (relative.indexOf('\0') >= 0 || relative.indexOf('\\') >= 0) {
+            return null;
+        }
+        while (relative.startsWith("/")) {
+            relative = relative.substring(1);
+        }
+        Path file = root.resolve(relative).normalize();
+        if (!file.startsWith(root)) {
+            return null;
+        }
+        if (relative.isEmpty() || relative.endsWith("/")) {
+            file = file.resolve("index.html");
+        }
+        return file;
+    }
+
+    /**
+     * If-None-Match优先于If-Modified-Since
+     */
+    static boolean notModified(HttpHeaders headers, String etag, long lastModified) {
+        String ifNoneMatch = headers.get(HttpHeaderNames.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            return etagMatches(ifNoneMatch, etag);
+        }
+        String ifModifiedSince = headers.get(HttpHeaderNames.IF_MODIFIED_SINCE);
+        if (ifModifiedSince != null) {
+            Date since = DateFormatter.parseHttpDate(ifModifiedSince);
+            // HTTP日期只精确到秒
+            return since != null && lastModified / 1000 <= since.getTime() / 1000;
+        }
+        return false;
+    }
+
+    /**
+     * 没有If-Range或其与当前版本一致时才按Range响应，否则返回完整文件
+     */
+    static boolean ifRangeMatches(HttpHeaders headers, String etag, long lastModified) {
+        String ifRange = headers.get(HttpHeaderNames.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(etag);
+        }
+        Date date = DateFormatter.parseHttpDate(ifRange);
+        return date != null && lastModified / 1000 == date.getTime() / 1000;
+    }
+
+    private static boolean etagMatches(String header, String etag) {
+        for (String candidate : header.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*") || candidate.equals(etag)
+                    || (candidate.startsWith("W/") && candidate.substring(2).equals(etag))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final long[] UNSATISFIABLE = new long[0];
+
+    /**
+     * 解析单个字节区间
+     *
+     * @return [first, last]；无法识别或多区间时返回null（按完整文件响应）；不可满足时返回UNSATISFIABLE
+     */
+    static long[] parseRange(String header, long length) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = header.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // 后缀区间：最后N字节
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || length == 0) {
+                    return UNSATISFIABLE;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+                if (start >= length) {
+                    return UNSATISFIABLE;
+                }
+                if (end < start) {
+                    return null;
+                }
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * sendfile只适用于字节原样送到socket的明文连接
+     */
+    static boolean isZeroCopyCapable(HttpExchange exchange) {
+        if (!(exchange.channel() instanceof SocketChannel)) {
+            return false;
+        }
+        Iterator<Map.Entry<String, ChannelHandler>> it = exchange.channel().pipeline().iterator();
+        while (it.hasNext()) {
+            ChannelHandler handler = it.next().getValue();
+            if (handler instanceof SslHandler || handler instanceof HttpContentEncoder) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 按需在编码器和流水线处理器之间加入ChunkedWriteHandler，只有走回退路径的连接才付出它的开销
+     */
+    private static void ensureChunkedWriter(ChannelPipeline pipeline) {
+        if (pipeline.get(ChunkedWriteHandler.class) != null) {
+            return;
+        }
+        ChannelHandlerContext encoder = pipeline.context(HttpServerResponseEncoder.class);
+        if (encoder == null) {
+            // HTTP/2流：放在流帧编解码器之后，分块经响应适配器包装为HttpContent
+            encoder = pipeline.context(Http2StreamFrameToHttpObjectCodec.class);
+        }
+        if (encoder != null) {
+            pipeline.addAfter(encoder.name(), "chunkedWriter", new ChunkedWriteHandler());
+        } else {
+            pipeline.addFirst("chunkedWriter", new ChunkedWriteHandler());
+        }
+    }
+
+    static String contentType(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String type = dot < 0 ? null : CONTENT_TYPES.get(name.substring(dot + 1).toLowerCase());
+        return type != null ? type : "application/octet-stream";
+    }
+
+    private static void respondError(HttpExchange exchange, HttpResponseStatus status) {
+        exchange.respond(status, HttpHeaderValues.TEXT_PLAIN,
+                Unpooled.copiedBuffer(status.reasonPhrase(), StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * 共享缓存句柄的FileRegion：释放时归还句柄引用而不是关闭文件
+     */
+    static final class CachedFileRegion extends DefaultFileRegion {
+        private final FileHandleCache.CachedFile file;
+
+        CachedFileRegion(FileHandleCache.CachedFile file, long position, long count) {
+            super(file.channel(), position, count);
+            this.file = file;
+        }
+
+        @Override
+        protected void deallocate() {
+            file.release();
+        }
+    }
+
+    /**
+     * 共享缓存句柄的ChunkedNioFile：读完或失败时归还句柄引用而不是关闭文件
+     */
+    static final class CachedChunkedFile extends ChunkedNioFile {
+        private final FileHandleCache.CachedFile file;
+        private boolean closed;
+
+        CachedChunkedFile(FileHandleCache.CachedFile file, long offset, long length) throws IOException {
+            super(file.channel(), offset, length, CHUNK_SIZE);
+            this.file = file;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                file.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,401 @@
+package netty;
+
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.FixedRecvByteBufAllocator;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.channel.socket.nio.NioChannelOption;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.util.internal.PlatformDependent;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 高吞吐UDP接收服务器（DatagramChannelDemo.receive的多套接字、批量版本）
+ * 同一端口开N个套接字（SO_REUSEPORT），内核按四元组哈希把数据报分到各套接字，每个套接字一个I/O线程。
+ * Linux上用Netty的epoll传输：设置MAX_DATAGRAM_PAYLOAD_SIZE后一次recvmmsg读入一批数据报，
+ * 整批读进一块池化直接缓冲区，每个数据报是它的切片；其他平台退回NIO，每次系统调用读一个。
+ *
+ * I/O线程只负责接收，按发送方地址哈希把数据报交给M个处理线程（同一发送方的数据报保持顺序），
+ * 每个处理线程一个有界无锁MPSC队列，队列满时丢弃并计数，不阻塞接收；
+ * 处理线程队列空时先自旋，再挂起，投递方看到挂起标记才unpark，稳态下没有锁也没有唤醒系统调用。
+ *
+ * 丢包分两处统计：处理跟不上时的队列丢弃，和内核接收缓冲区溢出的丢弃（Linux上读/proc/net/udp的drops列）。
+ * SO_RCVBUF按请求值设置，实际值受net.core.rmem_max限制，启动时打印。
+ *
+ * @author MyAcme
+ */
+public class UdpIngestServer {
+
+    /**
+     * 数据报处理器，在处理线程上调用，所有处理线程共享
+     */
+    public interface DatagramHandler {
+        /**
+         * content只在本次调用内有效，返回后释放
+         */
+        void onDatagram(ByteBuf content, InetSocketAddress sender) throws Exception;
+    }
+
+    private static final int SPIN_BEFORE_PARK = 200;
+
+    /**
+     * 每次可读事件最多读取的次数（epoll批量读时每次是一批）
+     */
+    private static final int MAX_MESSAGES_PER_READ = 64;
+
+    private final DatagramHandler handler;
+
+    private int sockets = Runtime.getRuntime().availableProcessors();
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private int queueCapacity = 64 * 1024;
+    private int receiveBufferSize = 8 * 1024 * 1024;
+    private int maxDatagramSize = 2048;
+    private int batchSize = 32;
+    private boolean useEpoll = Epoll.isAvailable();
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder receivedBytes = new LongAdder();
+    private final LongAdder queueDrops = new LongAdder();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder handlerErrors = new LongAdder();
+
+    private EventLoopGroup group;
+    private final List<Channel> channels = new ArrayList<>();
+    private Worker[] workerArray;
+    private volatile boolean running;
+    private int port;
+
+    public UdpIngestServer(DatagramHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * 同一端口上的接收套接字（I/O线程）数，默认CPU核数
+     */
+    public UdpIngestServer sockets(int sockets) {
+        this.sockets = sockets;
+        return this;
+    }
+
+    /**
+     * 处理线程数，默认CPU核数
+     */
+    public UdpIngestServer workers(int workers) {
+        this.workers = workers;
+        return this;
+    }
+
+    /**
+     * 每个处理线程的队列容量（数据报个数）
+     */
+    public UdpIngestServer queueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+    public UdpIngestServer receiveBufferSize(int receiveBufferSize) {
+        this.receiveBufferSize = receiveBufferSize;
+        return this;
+    }
+
+    /**
+     * 单个数据报的最大字节数，超过的部分被截断
+     */
+    public UdpIngestServer maxDatagramSize(int maxDatagramSize) {
+        this.maxDatagramSize = maxDatagramSize;
+        return this;
+    }
+
+    /**
+     * epoll下一次recvmmsg最多读入的数据报数
+     */
+    public UdpIngestServer batchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * 是否使用epoll传输，默认可用即用
+     */
+    public UdpIngestServer epoll(boolean useEpoll) {
+        this.useEpoll = useEpoll && Epoll.isAvailable();
+        return this;
+    }
+
+    /**
+     * 启动处理线程并在port上绑定所有接收套接字，不阻塞调用线程，端口为0时由操作系统分配
+     */
+    public InetSocketAddress bind(int port) throws InterruptedException {
+        running = true;
+        workerArray = new Worker[workers];
+        for (int i = 0; i < workers; i++) {
+            workerArray[i] = new Worker(queueCapacity);
+            workerArray[i].thread = new Thread(workerArray[i], "udp-worker-" + i);
+            workerArray[i].thread.start();
+        }
+
+        Bootstrap bootstrap = new Bootstrap();
+        if (useEpoll) {
+            group = new EpollEventLoopGroup(sockets);
+            bootstrap.group(group)
+                    .channel(EpollDatagramChannel.class)
+                    .option(EpollChannelOption.SO_REUSEPORT, true)
+                    // 缓冲区能容纳batchSize个最大数据报时，epoll传输改用recvmmsg批量读
+                    .option(EpollChannelOption.MAX_DATAGRAM_PAYLOAD_SIZE, maxDatagramSize)
+                    .option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(maxDatagramSize * batchSize)
+                            .maxMessagesPerRead(MAX_MESSAGES_PER_READ));
+        } else {
+            group = new NioEventLoopGroup(sockets);
+            bootstrap.group(group)
+                    .channel(NioDatagramChannel.class)
+                    .option(NioChannelOption.of(StandardSocketOptions.SO_REUSEPORT), true)
+                    .option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(maxDatagramSize)
+                            .maxMessagesPerRead(MAX_MESSAGES_PER_READ));
+        }
+        bootstrap.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .option(ChannelOption.SO_RCVBUF, receiveBufferSize)
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        ch.pipeline().addLast(new Receiver());
+                    }
+                });
+
+        int bindPort = port;
+        for (int i = 0; i < sockets; i++) {
+            Channel channel = bootstrap.bind(bindPort).sync().channel();
+            channels.add(channel);
+            bindPort = ((InetSocketAddress) channel.localAddress()).getPort();
+        }
+        this.port = bindPort;
+        int actualReceiveBuffer = channels.get(0).config().getOption(ChannelOption.SO_RCVBUF);
+        System.out.println(String.format("UDP接收服务器启动，端口: %d，传输: %s，套接字: %d，处理线程: %d，SO_RCVBUF: %d%s",
+                bindPort, useEpoll ? "epoll(recvmmsg)" : "nio", sockets, workers, actualReceiveBuffer,
+                actualReceiveBuffer < receiveBufferSize ? "（请求" + receiveBufferSize + "，受net.core.rmem_max限制）" : ""));
+        return (InetSocketAddress) channels.get(0).localAddress();
+    }
+
+    public void start(int port) throws Exception {
+        bind(port);
+        long lastReceived = 0;
+        long lastProcessed = 0;
+        long lastBytes = 0;
+        while (running) {
+            Thread.sleep(1000);
+            long r = received.sum();
+            long p = processed.sum();
+            long b = receivedBytes.sum();
+            if (r != lastReceived || p != lastProcessed) {
+                System.out.println(String.format("接收 %d/s（%.1fMB/s） 处理 %d/s 队列丢弃 %d 内核丢弃 %d",
+                        r - lastReceived, (b - lastBytes) / 1048576.0, p - lastProcessed, queueDrops.sum(), kernelDrops()));
+            }
+            lastReceived = r;
+            lastProcessed = p;
+            lastBytes = b;
+        }
+    }
+
+    /**
+     * 关闭接收套接字，处理线程处理完队列里剩下的数据报后退出
+     */
+    public void stop() throws InterruptedException {
+        for (Channel channel : channels) {
+            channel.close().sync();
+        }
+        if (group != null) {
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+        }
+        running = false;
+        if (workerArray != null) {
+            for (Worker worker : workerArray) {
+                LockSupport.unpark(worker.thread);
+                worker.thread.join();
+            }
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("received", received.sum());
+        stats.put("receivedBytes", receivedBytes.sum());
+        stats.put("processed", processed.sum());
+        stats.put("queueDrops", queueDrops.sum());
+        stats.put("kernelDrops", kernelDrops());
+        stats.put("handlerErrors", handlerErrors.sum());
+        return stats;
+    }
+
+    /**
+     * 内核因接收缓冲区满丢弃的数据报数（本端口所有套接字之和），非Linux返回-1
+     */
+    public long kernelDrops() {
+        long drops = 0;
+        boolean found = false;
+        String portHex = String.format(":%04X", port);
+        for (String file : new String[]{"/proc/net/udp", "/proc/net/udp6"}) {
+            Path path = Paths.get(file);
+            if (!Files.isReadable(path)) {
+                continue;
+            }
+            try {
+                for (String line : Files.readAllLines(path, StandardCharsets.US_ASCII)) {
+                    String[] fields = line.trim().split("\\s+");
+                    if (fields.length > 12 && fields[1].toUpperCase(Locale.ROOT).endsWith(portHex)) {
+                        drops += Long.parseLong(fields[fields.length - 1]);
+                        found = true;
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                return -1;
+            }
+        }
+        return found ? drops : -1;
+    }
+
+    /**
+     * 每个接收套接字一个，在它的I/O线程上运行
+     * 计数先累加在自己的字段里，每批读完（channelReadComplete）再加到共享计数器
+     */
+    private final class Receiver extends ChannelInboundHandlerAdapter {
+        private long batchReceived;
+        private long batchBytes;
+        private long batchDrops;
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            DatagramPacket packet = (DatagramPacket) msg;
+            batchReceived++;
+            batchBytes += packet.content().readableBytes();
+            Worker worker = workerArray[(packet.sender().hashCode() & Integer.MAX_VALUE) % workerArray.length];
+            if (!worker.offer(packet)) {
+                batchDrops++;
+                packet.release();
+            }
+        }
+
+        @Override
+        public void channelReadComplete(ChannelHandlerContext ctx) {
+            if (batchReceived > 0) {
+                received.add(batchReceived);
+                receivedBytes.add(batchBytes);
+                queueDrops.add(batchDrops);
+                batchReceived = 0;
+                batchBytes = 0;
+                batchDrops = 0;
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            System.err.println("UDP接收异常: " + cause);
+        }
+    }
+
+    /**
+     * 处理线程：多个I/O线程投递、一个线程消费
+     */
+    private final class Worker implements Runnable {
+        private final Queue<DatagramPacket> queue;
+        private volatile boolean parked;
+        private Thread thread;
+
+        Worker(int capacity) {
+            this.queue = PlatformDependent.newFixedMpscQueue(capacity);
+        }
+
+        boolean offer(DatagramPacket packet) {
+            if (!queue.offer(packet)) {
+                return false;
+            }
+            if (parked) {
+                LockSupport.unpark(thread);
+            }
+            return true;
+        }
+
+        @Override
+        public void run() {
+            int idle = 0;
+            long done = 0;
+            while (true) {
+                DatagramPacket packet = queue.poll();
+                if (packet == null) {
+                    if (done > 0) {
+                        processed.add(done);
+                        done = 0;
+                    }
+                    if (!running) {
+                        break;
+                    }
+                    if (++idle < SPIN_BEFORE_PARK) {
+                        Thread.onSpinWait();
+                        continue;
+                    }
+                    // 先发布挂起标记再复查队列，投递方在入队后读标记，两边至少有一方看到对方
+                    parked = true;
+                    if (queue.isEmpty() && running) {
+                        LockSupport.park(this);
+                    }
+                    parked = false;
+                    idle = 0;
+                    continue;
+                }
+                idle = 0;
+                try {
+                    handler.onDatagram(packet.content(), packet.sender());
+                } catch (Exception e) {
+                    handlerErrors.increment();
+                } finally {
+                    packet.release();
+                }
+                if (++done == 256) {
+                    processed.add(done);
+                    done = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * 主方法
+     * @param args 命令行参数：[端口号] [套接字数] [处理线程数]，默认9999、CPU核数、CPU核数
+     * 处理器只统计字节数，用于测量接收能力
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 9999;
+        int cpus = Runtime.getRuntime().availableProcessors();
+        UdpIngestServer server = new UdpIngestServer((content, sender) -> { })
+                .sockets(args.length > 1 ? Integer.parseInt(args[1]) : cpus)
+                .workers(args.length > 2 ? Integer.parseInt(args[2]) : cpus);
+        server.start(port);
+    }
+}
@@ -0,0 +1,327 @@
+package netty;
+
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.unix.SegmentedDatagramPacket;
+import io.netty.util.internal.PlatformDependent;
+
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 批量UDP发布器（替代DatagramChannelDemo.send每次新开通道、每次包装新数组的写法）
+ * 发往固定目的地址，套接字只connect一次，之后每个数据报不再带地址，内核也不再逐包查路由。
+ *
+ * 任意线程调用{@link #publish}把数据报放进有界无锁MPSC队列，由发布器的事件循环线程批量取出：
+ * 连续写入多个数据报后flush一次，epoll传输在出站缓冲区里有多个数据报时用一次sendmmsg发出；
+ * 开启GSO（UDP_SEGMENT，Linux 4.18+）时，把相邻的等长数据报拼成一个SegmentedDatagramPacket
+ * （CompositeByteBuf只串联不拷贝），一次系统调用、一次协议栈遍历交给内核，由内核（或网卡）按段长切分。
+ * 非Linux退回NIO，仍然是connected套接字、批量flush，但每个数据报一次系统调用。
+ *
+ * 出站缓冲区超过高水位线时暂停取队列，恢复可写后继续；队列满时publish返回false并计入丢弃。
+ *
+ * @author MyAcme
+ */
+public class UdpPublisher implements AutoCloseable {
+
+    /**
+     * 内核单个GSO报文允许的最大分段数（UDP_MAX_SEGMENTS）
+     */
+    private static final int MAX_GSO_SEGMENTS = 64;
+
+    /**
+     * 单个GSO报文的最大载荷（IPv4下UDP载荷上限65507，留出余量）
+     */
+    private static final int MAX_GSO_BYTES = 60 * 1024;
+
+    private final InetSocketAddress remote;
+
+    private int queueCapacity = 64 * 1024;
+    private int batchSize = 64;
+    private int sendBufferSize = 4 * 1024 * 1024;
+    private boolean useEpoll = Epoll.isAvailable();
+    private boolean gso = true;
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder sentBytes = new LongAdder();
+    private final LongAdder gsoPackets = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private Queue<ByteBuf> queue;
+    private EventLoopGroup group;
+    private Channel channel;
+    private ByteBufAllocator alloc;
+    private boolean gsoActive;
+    private final Runnable drainTask = this::drain;
+
+    public UdpPublisher(InetSocketAddress remote) {
+        this.remote = remote;
+    }
+
+    public UdpPublisher queueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+    /**
+     * 每flush一次最多写出的数据报数
+     */
+    public UdpPublisher batchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public UdpPublisher sendBufferSize(int sendBufferSize) {
+        this.sendBufferSize = sendBufferSize;
+        return this;
+    }
+
+    public UdpPublisher epoll(boolean useEpoll) {
+        this.useEpoll = useEpoll && Epoll.isAvailable();
+        return this;
+    }
+
+    /**
+     * 是否在支持时使用UDP GSO，默认开启
+     */
+    public UdpPublisher gso(boolean gso) {
+        this.gso = gso;
+        return this;
+    }
+
+    /**
+     * 创建套接字并connect到目的地址
+     */
+    public UdpPublisher connect() throws InterruptedException {
+        queue = PlatformDependent.newFixedMpscQueue(queueCapacity);
+        Bootstrap bootstrap = new Bootstrap();
+        if (useEpoll) {
+            group = new EpollEventLoopGroup(1);
+            bootstrap.channel(EpollDatagramChannel.class);
+            gsoActive = gso && EpollDatagramChannel.isSegmentedDatagramPacketSupported();
+        } else {
+            group = new NioEventLoopGroup(1);
+            bootstrap.channel(NioDatagramChannel.class);
+            gsoActive = false;
+        }
+        bootstrap.group(group)
+                .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .option(ChannelOption.SO_SNDBUF, sendBufferSize)
+                .option(ChannelOption.MAX_MESSAGES_PER_WRITE, batchSize)
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(256 * 1024, 1024 * 1024))
+                .handler(new WritabilityListener());
+        channel = bootstrap.connect(remote).sync().channel();
+        alloc = channel.alloc();
+        return this;
+    }
+
+    /**
+     * 发送方式说明，用于日志和压测输出
+     */
+    public String mode() {
+        if (!useEpoll) {
+            return "nio";
+        }
+        return gsoActive ? "epoll+sendmmsg+gso" : "epoll+sendmmsg";
+    }
+
+    /**
+     * 排队一个数据报，可以从任意线程调用
+     * payload的所有权转给发布器，发送后释放；队列满时立即释放并返回false
+     */
+    public boolean publish(ByteBuf payload) {
+        if (!queue.offer(payload)) {
+            payload.release();
+            dropped.increment();
+            return false;
+        }
+        published.increment();
+        if (drainScheduled.compareAndSet(false, true)) {
+            channel.eventLoop().execute(drainTask);
+        }
+        return true;
+    }
+
+    /**
+     * 拷贝bytes到池化直接缓冲区后排队
+     */
+    public boolean publish(byte[] bytes) {
+        return publish(alloc.directBuffer(bytes.length).writeBytes(bytes));
+    }
+
+    /**
+     * 在事件循环上取出队列里的数据报，每batchSize个flush一次；不可写时停下，等可写后再调度
+     */
+    private void drain() {
+        drainScheduled.set(false);
+        int pending = 0;
+        ByteBuf head = null;
+        while (channel.isWritable()) {
+            ByteBuf payload = head != null ? head : queue.poll();
+            head = null;
+            if (payload == null) {
+                break;
+            }
+            if (gsoActive) {
+                head = writeSegmented(payload);
+            } else {
+                writeOne(payload);
+            }
+            if (++pending >= batchSize) {
+                channel.flush();
+                flushes.increment();
+                pending = 0;
+            }
+        }
+        if (head != null) {
+            writeOne(head);
+            pending++;
+        }
+        if (pending > 0) {
+            channel.flush();
+            flushes.increment();
+        }
+        if (!queue.isEmpty() && channel.isWritable() && drainScheduled.compareAndSet(false, true)) {
+            channel.eventLoop().execute(drainTask);
+        }
+    }
+
+    private void writeOne(ByteBuf payload) {
+        sent.increment();
+        sentBytes.add(payload.readableBytes());
+        channel.write(payload, channel.voidPromise());
+    }
+
+    /**
+     * 从first开始把后续等长的数据报拼成一个GSO报文写出（最后一段可以更短），
+     * 返回第一个不能并入的数据报（由调用方接着处理），没有则返回null
+     */
+    private ByteBuf writeSegmented(ByteBuf first) {
+        int segmentSize = first.readableBytes();
+        ByteBuf next = queue.poll();
+        if (next == null || segmentSize == 0 || segmentSize * 2 > MAX_GSO_BYTES) {
+            writeOne(first);
+            return next;
+        }
+        int maxSegments = Math.min(MAX_GSO_SEGMENTS, MAX_GSO_BYTES / segmentSize);
+        CompositeByteBuf composite = alloc.compositeDirectBuffer(maxSegments);
+        composite.addComponent(true, first);
+        int segments = 1;
+        while (next != null && segments < maxSegments && next.readableBytes() <= segmentSize) {
+            composite.addComponent(true, next);
+            segments++;
+            if (next.readableBytes() < segmentSize) {
+                // 短段只能是最后一段
+                next = null;
+                break;
+            }
+            next = segments < maxSegments ? queue.poll() : null;
+        }
+        sent.add(segments);
+        sentBytes.add(composite.readableBytes());
+        if (segments == 1) {
+            channel.write(composite, channel.voidPromise());
+        } else {
+            gsoPackets.increment();
+            channel.write(new SegmentedDatagramPacket(composite, segmentSize, remote), channel.voidPromise());
+        }
+        return next;
+    }
+
+    /**
+     * 出站缓冲区回落到低水位线以下时继续取队列
+     */
+    private final class WritabilityListener extends ChannelInboundHandlerAdapter {
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+            if (ctx.channel().isWritable() && drainScheduled.compareAndSet(false, true)) {
+                ctx.executor().execute(drainTask);
+            }
+            ctx.fireChannelWritabilityChanged();
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            // 对端端口未监听时connected套接字会收到ICMP端口不可达，不影响继续发送
+            System.err.println("UDP发送异常: " + cause.getMessage());
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("mode", mode());
+        stats.put("published", published.sum());
+        stats.put("dropped", dropped.sum());
+        stats.put("sent", sent.sum());
+        stats.put("sentBytes", sentBytes.sum());
+        stats.put("gsoPackets", gsoPackets.sum());
+        stats.put("flushes", flushes.sum());
+        return stats;
+    }
+
+    /**
+     * 队列里等待发送的数据报数
+     */
+    public int queued() {
+        return queue.size();
+    }
+
+    public long sent() {
+        return sent.sum();
+    }
+
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * 等队列发完（最多等5秒）后关闭套接字；等待时被中断就不再等，关闭完成后恢复中断标志
+     */
+    @Override
+    public void close() {
+        if (channel == null) {
+            return;
+        }
+        boolean interrupted = false;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!interrupted && !queue.isEmpty() && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        channel.close().syncUninterruptibly();
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+        ByteBuf left;
+        while ((left = queue.poll()) != null) {
+            left.release();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package netty;
+
+
+import charset.Utf8;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageDecoder;
+import io.netty.handler.codec.MessageToMessageEncoder;
+
+import java.util.List;
+
+/**
+ * 基于{@link Utf8}的字符串编解码器，替代Netty的StringDecoder/StringEncoder
+ * StringDecoder/StringEncoder每条消息经过CharBuffer和CharsetDecoder/CharsetEncoder；
+ * 这里解码用String内建的UTF-8快速路径，编码后按精确长度分配ByteBuf。
+ * 两个处理器都无状态，可以在所有通道间共享。
+ *
+ * @author MyAcme
+ */
+public final class Utf8StringCodec {
+
+    public static final Decoder DECODER = new Decoder();
+    public static final Encoder ENCODER = new Encoder();
+
+    private Utf8StringCodec() {
+    }
+
+    /**
+     * ByteBuf -> String
+     */
+    @ChannelHandler.Sharable
+    public static final class Decoder extends MessageToMessageDecoder<ByteBuf> {
+        private Decoder() {
+        }
+
+        @Override
+        protected void decode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) {
+            out.add(Utf8.decode(msg, msg.readerIndex(), msg.readableBytes()));
+        }
+    }
+
+    /**
+     * CharSequence -> ByteBuf
+     */
+    @ChannelHandler.Sharable
+    public static final class Encoder extends MessageToMessageEncoder<CharSequence> {
+        private Encoder() {
+        }
+
+        @Override
+        protected void encode(ChannelHandlerContext ctx, CharSequence msg, List<Object> out) {
+            if (msg.length() == 0) {
+                return;
+            }
+            byte[] bytes = Utf8.encode(msg);
+            out.add(ctx.alloc().buffer(bytes.length).writeBytes(bytes));
+        }
+    }
+}
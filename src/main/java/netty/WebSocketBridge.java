@@ -0,0 +1,410 @@
+package netty;
+
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.EmptyHttpHeaders;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpRequestDecoder;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PongWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketDecoderConfig;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketServerHandshaker;
+import io.netty.handler.codec.http.websocketx.WebSocketServerHandshakerFactory;
+import io.netty.handler.codec.http.websocketx.WebSocketVersion;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionData;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionUtil;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtension;
+import io.netty.handler.codec.http.websocketx.extensions.compression.PerMessageDeflateServerExtensionHandshaker;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.GlobalEventExecutor;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+/**
+ * WebSocket订阅端与{@link ConnectionManager}广播的桥接
+ * 作为HTTP路由挂在/ws上：握手成功后把连接从HTTP管道切换为WebSocket，注册为广播订阅者。
+ *
+ * 广播时每条消息只构造一次完整的帧字节（帧头 + 正文，服务端帧不加掩码），
+ * 所有订阅者共享同一块缓冲区的retainedDuplicate，写出时绕过逐连接的帧编码器。
+ * 协商了permessage-deflate的连接收到的是同一份压缩帧：握手时强制server_no_context_takeover，
+ * 每条消息独立压缩，不依赖某个连接的压缩上下文，才能只压缩一次发给所有人。
+ *
+ * 每个订阅连接设置写缓冲水位线，不可写时丢弃广播而不是在内存里无限堆积，
+ * 连续丢弃超过上限的慢消费者直接断开。
+ *
+ * @author MyAcme
+ */
+public class WebSocketBridge {
+
+    private static final AttributeKey<Subscriber> SUBSCRIBER = AttributeKey.valueOf("webSocketSubscriber");
+
+    private static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+    private static final String SERVER_NO_CONTEXT = "server_no_context_takeover";
+
+    private static final int OPCODE_TEXT = 0x1;
+    private static final int FIN = 0x80;
+    private static final int RSV1 = 0x40;
+
+    private static final byte[] DEFLATE_TAIL = {0x00, 0x00, (byte) 0xff, (byte) 0xff};
+
+    private final ChannelGroup channels = new DefaultChannelGroup("websocket-subscribers", GlobalEventExecutor.INSTANCE);
+
+    private int maxFramePayload = 64 * 1024;
+    private int compressionLevel = 6;
+    private int minCompressSize = 256;
+    private WriteBufferWaterMark waterMark = new WriteBufferWaterMark(64 * 1024, 256 * 1024);
+    private int maxDroppedMessages = 1000;
+    private ByteBufAllocator alloc = PooledByteBufAllocator.DEFAULT;
+
+    /**
+     * 广播压缩共用的Deflater，每条消息前reset
+     */
+    private final Deflater deflater = new Deflater(compressionLevel, true);
+
+    private final LongAdder broadcasts = new LongAdder();
+    private final LongAdder framesEncoded = new LongAdder();
+    private final LongAdder framesDeflated = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder slowConsumersClosed = new LongAdder();
+
+    /**
+     * 客户端发来的单帧最大正文字节数
+     */
+    public WebSocketBridge maxFramePayload(int maxFramePayload) {
+        this.maxFramePayload = maxFramePayload;
+        return this;
+    }
+
+    /**
+     * permessage-deflate压缩级别（0-9）
+     */
+    public WebSocketBridge compressionLevel(int compressionLevel) {
+        synchronized (deflater) {
+            this.compressionLevel = compressionLevel;
+            deflater.setLevel(compressionLevel);
+        }
+        return this;
+    }
+
+    /**
+     * 小于该字节数的消息不压缩
+     */
+    public WebSocketBridge minCompressSize(int minCompressSize) {
+        this.minCompressSize = minCompressSize;
+        return this;
+    }
+
+    /**
+     * 每个订阅连接的写缓冲水位线，超过高水位后连接不可写，广播被丢弃
+     */
+    public WebSocketBridge writeBufferWaterMark(WriteBufferWaterMark waterMark) {
+        this.waterMark = waterMark;
+        return this;
+    }
+
+    /**
+     * 连续丢弃超过该条数的订阅者被断开
+     */
+    public WebSocketBridge maxDroppedMessages(int maxDroppedMessages) {
+        this.maxDroppedMessages = maxDroppedMessages;
+        return this;
+    }
+
+    public WebSocketBridge alloc(ByteBufAllocator alloc) {
+        this.alloc = alloc;
+        return this;
+    }
+
+    public ChannelGroup channels() {
+        return channels;
+    }
+
+    /**
+     * 升级为WebSocket的路由处理器，挂在GET路由上
+     */
+    public HttpRouteHandler handler() {
+        return this::upgrade;
+    }
+
+    private void upgrade(HttpExchange exchange) {
+        HttpRequest request = exchange.request();
+        Channel channel = exchange.channel();
+        if (!HttpHeaderValues.WEBSOCKET.contentEqualsIgnoreCase(request.headers().get(HttpHeaderNames.UPGRADE))
+                || channel.pipeline().get(HttpRequestDecoder.class) == null) {
+            // 普通请求或HTTP/2流上的请求（不支持RFC 8441）
+            exchange.respond(HttpResponseStatus.UPGRADE_REQUIRED, HttpHeaderValues.TEXT_PLAIN,
+                    Unpooled.copiedBuffer("WebSocket upgrade required\n", StandardCharsets.US_ASCII));
+            return;
+        }
+        FullHttpRequest full = request instanceof FullHttpRequest ? (FullHttpRequest) request
+                : new DefaultFullHttpRequest(request.protocolVersion(), request.method(), request.uri(),
+                Unpooled.EMPTY_BUFFER, request.headers(), EmptyHttpHeaders.INSTANCE);
+        WebSocketDecoderConfig decoderConfig = WebSocketDecoderConfig.newBuilder()
+                .maxFramePayloadLength(maxFramePayload)
+                .allowExtensions(true)
+                .build();
+        WebSocketServerHandshaker handshaker = new WebSocketServerHandshakerFactory(
+                "ws://" + request.headers().get(HttpHeaderNames.HOST) + exchange.path(), null, decoderConfig)
+                .newHandshaker(full);
+        if (handshaker == null) {
+            FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
+                    HttpResponseStatus.UPGRADE_REQUIRED, Unpooled.EMPTY_BUFFER);
+            response.headers().set(HttpHeaderNames.SEC_WEBSOCKET_VERSION, WebSocketVersion.V13.toHttpHeaderValue());
+            exchange.respond(response);
+            return;
+        }
+
+        HttpHeaders responseHeaders = new DefaultHttpHeaders();
+        WebSocketServerExtension extension = negotiateDeflate(request, responseHeaders);
+        Subscriber subscriber = new Subscriber(handshaker, extension != null);
+        ChannelPipeline pipeline = channel.pipeline();
+        handshaker.handshake(channel, full, responseHeaders, channel.newPromise()).addListener(future -> {
+            if (future.isSuccess()) {
+                register(channel, subscriber);
+            } else {
+                System.err.println("WebSocket握手失败: " + future.cause());
+                channel.close();
+            }
+        });
+        // 握手已把请求解码器换成帧解码器，HTTP层的其余处理器不再需要
+        removeIfPresent(pipeline, HttpServerUpgradeHandler.class);
+        removeIfPresent(pipeline, HttpPipeliningHandler.class);
+        removeIfPresent(pipeline, HttpRequestRouter.class);
+        if (extension != null) {
+            pipeline.addAfter("wsencoder", "wsExtensionDecoder", extension.newExtensionDecoder());
+            pipeline.addAfter("wsExtensionDecoder", "wsExtensionEncoder", extension.newExtensionEncoder());
+        }
+        pipeline.addLast("wsSubscriber", subscriber);
+    }
+
+    /**
+     * 按Sec-WebSocket-Extensions协商permessage-deflate，接受时把响应头写入responseHeaders
+     * 无论客户端是否提出，都要求server_no_context_takeover（RFC 7692允许服务端单方面声明）
+     */
+    private WebSocketServerExtension negotiateDeflate(HttpRequest request, HttpHeaders responseHeaders) {
+        String offered = request.headers().get(HttpHeaderNames.SEC_WEBSOCKET_EXTENSIONS);
+        if (offered == null) {
+            return null;
+        }
+        PerMessageDeflateServerExtensionHandshaker handshaker =
+                new PerMessageDeflateServerExtensionHandshaker(compressionLevel, false, 15, true, false);
+        for (WebSocketExtensionData offer : WebSocketExtensionUtil.extractExtensions(offered)) {
+            if (!PERMESSAGE_DEFLATE.equals(offer.name())) {
+                continue;
+            }
+            Map<String, String> parameters = new HashMap<>(offer.parameters());
+            parameters.put(SERVER_NO_CONTEXT, null);
+            WebSocketServerExtension extension =
+                    handshaker.handshakeExtension(new WebSocketExtensionData(offer.name(), parameters));
+            if (extension != null) {
+                responseHeaders.set(HttpHeaderNames.SEC_WEBSOCKET_EXTENSIONS, format(extension.newReponseData()));
+                return extension;
+            }
+        }
+        return null;
+    }
+
+    private static String format(WebSocketExtensionData data) {
+        StringBuilder sb = new StringBuilder(data.name());
+        for (Map.Entry<String, String> parameter : data.parameters().entrySet()) {
+            sb.append("; ").append(parameter.getKey());
+            if (parameter.getValue() != null) {
+                sb.append('=').append(parameter.getValue());
+            }
+        }
+        return sb.toString();
+    }
+
+    private void register(Channel channel, Subscriber subscriber) {
+        channel.config().setOption(ChannelOption.WRITE_BUFFER_WATER_MARK, waterMark);
+        channel.attr(SUBSCRIBER).set(subscriber);
+        channels.add(channel);
+        ConnectionManager.getInstance().addWebSocketConnection(channel);
+        channel.closeFuture().addListener((ChannelFutureListener) f ->
+                ConnectionManager.getInstance().removeConnection(f.channel()));
+    }
+
+    /**
+     * 向所有订阅者广播一条文本消息，帧字节（以及需要时的压缩帧）只构造一次
+     */
+    public void broadcast(String text) {
+        if (channels.isEmpty()) {
+            return;
+        }
+        broadcasts.increment();
+        byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuf plain = encodeFrame(payload, 0, payload.length, false);
+        ByteBuf deflated = null;
+        boolean deflateTried = false;
+        try {
+            for (Channel channel : channels) {
+                Subscriber subscriber = channel.attr(SUBSCRIBER).get();
+                if (subscriber == null) {
+                    continue;
+                }
+                ByteBuf frame = plain;
+                if (subscriber.deflate && payload.length >= minCompressSize) {
+                    if (!deflateTried) {
+                        deflateTried = true;
+                        deflated = deflateFrame(payload);
+                    }
+                    if (deflated != null) {
+                        frame = deflated;
+                    }
+                }
+                subscriber.send(channel, frame);
+            }
+        } finally {
+            plain.release();
+            if (deflated != null) {
+                deflated.release();
+            }
+        }
+    }
+
+    /**
+     * 构造一个完整的服务端文本帧：FIN + 操作码 + 长度（7/16/64位）+ 正文，不加掩码
+     */
+    private ByteBuf encodeFrame(byte[] payload, int offset, int length, boolean compressed) {
+        ByteBuf frame = alloc.directBuffer(length + 10);
+        frame.writeByte(FIN | (compressed ? RSV1 : 0) | OPCODE_TEXT);
+        if (length < 126) {
+            frame.writeByte(length);
+        } else if (length <= 0xffff) {
+            frame.writeByte(126).writeShort(length);
+        } else {
+            frame.writeByte(127).writeLong(length);
+        }
+        frame.writeBytes(payload, offset, length);
+        framesEncoded.increment();
+        return frame;
+    }
+
+    /**
+     * 独立压缩一条消息（raw deflate + SYNC_FLUSH，去掉结尾的00 00 FF FF），压缩后不更小时返回null
+     */
+    private ByteBuf deflateFrame(byte[] payload) {
+        byte[] out = new byte[payload.length + 64];
+        int length;
+        synchronized (deflater) {
+            deflater.reset();
+            deflater.setInput(payload);
+            length = 0;
+            while (true) {
+                length += deflater.deflate(out, length, out.length - length, Deflater.SYNC_FLUSH);
+                if (length < out.length) {
+                    break;
+                }
+                byte[] grown = new byte[out.length * 2];
+                System.arraycopy(out, 0, grown, 0, length);
+                out = grown;
+            }
+        }
+        if (length >= 4 && ByteBuffer.wrap(out, length - 4, 4).equals(ByteBuffer.wrap(DEFLATE_TAIL))) {
+            length -= 4;
+        }
+        if (length >= payload.length) {
+            return null;
+        }
+        framesDeflated.increment();
+        return encodeFrame(out, 0, length, true);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("subscribers", channels.size());
+        stats.put("broadcasts", broadcasts.sum());
+        stats.put("framesEncoded", framesEncoded.sum());
+        stats.put("framesDeflated", framesDeflated.sum());
+        stats.put("delivered", delivered.sum());
+        stats.put("dropped", dropped.sum());
+        stats.put("slowConsumersClosed", slowConsumersClosed.sum());
+        return stats;
+    }
+
+    private static void removeIfPresent(ChannelPipeline pipeline, Class<? extends ChannelHandler> type) {
+        if (pipeline.get(type) != null) {
+            pipeline.remove(type);
+        }
+    }
+
+    /**
+     * 单个订阅连接：处理客户端的Ping/Close，记录连续丢弃数
+     */
+    private final class Subscriber extends SimpleChannelInboundHandler<WebSocketFrame> {
+
+        private final WebSocketServerHandshaker handshaker;
+        private final boolean deflate;
+        private final AtomicInteger consecutiveDrops = new AtomicInteger();
+
+        Subscriber(WebSocketServerHandshaker handshaker, boolean deflate) {
+            this.handshaker = handshaker;
+            this.deflate = deflate;
+        }
+
+        void send(Channel channel, ByteBuf frame) {
+            if (channel.isWritable()) {
+                consecutiveDrops.set(0);
+                channel.writeAndFlush(frame.retainedDuplicate(), channel.voidPromise());
+                delivered.increment();
+                return;
+            }
+            dropped.increment();
+            if (consecutiveDrops.incrementAndGet() == maxDroppedMessages + 1) {
+                System.err.println("WebSocket订阅者过慢，断开: " + channel.remoteAddress());
+                slowConsumersClosed.increment();
+                channel.close();
+            }
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, WebSocketFrame frame) {
+            if (frame instanceof PingWebSocketFrame) {
+                ctx.writeAndFlush(new PongWebSocketFrame(frame.content().retain()));
+            } else if (frame instanceof CloseWebSocketFrame) {
+                handshaker.close(ctx.channel(), (CloseWebSocketFrame) frame.retain());
+            }
+            // 订阅端只接收广播，客户端发来的数据帧忽略
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            System.err.println("WebSocket连接异常: " + cause);
+            ctx.close();
+        }
+    }
+}
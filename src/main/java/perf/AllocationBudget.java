@@ -0,0 +1,180 @@
+package perf;
+
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.ResourceLeakDetector;
+import io.netty.util.ResourceLeakDetectorFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 分配预算测量工具
+ * 用com.sun.management.ThreadMXBean统计当前线程在热路径上分配的堆字节数，
+ * 用PARANOID级别的ResourceLeakDetector统计泄漏的ByteBuf个数。
+ *
+ * 使用前必须先调用{@link #installLeakCounter()}：Netty的泄漏检测器在ByteBuf类初始化时创建，
+ * 之后再替换工厂不会生效。
+ *
+ * @author MyAcme
+ */
+public final class AllocationBudget {
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static final AtomicLong LEAKS = new AtomicLong();
+
+    private static volatile boolean installed;
+
+    private AllocationBudget() {}
+
+    /**
+     * 替换Netty的泄漏检测器工厂，让每次泄漏报告都计数
+     * 需在任何ByteBuf分配之前调用
+     */
+    public static synchronized void installLeakCounter() {
+        if (installed) {
+            return;
+        }
+        ResourceLeakDetectorFactory.setResourceLeakDetectorFactory(new ResourceLeakDetectorFactory() {
+            @Override
+            public <T> ResourceLeakDetector<T> newResourceLeakDetector(Class<T> resource, int samplingInterval) {
+                return new CountingLeakDetector<>(resource, samplingInterval);
+            }
+
+            // 4.1里这个已废弃的重载仍是抽象方法，只能实现它；Netty自身走上面的两参数版本
+            @Override
+            @SuppressWarnings("deprecation")
+            public <T> ResourceLeakDetector<T> newResourceLeakDetector(Class<T> resource, int samplingInterval,
+                                                                       long maxActive) {
+                return newResourceLeakDetector(resource, samplingInterval);
+            }
+        });
+        installed = true;
+    }
+
+    /**
+     * 当前JVM是否支持线程级分配统计
+     */
+    public static boolean isSupported() {
+        return THREADS.isThreadAllocatedMemorySupported();
+    }
+
+    /**
+     * 当前线程累计分配的堆字节数
+     */
+    public static long currentThreadAllocatedBytes() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * 已报告的泄漏次数
+     */
+    public static long leakCount() {
+        return LEAKS.get();
+    }
+
+    /**
+     * 测量一条消息穿过管道的平均分配量
+     * 先预热让JIT和池化缓存稳定，再在同一线程上统计operations条消息的分配总量
+     *
+     * @param channel    被测管道
+     * @param warmup     预热消息数
+     * @param operations 统计消息数
+     * @param operation  驱动一条消息的动作（写入入站/出站并排空输出）
+     * @return 每条消息分配的字节数
+     */
+    public static double bytesPerOperation(EmbeddedChannel channel, int warmup, int operations,
+                                           Consumer<EmbeddedChannel> operation) {
+        for (int i = 0; i < warmup; i++) {
+            operation.accept(channel);
+        }
+        long before = currentThreadAllocatedBytes();
+        for (int i = 0; i < operations; i++) {
+            operation.accept(channel);
+        }
+        long after = currentThreadAllocatedBytes();
+        return (after - before) / (double) operations;
+    }
+
+    /**
+     * 在PARANOID级别下驱动operations条消息，然后触发GC收集泄漏报告
+     *
+     * @return 本次新增的泄漏次数
+     */
+    public static long leaksAfter(ChannelHandlerFactory pipeline, int operations,
+                                  Consumer<EmbeddedChannel> operation) throws InterruptedException {
+        if (!installed) {
+            throw new IllegalStateException("需先调用installLeakCounter()");
+        }
+        ResourceLeakDetector.Level previous = ResourceLeakDetector.getLevel();
+        ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.PARANOID);
+        try {
+            long before = LEAKS.get();
+            EmbeddedChannel channel = new EmbeddedChannel(pipeline.create());
+            drain(channel);
+            for (int i = 0; i < operations; i++) {
+                operation.accept(channel);
+            }
+            channel.finishAndReleaseAll();
+            channel = null;
+            // 泄漏对象被GC回收后，下一次track()才会从引用队列里取出并报告
+            for (int i = 0; i < 5; i++) {
+                System.gc();
+                Thread.sleep(50);
+                ReferenceCountUtil.release(ByteBufAllocator.DEFAULT.directBuffer(1));
+                ReferenceCountUtil.release(ByteBufAllocator.DEFAULT.heapBuffer(1));
+            }
+            return LEAKS.get() - before;
+        } finally {
+            ResourceLeakDetector.setLevel(previous);
+        }
+    }
+
+    /**
+     * 释放管道中残留的入站/出站消息
+     */
+    public static void drain(EmbeddedChannel channel) {
+        Object msg;
+        while ((msg = channel.readOutbound()) != null) {
+            ReferenceCountUtil.release(msg);
+        }
+        while ((msg = channel.readInbound()) != null) {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    /**
+     * 每次测量都需要全新的处理器实例（有状态的解码器不能共享）
+     */
+    public interface ChannelHandlerFactory {
+        ChannelHandler create();
+    }
+
+    /**
+     * 报告泄漏时计数的检测器
+     */
+    private static final class CountingLeakDetector<T> extends ResourceLeakDetector<T> {
+
+        CountingLeakDetector(Class<?> resourceType, int samplingInterval) {
+            super(resourceType, samplingInterval);
+        }
+
+        @Override
+        protected void reportTracedLeak(String resourceType, String records) {
+            LEAKS.incrementAndGet();
+            super.reportTracedLeak(resourceType, records);
+        }
+
+        @Override
+        protected void reportUntracedLeak(String resourceType) {
+            LEAKS.incrementAndGet();
+            super.reportUntracedLeak(resourceType);
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package perf;
+
+
+import buffer.DirectBufferPool;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.ReferenceCountUtil;
+import netty.CustomProtocol;
+import netty.CustomProtocolServer;
+import netty.HttpResponseCache;
+import netty.HttpRoutes;
+import netty.HttpServer;
+import netty.NettyServer;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 每条消息分配预算检查
+ * 用EmbeddedChannel搭建与NettyServer、CustomProtocolServer完全相同的管道，推送N条消息，
+ * 断言每条消息的堆分配字节数不超过预算、PARANOID泄漏检测下没有泄漏的ByteBuf。
+ * 另外检查原生NIO路径的{@link DirectBufferPool}在稳态下获取/释放不分配堆内存。
+ * 任一项超标即以非0状态码退出，在perf构建profile里会让构建失败。
+ *
+ * 分配量扣除了测量框架自身的开销（同样的输入输出走一条空管道），预算只约束被测处理器。
+ * 优化热路径后应同步收紧预算，把"无分配"变成被回归保护的性质。
+ *
+ * 可用的系统属性：
+ * alloc.messages  统计消息数，默认200000
+ * alloc.warmup    预热消息数，默认50000
+ *
+ * @author MyAcme
+ */
+public class AllocationBudgetSuite {
+
+    /**
+     * 一个预算项
+     */
+    static class Budget {
+        final String name;
+        final AllocationBudget.ChannelHandlerFactory pipeline;
+        final Consumer<EmbeddedChannel> operation;
+        final double maxBytesPerMessage;
+
+        Budget(String name, AllocationBudget.ChannelHandlerFactory pipeline,
+               Consumer<EmbeddedChannel> operation, double maxBytesPerMessage) {
+            this.name = name;
+            this.pipeline = pipeline;
+            this.operation = operation;
+            this.maxBytesPerMessage = maxBytesPerMessage;
+        }
+    }
+
+    static List<Budget> budgets() {
+        byte[] line = "hello netty 0123".repeat(4).concat("\r\n").getBytes(StandardCharsets.UTF_8);
+        byte[] frame = customFrame("payload ".repeat(32));
+        CustomProtocol.CustomMessage message = new CustomProtocol.CustomMessage(
+                CustomProtocol.MessageType.TEXT, "payload ".repeat(32));
+
+        // 预算取当前实测值留约25%余量；热路径优化后应随之收紧
+        List<Budget> list = new ArrayList<>();
+        // NettyServer：按行解码 -> String -> 大写回应 -> String编码
+        list.add(new Budget("netty-server-line-64B",
+                initializer(NettyServer::initPipeline), inbound(line), 1536));
+        // CustomProtocolServer：解码 -> 回显 -> 编码
+        list.add(new Budget("custom-protocol-echo-256B",
+                initializer(CustomProtocolServer::initPipeline), inbound(frame), 8192));
+        // HttpServer固定路由：解码GET请求 -> 路由 -> 预编码响应透传
+        byte[] get = "GET /plaintext HTTP/1.1\r\nHost: 127.0.0.1\r\nUser-Agent: perf\r\n\r\n"
+                .getBytes(StandardCharsets.US_ASCII);
+        list.add(new Budget("http-plaintext-fixed",
+                initializer(pipeline -> HttpServer.initPipeline(pipeline, HttpServer.defaultRoutes())),
+                inbound(get), 1024));
+        // 响应缓存命中：retainedDuplicate后透传，不重新编码
+        byte[] cachedGet = "GET /cached HTTP/1.1\r\nHost: 127.0.0.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+        HttpResponseCache cache = new HttpResponseCache(1 << 20, 1, TimeUnit.HOURS);
+        HttpRoutes cachedRoutes = new HttpRoutes().get("/cached", cache.cached(exchange ->
+                new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                        Unpooled.copiedBuffer("cached: ".repeat(32), StandardCharsets.US_ASCII))));
+        list.add(new Budget("http-cache-hit-256B",
+                initializer(pipeline -> HttpServer.initPipeline(pipeline, cachedRoutes)),
+                inbound(cachedGet), 768));
+        // 只有CustomEncoder的出站路径
+        list.add(new Budget("custom-encoder-256B",
+                CustomProtocol.CustomEncoder::new, outbound(message), 4096));
+        return list;
+    }
+
+    public static void main(String[] args) throws Exception {
+        AllocationBudget.installLeakCounter();
+        if (!AllocationBudget.isSupported()) {
+            System.err.println("当前JVM不支持线程级分配统计，跳过分配预算检查");
+            return;
+        }
+        int messages = Integer.getInteger("alloc.messages", 200_000);
+        int warmup = Integer.getInteger("alloc.warmup", 50_000);
+
+        PrintStream console = System.out;
+        List<String> failures = new ArrayList<>();
+        byte[] line = "calibration line\r\n".getBytes(StandardCharsets.UTF_8);
+
+        for (Budget budget : budgets()) {
+            // 被测处理器逐条打印日志，测量期间丢弃标准输出
+            System.setOut(new PrintStream(OutputStream.nullOutputStream(), false, StandardCharsets.UTF_8));
+            double bytesPerMessage;
+            long leaks;
+            try {
+                double overhead = measure(ReleasingHandler::new, inbound(line), warmup, messages);
+                bytesPerMessage = measure(budget.pipeline, budget.operation, warmup, messages) - overhead;
+                leaks = AllocationBudget.leaksAfter(budget.pipeline, Math.min(messages, 10_000), budget.operation);
+            } finally {
+                System.setOut(console);
+            }
+            boolean overBudget = bytesPerMessage > budget.maxBytesPerMessage;
+            console.println(String.format("%-28s %10.1f B/msg  预算 %8.1f B/msg  泄漏 %d%s",
+                    budget.name, bytesPerMessage, budget.maxBytesPerMessage, leaks,
+                    overBudget || leaks > 0 ? "  <-- 超标" : ""));
+            if (overBudget) {
+                failures.add(String.format("%s 每条消息分配%.1f字节，超出预算%.1f字节",
+                        budget.name, bytesPerMessage, budget.maxBytesPerMessage));
+            }
+            if (leaks > 0) {
+                failures.add(budget.name + " 检测到" + leaks + "次ByteBuf泄漏");
+            }
+        }
+
+        checkBufferPool(console, failures, warmup, messages);
+
+        if (!failures.isEmpty()) {
+            console.println("\n分配预算检查失败:");
+            for (String failure : failures) {
+                console.println("  " + failure);
+            }
+            System.exit(1);
+        }
+        console.println("\n分配预算检查通过");
+        System.exit(0);
+    }
+
+    /**
+     * 原生NIO路径用的直接缓冲区池：稳态下acquire/release不分配堆内存，调试模式下全部归还
+     */
+    static void checkBufferPool(PrintStream console, List<String> failures, int warmup, int operations) {
+        int[] sizes = {100, 1500, 16 * 1024, 64 * 1024};
+        ByteBuffer[] held = new ByteBuffer[sizes.length];
+        double budget = 1.0;
+
+        DirectBufferPool pool = new DirectBufferPool(512, 1024 * 1024, 64L * 1024 * 1024, false);
+        for (int i = 0; i < warmup; i++) {
+            cycle(pool, sizes, held);
+        }
+        long before = AllocationBudget.currentThreadAllocatedBytes();
+        for (int i = 0; i < operations; i++) {
+            cycle(pool, sizes, held);
+        }
+        double bytesPerCycle = (AllocationBudget.currentThreadAllocatedBytes() - before) / (double) operations;
+
+        DirectBufferPool debugPool = new DirectBufferPool(512, 1024 * 1024, 64L * 1024 * 1024, true);
+        for (int i = 0; i < Math.min(operations, 10_000); i++) {
+            cycle(debugPool, sizes, held);
+        }
+        int leaks = debugPool.reportLeaks();
+
+        boolean overBudget = bytesPerCycle > budget;
+        console.println(String.format("%-28s %10.1f B/msg  预算 %8.1f B/msg  泄漏 %d%s",
+                "direct-buffer-pool", bytesPerCycle, budget, leaks,
+                overBudget || leaks > 0 ? "  <-- 超标" : ""));
+        if (overBudget) {
+            failures.add(String.format("direct-buffer-pool 每轮获取/释放分配%.1f字节，超出预算%.1f字节",
+                    bytesPerCycle, budget));
+        }
+        if (leaks > 0) {
+            failures.add("direct-buffer-pool 有" + leaks + "个缓冲区未归还");
+        }
+    }
+
+    private static void cycle(DirectBufferPool pool, int[] sizes, ByteBuffer[] held) {
+        for (int i = 0; i < sizes.length; i++) {
+            held[i] = pool.acquire(sizes[i]);
+        }
+        for (int i = 0; i < sizes.length; i++) {
+            pool.release(held[i]);
+        }
+    }
+
+    private static double measure(AllocationBudget.ChannelHandlerFactory pipeline,
+                                  Consumer<EmbeddedChannel> operation, int warmup, int messages) {
+        EmbeddedChannel channel = new EmbeddedChannel(pipeline.create());
+        try {
+            AllocationBudget.drain(channel);
+            return AllocationBudget.bytesPerOperation(channel, warmup, messages, operation);
+        } finally {
+            channel.finishAndReleaseAll();
+        }
+    }
+
+    /**
+     * 模拟一次socket读：从池化分配器取缓冲区写入报文后送入管道，再排空输出
+     */
+    static Consumer<EmbeddedChannel> inbound(byte[] bytes) {
+        return channel -> {
+            ByteBuf buf = ByteBufAllocator.DEFAULT.directBuffer(bytes.length).writeBytes(bytes);
+            channel.writeOneInbound(buf, channel.voidPromise());
+            channel.flushInbound();
+            AllocationBudget.drain(channel);
+        };
+    }
+
+    /**
+     * 写出一条消息对象并排空出站缓冲
+     */
+    static Consumer<EmbeddedChannel> outbound(Object message) {
+        return channel -> {
+            channel.writeAndFlush(message, channel.voidPromise());
+            AllocationBudget.drain(channel);
+        };
+    }
+
+    static AllocationBudget.ChannelHandlerFactory initializer(Consumer<io.netty.channel.ChannelPipeline> init) {
+        return () -> new ChannelInitializer<EmbeddedChannel>() {
+            @Override
+            protected void initChannel(EmbeddedChannel ch) {
+                init.accept(ch.pipeline());
+            }
+        };
+    }
+
+    private static byte[] customFrame(String content) {
+        byte[] body = content.getBytes(StandardCharsets.UTF_8);
+        ByteBuf buf = ByteBufAllocator.DEFAULT.heapBuffer(16 + body.length);
+        try {
+            buf.writeInt(CustomProtocol.MessageType.TEXT.getValue());
+            buf.writeInt(body.length);
+            buf.writeLong(System.currentTimeMillis());
+            buf.writeBytes(body);
+            byte[] bytes = new byte[buf.readableBytes()];
+            buf.readBytes(bytes);
+            return bytes;
+        } finally {
+            buf.release();
+        }
+    }
+
+    /**
+     * 校准用的空管道：只释放入站消息
+     */
+    static class ReleasingHandler extends ChannelInboundHandlerAdapter {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package perf;
+
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LineBasedFrameDecoder;
+import io.netty.handler.codec.http.HttpResponseDecoder;
+import io.netty.handler.codec.http.LastHttpContent;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 压测客户端的协议描述
+ * 负责客户端管道里的解码器、请求报文和"一条完整响应"的判定。
+ * 请求报文预先编码为一块不可释放的只读缓冲区，每次发送只做duplicate，压测端自身几乎不产生开销。
+ *
+ * @author MyAcme
+ */
+public interface ClientProtocol {
+
+    /**
+     * 向客户端管道添加响应解码器
+     */
+    void initPipeline(ChannelPipeline pipeline);
+
+    /**
+     * 预编码的请求报文（不可释放），调用方duplicate()后写出
+     */
+    ByteBuf request();
+
+    /**
+     * 解码后的入站消息是否标志着一条响应结束
+     */
+    default boolean isResponseEnd(Object msg) {
+        return true;
+    }
+
+    /**
+     * 连接建立后服务器主动推送、需要先跳过的消息条数（如欢迎语）
+     */
+    default int handshakeMessages() {
+        return 0;
+    }
+
+    /**
+     * 按行收发的文本协议，对应NettyServer
+     *
+     * @param payloadSize 每行内容的字节数（不含\r\n）
+     * @param welcomeLines 连接后服务器先推送的欢迎语行数
+     */
+    static ClientProtocol lines(int payloadSize, int welcomeLines) {
+        StringBuilder sb = new StringBuilder(payloadSize + 2);
+        for (int i = 0; i < payloadSize; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        sb.append("\r\n");
+        ByteBuf request = Unpooled.unreleasableBuffer(Unpooled.directBuffer(payloadSize + 2)
+                .writeBytes(sb.toString().getBytes(StandardCharsets.US_ASCII)).asReadOnly());
+        return new ClientProtocol() {
+            @Override
+            public void initPipeline(ChannelPipeline pipeline) {
+                pipeline.addLast(new LineBasedFrameDecoder(64 * 1024));
+            }
+
+            @Override
+            public ByteBuf request() {
+                return request;
+            }
+
+            @Override
+            public int handshakeMessages() {
+                return welcomeLines;
+            }
+        };
+    }
+
+    /**
+     * CustomProtocol二进制协议：type(4) + length(4) + timestamp(8) + content
+     *
+     * @param payloadSize 消息内容字节数
+     */
+    static ClientProtocol customMessages(int payloadSize) {
+        ByteBuf buf = Unpooled.directBuffer(16 + payloadSize);
+        buf.writeInt(1);
+        buf.writeInt(payloadSize);
+        buf.writeLong(System.currentTimeMillis());
+        for (int i = 0; i < payloadSize; i++) {
+            buf.writeByte('a' + i % 26);
+        }
+        ByteBuf request = Unpooled.unreleasableBuffer(buf.asReadOnly());
+        return new ClientProtocol() {
+            @Override
+            public void initPipeline(ChannelPipeline pipeline) {
+                pipeline.addLast(new LengthFieldBasedFrameDecoder(2 * 1024 * 1024, 4, 4, 8, 0));
+            }
+
+            @Override
+            public ByteBuf request() {
+                return request;
+            }
+        };
+    }
+
+    /**
+     * HTTP/1.1 GET请求，连接保持复用
+     *
+     * @param path 请求路径
+     */
+    static ClientProtocol httpGet(String path) {
+        String text = "GET " + path + " HTTP/1.1\r\nHost: 127.0.0.1\r\nUser-Agent: perf\r\n\r\n";
+        ByteBuf request = Unpooled.unreleasableBuffer(Unpooled.directBuffer(text.length())
+                .writeBytes(text.getBytes(StandardCharsets.US_ASCII)).asReadOnly());
+        return new ClientProtocol() {
+            @Override
+            public void initPipeline(ChannelPipeline pipeline) {
+                pipeline.addLast(new HttpResponseDecoder());
+            }
+
+            @Override
+            public ByteBuf request() {
+                return request;
+            }
+
+            @Override
+            public boolean isResponseEnd(Object msg) {
+                return msg instanceof LastHttpContent;
+            }
+        };
+    }
+}
@@ -0,0 +1,162 @@
+package perf;
+
+
+import file.CopyEngine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * 文件复制对比：Files.copy与CopyEngine的各种方式，在一组大小混合的文件上逐个复制
+ * 默认的大小组合：2000个4KB、500个64KB、100个1MB、10个32MB、2个256MB（约1.4GB），
+ * 每种方式先整组复制一遍预热，再计时复制一遍，按大小分组输出MB/s，最后一列是整组的总吞吐；
+ * 每一遍开始前都清空目标目录，所有方式测的都是复制到新文件（不是覆盖已有文件）；
+ * 每种方式复制完都逐个与源文件比较。
+ *
+ * 用法：CopyBenchmark [目录=临时目录] [规模百分比=100]
+ * 目录决定测的是哪个文件系统（例如/dev/shm是tmpfs，NFS挂载点上AUTO会选ASYNC）
+ *
+ * @author MyAcme
+ */
+public class CopyBenchmark {
+
+    private static final long[][] MIX = {
+            {4 * 1024, 2000}, {64 * 1024, 500}, {1024 * 1024, 100}, {32 * 1024 * 1024, 10}, {256 * 1024 * 1024, 2},
+    };
+
+    private interface Copier {
+        void copy(Path source, Path target) throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path base = args.length > 0 ? Paths.get(args[0]) : Paths.get(System.getProperty("java.io.tmpdir"));
+        int percent = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        Path sourceDir = Files.createTempDirectory(base, "copy-src");
+        Path targetDir = Files.createTempDirectory(base, "copy-dst");
+        List<List<Path>> groups = new ArrayList<>();
+        List<String> rows = new ArrayList<>();
+        try {
+            generate(sourceDir, groups, percent);
+            String[] names = {"Files.copy", "AUTO", "BUFFERED", "TRANSFER", "MMAP", "ASYNC"};
+            for (String name : names) {
+                Copier copier;
+                if (name.equals("Files.copy")) {
+                    copier = (source, target) -> Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+                } else {
+                    CopyEngine engine = new CopyEngine().strategy(CopyEngine.Strategy.valueOf(name));
+                    copier = engine::copy;
+                }
+                run(copier, groups, targetDir);
+                double[] seconds = run(copier, groups, targetDir);
+                verify(groups, targetDir, name);
+                StringBuilder row = new StringBuilder(String.format("%-12s", name));
+                double total = 0;
+                long bytes = 0;
+                for (int i = 0; i < groups.size(); i++) {
+                    long groupBytes = MIX[i][0] * groups.get(i).size();
+                    row.append(String.format(" %10.1f", groupBytes / 1048576.0 / seconds[i]));
+                    total += seconds[i];
+                    bytes += groupBytes;
+                }
+                rows.add(row.append(String.format(" %10.1f", bytes / 1048576.0 / total)).toString());
+            }
+        } finally {
+            delete(sourceDir);
+            delete(targetDir);
+        }
+        System.out.println(String.format("目录 %s（%s），规模 %d%%，单位MB/s", base,
+                Files.getFileStore(base).type(), percent));
+        StringBuilder header = new StringBuilder(String.format("%-12s", "方式"));
+        for (long[] mix : MIX) {
+            header.append(String.format(" %10s", label(mix[0]) + "x" + Math.max(1, mix[1] * percent / 100)));
+        }
+        System.out.println(header.append(String.format(" %10s", "总计")));
+        for (String row : rows) {
+            System.out.println(row);
+        }
+    }
+
+    /**
+     * 按组复制，返回每组耗时（秒）
+     */
+    private static double[] run(Copier copier, List<List<Path>> groups, Path targetDir) throws IOException {
+        clear(targetDir);
+        double[] seconds = new double[groups.size()];
+        for (int i = 0; i < groups.size(); i++) {
+            long start = System.nanoTime();
+            for (Path source : groups.get(i)) {
+                copier.copy(source, targetDir.resolve(source.getFileName()));
+            }
+            seconds[i] = (System.nanoTime() - start) / 1e9;
+        }
+        return seconds;
+    }
+
+    private static void verify(List<List<Path>> groups, Path targetDir, String name) throws IOException {
+        for (List<Path> group : groups) {
+            for (Path source : group) {
+                if (FileCompare.mismatch(source, targetDir.resolve(source.getFileName())) != -1) {
+                    throw new IllegalStateException(name + " 复制结果与源文件不一致: " + source);
+                }
+            }
+        }
+    }
+
+    private static void generate(Path dir, List<List<Path>> groups, int percent) throws IOException {
+        Random random = new Random(49);
+        ByteBuffer block = ByteBuffer.allocateDirect(1024 * 1024);
+        byte[] bytes = new byte[block.capacity()];
+        random.nextBytes(bytes);
+        block.put(bytes);
+        for (long[] mix : MIX) {
+            List<Path> group = new ArrayList<>();
+            long count = Math.max(1, mix[1] * percent / 100);
+            for (int i = 0; i < count; i++) {
+                Path file = dir.resolve(label(mix[0]) + "-" + i + ".bin");
+                try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                    for (long written = 0; written < mix[0]; ) {
+                        block.clear();
+                        block.position(random.nextInt(1024));
+                        block.limit((int) Math.min(block.capacity(), block.position() + mix[0] - written));
+                        written += out.write(block);
+                    }
+                }
+                group.add(file);
+            }
+            groups.add(group);
+        }
+    }
+
+    private static String label(long size) {
+        return size >= 1024 * 1024 ? (size >> 20) + "MB" : (size >> 10) + "KB";
+    }
+
+    /**
+     * 删除目录里的所有文件
+     */
+    private static void clear(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static void delete(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        clear(dir);
+        Files.delete(dir);
+    }
+}
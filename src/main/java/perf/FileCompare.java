@@ -0,0 +1,53 @@
+package perf;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 基准测试里校验输出用的文件比较，Files.mismatch要JDK 12才有
+ *
+ * @author MyAcme
+ */
+final class FileCompare {
+
+    private static final int CHUNK = 1024 * 1024;
+
+    private FileCompare() {
+    }
+
+    /**
+     * 两个文件第一个不同字节的位置，内容相同返回-1；一个是另一个的前缀时返回较短文件的长度，与Files.mismatch一致
+     */
+    static long mismatch(Path a, Path b) throws IOException {
+        try (FileChannel left = FileChannel.open(a, StandardOpenOption.READ);
+             FileChannel right = FileChannel.open(b, StandardOpenOption.READ)) {
+            long size = Math.min(left.size(), right.size());
+            ByteBuffer x = ByteBuffer.allocateDirect(CHUNK);
+            ByteBuffer y = ByteBuffer.allocateDirect(CHUNK);
+            for (long position = 0; position < size; position += CHUNK) {
+                int length = (int) Math.min(CHUNK, size - position);
+                read(left, x, position, length);
+                read(right, y, position, length);
+                int i = x.mismatch(y);
+                if (i >= 0) {
+                    return position + i;
+                }
+            }
+            return left.size() == right.size() ? -1 : size;
+        }
+    }
+
+    private static void read(FileChannel channel, ByteBuffer buffer, long position, int length) throws IOException {
+        buffer.clear().limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("读取时文件被截断");
+            }
+        }
+        buffer.flip();
+    }
+}
@@ -0,0 +1,155 @@
+package perf;
+
+
+import filelock.RegionLockManager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 并发写文件的加锁方式对比：每个线程反复“加锁、在自己的区域写一块、解锁”
+ * whole-file   FileLockDemo的做法，整个文件一把FileLock；同一JVM里重叠的FileLock会抛异常，所以外面再套一把ReentrantLock
+ * region       RegionLockManager，JVM内条带锁 + 每个条带一把进程间FileLock
+ * region-jvm   RegionLockManager关闭进程间锁，只剩JVM内条带锁
+ * 每个线程的区域互不相交（各占一个条带），区域锁下线程之间不互相等待，吞吐应随线程数增长（受CPU核数和磁盘限制）。
+ *
+ * 用法：FileLockBenchmark [每项秒数=2] [最大线程数=8] [每次写入字节数=4096]
+ * -Dbench.sync=true 每次写完force(false)，临界区包含一次落盘，更接近真实的更新场景
+ *
+ * @author MyAcme
+ */
+public class FileLockBenchmark {
+
+    private static final long REGION_SIZE = RegionLockManager.DEFAULT_STRIPE_SIZE;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int writeSize = args.length > 2 ? Integer.parseInt(args[2]) : 4096;
+        boolean sync = Boolean.getBoolean("bench.sync");
+        if (writeSize > REGION_SIZE) {
+            throw new IllegalArgumentException("每次写入不能超过区域大小 " + REGION_SIZE);
+        }
+
+        Path file = Files.createTempFile("filelock-bench", ".dat");
+        List<String> rows = new ArrayList<>();
+        try {
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                double whole;
+                try (FileChannel channel = open(file)) {
+                    ReentrantLock jvmLock = new ReentrantLock();
+                    whole = run(threads, seconds, writeSize, sync, channel, (position, size) -> {
+                        jvmLock.lock();
+                        FileLock lock;
+                        try {
+                            lock = channel.lock();
+                        } catch (IOException | RuntimeException e) {
+                            jvmLock.unlock();
+                            throw e;
+                        }
+                        return () -> {
+                            try {
+                                lock.release();
+                            } finally {
+                                jvmLock.unlock();
+                            }
+                        };
+                    });
+                }
+                double region;
+                try (RegionLockManager manager = RegionLockManager.open(file, REGION_SIZE)) {
+                    region = run(threads, seconds, writeSize, sync, manager.channel(),
+                            (position, size) -> manager.lock(position, size, false)::release);
+                }
+                double regionJvm;
+                try (RegionLockManager manager = RegionLockManager.open(file, REGION_SIZE).crossProcess(false)) {
+                    regionJvm = run(threads, seconds, writeSize, sync, manager.channel(),
+                            (position, size) -> manager.lock(position, size, false)::release);
+                }
+                rows.add(String.format("%8d %14.0f %14.0f %14.0f %10.2f", threads, whole, region, regionJvm,
+                        region / whole));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        System.out.println(String.format("每项 %d 秒，每次写入 %d 字节，force=%s，CPU核数 %d",
+                seconds, writeSize, sync, Runtime.getRuntime().availableProcessors()));
+        System.out.println(String.format("%8s %14s %14s %14s %10s",
+                "线程数", "whole-file/s", "region/s", "region-jvm/s", "region倍数"));
+        for (String row : rows) {
+            System.out.println(row);
+        }
+    }
+
+    private interface Locker {
+        Unlock lock(long position, long size) throws IOException, InterruptedException;
+    }
+
+    private interface Unlock {
+        void unlock() throws IOException;
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * threads个线程各自在第i个区域里循环写入，返回每秒完成的“加锁-写入-解锁”次数
+     */
+    private static double run(int threads, int seconds, int writeSize, boolean sync, FileChannel channel,
+                              Locker locker) throws Exception {
+        long[] counts = new long[threads];
+        CountDownLatch done = new CountDownLatch(threads);
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            Thread writer = new Thread(() -> {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(writeSize);
+                long base = id * REGION_SIZE;
+                long slots = REGION_SIZE / writeSize;
+                long n = 0;
+                try {
+                    while (System.nanoTime() < end) {
+                        long position = base + (n % slots) * writeSize;
+                        Unlock unlock = locker.lock(position, writeSize);
+                        try {
+                            buffer.clear();
+                            buffer.putLong(0, n);
+                            while (buffer.hasRemaining()) {
+                                channel.write(buffer, position + buffer.position());
+                            }
+                            if (sync) {
+                                channel.force(false);
+                            }
+                        } finally {
+                            unlock.unlock();
+                        }
+                        n++;
+                    }
+                } catch (Exception e) {
+                    System.err.println("写线程异常: " + e);
+                } finally {
+                    counts[id] = n;
+                    done.countDown();
+                }
+            }, "lock-writer-" + t);
+            writer.start();
+        }
+        done.await();
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return total / (double) seconds;
+    }
+}
@@ -0,0 +1,293 @@
+package perf;
+
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.DefaultHttp2WindowUpdateFrame;
+import io.netty.handler.codec.http2.Http2ChannelDuplexHandler;
+import io.netty.handler.codec.http2.Http2DataFrame;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2HeadersFrame;
+import io.netty.handler.codec.http2.Http2ResetFrame;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2SettingsFrame;
+import io.netty.handler.codec.http2.Http2StreamFrame;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
+import netty.HttpServer;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP/1.1与h2c对比压测（本机回环）
+ * 同样的并发请求数下，HTTP/1.1每个并发占一个连接（请求-响应串行），
+ * h2c把全部并发作为多路复用的流放在少量连接上（prior knowledge，不经Upgrade），
+ * 对比连接数、每秒请求数和延迟分位。两边都是闭环：一个请求完成立即发出下一个。
+ *
+ * 用法：Http2Benchmark [并发数=64] [秒数=10] [路径=/plaintext] [h2连接数=1]
+ * 系统属性：http.host（默认127.0.0.1）、http.port（默认启动内置服务器）、http.warmupSeconds（默认3）
+ *
+ * @author MyAcme
+ */
+public class Http2Benchmark {
+
+    private static final int WARMUP = 0;
+    private static final int MEASURE = 1;
+    private static final int STOP = 2;
+
+    private volatile int phase = WARMUP;
+
+    public static void main(String[] args) throws Exception {
+        int concurrency = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        String path = args.length > 2 ? args[2] : "/plaintext";
+        int h2Connections = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+        String host = System.getProperty("http.host", "127.0.0.1");
+        int warmupSeconds = Integer.getInteger("http.warmupSeconds", 3);
+
+        HttpServer server = null;
+        int port;
+        if (System.getProperty("http.port") != null) {
+            port = Integer.getInteger("http.port");
+        } else {
+            server = new HttpServer();
+            Channel channel = server.bind(0);
+            port = ((InetSocketAddress) channel.localAddress()).getPort();
+        }
+
+        System.out.println(String.format("对比压测 http://%s:%d%s  并发=%d 时长=%ds", host, port, path, concurrency, seconds));
+        try {
+            ScenarioResult http1 = new LoadGenerator(host, port, ClientProtocol.httpGet(path), concurrency, 1)
+                    .run("http/1.1", warmupSeconds * 1000L, seconds * 1000L);
+            ScenarioResult h2 = new Http2Benchmark().run("h2c", host, port, path, h2Connections,
+                    Math.max(1, concurrency / h2Connections), warmupSeconds * 1000L, seconds * 1000L);
+
+            System.out.println(String.format("%-10s %8s %12s %10s %10s %10s %8s",
+                    "协议", "连接数", "req/s", "p50(us)", "p99(us)", "p999(us)", "错误"));
+            print(http1, concurrency);
+            print(h2, h2Connections);
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+        }
+    }
+
+    private static void print(ScenarioResult result, int connections) {
+        System.out.println(String.format("%-10s %8d %12.0f %10.1f %10.1f %10.1f %8d",
+                result.getName(), connections, result.getMessagesPerSec(), result.latencyMicros(0.50),
+                result.latencyMicros(0.99), result.latencyMicros(0.999), result.getErrors()));
+    }
+
+    /**
+     * 在connections个h2c连接上各保持streams个在途流，统计方式与{@link LoadGenerator}一致
+     */
+    ScenarioResult run(String name, String host, int port, String path, int connections, int streams,
+                       long warmupMillis, long measureMillis) throws Exception {
+        Http2Headers headers = new DefaultHttp2Headers()
+                .method("GET").path(path).scheme("http").authority(host + ':' + port);
+        EventLoopGroup group = new NioEventLoopGroup(Math.min(connections, Runtime.getRuntime().availableProcessors()));
+        List<Channel> channels = new ArrayList<>(connections);
+        CountDownLatch ready = new CountDownLatch(connections);
+        try {
+            Bootstrap bootstrap = new Bootstrap();
+            bootstrap.group(group)
+                    .channel(NioSocketChannel.class)
+                    .option(ChannelOption.TCP_NODELAY, true)
+                    .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 5000)
+                    .handler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            StreamDriver driver = new StreamDriver(headers, streams, ready);
+                            ch.pipeline().addLast(driver.counter)
+                                    .addLast(Http2FrameCodecBuilder.forClient()
+                                            .initialSettings(Http2Settings.defaultSettings()
+                                                    .initialWindowSize(1024 * 1024).pushEnabled(false))
+                                            .encoderEnforceMaxConcurrentStreams(true)
+                                            .build())
+                                    .addLast(driver);
+                        }
+                    });
+            for (int i = 0; i < connections; i++) {
+                channels.add(bootstrap.connect(host, port).sync().channel());
+            }
+            if (!ready.await(10, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("h2c连接握手超时: " + name);
+            }
+
+            for (Channel channel : channels) {
+                StreamDriver driver = channel.pipeline().get(StreamDriver.class);
+                channel.eventLoop().execute(driver::startSending);
+            }
+            Thread.sleep(warmupMillis);
+            long start = System.nanoTime();
+            phase = MEASURE;
+            Thread.sleep(measureMillis);
+            phase = STOP;
+            long elapsed = System.nanoTime() - start;
+
+            LatencyHistogram histogram = new LatencyHistogram();
+            long messages = 0;
+            long bytes = 0;
+            long errors = 0;
+            for (Channel channel : channels) {
+                StreamDriver driver = channel.pipeline().get(StreamDriver.class);
+                if (driver == null) {
+                    errors++;
+                    continue;
+                }
+                long[] snapshot = channel.eventLoop().submit(() -> {
+                    histogram.merge(driver.histogram);
+                    return new long[]{driver.messages, driver.counter.bytes, driver.errors};
+                }).get();
+                messages += snapshot[0];
+                bytes += snapshot[1];
+                errors += snapshot[2];
+            }
+            return new ScenarioResult(name, messages, bytes, elapsed, histogram, errors);
+        } finally {
+            for (Channel channel : channels) {
+                channel.close();
+            }
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+        }
+    }
+
+    /**
+     * 线上字节计数，放在管道最前面
+     */
+    private final class ByteCounter extends ChannelDuplexHandler {
+        long bytes;
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            count(msg);
+            ctx.fireChannelRead(msg);
+        }
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+            count(msg);
+            ctx.write(msg, promise);
+        }
+
+        private void count(Object msg) {
+            if (phase == MEASURE && msg instanceof ByteBuf) {
+                bytes += ((ByteBuf) msg).readableBytes();
+            }
+        }
+    }
+
+    /**
+     * 单连接的流驱动器：保持streams个在途流，每个流发一个GET，收到结束帧即记录延迟并开新流
+     * 收到的DATA字节立即归还流控窗口
+     */
+    private final class StreamDriver extends Http2ChannelDuplexHandler {
+        final ByteCounter counter = new ByteCounter();
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final IntObjectMap<long[]> sentAt = new IntObjectHashMap<>();
+        final Http2Headers headers;
+        final int streams;
+        final CountDownLatch ready;
+        boolean settingsReceived;
+        long messages;
+        long errors;
+        ChannelHandlerContext ctx;
+
+        StreamDriver(Http2Headers headers, int streams, CountDownLatch ready) {
+            this.headers = headers;
+            this.streams = streams;
+            this.ready = ready;
+        }
+
+        @Override
+        protected void handlerAdded0(ChannelHandlerContext ctx) {
+            this.ctx = ctx;
+        }
+
+        void startSending() {
+            for (int i = 0; i < streams; i++) {
+                send();
+            }
+            ctx.flush();
+        }
+
+        private void send() {
+            DefaultHttp2HeadersFrame frame = new DefaultHttp2HeadersFrame(headers, true);
+            frame.stream(newStream());
+            long now = System.nanoTime();
+            // 写出HEADERS时帧编解码器同步分配流ID
+            ctx.write(frame);
+            sentAt.put(frame.stream().id(), new long[]{now});
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            try {
+                if (msg instanceof Http2SettingsFrame && !settingsReceived) {
+                    settingsReceived = true;
+                    ready.countDown();
+                } else if (msg instanceof Http2DataFrame) {
+                    Http2DataFrame data = (Http2DataFrame) msg;
+                    if (data.initialFlowControlledBytes() > 0) {
+                        ctx.write(new DefaultHttp2WindowUpdateFrame(data.initialFlowControlledBytes())
+                                .stream(data.stream()));
+                    }
+                    if (data.isEndStream()) {
+                        complete(data);
+                    }
+                } else if (msg instanceof Http2HeadersFrame && ((Http2HeadersFrame) msg).isEndStream()) {
+                    complete((Http2StreamFrame) msg);
+                } else if (msg instanceof Http2ResetFrame) {
+                    errors++;
+                    sentAt.remove(((Http2ResetFrame) msg).stream().id());
+                    send();
+                }
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+
+        private void complete(Http2StreamFrame frame) {
+            long[] start = sentAt.remove(frame.stream().id());
+            int current = phase;
+            if (current == MEASURE && start != null) {
+                histogram.record(System.nanoTime() - start[0]);
+                messages++;
+            }
+            if (current != STOP) {
+                send();
+            }
+        }
+
+        @Override
+        public void channelReadComplete(ChannelHandlerContext ctx) {
+            ctx.flush();
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            errors++;
+            System.err.println("h2c压测连接异常: " + cause.getMessage());
+            ctx.close();
+        }
+    }
+}
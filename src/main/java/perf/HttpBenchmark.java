@@ -0,0 +1,62 @@
+package perf;
+
+
+import io.netty.channel.Channel;
+import netty.HttpRoutes;
+import netty.HttpServer;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+
+/**
+ * HTTP/1.1压测工具（wrk风格）
+ * 默认在临时端口启动HttpServer，用N个长连接、每连接固定的流水线深度压测一个路径，
+ * 输出每秒请求数、吞吐和延迟分位。指定http.port时改为压测外部服务器。
+ *
+ * 用法：HttpBenchmark [连接数=64] [流水线深度=1] [秒数=10] [路径=/plaintext]
+ * 系统属性：http.host（默认127.0.0.1）、http.port（默认启动内置服务器）、http.warmupSeconds（默认3）、
+ * http.root（内置服务器在/static/下挂载的静态目录，用于压测文件下载）
+ *
+ * @author MyAcme
+ */
+public class HttpBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int pipeline = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        String path = args.length > 3 ? args[3] : "/plaintext";
+        String host = System.getProperty("http.host", "127.0.0.1");
+        int warmupSeconds = Integer.getInteger("http.warmupSeconds", 3);
+
+        HttpServer server = null;
+        int port;
+        if (System.getProperty("http.port") != null) {
+            port = Integer.getInteger("http.port");
+        } else {
+            HttpRoutes routes = HttpServer.defaultRoutes();
+            if (System.getProperty("http.root") != null) {
+                routes.staticFiles("/static/", Paths.get(System.getProperty("http.root")));
+            }
+            server = new HttpServer(routes);
+            Channel channel = server.bind(0);
+            port = ((InetSocketAddress) channel.localAddress()).getPort();
+        }
+
+        System.out.println(String.format("压测 http://%s:%d%s  连接数=%d 流水线深度=%d 时长=%ds",
+                host, port, path, connections, pipeline, seconds));
+        try {
+            ScenarioResult result = new LoadGenerator(host, port, ClientProtocol.httpGet(path), connections, pipeline)
+                    .run(path, warmupSeconds * 1000L, seconds * 1000L);
+            System.out.println(String.format("Requests/sec: %.0f", result.getMessagesPerSec()));
+            System.out.println(String.format("Transfer/sec: %.2f MB", result.getBytesPerSec() / (1024 * 1024)));
+            System.out.println(String.format("Latency p50=%.1fus p99=%.1fus p999=%.1fus",
+                    result.latencyMicros(0.50), result.latencyMicros(0.99), result.latencyMicros(0.999)));
+            System.out.println("Requests: " + result.getMessages() + "  Errors: " + result.getErrors());
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package perf;
+
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 极简JSON读写
+ * 只覆盖压测结果/基线文件用到的子集：对象、数组、字符串、数字、布尔、null。
+ * 对象解析为保持顺序的LinkedHashMap，数字统一解析为Double。
+ *
+ * @author MyAcme
+ */
+public final class Json {
+
+    private final String text;
+    private int pos;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    /**
+     * 解析JSON文本
+     *
+     * @throws IllegalArgumentException 文本不是合法JSON
+     */
+    public static Object parse(String text) {
+        Json parser = new Json(text);
+        Object value = parser.readValue();
+        parser.skipWhitespace();
+        if (parser.pos != text.length()) {
+            throw parser.error("多余的字符");
+        }
+        return value;
+    }
+
+    /**
+     * 序列化为带缩进的JSON文本
+     */
+    public static String write(Object value) {
+        StringBuilder sb = new StringBuilder();
+        writeValue(sb, value, 0);
+        return sb.append('\n').toString();
+    }
+
+    private Object readValue() {
+        skipWhitespace();
+        if (pos >= text.length()) {
+            throw error("意外的结尾");
+        }
+        char c = text.charAt(pos);
+        switch (c) {
+            case '{':
+                return readObject();
+            case '[':
+                return readArray();
+            case '"':
+                return readString();
+            case 't':
+                expect("true");
+                return Boolean.TRUE;
+            case 'f':
+                expect("false");
+                return Boolean.FALSE;
+            case 'n':
+                expect("null");
+                return null;
+            default:
+                return readNumber();
+        }
+    }
+
+    private Map<String, Object> readObject() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        pos++;
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return map;
+        }
+        while (true) {
+            skipWhitespace();
+            String key = readString();
+            skipWhitespace();
+            if (peek() != ':') {
+                throw error("缺少':'");
+            }
+            pos++;
+            map.put(key, readValue());
+            skipWhitespace();
+            char c = peek();
+            pos++;
+            if (c == '}') {
+                return map;
+            }
+            if (c != ',') {
+                throw error("缺少','或'}'");
+            }
+        }
+    }
+
+    private List<Object> readArray() {
+        List<Object> list = new ArrayList<>();
+        pos++;
+        skipWhitespace();
+        if (peek() == ']') {
+            pos++;
+            return list;
+        }
+        while (true) {
+            list.add(readValue());
+            skipWhitespace();
+            char c = peek();
+            pos++;
+            if (c == ']') {
+                return list;
+            }
+            if (c != ',') {
+                throw error("缺少','或']'");
+            }
+        }
+    }
+
+    private String readString() {
+        if (peek() != '"') {
+            throw error("缺少'\"'");
+        }
+        pos++;
+        StringBuilder sb = new StringBuilder();
+        while (pos < text.length()) {
+            char c = text.charAt(pos++);
+            if (c == '"') {
+                return sb.toString();
+            }
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            char e = text.charAt(pos++);
+            switch (e) {
+                case 'n': sb.append('\n'); break;
+                case 't': sb.append('\t'); break;
+                case 'r': sb.append('\r'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'u':
+                    sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                    pos += 4;
+                    break;
+                default: sb.append(e);
+            }
+        }
+        throw error("字符串未结束");
+    }
+
+    private Double readNumber() {
+        int start = pos;
+        while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+            pos++;
+        }
+        if (start == pos) {
+            throw error("无法识别的字符");
+        }
+        return Double.valueOf(text.substring(start, pos));
+    }
+
+    private void expect(String word) {
+        if (!text.startsWith(word, pos)) {
+            throw error("期望" + word);
+        }
+        pos += word.length();
+    }
+
+    private char peek() {
+        if (pos >= text.length()) {
+            throw error("意外的结尾");
+        }
+        return text.charAt(pos);
+    }
+
+    private void skipWhitespace() {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("JSON解析失败(位置" + pos + "): " + message);
+    }
+
+    private static void writeValue(StringBuilder sb, Object value, int indent) {
+        if (value == null) {
+            sb.append("null");
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            if (map.isEmpty()) {
+                sb.append("{}");
+                return;
+            }
+            sb.append("{\n");
+            int i = 0;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                indent(sb, indent + 1);
+                writeString(sb, String.valueOf(entry.getKey()));
+                sb.append(": ");
+                writeValue(sb, entry.getValue(), indent + 1);
+                sb.append(++i < map.size() ? ",\n" : "\n");
+            }
+            indent(sb, indent);
+            sb.append('}');
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            sb.append('[');
+            for (int i = 0; i < list.size(); i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                writeValue(sb, list.get(i), indent + 1);
+            }
+            sb.append(']');
+        } else if (value instanceof Double || value instanceof Float) {
+            double d = ((Number) value).doubleValue();
+            if (d == Math.rint(d) && Math.abs(d) < 1e15) {
+                sb.append((long) d);
+            } else {
+                sb.append(String.format(Locale.ROOT, "%.3f", d));
+            }
+        } else if (value instanceof Number || value instanceof Boolean) {
+            sb.append(value);
+        } else {
+            writeString(sb, value.toString());
+        }
+    }
+
+    private static void writeString(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+    private static void indent(StringBuilder sb, int level) {
+        for (int i = 0; i < level; i++) {
+            sb.append("  ");
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package perf;
+
+
+/**
+ * 延迟直方图（对数-线性分桶）
+ * 每个2的幂区间再线性切分为64个子桶，相对误差不超过1/64，
+ * 记录操作只有一次数组自增，不分配对象，适合在I/O线程里逐条记录。
+ * 非线程安全：每个连接各持有一个，压测结束后再merge汇总。
+ *
+ * @author MyAcme
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = SUB_BUCKET_COUNT * 2;
+    private static final int BUCKET_COUNT = LINEAR_LIMIT + (63 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount;
+    private long maxValue;
+
+    /**
+     * 记录一个取值（纳秒），负数按0处理
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[indexOf(value)]++;
+        totalCount++;
+        if (value > maxValue) {
+            maxValue = value;
+        }
+    }
+
+    /**
+     * 合并另一个直方图的计数
+     */
+    public void merge(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        maxValue = Math.max(maxValue, other.maxValue);
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getMaxValue() {
+        return maxValue;
+    }
+
+    /**
+     * 取分位值
+     *
+     * @param quantile 0~1之间，如0.99
+     * @return 对应分位所在桶的上界（纳秒），无数据时返回0
+     */
+    public long valueAtQuantile(double quantile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * totalCount);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), maxValue);
+            }
+        }
+        return maxValue;
+    }
+
+    static int indexOf(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int shift = msb - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+        return LINEAR_LIMIT + (shift - 1) * SUB_BUCKET_COUNT + sub;
+    }
+
+    static long upperBoundOf(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int offset = index - LINEAR_LIMIT;
+        int shift = offset / SUB_BUCKET_COUNT + 1;
+        long sub = offset % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,132 @@
+package perf;
+
+
+import file.BulkLineWriter;
+import file.MappedLineReader;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 逐行复制文件的三种写法对比：读源文件的每一行再写到目标文件，结果必须与源文件逐字节相同
+ * readAllLines      FileReadWrite原来的写法，Files.readAllLines + Files.write，所有行同时在堆上
+ * mapped-raw        MappedLineReader + BulkLineWriter.write(Line)，直接复制行字节，不解码
+ * mapped-string     MappedLineReader逐行toString + BulkLineWriter.write(CharSequence)，每行解码再编码
+ * 输出耗时、MB/s、当前线程分配的堆字节数和堆的峰值占用（各堆内存池峰值之和）。
+ *
+ * 用法：LineIoBenchmark [文件MB=256]
+ * 文件较大时readAllLines需要足够的-Xmx，这正是要对比的地方
+ *
+ * @author MyAcme
+ */
+public class LineIoBenchmark {
+
+    private interface Copy {
+        long run(Path source, Path target) throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        Path source = Files.createTempFile("lineio-src", ".txt");
+        Path target = Files.createTempFile("lineio-dst", ".txt");
+        List<String> rows = new ArrayList<>();
+        try {
+            generate(source, sizeMb * 1024L * 1024L);
+            long size = Files.size(source);
+            rows.add(measure("readAllLines", source, target, size, (from, to) -> {
+                List<String> lines = Files.readAllLines(from, StandardCharsets.UTF_8);
+                Files.write(to, lines, StandardCharsets.UTF_8);
+                return lines.size();
+            }));
+            rows.add(measure("mapped-raw", source, target, size, (from, to) -> {
+                try (MappedLineReader reader = MappedLineReader.open(from);
+                     BulkLineWriter writer = BulkLineWriter.open(to)) {
+                    for (MappedLineReader.Line line : reader) {
+                        writer.write(line);
+                    }
+                    return writer.lines();
+                }
+            }));
+            rows.add(measure("mapped-string", source, target, size, (from, to) -> {
+                try (MappedLineReader reader = MappedLineReader.open(from);
+                     BulkLineWriter writer = BulkLineWriter.open(to)) {
+                    for (MappedLineReader.Line line : reader) {
+                        writer.write(line.toString());
+                    }
+                    return writer.lines();
+                }
+            }));
+        } finally {
+            Files.deleteIfExists(source);
+            Files.deleteIfExists(target);
+        }
+        System.out.println(String.format("文件 %d MB，最大堆 %d MB", sizeMb, Runtime.getRuntime().maxMemory() >> 20));
+        System.out.println(String.format("%-14s %10s %8s %10s %12s %12s", "方式", "行数", "秒", "MB/s", "分配MB", "堆峰值MB"));
+        for (String row : rows) {
+            System.out.println(row);
+        }
+    }
+
+    /**
+     * 先跑一遍预热，再计时、统计分配和堆峰值，最后核对目标文件与源文件一致
+     */
+    private static String measure(String name, Path source, Path target, long size, Copy copy) throws IOException {
+        copy.run(source, target);
+        System.gc();
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                pools.add(pool);
+            }
+        }
+        long allocated = AllocationBudget.currentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        long lines = copy.run(source, target);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        allocated = AllocationBudget.currentThreadAllocatedBytes() - allocated;
+        long peak = 0;
+        for (MemoryPoolMXBean pool : pools) {
+            peak += pool.getPeakUsage().getUsed();
+        }
+        long mismatch = FileCompare.mismatch(source, target);
+        if (mismatch != -1) {
+            throw new IllegalStateException(name + " 复制结果与源文件不一致，首个差异位置 " + mismatch);
+        }
+        return String.format("%-14s %10d %8.3f %10.1f %12.1f %12.1f", name, lines, seconds,
+                size / 1048576.0 / seconds, allocated / 1048576.0, peak / 1048576.0);
+    }
+
+    /**
+     * 生成约size字节的日志风格文件，行分隔符与Files.write一致
+     */
+    private static void generate(Path file, long size) throws IOException {
+        Random random = new Random(47);
+        String[] words = {"INFO", "WARN", "request", "user=1024", "耗时", "ms", "订单已创建", "/api/v1/orders", " "};
+        String separator = System.lineSeparator();
+        long written = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            StringBuilder line = new StringBuilder();
+            while (written < size) {
+                line.setLength(0);
+                line.append("2024-09-04 12:00:00.").append(random.nextInt(1000));
+                int count = 3 + random.nextInt(20);
+                for (int i = 0; i < count; i++) {
+                    line.append(' ').append(words[random.nextInt(words.length)]);
+                }
+                writer.write(line.toString());
+                writer.write(separator);
+                written += line.length() + separator.length();
+            }
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package perf;
+
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进程内压测客户端
+ * 建立固定数量的连接，每个连接保持window条在途请求（闭环：收到一条响应就补发一条），
+ * 预热结束后统计消息数、收发字节数与逐条延迟。
+ * 所有统计量都是连接私有、只在各自的EventLoop线程里修改，结束后汇总，压测路径上没有锁和共享计数器。
+ *
+ * @author MyAcme
+ */
+public class LoadGenerator {
+
+    private static final int WARMUP = 0;
+    private static final int MEASURE = 1;
+    private static final int STOP = 2;
+
+    private final String host;
+    private final int port;
+    private final ClientProtocol protocol;
+    private final int connections;
+    private final int window;
+
+    private volatile int phase = WARMUP;
+
+    /**
+     * @param host        服务器地址
+     * @param port        服务器端口
+     * @param protocol    客户端协议
+     * @param connections 并发连接数
+     * @param window      每个连接的在途请求数（1即请求-响应串行，大于1即流水线）
+     */
+    public LoadGenerator(String host, int port, ClientProtocol protocol, int connections, int window) {
+        this.host = host;
+        this.port = port;
+        this.protocol = protocol;
+        this.connections = connections;
+        this.window = window;
+    }
+
+    /**
+     * 执行一次压测
+     *
+     * @param name          场景名
+     * @param warmupMillis  预热时长
+     * @param measureMillis 统计时长
+     */
+    public ScenarioResult run(String name, long warmupMillis, long measureMillis) throws Exception {
+        EventLoopGroup group = new NioEventLoopGroup(Math.min(connections, Runtime.getRuntime().availableProcessors()));
+        List<Channel> channels = new ArrayList<>(connections);
+        CountDownLatch ready = new CountDownLatch(connections);
+        try {
+            Bootstrap bootstrap = new Bootstrap();
+            bootstrap.group(group)
+                    .channel(NioSocketChannel.class)
+                    .option(ChannelOption.TCP_NODELAY, true)
+                    .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 5000)
+                    .handler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            Driver driver = new Driver(ready);
+                            ChannelPipeline pipeline = ch.pipeline();
+                            pipeline.addLast("byteCounter", driver.counter);
+                            protocol.initPipeline(pipeline);
+                            pipeline.addLast("driver", driver);
+                        }
+                    });
+            for (int i = 0; i < connections; i++) {
+                channels.add(bootstrap.connect(host, port).sync().channel());
+            }
+            if (!ready.await(10, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("连接握手超时: " + name);
+            }
+
+            for (Channel channel : channels) {
+                Driver driver = channel.pipeline().get(Driver.class);
+                channel.eventLoop().execute(driver::startSending);
+            }
+            Thread.sleep(warmupMillis);
+            long start = System.nanoTime();
+            phase = MEASURE;
+            Thread.sleep(measureMillis);
+            phase = STOP;
+            long elapsed = System.nanoTime() - start;
+
+            LatencyHistogram histogram = new LatencyHistogram();
+            long messages = 0;
+            long bytes = 0;
+            long errors = 0;
+            for (Channel channel : channels) {
+                Driver driver = channel.pipeline().get(Driver.class);
+                if (driver == null) {
+                    // 连接已被服务器关闭，处理器已从管道移除
+                    errors++;
+                    continue;
+                }
+                // 到连接所属的EventLoop线程里读取统计量，保证可见性
+                long[] snapshot = channel.eventLoop().submit(() -> {
+                    histogram.merge(driver.histogram);
+                    return new long[]{driver.messages, driver.counter.bytes, driver.errors};
+                }).get();
+                messages += snapshot[0];
+                bytes += snapshot[1];
+                errors += snapshot[2];
+            }
+            return new ScenarioResult(name, messages, bytes, elapsed, histogram, errors);
+        } finally {
+            for (Channel channel : channels) {
+                channel.close();
+            }
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+        }
+    }
+
+    /**
+     * 字节计数器，放在管道最前面，统计线上实际收发的字节
+     */
+    private final class ByteCounter extends ChannelDuplexHandler {
+        long bytes;
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            count(msg);
+            ctx.fireChannelRead(msg);
+        }
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+            count(msg);
+            ctx.write(msg, promise);
+        }
+
+        private void count(Object msg) {
+            if (phase != MEASURE) {
+                return;
+            }
+            if (msg instanceof ByteBuf) {
+                bytes += ((ByteBuf) msg).readableBytes();
+            } else if (msg instanceof ByteBufHolder) {
+                bytes += ((ByteBufHolder) msg).content().readableBytes();
+            }
+        }
+    }
+
+    /**
+     * 单连接的请求驱动器
+     * 发送时间戳存放在长度为window的环形数组里，响应按FIFO顺序与请求对应
+     */
+    private final class Driver extends ChannelInboundHandlerAdapter {
+        final ByteCounter counter = new ByteCounter();
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final long[] sentAt = new long[window];
+        final CountDownLatch ready;
+        int handshakeLeft = protocol.handshakeMessages();
+        int head;
+        int tail;
+        long messages;
+        long errors;
+        ChannelHandlerContext ctx;
+
+        Driver(CountDownLatch ready) {
+            this.ready = ready;
+        }
+
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) {
+            this.ctx = ctx;
+        }
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) {
+            if (handshakeLeft == 0) {
+                ready.countDown();
+            }
+            ctx.fireChannelActive();
+        }
+
+        void startSending() {
+            for (int i = 0; i < window; i++) {
+                send();
+            }
+            ctx.flush();
+        }
+
+        private void send() {
+            sentAt[tail] = System.nanoTime();
+            tail = (tail + 1) % window;
+            ctx.write(protocol.request().duplicate(), ctx.voidPromise());
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            try {
+                if (handshakeLeft > 0) {
+                    if (--handshakeLeft == 0) {
+                        ready.countDown();
+                    }
+                    return;
+                }
+                if (!protocol.isResponseEnd(msg)) {
+                    return;
+                }
+                long latency = System.nanoTime() - sentAt[head];
+                head = (head + 1) % window;
+                int current = phase;
+                if (current == MEASURE) {
+                    histogram.record(latency);
+                    messages++;
+                }
+                if (current != STOP) {
+                    send();
+                }
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+
+        @Override
+        public void channelReadComplete(ChannelHandlerContext ctx) {
+            ctx.flush();
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            errors++;
+            System.err.println("压测连接异常: " + cause.getMessage());
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package perf;
+
+
+import file.ParallelLineProcessor;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 按行并行处理的扩展性：在生成的访问日志上分别做计数、grep、按字段分组计数，
+ * 线程数从1加倍到最大值，每种线程数的结果都要与1个线程时相同，输出MB/s和相对1线程的加速比
+ * 日志格式：时间,级别,用户,路径,耗时ms，级别里约1%是ERROR
+ *
+ * 用法：ParallelScanBenchmark [文件MB=512] [最大线程数=CPU核数] [每段MB=32]
+ * 文件超过页缓存时才是磁盘读取的扩展性，否则测的是映射内存上的扫描
+ *
+ * @author MyAcme
+ */
+public class ParallelScanBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long splitSize = (args.length > 2 ? Long.parseLong(args[2]) : 32) * 1024 * 1024;
+
+        Path file = Files.createTempFile("scan", ".csv");
+        List<String> rows = new ArrayList<>();
+        try {
+            generate(file, sizeMb * 1024L * 1024L);
+            long size = Files.size(file);
+            Object[] expected = null;
+            double[] base = null;
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                try {
+                    ParallelLineProcessor processor = new ParallelLineProcessor(file).splitSize(splitSize).pool(pool);
+                    Object[] results = new Object[3];
+                    double[] seconds = new double[3];
+                    for (int round = 0; round < 2; round++) {
+                        // 第一轮预热并把文件读进页缓存，只记第二轮
+                        long start = System.nanoTime();
+                        results[0] = processor.process(ParallelLineProcessor.count())[0];
+                        seconds[0] = (System.nanoTime() - start) / 1e9;
+                        start = System.nanoTime();
+                        results[1] = processor.process(ParallelLineProcessor.grep(",ERROR,", StandardCharsets.UTF_8, 10))
+                                .total();
+                        seconds[1] = (System.nanoTime() - start) / 1e9;
+                        start = System.nanoTime();
+                        Map<String, Long> groups = processor.process(
+                                ParallelLineProcessor.groupCount(ParallelLineProcessor.field(',', 3)));
+                        results[2] = groups;
+                        seconds[2] = (System.nanoTime() - start) / 1e9;
+                    }
+                    if (expected == null) {
+                        expected = results;
+                        base = seconds;
+                    } else {
+                        for (int i = 0; i < results.length; i++) {
+                            if (!results[i].equals(expected[i])) {
+                                throw new IllegalStateException(threads + " 个线程的结果与1个线程不同: " + results[i]);
+                            }
+                        }
+                    }
+                    rows.add(String.format("%8d %8d %10.1f %10.1f %10.1f %8.2f %8.2f %8.2f", threads,
+                            processor.segments(), mbps(size, seconds[0]), mbps(size, seconds[1]),
+                            mbps(size, seconds[2]), base[0] / seconds[0], base[1] / seconds[1],
+                            base[2] / seconds[2]));
+                } finally {
+                    pool.shutdown();
+                }
+            }
+            System.out.println(String.format("文件 %d MB，%s 行，ERROR %s 行，%d 个路径，每段 %d MB，CPU核数 %d",
+                    sizeMb, expected[0], expected[1], ((Map<?, ?>) expected[2]).size(), splitSize >> 20,
+                    Runtime.getRuntime().availableProcessors()));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        System.out.println(String.format("%8s %8s %10s %10s %10s %8s %8s %8s", "线程数", "段数",
+                "count MB/s", "grep MB/s", "group MB/s", "count倍数", "grep倍数", "group倍数"));
+        for (String row : rows) {
+            System.out.println(row);
+        }
+    }
+
+    private static double mbps(long size, double seconds) {
+        return size / 1048576.0 / seconds;
+    }
+
+    private static void generate(Path file, long size) throws IOException {
+        Random random = new Random(48);
+        String[] levels = {"INFO", "INFO", "INFO", "WARN", "DEBUG"};
+        String[] paths = {"/api/orders", "/api/users", "/api/items", "/login", "/health", "/api/订单/详情"};
+        long written = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            StringBuilder line = new StringBuilder();
+            while (written < size) {
+                line.setLength(0);
+                line.append("2024-09-04T12:").append(10 + random.nextInt(50)).append(':')
+                        .append(10 + random.nextInt(50)).append(',')
+                        .append(random.nextInt(100) == 0 ? "ERROR" : levels[random.nextInt(levels.length)])
+                        .append(",user-").append(random.nextInt(100000)).append(',')
+                        .append(paths[random.nextInt(paths.length)]).append(',').append(random.nextInt(2000))
+                        .append('\n');
+                writer.write(line.toString());
+                written += line.length();
+            }
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package perf;
+
+
+import io.netty.channel.Channel;
+import netty.CustomProtocolServer;
+import netty.HttpServer;
+import netty.NettyServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 端到端吞吐回归套件
+ * 在回环地址的临时端口上启动各个服务器，用进程内的{@link LoadGenerator}按固定场景施压，
+ * 结果写入JSON，并与仓库里提交的基线比较：任一指标劣化超过容差即以非0状态码退出，
+ * 在perf构建profile（mvn -Pperf verify）里会像单元测试失败一样让构建失败。
+ *
+ * 可用的系统属性：
+ * perf.warmupMillis    预热时长，默认2000
+ * perf.measureMillis   统计时长，默认3000
+ * perf.repetitions     每个场景重复次数，取吞吐最高的那一次，默认3
+ * perf.tolerance       吞吐允许的劣化比例，默认0.25；基线里单个场景可用"tolerance"字段覆盖
+ * perf.latencyTolerance 延迟允许的劣化比例，默认0.5（尾延迟抖动更大）；单个场景可用"latencyTolerance"字段覆盖
+ * perf.baseline        基线文件，默认perf/baseline.json
+ * perf.results         结果文件，默认target/perf/results.json
+ * perf.scenarios       只运行指定场景，逗号分隔
+ * perf.updateBaseline  为true时用本次结果覆盖基线中对应的场景而不做比较，未运行的场景保持不变
+ * perf.forceCompare    为true时即使基线来自其他机器也做比较
+ *
+ * 基线与机器相关：基线里记录了生成它的机器（CPU核数、CPU型号、架构），与本机不同时只输出结果、不做比较，
+ * 否则换一台机器要么轻易通过、要么无故失败。换了CI机器后应先用-Dperf.updateBaseline=true重新生成。
+ *
+ * @author MyAcme
+ */
+public class PerfRegressionSuite {
+
+    /**
+     * 越大越好的指标，其余参与比较的指标越小越好
+     */
+    static final Set<String> HIGHER_IS_BETTER = new HashSet<>(Arrays.asList("messagesPerSec", "bytesPerSec"));
+
+    /**
+     * 参与基线比较的指标
+     */
+    static final List<String> COMPARED_METRICS = Arrays.asList(
+            "messagesPerSec", "bytesPerSec", "p50Micros", "p99Micros", "p999Micros");
+
+    /**
+     * 进程内启动的被测服务器
+     */
+    interface EmbeddedServer {
+        /**
+         * 在临时端口上启动，返回服务器通道
+         */
+        Channel start() throws Exception;
+
+        void stop();
+    }
+
+    /**
+     * 固定的压测场景
+     */
+    static class Scenario {
+        final String name;
+        final EmbeddedServer server;
+        final ClientProtocol protocol;
+        final int connections;
+        final int window;
+
+        Scenario(String name, EmbeddedServer server, ClientProtocol protocol, int connections, int window) {
+            this.name = name;
+            this.server = server;
+            this.protocol = protocol;
+            this.connections = connections;
+            this.window = window;
+        }
+    }
+
+    static List<Scenario> scenarios() {
+        List<Scenario> list = new ArrayList<>();
+        // NettyServer每个连接先推送3行欢迎语
+        list.add(new Scenario("netty-line-echo-64B", nettyServer(), ClientProtocol.lines(64, 3), 4, 1));
+        list.add(new Scenario("netty-line-pipelined-64B", nettyServer(), ClientProtocol.lines(64, 3), 4, 16));
+        list.add(new Scenario("custom-echo-256B", customProtocolServer(), ClientProtocol.customMessages(256), 4, 1));
+        list.add(new Scenario("custom-pipelined-256B", customProtocolServer(), ClientProtocol.customMessages(256), 4, 16));
+        list.add(new Scenario("http-plaintext", httpServer(), ClientProtocol.httpGet("/plaintext"), 4, 1));
+        list.add(new Scenario("http-plaintext-pipelined", httpServer(), ClientProtocol.httpGet("/plaintext"), 4, 16));
+        return list;
+    }
+
+    static EmbeddedServer nettyServer() {
+        return new EmbeddedServer() {
+            private NettyServer server;
+
+            @Override
+            public Channel start() throws Exception {
+                server = new NettyServer(0);
+                return server.bind();
+            }
+
+            @Override
+            public void stop() {
+                server.stop();
+            }
+        };
+    }
+
+    static EmbeddedServer customProtocolServer() {
+        return new EmbeddedServer() {
+            private CustomProtocolServer server;
+
+            @Override
+            public Channel start() throws Exception {
+                server = new CustomProtocolServer(0);
+                return server.bind();
+            }
+
+            @Override
+            public void stop() {
+                server.stop();
+            }
+        };
+    }
+
+    static EmbeddedServer httpServer() {
+        return new EmbeddedServer() {
+            private HttpServer server;
+
+            @Override
+            public Channel start() throws Exception {
+                server = new HttpServer();
+                return server.bind(0);
+            }
+
+            @Override
+            public void stop() {
+                server.stop();
+            }
+        };
+    }
+
+    public static void main(String[] args) throws Exception {
+        long warmupMillis = Long.getLong("perf.warmupMillis", 2000);
+        long measureMillis = Long.getLong("perf.measureMillis", 3000);
+        int repetitions = Integer.getInteger("perf.repetitions", 3);
+        double tolerance = Double.parseDouble(System.getProperty("perf.tolerance", "0.25"));
+        double latencyTolerance = Double.parseDouble(System.getProperty("perf.latencyTolerance", "0.5"));
+        Path baselinePath = Paths.get(System.getProperty("perf.baseline", "perf/baseline.json"));
+        Path resultsPath = Paths.get(System.getProperty("perf.results", "target/perf/results.json"));
+        boolean updateBaseline = Boolean.getBoolean("perf.updateBaseline");
+        String filter = System.getProperty("perf.scenarios", "");
+        Set<String> only = filter.isEmpty() ? null : new HashSet<>(Arrays.asList(filter.split(",")));
+
+        PrintStream console = System.out;
+        Map<String, Object> scenarioMetrics = new LinkedHashMap<>();
+        List<String> failures = new ArrayList<>();
+
+        for (Scenario scenario : scenarios()) {
+            if (only != null && !only.contains(scenario.name)) {
+                continue;
+            }
+            console.println("运行场景: " + scenario.name);
+            ScenarioResult result;
+            try {
+                result = runBest(scenario, repetitions, warmupMillis, measureMillis, console);
+            } catch (Exception e) {
+                failures.add(scenario.name + ": 运行失败 " + e);
+                continue;
+            }
+            console.println("  最好: " + result);
+            if (result.getErrors() > 0 || result.getMessages() == 0) {
+                failures.add(scenario.name + ": 出现" + result.getErrors() + "个连接错误，完成" + result.getMessages() + "条消息");
+            }
+            scenarioMetrics.put(scenario.name, result.toMetrics());
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("java", System.getProperty("java.version"));
+        report.put("cpus", (double) Runtime.getRuntime().availableProcessors());
+        report.put("machine", machine());
+        report.put("warmupMillis", (double) warmupMillis);
+        report.put("measureMillis", (double) measureMillis);
+        report.put("repetitions", (double) repetitions);
+        report.put("scenarios", scenarioMetrics);
+        write(resultsPath, Json.write(report));
+        console.println("结果已写入: " + resultsPath.toAbsolutePath());
+
+        if (updateBaseline) {
+            write(baselinePath, Json.write(mergeBaseline(baselinePath, report)));
+            console.println("基线已更新: " + baselinePath.toAbsolutePath());
+        } else if (Files.exists(baselinePath)) {
+            String baselineMachine = baselineMachine(baselinePath);
+            if (machine().equals(baselineMachine) || Boolean.getBoolean("perf.forceCompare")) {
+                failures.addAll(compare(baselinePath, scenarioMetrics, tolerance, latencyTolerance, console));
+            } else {
+                console.println("基线来自其他机器（" + baselineMachine + "），本机是（" + machine()
+                        + "），跳过比较；在本机用-Dperf.updateBaseline=true生成基线，或用-Dperf.forceCompare=true强制比较");
+            }
+        } else {
+            console.println("未找到基线文件 " + baselinePath + "，跳过比较");
+        }
+
+        if (!failures.isEmpty()) {
+            console.println("\n性能回归检查失败:");
+            for (String failure : failures) {
+                console.println("  " + failure);
+            }
+            System.exit(1);
+        }
+        console.println("\n性能回归检查通过");
+        System.exit(0);
+    }
+
+    /**
+     * 重复运行场景，返回吞吐最高的那一次结果
+     * 外部干扰（JIT尚未完成、同机其他进程）只会让结果变差，取最好的一次比取均值更稳定
+     */
+    static ScenarioResult runBest(Scenario scenario, int repetitions, long warmupMillis, long measureMillis,
+                                    PrintStream console) throws Exception {
+        List<ScenarioResult> results = new ArrayList<>();
+        for (int i = 0; i < Math.max(1, repetitions); i++) {
+            ScenarioResult result = runOnce(scenario, warmupMillis, measureMillis);
+            console.println("  #" + (i + 1) + " " + result);
+            results.add(result);
+        }
+        return Collections.max(results, Comparator.comparingDouble(ScenarioResult::getMessagesPerSec));
+    }
+
+    private static ScenarioResult runOnce(Scenario scenario, long warmupMillis, long measureMillis) throws Exception {
+        PrintStream console = System.out;
+        // 被测服务器逐条打印日志，压测期间丢弃标准输出，避免终端I/O主导测量结果
+        System.setOut(new PrintStream(OutputStream.nullOutputStream(), false, StandardCharsets.UTF_8));
+        try {
+            Channel channel = scenario.server.start();
+            int port = ((InetSocketAddress) channel.localAddress()).getPort();
+            try {
+                return new LoadGenerator("127.0.0.1", port, scenario.protocol,
+                        scenario.connections, scenario.window).run(scenario.name, warmupMillis, measureMillis);
+            } finally {
+                scenario.server.stop();
+            }
+        } finally {
+            System.setOut(console);
+        }
+    }
+
+    /**
+     * 本机的标识：CPU核数、CPU型号和架构，同一型号的CI机器得到相同的值
+     */
+    static String machine() {
+        String model = System.getProperty("os.name");
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/cpuinfo"), StandardCharsets.UTF_8)) {
+                if (line.startsWith("model name")) {
+                    model = line.substring(line.indexOf(':') + 1).trim();
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            // 不是Linux，只用操作系统名
+        }
+        return Runtime.getRuntime().availableProcessors() + " x " + model + " / " + System.getProperty("os.arch");
+    }
+
+    /**
+     * 基线里记录的机器标识，旧基线没有时返回null
+     */
+    @SuppressWarnings("unchecked")
+    static String baselineMachine(Path baselinePath) throws IOException {
+        Map<String, Object> baseline = (Map<String, Object>) Json.parse(
+                new String(Files.readAllBytes(baselinePath), StandardCharsets.UTF_8));
+        Object machine = baseline.get("machine");
+        return machine == null ? null : machine.toString();
+    }
+
+    /**
+     * 与基线逐项比较，返回劣化超出容差的描述
+     */
+    @SuppressWarnings("unchecked")
+    static List<String> compare(Path baselinePath, Map<String, Object> current, double tolerance,
+                                double latencyTolerance, PrintStream console) throws IOException {
+        Map<String, Object> baseline = (Map<String, Object>) Json.parse(
+                new String(Files.readAllBytes(baselinePath), StandardCharsets.UTF_8));
+        Map<String, Object> baseScenarios = (Map<String, Object>) baseline.get("scenarios");
+        List<String> failures = new ArrayList<>();
+        console.println(String.format("\n%-26s %-16s %14s %14s %9s", "场景", "指标", "基线", "本次", "变化"));
+        for (Map.Entry<String, Object> entry : current.entrySet()) {
+            Map<String, Object> base = baseScenarios == null ? null : (Map<String, Object>) baseScenarios.get(entry.getKey());
+            if (base == null) {
+                console.println(entry.getKey() + ": 基线中没有该场景，跳过比较");
+                continue;
+            }
+            double throughputAllowed = base.containsKey("tolerance")
+                    ? ((Number) base.get("tolerance")).doubleValue() : tolerance;
+            double latencyAllowed = base.containsKey("latencyTolerance")
+                    ? ((Number) base.get("latencyTolerance")).doubleValue() : latencyTolerance;
+            Map<String, Object> metrics = (Map<String, Object>) entry.getValue();
+            for (String metric : COMPARED_METRICS) {
+                if (!base.containsKey(metric)) {
+                    continue;
+                }
+                double expected = ((Number) base.get(metric)).doubleValue();
+                double actual = ((Number) metrics.get(metric)).doubleValue();
+                double change = expected == 0 ? 0 : (actual - expected) / expected;
+                boolean higherIsBetter = HIGHER_IS_BETTER.contains(metric);
+                double allowed = higherIsBetter ? throughputAllowed : latencyAllowed;
+                boolean regressed = higherIsBetter
+                        ? actual < expected * (1 - allowed)
+                        : actual > expected * (1 + allowed);
+                console.println(String.format("%-26s %-16s %14.1f %14.1f %+8.1f%%%s",
+                        entry.getKey(), metric, expected, actual, change * 100, regressed ? "  <-- 回归" : ""));
+                if (regressed) {
+                    failures.add(String.format("%s.%s 基线%.1f 本次%.1f，超出容差%.0f%%",
+                            entry.getKey(), metric, expected, actual, allowed * 100));
+                }
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * 把本次结果合并进已有基线：只替换本次运行过的场景，保留其余场景及其tolerance设置
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> mergeBaseline(Path baselinePath, Map<String, Object> report) throws IOException {
+        if (!Files.exists(baselinePath)) {
+            return report;
+        }
+        Map<String, Object> baseline = (Map<String, Object>) Json.parse(
+                new String(Files.readAllBytes(baselinePath), StandardCharsets.UTF_8));
+        Map<String, Object> scenarios = (Map<String, Object>) baseline.get("scenarios");
+        Map<String, Object> merged = new LinkedHashMap<>(report);
+        Map<String, Object> mergedScenarios = scenarios == null ? new LinkedHashMap<>() : new LinkedHashMap<>(scenarios);
+        for (Map.Entry<String, Object> entry : ((Map<String, Object>) report.get("scenarios")).entrySet()) {
+            Map<String, Object> metrics = new LinkedHashMap<>((Map<String, Object>) entry.getValue());
+            Map<String, Object> old = (Map<String, Object>) mergedScenarios.get(entry.getKey());
+            if (old != null) {
+                for (String key : Arrays.asList("tolerance", "latencyTolerance")) {
+                    if (old.containsKey(key)) {
+                        metrics.put(key, old.get(key));
+                    }
+                }
+            }
+            mergedScenarios.put(entry.getKey(), metrics);
+        }
+        merged.put("scenarios", mergedScenarios);
+        return merged;
+    }
+
+    private static void write(Path path, String content) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
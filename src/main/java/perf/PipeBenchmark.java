@@ -0,0 +1,162 @@
+package perf;
+
+
+import pipe.RingPipe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进程内字节管道对比压测：java.nio.channels.Pipe与RingPipe（SPIN/PARK/BLOCK三种等待策略）
+ * 吞吐  一个线程按块写入totalMB兆字节，另一个线程读完，统计MB/s，读端校验收到的字节数
+ * 延迟  两条管道来回传8字节（ping-pong），单程交接延迟取往返时间的一半，统计分位
+ * 单核机器上SPIN要等操作系统时间片轮转才能交接，延迟结果没有参考意义。
+ *
+ * 用法：PipeBenchmark [总兆字节=1024] [块大小=4096] [延迟测试秒数=2]
+ *
+ * @author MyAcme
+ */
+public class PipeBenchmark {
+
+    private static final int PIPE_CAPACITY = 64 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        int totalMb = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int chunk = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+        int latencySeconds = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+
+        List<String> rows = new ArrayList<>();
+        rows.add(run("Pipe", PipeBenchmark::kernelPipe, totalMb, chunk, latencySeconds));
+        for (RingPipe.WaitStrategy strategy : RingPipe.WaitStrategy.values()) {
+            rows.add(run("RingPipe-" + strategy, () -> {
+                RingPipe ring = RingPipe.open(PIPE_CAPACITY, strategy);
+                return new Channels(ring.sink(), ring.source());
+            }, totalMb, chunk, latencySeconds));
+        }
+        System.out.println(String.format("传输 %dMB，块大小 %d，CPU核数 %d",
+                totalMb, chunk, Runtime.getRuntime().availableProcessors()));
+        System.out.println(String.format("%-16s %10s %12s %10s %10s %10s",
+                "实现", "MB/s", "交接次数", "p50(us)", "p99(us)", "p999(us)"));
+        for (String row : rows) {
+            System.out.println(row);
+        }
+    }
+
+    /**
+     * 一对写端/读端
+     */
+    private static final class Channels {
+        final WritableByteChannel sink;
+        final ReadableByteChannel source;
+
+        Channels(WritableByteChannel sink, ReadableByteChannel source) {
+            this.sink = sink;
+            this.source = source;
+        }
+    }
+
+    private interface ChannelFactory {
+        Channels open() throws IOException;
+    }
+
+    private static Channels kernelPipe() throws IOException {
+        Pipe pipe = Pipe.open();
+        return new Channels(pipe.sink(), pipe.source());
+    }
+
+    private static String run(String name, ChannelFactory factory, int totalMb, int chunk,
+                              int latencySeconds) throws Exception {
+        double mbPerSec = throughput(factory.open(), (long) totalMb * 1024 * 1024, chunk);
+        LatencyHistogram histogram = pingPong(factory.open(), factory.open(), latencySeconds);
+        return String.format("%-16s %10.0f %12d %10.2f %10.2f %10.2f", name, mbPerSec, histogram.getTotalCount(),
+                histogram.valueAtQuantile(0.50) / 1000.0, histogram.valueAtQuantile(0.99) / 1000.0,
+                histogram.valueAtQuantile(0.999) / 1000.0);
+    }
+
+    private static double throughput(Channels channels, long total, int chunk) throws Exception {
+        long[] received = new long[1];
+        Thread reader = new Thread(() -> {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(chunk);
+            try {
+                int n;
+                while ((n = channels.source.read(buffer)) >= 0) {
+                    received[0] += n;
+                    buffer.clear();
+                }
+            } catch (IOException e) {
+                System.err.println("读端异常: " + e);
+            }
+        }, "pipe-reader");
+        ByteBuffer buffer = ByteBuffer.allocateDirect(chunk);
+        long start = System.nanoTime();
+        reader.start();
+        for (long sent = 0; sent < total; sent += chunk) {
+            buffer.clear();
+            channels.sink.write(buffer);
+        }
+        channels.sink.close();
+        reader.join();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        channels.source.close();
+        long expected = (total + chunk - 1) / chunk * chunk;
+        if (received[0] != expected) {
+            throw new IllegalStateException("读端收到 " + received[0] + " 字节，应为 " + expected);
+        }
+        return received[0] / 1048576.0 / elapsed;
+    }
+
+    /**
+     * ping写8字节，对端从ping读满后原样写回pong，记录往返时间的一半
+     */
+    private static LatencyHistogram pingPong(Channels ping, Channels pong, int seconds) throws Exception {
+        Thread echo = new Thread(() -> {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(8);
+            try {
+                while (true) {
+                    buffer.clear();
+                    while (buffer.hasRemaining()) {
+                        if (ping.source.read(buffer) < 0) {
+                            pong.sink.close();
+                            return;
+                        }
+                    }
+                    buffer.flip();
+                    pong.sink.write(buffer);
+                }
+            } catch (IOException e) {
+                System.err.println("回显端异常: " + e);
+            }
+        }, "pipe-echo");
+        echo.start();
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        ByteBuffer out = ByteBuffer.allocateDirect(8);
+        ByteBuffer in = ByteBuffer.allocateDirect(8);
+        long warmupEnd = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200);
+        long end = warmupEnd + TimeUnit.SECONDS.toNanos(seconds);
+        long now;
+        while ((now = System.nanoTime()) < end) {
+            out.clear();
+            out.putLong(0, now);
+            ping.sink.write(out);
+            in.clear();
+            while (in.hasRemaining()) {
+                pong.source.read(in);
+            }
+            if (now >= warmupEnd) {
+                histogram.record((System.nanoTime() - now) / 2);
+            }
+        }
+        ping.sink.close();
+        echo.join();
+        ping.source.close();
+        pong.source.close();
+        return histogram;
+    }
+}
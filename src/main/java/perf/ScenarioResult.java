@@ -0,0 +1,73 @@
+package perf;
+
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 单个压测场景的结果
+ *
+ * @author MyAcme
+ */
+public class ScenarioResult {
+
+    private final String name;
+    private final long messages;
+    private final long bytes;
+    private final long elapsedNanos;
+    private final LatencyHistogram histogram;
+    private final long errors;
+
+    public ScenarioResult(String name, long messages, long bytes, long elapsedNanos,
+                          LatencyHistogram histogram, long errors) {
+        this.name = name;
+        this.messages = messages;
+        this.bytes = bytes;
+        this.elapsedNanos = elapsedNanos;
+        this.histogram = histogram;
+        this.errors = errors;
+    }
+
+    public String getName() { return name; }
+    public long getMessages() { return messages; }
+    public long getErrors() { return errors; }
+
+    public double getMessagesPerSec() {
+        return messages * 1e9 / elapsedNanos;
+    }
+
+    public double getBytesPerSec() {
+        return bytes * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * 分位延迟（微秒）
+     */
+    public double latencyMicros(double quantile) {
+        return histogram.valueAtQuantile(quantile) / 1000.0;
+    }
+
+    /**
+     * 转为写入结果文件/基线文件的指标表
+     * 吞吐类指标越大越好，延迟类指标越小越好，见{@link PerfRegressionSuite#HIGHER_IS_BETTER}
+     */
+    public Map<String, Object> toMetrics() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("messagesPerSec", getMessagesPerSec());
+        map.put("bytesPerSec", getBytesPerSec());
+        map.put("p50Micros", latencyMicros(0.50));
+        map.put("p99Micros", latencyMicros(0.99));
+        map.put("p999Micros", latencyMicros(0.999));
+        map.put("maxMicros", histogram.getMaxValue() / 1000.0);
+        map.put("messages", (double) messages);
+        map.put("errors", (double) errors);
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-24s %12.0f msg/s %10.2f MB/s  p50=%.1fus p99=%.1fus p999=%.1fus errors=%d",
+                name, getMessagesPerSec(), getBytesPerSec() / (1024 * 1024),
+                latencyMicros(0.50), latencyMicros(0.99), latencyMicros(0.999), errors);
+    }
+}
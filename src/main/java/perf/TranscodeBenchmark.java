@@ -0,0 +1,131 @@
+package perf;
+
+
+import charset.ParallelTranscoder;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 大文件字符集转换对比：顺序转换（ParallelTranscoder.transcodeStream）与分块并行转换（1、2、4…个线程）
+ * 先生成一个中英混合、行长随机的源文件（默认GBK），分别用两种方式转成UTF-8，
+ * 每次都与顺序转换的结果逐字节比较，不一致直接失败，输出MB/s（按源文件字节数计）。
+ * ISO-8859-1源文件用随机字节生成，覆盖任意位置切分的情况。
+ *
+ * 用法：TranscodeBenchmark [源文件MB=256] [源字符集=GBK] [最大线程数=CPU核数] [块大小MB=8]
+ *
+ * @author MyAcme
+ */
+public class TranscodeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        Charset from = Charset.forName(args.length > 1 ? args[1] : "GBK");
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int chunkMb = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+        Charset to = StandardCharsets.UTF_8;
+
+        Path source = Files.createTempFile("transcode-src", ".txt");
+        Path expected = Files.createTempFile("transcode-seq", ".txt");
+        Path actual = Files.createTempFile("transcode-par", ".txt");
+        List<String> rows = new ArrayList<>();
+        try {
+            generate(source, from, sizeMb * 1024L * 1024L);
+            long size = Files.size(source);
+
+            // 先跑一遍预热，再计时
+            sequential(source, expected, from, to);
+            long start = System.nanoTime();
+            long written = sequential(source, expected, from, to);
+            rows.add(row("sequential", size, written, System.nanoTime() - start));
+
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                try {
+                    ParallelTranscoder transcoder = new ParallelTranscoder(from, to)
+                            .chunkSize(chunkMb * 1024 * 1024).pool(pool).maxInFlight(threads * 2);
+                    transcoder.transcode(source, actual);
+                    start = System.nanoTime();
+                    written = transcoder.transcode(source, actual);
+                    rows.add(row("parallel-" + threads, size, written, System.nanoTime() - start));
+                    long mismatch = FileCompare.mismatch(expected, actual);
+                    if (mismatch != -1) {
+                        throw new IllegalStateException("并行转换结果与顺序转换不一致，线程数 " + threads
+                                + "，首个差异位置 " + mismatch);
+                    }
+                    System.out.println(transcoder.stats());
+                } finally {
+                    pool.shutdown();
+                }
+            }
+        } finally {
+            Files.deleteIfExists(source);
+            Files.deleteIfExists(expected);
+            Files.deleteIfExists(actual);
+        }
+        System.out.println(String.format("源文件 %d MB，%s -> %s，块大小 %d MB，CPU核数 %d，输出均与顺序转换逐字节一致",
+                sizeMb, from.name(), to.name(), chunkMb, Runtime.getRuntime().availableProcessors()));
+        System.out.println(String.format("%-14s %12s %10s %10s", "方式", "输出字节", "秒", "MB/s"));
+        for (String row : rows) {
+            System.out.println(row);
+        }
+    }
+
+    private static long sequential(Path source, Path target, Charset from, Charset to) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            return ParallelTranscoder.transcodeStream(in, out, from, to);
+        }
+    }
+
+    /**
+     * 生成约size字节的源文件：多字节字符集写中英混合的随机长度行，单字节字符集写随机字节
+     */
+    private static void generate(Path file, Charset charset, long size) throws IOException {
+        Random random = new Random(46);
+        if (charset.newEncoder().maxBytesPerChar() == 1) {
+            byte[] block = new byte[1024 * 1024];
+            try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                for (long written = 0; written < size; written += block.length) {
+                    random.nextBytes(block);
+                    out.write(ByteBuffer.wrap(block));
+                }
+            }
+            return;
+        }
+        String[] words = {"订单", "客户编号", "金额", "备注：", "北京市海淀区", "status", "ok", "2024-09-04", ",", " "};
+        long written = 0;
+        // OutputStreamWriter对无法映射的字符写替换字节，Big5等字符集也能生成
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file), charset))) {
+            while (written < size) {
+                StringBuilder line = new StringBuilder();
+                int count = 1 + random.nextInt(40);
+                for (int i = 0; i < count; i++) {
+                    line.append(words[random.nextInt(words.length)]);
+                }
+                line.append('\n');
+                writer.write(line.toString());
+                written += line.length() * 2L;
+            }
+        }
+    }
+
+    private static String row(String name, long size, long written, long nanos) {
+        double seconds = nanos / 1e9;
+        return String.format("%-14s %12d %10.3f %10.1f", name, written, seconds, size / 1048576.0 / seconds);
+    }
+}
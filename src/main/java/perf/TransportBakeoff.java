@@ -0,0 +1,231 @@
+package perf;
+
+
+import io.netty.util.internal.PlatformDependent;
+import selector.NioClientScript;
+import selector.NioLoadClient;
+import transport.BroadcastHandler;
+import transport.EchoHandler;
+import transport.NettyTransport;
+import transport.Transport;
+
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 传输引擎对比压测（本机回环，服务端和客户端在同一进程）
+ * 每个引擎依次跑同样的三项：
+ * 回显      LoadGenerator按行回显，固定连接数、每连接一条在途请求，统计req/s和延迟分位
+ * 广播      一个发布者尽力写行，N个订阅者（NioLoadClient）只读，统计订阅者每秒收到的行数；
+ *           选择器引擎跳过积压过多的慢连接，阻塞引擎的广播线程会阻塞在慢连接上（“慢连接”一列）
+ * 空闲连接  保持M个空闲连接，GC后比较堆、直接内存和线程数的增量，折算到每个连接
+ * 每连接内存包含进程内客户端那一端的套接字对象，各引擎相同，只用于横向比较；虚拟线程不计入线程数。
+ *
+ * 用法：TransportBakeoff [连接数=64] [秒数=5] [行长度=64]
+ * 系统属性：transport.engines（逗号分隔，默认nio,netty-nio,netty-epoll,blocking，epoll不可用时跳过）、
+ * transport.subscribers（默认200）、transport.idleConnections（默认2000）、transport.warmupSeconds（默认2）
+ *
+ * @author MyAcme
+ */
+public class TransportBakeoff {
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int payload = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        String engines = System.getProperty("transport.engines", "nio,netty-nio,netty-epoll,blocking");
+        int subscribers = Integer.getInteger("transport.subscribers", 200);
+        int idleConnections = Integer.getInteger("transport.idleConnections", 2000);
+        int warmupSeconds = Integer.getInteger("transport.warmupSeconds", 2);
+
+        List<String[]> rows = new ArrayList<>();
+        for (String engine : engines.split(",")) {
+            if (engine.equals("netty-epoll") && !NettyTransport.epollAvailable()) {
+                System.out.println("跳过netty-epoll：当前平台不支持epoll传输");
+                continue;
+            }
+            Transport transport = Transport.create(engine);
+            System.out.println("==== " + transport.name() + " ====");
+            double[] memory = idleMemory(transport, idleConnections);
+            ScenarioResult echo = echo(Transport.create(engine), connections, payload, warmupSeconds, seconds);
+            double[] fanOut = broadcast(Transport.create(engine), subscribers, payload, seconds);
+            rows.add(new String[]{
+                    transport.name(),
+                    String.format("%.0f", echo.getMessagesPerSec()),
+                    String.format("%.1f", echo.latencyMicros(0.50)),
+                    String.format("%.1f", echo.latencyMicros(0.99)),
+                    String.format("%.0f", fanOut[0]),
+                    String.format("%.0f", fanOut[1]),
+                    transport.broadcastSkipsSlowConnections() ? "跳过" : "阻塞",
+                    String.format("%.0f", memory[0]),
+                    String.format("%.0f", memory[1]),
+                    String.format("%.3f", memory[2])});
+        }
+
+        System.out.println(String.format("回显：%d个连接，行长度%d字节；广播：%d个订阅者；空闲连接：%d个",
+                connections, payload, subscribers, idleConnections));
+        System.out.println(String.format("%-16s %10s %9s %9s %12s %10s %6s %10s %10s %9s",
+                "引擎", "echo/s", "p50(us)", "p99(us)", "广播投递/s", "发布/s", "慢连接", "堆B/连接", "直接B/连接", "线程/连接"));
+        for (String[] row : rows) {
+            System.out.println(String.format("%-16s %10s %9s %9s %12s %10s %6s %10s %10s %9s", (Object[]) row));
+        }
+        System.out.println("慢连接：广播遇到发送缓冲区已满的连接时跳过本条，还是阻塞广播线程（排在后面的连接一起等）");
+    }
+
+    /**
+     * 回显场景
+     */
+    static ScenarioResult echo(Transport transport, int connections, int payload,
+                               int warmupSeconds, int seconds) throws Exception {
+        InetSocketAddress address = transport.bind(0, new EchoHandler());
+        try {
+            return new LoadGenerator("127.0.0.1", address.getPort(), ClientProtocol.lines(payload, 0), connections, 1)
+                    .run(transport.name(), warmupSeconds * 1000L, seconds * 1000L);
+        } finally {
+            transport.stop();
+        }
+    }
+
+    /**
+     * 广播场景：订阅者全部连上后，发布者在统计时长内尽力写行，另一个线程读掉发布者收到的回送
+     *
+     * @return {订阅者每秒收到的行数, 发布者每秒写出的行数}
+     */
+    static double[] broadcast(Transport transport, int subscribers, int payload, int seconds) throws Exception {
+        InetSocketAddress address = transport.bind(0, new BroadcastHandler());
+        InetSocketAddress target = new InetSocketAddress("127.0.0.1", address.getPort());
+        NioLoadClient client = new NioLoadClient(target, subscribers, new NioClientScript())
+                .connectRate(100_000).abortiveClose(true).progress(false);
+        long holdMillis = TimeUnit.SECONDS.toMillis(seconds) + 3000;
+        Thread clientThread = new Thread(() -> {
+            try {
+                client.run(holdMillis);
+            } catch (IOException e) {
+                System.err.println("订阅者客户端异常: " + e.getMessage());
+            }
+        }, "bakeoff-subscribers");
+        clientThread.start();
+
+        SocketChannel publisher = null;
+        Thread drainer = null;
+        try {
+            awaitConnections(transport, subscribers);
+            publisher = SocketChannel.open(target);
+            SocketChannel drained = publisher;
+            drainer = new Thread(() -> drain(drained), "bakeoff-drain");
+            drainer.start();
+            awaitConnections(transport, subscribers + 1);
+
+            ByteBuffer line = line(payload);
+            long published = 0;
+            long startRead = client.bytesRead();
+            long start = System.nanoTime();
+            long end = start + TimeUnit.SECONDS.toNanos(seconds);
+            while (System.nanoTime() < end) {
+                ByteBuffer next = line.duplicate();
+                while (next.hasRemaining()) {
+                    publisher.write(next);
+                }
+                published++;
+            }
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            long received = client.bytesRead() - startRead;
+            return new double[]{received / (double) line.capacity() / elapsed, published / elapsed};
+        } finally {
+            if (publisher != null) {
+                publisher.close();
+            }
+            transport.stop();
+            clientThread.join();
+            if (drainer != null) {
+                drainer.join();
+            }
+        }
+    }
+
+    /**
+     * 空闲连接场景
+     *
+     * @return {每连接堆字节, 每连接直接内存字节, 每连接线程数}
+     */
+    static double[] idleMemory(Transport transport, int count) throws Exception {
+        InetSocketAddress address = transport.bind(0, new EchoHandler());
+        InetSocketAddress target = new InetSocketAddress("127.0.0.1", address.getPort());
+        List<SocketChannel> clients = new ArrayList<>(count);
+        try {
+            long[] before = snapshot();
+            for (int i = 0; i < count; i++) {
+                clients.add(SocketChannel.open(target));
+            }
+            awaitConnections(transport, count);
+            long[] after = snapshot();
+            return new double[]{
+                    (after[0] - before[0]) / (double) count,
+                    (after[1] - before[1]) / (double) count,
+                    (after[2] - before[2]) / (double) count};
+        } finally {
+            for (SocketChannel channel : clients) {
+                channel.close();
+            }
+            transport.stop();
+        }
+    }
+
+    /**
+     * GC后取{堆已用, 直接内存已用（JDK直接缓冲区加上Netty自己统计的无Cleaner直接内存）, 线程数}
+     */
+    private static long[] snapshot() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        long direct = Math.max(0, PlatformDependent.usedDirectMemory());
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                direct += pool.getMemoryUsed();
+            }
+        }
+        return new long[]{heap, direct, ManagementFactory.getThreadMXBean().getThreadCount()};
+    }
+
+    private static void awaitConnections(Transport transport, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (transport.connections() < count) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException(transport.name() + " 10秒内只建立了 "
+                        + transport.connections() + "/" + count + " 个连接");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static void drain(SocketChannel channel) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        try {
+            while (channel.read(buffer) >= 0) {
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            // 发布结束时关闭通道
+        }
+    }
+
+    private static ByteBuffer line(int payload) {
+        byte[] bytes = new byte[payload + 1];
+        for (int i = 0; i < payload; i++) {
+            bytes[i] = (byte) ('a' + i % 26);
+        }
+        bytes[payload] = '\n';
+        ByteBuffer line = ByteBuffer.allocateDirect(bytes.length);
+        line.put(bytes).flip();
+        return line;
+    }
+}
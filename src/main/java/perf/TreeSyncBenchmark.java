@@ -0,0 +1,247 @@
+package perf;
+
+
+import file.TreeSync;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * 目录树同步对比：逐个Files.copy（FileChannelDemo.FilesCopy的做法，每晚全量复制）与TreeSync
+ * 生成的源目录：dirs个子目录各filesPerDir个4KB~64KB的小文件，外加large个128MB的大文件。
+ * 依次测量：
+ * full-copy     遍历源目录逐个Files.copy到新目录
+ * sync-full     TreeSync同步到新目录
+ * sync-noop     源目录没有变化时再同步一次（全部跳过）
+ * sync-1%       改写1%的小文件和一个大文件后再同步
+ * sync-symlink  把目标里的一个小文件和一个子目录换成指向目标树外面的符号链接后再同步，
+ *               链接必须被换回普通文件和目录，树外的文件不能被改写
+ * 每一步之后比较两边目录树的内容。
+ *
+ * 用法：TreeSyncBenchmark [目录=临时目录] [子目录数=20] [每个目录文件数=200] [大文件数=2] [线程数=CPU核数*2] [在途任务上限=16]
+ *
+ * @author MyAcme
+ */
+public class TreeSyncBenchmark {
+
+    private static final byte[] VICTIM = "outside the target tree".getBytes(StandardCharsets.UTF_8);
+
+    public static void main(String[] args) throws Exception {
+        Path base = args.length > 0 ? Paths.get(args[0]) : Paths.get(System.getProperty("java.io.tmpdir"));
+        int dirs = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int filesPerDir = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        int large = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors() * 2;
+        int outstanding = args.length > 5 ? Integer.parseInt(args[5]) : 16;
+
+        Path root = Files.createTempDirectory(base, "treesync");
+        Path source = root.resolve("src");
+        Random random = new Random(50);
+        List<String> rows = new ArrayList<>();
+        try {
+            List<Path> smallFiles = new ArrayList<>();
+            List<Path> largeFiles = new ArrayList<>();
+            generate(source, dirs, filesPerDir, large, random, smallFiles, largeFiles);
+            long total = treeBytes(source);
+
+            Path plain = root.resolve("plain");
+            long start = System.nanoTime();
+            copyTree(source, plain);
+            rows.add(row("full-copy", System.nanoTime() - start, total, null));
+            verify(source, plain);
+
+            TreeSync sync = new TreeSync().parallelism(threads).maxOutstanding(outstanding);
+            Path synced = root.resolve("synced");
+            Map<String, Object> stats = sync.sync(source, synced);
+            rows.add(row("sync-full", (long) stats.get("millis") * 1_000_000, total, stats));
+            verify(source, synced);
+
+            stats = sync.sync(source, synced);
+            rows.add(row("sync-noop", (long) stats.get("millis") * 1_000_000, total, stats));
+            verify(source, synced);
+
+            for (int i = 0; i < smallFiles.size() / 100; i++) {
+                rewrite(smallFiles.get(random.nextInt(smallFiles.size())), random);
+            }
+            if (!largeFiles.isEmpty()) {
+                rewrite(largeFiles.get(0), random);
+            }
+            stats = sync.sync(source, synced);
+            rows.add(row("sync-1%", (long) stats.get("millis") * 1_000_000, total, stats));
+            verify(source, synced);
+
+            Path outside = Files.createDirectories(root.resolve("outside"));
+            Path victim = Files.write(outside.resolve("victim.bin"), VICTIM);
+            List<Path> links = plantSymlinks(synced, dirs, outside, victim);
+            stats = sync.sync(source, synced);
+            rows.add(row("sync-symlink", (long) stats.get("millis") * 1_000_000, total, stats));
+            verify(source, synced);
+            checkSymlinks(links, outside, victim);
+        } finally {
+            delete(root);
+        }
+        System.out.println(String.format("目录 %s（%s），%d 个子目录 x %d 个小文件 + %d 个128MB大文件，%d 线程，在途上限 %d",
+                base, Files.getFileStore(base).type(), dirs, filesPerDir, large, threads, outstanding));
+        System.out.println(String.format("%-12s %10s %10s  %s", "步骤", "毫秒", "源树MB/s", "统计"));
+        for (String row : rows) {
+            System.out.println(row);
+        }
+    }
+
+    private static String row(String name, long nanos, long total, Map<String, Object> stats) {
+        return String.format("%-12s %10d %10.1f  %s", name, nanos / 1_000_000,
+                total / 1048576.0 / Math.max(nanos, 1) * 1e9, stats == null ? "" : stats);
+    }
+
+    /**
+     * 基线：遍历源目录，逐个Files.copy
+     */
+    private static void copyTree(Path source, Path target) throws IOException {
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(target.resolve(source.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.copy(file, target.resolve(source.relativize(file)), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.COPY_ATTRIBUTES);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static void generate(Path source, int dirs, int filesPerDir, int large, Random random,
+                                 List<Path> smallFiles, List<Path> largeFiles) throws IOException {
+        byte[] bytes = new byte[64 * 1024];
+        for (int d = 0; d < dirs; d++) {
+            Path dir = Files.createDirectories(source.resolve("dir-" + d));
+            for (int f = 0; f < filesPerDir; f++) {
+                random.nextBytes(bytes);
+                Path file = dir.resolve("artifact-" + f + ".bin");
+                Files.write(file, Arrays.copyOf(bytes, 4096 + random.nextInt(60 * 1024)));
+                smallFiles.add(file);
+            }
+        }
+        ByteBuffer block = ByteBuffer.allocateDirect(1024 * 1024);
+        for (int i = 0; i < large; i++) {
+            Path file = source.resolve("image-" + i + ".img");
+            try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                for (int m = 0; m < 128; m++) {
+                    block.clear();
+                    block.putLong(0, random.nextLong());
+                    while (block.hasRemaining()) {
+                        out.write(block);
+                    }
+                }
+            }
+            largeFiles.add(file);
+        }
+    }
+
+    /**
+     * 改写文件开头的一些字节，并把修改时间往后调，模拟一次构建产物的更新
+     */
+    private static void rewrite(Path file, Random random) throws IOException {
+        byte[] bytes = new byte[1024];
+        random.nextBytes(bytes);
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            out.write(ByteBuffer.wrap(bytes), 0);
+        }
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 2000));
+    }
+
+    /**
+     * 把目标里dir-0的第一个文件换成指向victim的链接，最后一个子目录换成指向outside的链接，返回换掉的路径
+     */
+    private static List<Path> plantSymlinks(Path synced, int dirs, Path outside, Path victim) throws IOException {
+        List<Path> links = new ArrayList<>();
+        Path file = synced.resolve("dir-0").resolve("artifact-0.bin");
+        if (Files.exists(file)) {
+            Files.delete(file);
+            links.add(Files.createSymbolicLink(file, victim));
+        }
+        if (dirs > 1) {
+            Path dir = synced.resolve("dir-" + (dirs - 1));
+            delete(dir);
+            links.add(Files.createSymbolicLink(dir, outside));
+        }
+        return links;
+    }
+
+    private static void checkSymlinks(List<Path> links, Path outside, Path victim) throws IOException {
+        for (Path link : links) {
+            if (Files.isSymbolicLink(link)) {
+                throw new IllegalStateException("目标里的符号链接没有被替换: " + link);
+            }
+        }
+        if (!Arrays.equals(Files.readAllBytes(victim), VICTIM)) {
+            throw new IllegalStateException("同步跟随符号链接改写了目标树外的文件: " + victim);
+        }
+        try (Stream<Path> files = Files.list(outside)) {
+            if (files.count() != 1) {
+                throw new IllegalStateException("同步跟随符号链接往目标树外写了文件: " + outside);
+            }
+        }
+    }
+
+    private static long treeBytes(Path root) throws IOException {
+        long[] total = {0};
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                total[0] += attrs.size();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return total[0];
+    }
+
+    private static void verify(Path source, Path target) throws IOException {
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Path other = target.resolve(source.relativize(file));
+                if (FileCompare.mismatch(file, other) != -1) {
+                    throw new IllegalStateException("同步结果与源文件不一致: " + other);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static void delete(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,110 @@
+package perf;
+
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import netty.UdpIngestServer;
+import netty.UdpPublisher;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * UDP发送方式对比压测（本机回环）
+ * 接收端是{@link UdpIngestServer}，发送端依次为：
+ * datagram-channel  复用一个connected DatagramChannel，每个数据报一次write系统调用（基线）
+ * publisher         {@link UdpPublisher}批量flush，epoll下走sendmmsg
+ * publisher-gso     同上并把等长数据报拼成GSO报文（内核支持时）
+ * 统计发送端每秒发出的数据报数和接收端每秒收到的数据报数，两者之差是内核因接收缓冲区满丢弃的部分。
+ *
+ * 用法：UdpBenchmark [秒数=5] [载荷字节数=100]
+ *
+ * @author MyAcme
+ */
+public class UdpBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int payloadSize = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        LongAdder handled = new LongAdder();
+        UdpIngestServer server = new UdpIngestServer((content, sender) -> handled.increment())
+                .sockets(1).workers(1);
+        InetSocketAddress bound = server.bind(0);
+        InetSocketAddress target = new InetSocketAddress("127.0.0.1", bound.getPort());
+
+        List<String> rows = new ArrayList<>();
+        try {
+            rows.add(channelBaseline(server, target, payloadSize, seconds));
+            rows.add(publisher(server, new UdpPublisher(target).gso(false), "publisher", payloadSize, seconds));
+            rows.add(publisher(server, new UdpPublisher(target).gso(true), "publisher-gso", payloadSize, seconds));
+        } finally {
+            server.stop();
+        }
+        System.out.println(String.format("载荷 %d 字节，每项 %d 秒", payloadSize, seconds));
+        System.out.println(String.format("%-18s %-22s %12s %12s %10s", "发送方式", "实现", "发送pps", "接收pps", "接收率"));
+        for (String row : rows) {
+            System.out.println(row);
+        }
+    }
+
+    private static String channelBaseline(UdpIngestServer server, InetSocketAddress target,
+                                          int payloadSize, int seconds) throws Exception {
+        ByteBuffer payload = ByteBuffer.allocateDirect(payloadSize);
+        long receivedBefore = received(server);
+        long sent = 0;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            channel.connect(target);
+            while (System.nanoTime() < end) {
+                payload.clear();
+                channel.write(payload);
+                sent++;
+            }
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        Thread.sleep(200);
+        return row("datagram-channel", "write()", sent / elapsed, (received(server) - receivedBefore) / elapsed);
+    }
+
+    private static String publisher(UdpIngestServer server, UdpPublisher publisher, String name,
+                                    int payloadSize, int seconds) throws Exception {
+        publisher.connect();
+        int capacity = 64 * 1024;
+        long receivedBefore = received(server);
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        try {
+            while (System.nanoTime() < end) {
+                if (publisher.queued() >= capacity - 1024) {
+                    // 发布器跟不上时让出CPU，而不是让publish因队列满丢弃
+                    Thread.yield();
+                    continue;
+                }
+                ByteBuf payload = PooledByteBufAllocator.DEFAULT.directBuffer(payloadSize);
+                payload.writerIndex(payloadSize);
+                publisher.publish(payload);
+            }
+        } finally {
+            publisher.close();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        Thread.sleep(200);
+        return row(name, publisher.mode(), publisher.sent() / elapsed, (received(server) - receivedBefore) / elapsed);
+    }
+
+    private static long received(UdpIngestServer server) {
+        return (Long) server.stats().get("received");
+    }
+
+    private static String row(String name, String mode, double sentPps, double receivedPps) {
+        return String.format("%-18s %-22s %12.0f %12.0f %9.1f%%",
+                name, mode, sentPps, receivedPps, sentPps == 0 ? 0 : receivedPps * 100 / sentPps);
+    }
+}
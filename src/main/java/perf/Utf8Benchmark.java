@@ -0,0 +1,163 @@
+package perf;
+
+
+import charset.Utf8;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UTF-8编解码对比：各场景下常见的JDK/Netty写法（基线）与{@link Utf8}
+ * 编码->直接      String.getBytes后put进直接ByteBuffer vs Utf8.encode(s, ByteBuffer)
+ * 编码->ByteBuf   Netty StringEncoder的ByteBufUtil.encodeString vs Utf8.encode(s, ByteBuf)
+ * 严格编码        CharsetEncoder(REPORT).encode vs Utf8.encodeStrict
+ * 解码byte[]      new String(bytes, UTF_8) vs Utf8.decode(bytes)
+ * 解码直接        UTF_8.decode(buffer).toString()（CharsetDemo的写法） vs Utf8.decode(ByteBuffer)
+ * 解码ByteBuf     直接内存ByteBuf.toString(UTF_8)（StringDecoder的写法） vs Utf8.decode(ByteBuf)
+ * 文本分四类：短ASCII、长ASCII、中英混合、含emoji（代理对），每项按固定时长循环，输出ns/op和MB/s（按UTF-8字节数计）。
+ *
+ * 用法：Utf8Benchmark [每项毫秒数=500]
+ *
+ * @author MyAcme
+ */
+public class Utf8Benchmark {
+
+    private static long sink;
+
+    public static void main(String[] args) {
+        long millis = args.length > 0 ? Long.parseLong(args[0]) : 500;
+        String[][] texts = {
+                {"ascii-32", repeat("hello nio ", 4).substring(0, 32)},
+                {"ascii-4k", repeat("the quick brown fox jumps over the lazy dog ", 94).substring(0, 4096)},
+                {"mixed-1k", repeat("NIO非阻塞通道与选择器 selector ", 40)},
+                {"emoji-1k", repeat("消息😀 ok 🚀 ", 80)},
+        };
+        List<String> rows = new ArrayList<>();
+        for (String[] text : texts) {
+            String s = text[1];
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer out = ByteBuffer.allocateDirect(s.length() * 3);
+            ByteBuffer in = ByteBuffer.allocateDirect(bytes.length);
+            in.put(bytes).flip();
+            ByteBuf outBuf = Unpooled.directBuffer(s.length() * 3);
+            ByteBuf inBuf = Unpooled.directBuffer(bytes.length).writeBytes(bytes);
+            CharsetEncoder strictEncoder = StandardCharsets.UTF_8.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPORT).onUnmappableCharacter(CodingErrorAction.REPORT);
+            check(s, bytes, in, inBuf);
+
+            rows.add(row(text[0] + " 编码->直接", bytes.length, measure(millis, () -> {
+                out.clear();
+                out.put(s.getBytes(StandardCharsets.UTF_8));
+                return out.position();
+            }), measure(millis, () -> {
+                out.clear();
+                return Utf8.encode(s, out);
+            })));
+            rows.add(row(text[0] + " 编码->ByteBuf", bytes.length, measure(millis, () -> {
+                ByteBuf encoded = ByteBufUtil.encodeString(UnpooledByteBufAllocator.DEFAULT, CharBuffer.wrap(s),
+                        StandardCharsets.UTF_8);
+                int n = encoded.readableBytes();
+                encoded.release();
+                return n;
+            }), measure(millis, () -> {
+                outBuf.clear();
+                return Utf8.encode(s, outBuf);
+            })));
+            rows.add(row(text[0] + " 严格编码", bytes.length, measure(millis, () -> {
+                try {
+                    return strictEncoder.reset().encode(CharBuffer.wrap(s)).remaining();
+                } catch (CharacterCodingException e) {
+                    throw new IllegalStateException(e);
+                }
+            }), measure(millis, () -> {
+                out.clear();
+                try {
+                    return Utf8.encodeStrict(s, out);
+                } catch (CharacterCodingException e) {
+                    throw new IllegalStateException(e);
+                }
+            })));
+            rows.add(row(text[0] + " 解码byte[]", bytes.length,
+                    measure(millis, () -> new String(bytes, StandardCharsets.UTF_8).length()),
+                    measure(millis, () -> Utf8.decode(bytes, 0, bytes.length).length())));
+            rows.add(row(text[0] + " 解码直接", bytes.length,
+                    measure(millis, () -> StandardCharsets.UTF_8.decode(in.duplicate()).toString().length()),
+                    measure(millis, () -> Utf8.decode(in.duplicate()).length())));
+            rows.add(row(text[0] + " 解码ByteBuf", bytes.length,
+                    measure(millis, () -> inBuf.toString(StandardCharsets.UTF_8).length()),
+                    measure(millis, () -> Utf8.decode(inBuf, inBuf.readerIndex(), inBuf.readableBytes()).length())));
+            outBuf.release();
+            inBuf.release();
+        }
+        System.out.println(String.format("每项 %d 毫秒", millis));
+        System.out.println(String.format("%-22s %8s %12s %12s %12s %12s %8s",
+                "场景", "字节数", "基线 ns/op", "Utf8 ns/op", "基线 MB/s", "Utf8 MB/s", "倍数"));
+        for (String row : rows) {
+            System.out.println(row);
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    private interface Op {
+        int run();
+    }
+
+    /**
+     * 预热后按时长循环，返回平均每次的纳秒数
+     */
+    private static double measure(long millis, Op op) {
+        long warmupEnd = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis / 2);
+        while (System.nanoTime() < warmupEnd) {
+            for (int i = 0; i < 1000; i++) {
+                sink += op.run();
+            }
+        }
+        long ops = 0;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(millis);
+        long now;
+        while ((now = System.nanoTime()) < end) {
+            for (int i = 0; i < 1000; i++) {
+                sink += op.run();
+            }
+            ops += 1000;
+        }
+        return (now - start) / (double) ops;
+    }
+
+    private static String row(String name, int bytes, double baseNs, double utf8Ns) {
+        return String.format("%-22s %8d %12.1f %12.1f %12.0f %12.0f %8.2f", name, bytes, baseNs, utf8Ns,
+                bytes / baseNs * 1e9 / 1048576, bytes / utf8Ns * 1e9 / 1048576, baseNs / utf8Ns);
+    }
+
+    private static void check(String s, byte[] bytes, ByteBuffer in, ByteBuf inBuf) {
+        ByteBuffer out = ByteBuffer.allocate(s.length() * 3);
+        Utf8.encode(s, out);
+        out.flip();
+        if (!out.equals(ByteBuffer.wrap(bytes)) || !Utf8.decode(in.duplicate()).equals(s)
+                || !Utf8.decode(inBuf, inBuf.readerIndex(), inBuf.readableBytes()).equals(s)) {
+            throw new IllegalStateException("Utf8编解码结果与JDK不一致: " + s);
+        }
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder sb = new StringBuilder(s.length() * times);
+        for (int i = 0; i < times; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,387 @@
+package pipe;
+
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 进程内单生产者/单消费者字节管道（java.nio.channels.Pipe的无锁替代）
+ * Pipe在Linux上是内核管道，每次传输一次write一次read系统调用；
+ * RingPipe的数据放在一块直接内存环形缓冲区里（容量为2的幂，下标用位与取模），
+ * 写端拷进去后用release语义发布写游标，读端用acquire语义读到游标后拷出来，整个过程没有锁和系统调用。
+ *
+ * 读写游标各自在缓存行填充的对象里，写端和读端还各自缓存一份对方游标的旧值，
+ * 只有缓存显示空间（或数据）不够时才去读对方的游标，减少缓存行在两个核之间来回传递。
+ *
+ * 等待策略见{@link WaitStrategy}。只支持一个写线程和一个读线程，多线程写需要外部同步。
+ * 读写两端分别是{@link #sink()}和{@link #source()}，语义与阻塞模式的Pipe一致：
+ * write写完全部字节才返回，read至少读到1个字节才返回，写端关闭且数据读完后read返回-1。
+ *
+ * @author MyAcme
+ */
+public class RingPipe {
+
+    /**
+     * 缓冲区满（写端）或空（读端）时的等待方式
+     */
+    public enum WaitStrategy {
+        /**
+         * 一直自旋（Thread.onSpinWait），延迟最低，等待期间占满一个核，只适合读写线程各有独占核的场景
+         */
+        SPIN,
+        /**
+         * 先自旋，再让出CPU，最后parkNanos定时醒来检查，不需要对方唤醒，空闲时CPU占用低但延迟上限是挂起时长
+         */
+        PARK,
+        /**
+         * 先自旋，再park直到对方发布游标后unpark，空闲时不占CPU，唤醒要一次系统调用
+         */
+        BLOCK
+    }
+
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+    private static final long PARK_NANOS = 50_000;
+
+    private final ByteBuffer ring;
+    private final int capacity;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+    /**
+     * BLOCK策略需要唤醒对方：游标用volatile写发布，之后读对方的等待标记，
+     * 与对方“先写等待标记再volatile读游标”构成先写后读的互斥，不会两边都错过
+     */
+    private final boolean signal;
+
+    /**
+     * 写游标（累计写入字节数），只由写端修改
+     */
+    private final Sequence tail = new Sequence();
+    /**
+     * 读游标（累计读出字节数），只由读端修改
+     */
+    private final Sequence head = new Sequence();
+
+    private final Sink sink;
+    private final Source source;
+
+    /**
+     * @param capacity     缓冲区容量，向上取2的幂
+     * @param waitStrategy 等待策略
+     */
+    public RingPipe(int capacity, WaitStrategy waitStrategy) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("容量无效: " + capacity);
+        }
+        this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.ring = ByteBuffer.allocateDirect(this.capacity);
+        this.waitStrategy = waitStrategy;
+        this.signal = waitStrategy == WaitStrategy.BLOCK;
+        this.sink = new Sink();
+        this.source = new Source();
+    }
+
+    public static RingPipe open(int capacity, WaitStrategy waitStrategy) {
+        return new RingPipe(capacity, waitStrategy);
+    }
+
+    public Sink sink() {
+        return sink;
+    }
+
+    public Source source() {
+        return source;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * 当前可读字节数
+     */
+    public int available() {
+        return (int) (tail.getAcquire() - head.getAcquire());
+    }
+
+    /**
+     * 第attempt次没等到时的退避，SPIN/PARK不需要对方唤醒，BLOCK由对方unpark
+     */
+    private void idle(int attempt) {
+        if (waitStrategy == WaitStrategy.SPIN || attempt < SPIN_TRIES) {
+            Thread.onSpinWait();
+        } else if (attempt < SPIN_TRIES + YIELD_TRIES) {
+            Thread.yield();
+        } else if (waitStrategy == WaitStrategy.PARK) {
+            LockSupport.parkNanos(this, PARK_NANOS);
+        } else {
+            LockSupport.park(this);
+        }
+    }
+
+    /**
+     * 写端：实现WritableByteChannel
+     */
+    public final class Sink implements WritableByteChannel {
+        private final ByteBuffer view = ring.duplicate();
+        private long headCache;
+        private volatile boolean open = true;
+        /**
+         * BLOCK策略下挂起等待空间的写线程，读端读出数据后唤醒
+         */
+        volatile Thread waiter;
+
+        private Sink() {
+        }
+
+        /**
+         * 把src的剩余字节全部写入，空间不够时按等待策略等读端腾出空间
+         *
+         * @throws ClosedChannelException 写端已关闭
+         * @throws IOException            读端已关闭（管道断开）
+         */
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int total = src.remaining();
+            int attempt = 0;
+            while (src.hasRemaining()) {
+                if (!open) {
+                    throw new ClosedChannelException();
+                }
+                int n = tryWrite(src);
+                if (n > 0) {
+                    attempt = 0;
+                    continue;
+                }
+                if (!source.open) {
+                    throw new IOException("管道读端已关闭");
+                }
+                if (waitStrategy == WaitStrategy.BLOCK && attempt >= SPIN_TRIES + YIELD_TRIES) {
+                    waiter = Thread.currentThread();
+                    // 发布等待标记后复查，读端在发布读游标后读这个标记，两边至少有一方看到对方
+                    if (capacity - (tail.getPlain() - head.getVolatile()) == 0 && source.open) {
+                        idle(attempt);
+                    }
+                    waiter = null;
+                } else {
+                    idle(attempt);
+                }
+                attempt++;
+            }
+            return total;
+        }
+
+        /**
+         * 不等待，写入当前能放下的部分，返回写入的字节数
+         */
+        public int tryWrite(ByteBuffer src) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            long t = tail.getPlain();
+            int free = capacity - (int) (t - headCache);
+            if (free < src.remaining()) {
+                headCache = head.getAcquire();
+                free = capacity - (int) (t - headCache);
+            }
+            int n = Math.min(free, src.remaining());
+            if (n == 0) {
+                return 0;
+            }
+            int index = (int) t & mask;
+            int first = Math.min(n, capacity - index);
+            copyIn(src, index, first);
+            if (first < n) {
+                copyIn(src, 0, n - first);
+            }
+            if (signal) {
+                tail.setVolatile(t + n);
+                Thread reader = source.waiter;
+                if (reader != null) {
+                    LockSupport.unpark(reader);
+                }
+            } else {
+                tail.setRelease(t + n);
+            }
+            return n;
+        }
+
+        private void copyIn(ByteBuffer src, int index, int length) {
+            int limit = src.limit();
+            src.limit(src.position() + length);
+            view.limit(index + length).position(index);
+            view.put(src);
+            src.limit(limit);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        /**
+         * 关闭写端，读端读完剩余数据后read返回-1
+         */
+        @Override
+        public void close() {
+            open = false;
+            Thread reader = source.waiter;
+            if (reader != null) {
+                LockSupport.unpark(reader);
+            }
+        }
+    }
+
+    /**
+     * 读端：实现ReadableByteChannel
+     */
+    public final class Source implements ReadableByteChannel {
+        private final ByteBuffer view = ring.duplicate();
+        private long tailCache;
+        private volatile boolean open = true;
+        /**
+         * BLOCK策略下挂起等待数据的读线程，写端发布写游标后唤醒
+         */
+        volatile Thread waiter;
+
+        private Source() {
+        }
+
+        /**
+         * 读到至少1个字节（或dst已满）才返回，写端关闭且数据读完后返回-1
+         */
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!dst.hasRemaining()) {
+                return 0;
+            }
+            int attempt = 0;
+            while (true) {
+                int n = tryRead(dst);
+                if (n != 0) {
+                    return n;
+                }
+                if (waitStrategy == WaitStrategy.BLOCK && attempt >= SPIN_TRIES + YIELD_TRIES) {
+                    waiter = Thread.currentThread();
+                    if (tail.getVolatile() == head.getPlain() && sink.open) {
+                        idle(attempt);
+                    }
+                    waiter = null;
+                } else {
+                    idle(attempt);
+                }
+                attempt++;
+            }
+        }
+
+        /**
+         * 不等待，读出当前可读的部分，没有数据时返回0，写端关闭且数据读完后返回-1
+         */
+        public int tryRead(ByteBuffer dst) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            long h = head.getPlain();
+            int available = (int) (tailCache - h);
+            if (available == 0) {
+                // 先读关闭标记再读游标：看到关闭时，写端关闭前发布的数据一定也能看到
+                boolean sinkOpen = sink.open;
+                tailCache = tail.getAcquire();
+                available = (int) (tailCache - h);
+                if (available == 0) {
+                    return sinkOpen ? 0 : -1;
+                }
+            }
+            int n = Math.min(available, dst.remaining());
+            int index = (int) h & mask;
+            int first = Math.min(n, capacity - index);
+            view.limit(index + first).position(index);
+            dst.put(view);
+            if (first < n) {
+                view.limit(n - first).position(0);
+                dst.put(view);
+            }
+            if (signal) {
+                head.setVolatile(h + n);
+                Thread writer = sink.waiter;
+                if (writer != null) {
+                    LockSupport.unpark(writer);
+                }
+            } else {
+                head.setRelease(h + n);
+            }
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        /**
+         * 关闭读端，之后的写入抛出IOException
+         */
+        @Override
+        public void close() {
+            open = false;
+            Thread writer = sink.waiter;
+            if (writer != null) {
+                LockSupport.unpark(writer);
+            }
+        }
+    }
+
+    /**
+     * 前后各填充一个缓存行的游标，避免与相邻对象的字段发生伪共享
+     */
+    abstract static class LeftPadding {
+        long p01, p02, p03, p04, p05, p06, p07;
+    }
+
+    abstract static class SequenceValue extends LeftPadding {
+        long value;
+    }
+
+    abstract static class RightPadding extends SequenceValue {
+        long p11, p12, p13, p14, p15, p16, p17;
+    }
+
+    static final class Sequence extends RightPadding {
+        private static final VarHandle VALUE;
+
+        static {
+            try {
+                VALUE = MethodHandles.lookup().findVarHandle(SequenceValue.class, "value", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        long getPlain() {
+            return value;
+        }
+
+        long getAcquire() {
+            return (long) VALUE.getAcquire(this);
+        }
+
+        long getVolatile() {
+            return (long) VALUE.getVolatile(this);
+        }
+
+        void setRelease(long newValue) {
+            VALUE.setRelease(this, newValue);
+        }
+
+        void setVolatile(long newValue) {
+            VALUE.setVolatile(this, newValue);
+        }
+    }
+}
@@ -1,12 +1,15 @@
 package selector;
 
 
+import buffer.DirectBufferPool;
+
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 
 /**
  * @author ljx
@@ -20,21 +23,26 @@ public class ClientDemo {
         SocketChannel socketChannel = SocketChannel.open(new InetSocketAddress("127.0.0.1",8080));
         socketChannel.configureBlocking(false);
 
-        //发送数据
-        ByteBuffer buffer = ByteBuffer.allocate(1024);
-        buffer.put("hello".getBytes());
-        buffer.flip();
-        socketChannel.write(buffer);
-        buffer.clear();
-
-        //接收数据
-        Selector selector = Selector.open();
-        socketChannel.register(selector, SelectionKey.OP_READ);
-        int read = socketChannel.read(buffer);
-        if (read > 0) {
+        //发送数据，池化直接缓冲区
+        DirectBufferPool pool = DirectBufferPool.DEFAULT;
+        ByteBuffer buffer = pool.acquire(1024);
+        try {
+            buffer.put("hello".getBytes());
             buffer.flip();
-            System.out.println(new String(buffer.array(), 0, read));
+            socketChannel.write(buffer);
             buffer.clear();
+
+            //接收数据
+            Selector selector = Selector.open();
+            socketChannel.register(selector, SelectionKey.OP_READ);
+            int read = socketChannel.read(buffer);
+            if (read > 0) {
+                buffer.flip();
+                System.out.println(StandardCharsets.UTF_8.decode(buffer));
+                buffer.clear();
+            }
+        } finally {
+            pool.release(buffer);
         }
     }
 
@@ -0,0 +1,167 @@
+package selector;
+
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link NioLoadClient}每个连接执行的发送脚本
+ * 步骤依次为：
+ * send    写出一段字节（所有连接共享同一块直接缓冲区，写到一半时记录偏移量，不复制）
+ * await   等待从连接上再读到n个字节（连接建立后读到的字节按顺序被await消费），记录从上一次send写完到读满的往返延迟
+ * pause   暂停若干毫秒
+ * repeat  回到第一步；从第一步到repeat之间至少要有一个会让出的步骤（非空的send、await或pause大于0），
+ *         否则连接会在客户端的选择器线程上原地空转，这样的脚本在添加repeat时就被拒绝
+ * close   主动关闭连接
+ * 脚本执行完后连接保持空闲，只继续读取，适合长时间持有大量连接的浸泡测试。
+ *
+ * 文本形式：步骤以分号分隔，如 "await:30;send:ping\n;await:5;pause:1000;repeat"，send的内容支持\n、\r、\t转义
+ *
+ * @author MyAcme
+ */
+public class NioClientScript {
+
+    static final int SEND = 0;
+    static final int AWAIT = 1;
+    static final int PAUSE = 2;
+    static final int REPEAT = 3;
+    static final int CLOSE = 4;
+
+    private final List<Integer> kinds = new ArrayList<>();
+    private final List<ByteBuffer> payloads = new ArrayList<>();
+    private final List<Long> arguments = new ArrayList<>();
+
+    int[] kindArray;
+    ByteBuffer[] payloadArray;
+    long[] argumentArray;
+
+    public NioClientScript send(byte[] bytes) {
+        ByteBuffer payload = ByteBuffer.allocateDirect(bytes.length);
+        payload.put(bytes).flip();
+        return add(SEND, payload, bytes.length);
+    }
+
+    public NioClientScript send(String text) {
+        return send(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public NioClientScript await(int bytes) {
+        return add(AWAIT, null, bytes);
+    }
+
+    public NioClientScript pause(long millis) {
+        return add(PAUSE, null, millis);
+    }
+
+    public NioClientScript repeat() {
+        for (int i = 0; i < kinds.size(); i++) {
+            if ((kinds.get(i) == SEND || kinds.get(i) == AWAIT || kinds.get(i) == PAUSE) && arguments.get(i) > 0) {
+                return add(REPEAT, null, 0);
+            }
+        }
+        throw new IllegalArgumentException("repeat之前没有非空的send或大于0的await、pause，脚本会空转: " + this);
+    }
+
+    public NioClientScript close() {
+        return add(CLOSE, null, 0);
+    }
+
+    public int size() {
+        return kinds.size();
+    }
+
+    private NioClientScript add(int kind, ByteBuffer payload, long argument) {
+        kinds.add(kind);
+        payloads.add(payload);
+        arguments.add(argument);
+        kindArray = null;
+        return this;
+    }
+
+    /**
+     * 执行前转成数组，热路径上按下标取步骤
+     */
+    void compile() {
+        if (kindArray != null) {
+            return;
+        }
+        int n = kinds.size();
+        kindArray = new int[n];
+        payloadArray = new ByteBuffer[n];
+        argumentArray = new long[n];
+        for (int i = 0; i < n; i++) {
+            kindArray[i] = kinds.get(i);
+            payloadArray[i] = payloads.get(i);
+            argumentArray[i] = arguments.get(i);
+        }
+    }
+
+    /**
+     * 解析文本形式的脚本，空字符串表示只建立连接并保持
+     */
+    public static NioClientScript parse(String text) {
+        NioClientScript script = new NioClientScript();
+        for (String step : text.split(";")) {
+            if (step.isEmpty()) {
+                continue;
+            }
+            int colon = step.indexOf(':');
+            String name = colon < 0 ? step : step.substring(0, colon);
+            String value = colon < 0 ? "" : step.substring(colon + 1);
+            switch (name) {
+                case "send":
+                    script.send(unescape(value));
+                    break;
+                case "await":
+                    script.await(Integer.parseInt(value));
+                    break;
+                case "pause":
+                    script.pause(Long.parseLong(value));
+                    break;
+                case "repeat":
+                    script.repeat();
+                    break;
+                case "close":
+                    script.close();
+                    break;
+                default:
+                    throw new IllegalArgumentException("未知的脚本步骤: " + step);
+            }
+        }
+        return script;
+    }
+
+    private static String unescape(String value) {
+        return value.replace("\\r", "\r").replace("\\n", "\n").replace("\\t", "\t");
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < kinds.size(); i++) {
+            if (i > 0) {
+                sb.append(';');
+            }
+            switch (kinds.get(i)) {
+                case SEND:
+                    sb.append("send(").append(arguments.get(i)).append("B)");
+                    break;
+                case AWAIT:
+                    sb.append("await:").append(arguments.get(i));
+                    break;
+                case PAUSE:
+                    sb.append("pause:").append(arguments.get(i));
+                    break;
+                case REPEAT:
+                    sb.append("repeat");
+                    break;
+                default:
+                    sb.append("close");
+                    break;
+            }
+        }
+        return sb.length() == 0 ? "(保持连接)" : sb.toString();
+    }
+}
@@ -0,0 +1,331 @@
+package selector;
+
+
+import buffer.DirectBufferPool;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 原生NIO服务器上的一个客户端连接
+ * 读缓冲区在连接建立时从{@link DirectBufferPool}取一次，之后每次读都复用，连接关闭时归还。
+ *
+ * 写出经过连接自己的出站队列：{@link #write}只把缓冲区排进队列，反应器在本轮事件处理完后统一flush，
+ * flush用GatheringByteChannel.write(ByteBuffer[])一次系统调用写出队列里的多个缓冲区，
+ * 套接字发送缓冲区满、写不完时保留剩余部分并关注OP_WRITE，队列清空后取消关注，
+ * 积压期间连接照常读取，不像ServerDemo那样把兴趣集整体换成OP_WRITE，也不会丢掉没写完的数据。
+ *
+ * 排队字节数超过高水位线时连接变为不可写，降到低水位线以下恢复，两次变化都回调
+ * {@link NioHandler#onWritabilityChanged}，由处理器决定暂停生产还是丢弃（例如广播跳过慢连接）。
+ * 排队字节数在调用write时就计入，跨线程提交、尚未进入队列的数据也受水位线约束。
+ *
+ * 连接的读写状态只在所属反应器线程上访问，其他线程调用{@link #write}、{@link #close}时转交给反应器执行。
+ *
+ * @author MyAcme
+ */
+public class NioConnection {
+
+    /**
+     * 单次gathering write最多携带的缓冲区数（低于Linux的IOV_MAX）
+     */
+    private static final int MAX_GATHER = 64;
+
+    /**
+     * 出站缓冲区写完后无需处理
+     */
+    private static final Object NONE = new Object();
+
+    private final SocketChannel channel;
+    private final NioReactor reactor;
+    private final DirectBufferPool pool;
+    private final int lowWaterMark;
+    private final int highWaterMark;
+
+    private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+    /**
+     * 与outbound一一对应：NONE、归还到的DirectBufferPool或写完后执行的Runnable
+     */
+    private final ArrayDeque<Object> completions = new ArrayDeque<>();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicBoolean unwritable = new AtomicBoolean();
+
+    private ByteBuffer readBuffer;
+    private SelectionKey key;
+    private Object attachment;
+    private boolean flushScheduled;
+    private boolean reading;
+    private boolean closed;
+
+    NioConnection(SocketChannel channel, NioReactor reactor, DirectBufferPool pool, int readBufferSize,
+                  int lowWaterMark, int highWaterMark) {
+        this.channel = channel;
+        this.reactor = reactor;
+        this.pool = pool;
+        this.readBuffer = pool.acquire(readBufferSize);
+        this.lowWaterMark = lowWaterMark;
+        this.highWaterMark = highWaterMark;
+    }
+
+    public SocketChannel channel() {
+        return channel;
+    }
+
+    public NioReactor reactor() {
+        return reactor;
+    }
+
+    /**
+     * 连接所用的缓冲区池，处理器可从这里取直接缓冲区再用{@link #writePooled}写出
+     */
+    public DirectBufferPool pool() {
+        return pool;
+    }
+
+    public SocketAddress remoteAddress() {
+        try {
+            return channel.getRemoteAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public void attach(Object attachment) {
+        this.attachment = attachment;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T attachment() {
+        return (T) attachment;
+    }
+
+    public boolean isOpen() {
+        return !closed && channel.isOpen();
+    }
+
+    /**
+     * 排队待写（含跨线程提交中）的字节数
+     */
+    public long pendingBytes() {
+        return pendingBytes.get();
+    }
+
+    /**
+     * 排队字节数低于高水位线（或超过后已回落到低水位线以下）时为true，可以从任意线程调用
+     */
+    public boolean isWritable() {
+        return !unwritable.get();
+    }
+
+    /**
+     * 把src的剩余字节排进出站队列，不拷贝
+     * 调用后src归连接所有，直到写完前调用方不能再修改它；同一份数据发往多个连接时各传一个duplicate()，
+     * 见{@link NioConnectionGroup#broadcast}。onRead里拿到的读缓冲区会被复用，要写回需先拷贝。
+     */
+    public void write(ByteBuffer src) {
+        write0(src, NONE);
+    }
+
+    /**
+     * 写出从{@link #pool()}取得的缓冲区，写完（或连接关闭丢弃）后由连接归还到池，调用方不再释放
+     */
+    public void writePooled(ByteBuffer src) {
+        write0(src, pool);
+    }
+
+    /**
+     * 写出src，写完或连接关闭丢弃后在反应器线程上执行onWritten（例如引用计数归还共享缓冲区）
+     */
+    public void write(ByteBuffer src, Runnable onWritten) {
+        write0(src, onWritten);
+    }
+
+    private void write0(ByteBuffer src, Object completion) {
+        int length = src.remaining();
+        if (length == 0) {
+            complete(src, completion);
+            return;
+        }
+        if (pendingBytes.addAndGet(length) > highWaterMark && unwritable.compareAndSet(false, true)) {
+            reactor.execute(this::fireWritabilityChanged);
+        }
+        if (reactor.inReactor()) {
+            enqueue(src, completion);
+        } else {
+            reactor.execute(() -> enqueue(src, completion));
+        }
+    }
+
+    /**
+     * 关闭连接，积压未写出的数据丢弃
+     */
+    public void close() {
+        if (reactor.inReactor()) {
+            close0();
+        } else {
+            reactor.execute(this::close0);
+        }
+    }
+
+    void registered(SelectionKey key) {
+        this.key = key;
+    }
+
+    /**
+     * 读到没有数据或缓冲区没读满为止，单次唤醒最多读maxReads次，避免一个连接占住反应器
+     *
+     * @return 对端是否已关闭
+     */
+    boolean read(NioHandler handler, int maxReads) throws Exception {
+        reading = true;
+        try {
+            for (int i = 0; i < maxReads && !closed; i++) {
+                readBuffer.clear();
+                int n = channel.read(readBuffer);
+                if (n < 0) {
+                    return true;
+                }
+                if (n == 0) {
+                    break;
+                }
+                readBuffer.flip();
+                handler.onRead(this, readBuffer);
+                if (n < readBuffer.capacity()) {
+                    break;
+                }
+            }
+            return false;
+        } finally {
+            reading = false;
+            // onRead里关闭的连接，读缓冲区等回调返回后再归还
+            if (closed) {
+                releaseReadBuffer();
+            }
+        }
+    }
+
+    private void enqueue(ByteBuffer src, Object completion) {
+        if (closed) {
+            pendingBytes.addAndGet(-src.remaining());
+            complete(src, completion);
+            return;
+        }
+        outbound.addLast(src);
+        completions.addLast(completion);
+        // 已经在等OP_WRITE时不必本轮flush
+        if (!flushScheduled && (key.interestOps() & SelectionKey.OP_WRITE) == 0) {
+            flushScheduled = true;
+            reactor.scheduleFlush(this);
+        }
+    }
+
+    /**
+     * 本轮事件处理完后由反应器调用
+     */
+    void scheduledFlush() throws IOException {
+        flushScheduled = false;
+        flush();
+    }
+
+    /**
+     * 用gathering write写出出站队列，写不完时关注OP_WRITE，写完后取消关注
+     */
+    void flush() throws IOException {
+        if (closed) {
+            return;
+        }
+        ByteBuffer[] gather = reactor.gatherArray();
+        while (!outbound.isEmpty()) {
+            int count = 0;
+            long requested = 0;
+            for (ByteBuffer buffer : outbound) {
+                gather[count++] = buffer;
+                requested += buffer.remaining();
+                if (count == MAX_GATHER) {
+                    break;
+                }
+            }
+            long written = channel.write(gather, 0, count);
+            for (int i = 0; i < count; i++) {
+                gather[i] = null;
+            }
+            while (!outbound.isEmpty() && !outbound.peekFirst().hasRemaining()) {
+                complete(outbound.pollFirst(), completions.pollFirst());
+            }
+            if (written > 0) {
+                bytesWritten(written);
+            }
+            if (written < requested) {
+                // 发送缓冲区已满，等OP_WRITE
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+        if ((key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void complete(ByteBuffer buffer, Object completion) {
+        if (completion == NONE) {
+            return;
+        }
+        if (completion instanceof DirectBufferPool) {
+            ((DirectBufferPool) completion).release(buffer);
+        } else {
+            try {
+                ((Runnable) completion).run();
+            } catch (RuntimeException e) {
+                System.err.println("写完回调异常: " + e);
+            }
+        }
+    }
+
+    private void releaseReadBuffer() {
+        if (readBuffer != null) {
+            pool.release(readBuffer);
+            readBuffer = null;
+        }
+    }
+
+    private void bytesWritten(long written) {
+        if (pendingBytes.addAndGet(-written) < lowWaterMark && unwritable.compareAndSet(true, false)) {
+            fireWritabilityChanged();
+        }
+    }
+
+    private void fireWritabilityChanged() {
+        if (closed) {
+            return;
+        }
+        reactor.writabilityChanged(this);
+    }
+
+    void close0() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        while (!outbound.isEmpty()) {
+            complete(outbound.pollFirst(), completions.pollFirst());
+        }
+        if (!reading) {
+            releaseReadBuffer();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("关闭连接失败: " + e.getMessage());
+        }
+        // 注册失败的连接没有打开过，不回调onClose
+        if (key != null) {
+            key.cancel();
+            reactor.closed(this);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package selector;
+
+
+import buffer.DirectBufferPool;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 原生NIO连接组，用于广播
+ * 一条广播只有一份字节：消息包装成只读视图后，每个接收者拿到它的duplicate()，
+ * 各自独立的position/limit共享同一块内存，不会为每个连接生成String或byte[]。
+ * 不可写（出站积压超过高水位线）的连接跳过本条广播并计入丢弃数，慢连接拖不住其他连接。
+ * 广播池化的直接缓冲区时按接收者计数，最后一个连接写完（或关闭丢弃）后归还到池。
+ * 每个接收者仍要一个duplicate视图对象（ByteBuffer的读位置不能共享），字节本身不拷贝。
+ *
+ * @author MyAcme
+ */
+public class NioConnectionGroup implements Iterable<NioConnection> {
+
+    private final Set<NioConnection> connections = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    public boolean add(NioConnection connection) {
+        return connections.add(connection);
+    }
+
+    public boolean remove(NioConnection connection) {
+        return connections.remove(connection);
+    }
+
+    public int size() {
+        return connections.size();
+    }
+
+    @Override
+    public Iterator<NioConnection> iterator() {
+        return connections.iterator();
+    }
+
+    /**
+     * 把message的剩余字节发给组内所有可写连接，调用后message不能再修改
+     *
+     * @return 实际投递的连接数
+     */
+    public int broadcast(ByteBuffer message) {
+        return broadcast0(message, null);
+    }
+
+    /**
+     * 广播从pool取得的缓冲区，所有接收者写完后归还，调用方不再释放
+     *
+     * @return 实际投递的连接数
+     */
+    public int broadcast(ByteBuffer message, DirectBufferPool pool) {
+        SharedRelease release = new SharedRelease(message, pool);
+        try {
+            return broadcast0(message, release);
+        } finally {
+            // 释放广播方自己持有的引用
+            release.run();
+        }
+    }
+
+    private int broadcast0(ByteBuffer message, SharedRelease release) {
+        ByteBuffer shared = message.asReadOnlyBuffer();
+        int count = 0;
+        for (NioConnection connection : connections) {
+            if (!connection.isWritable()) {
+                dropped.increment();
+                continue;
+            }
+            if (release == null) {
+                connection.write(shared.duplicate());
+            } else {
+                release.retain();
+                connection.write(shared.duplicate(), release);
+            }
+            count++;
+        }
+        delivered.add(count);
+        return count;
+    }
+
+    public long delivered() {
+        return delivered.sum();
+    }
+
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * 共享缓冲区的引用计数，初始1为广播方持有，每个接收者写完调用一次run
+     */
+    private static final class SharedRelease implements Runnable {
+        private final ByteBuffer buffer;
+        private final DirectBufferPool pool;
+        private final AtomicInteger refs = new AtomicInteger(1);
+
+        SharedRelease(ByteBuffer buffer, DirectBufferPool pool) {
+            this.buffer = buffer;
+            this.pool = pool;
+        }
+
+        void retain() {
+            refs.incrementAndGet();
+        }
+
+        @Override
+        public void run() {
+            if (refs.decrementAndGet() == 0) {
+                pool.release(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package selector;
+
+
+import java.nio.ByteBuffer;
+
+/**
+ * 原生NIO服务器的连接事件处理器
+ * 处理器实例在所有连接、所有反应器线程间共享，必须无状态或线程安全，
+ * 单个连接的状态放在{@link NioConnection#attachment()}里。
+ * 同一个连接的回调总是在它所属的反应器线程上依次调用。
+ *
+ * @author MyAcme
+ */
+public interface NioHandler {
+
+    /**
+     * 连接注册到反应器后调用
+     */
+    default void onOpen(NioConnection connection) throws Exception {
+    }
+
+    /**
+     * 读到数据时调用
+     * data是连接复用的读缓冲区（已flip），只在本次调用内有效，需要保留时自行拷贝
+     */
+    void onRead(NioConnection connection, ByteBuffer data) throws Exception;
+
+    /**
+     * 出站排队字节数越过高水位线（变为不可写）或回落到低水位线以下（恢复可写）时调用，
+     * 用{@link NioConnection#isWritable()}取当前状态
+     */
+    default void onWritabilityChanged(NioConnection connection) throws Exception {
+    }
+
+    /**
+     * 连接关闭后调用（对端关闭、读写出错或主动close）
+     */
+    default void onClose(NioConnection connection) throws Exception {
+    }
+}
@@ -0,0 +1,497 @@
+package selector;
+
+
+import perf.LatencyHistogram;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 选择器驱动的大连接数压测客户端（ClientDemo的多连接版本）
+ * 一个线程、一个Selector持有上万个非阻塞连接：connect立即返回，用OP_CONNECT等待握手完成，
+ * 按每秒connectRate的速度逐步建连，避免把服务端的accept队列一下子打满。
+ * 每个连接执行同一个{@link NioClientScript}，发送的字节在所有连接间共享，
+ * 所有连接共用一块读缓冲区（只计数不保留内容），每个连接的内存开销只有一个小状态对象和内核套接字缓冲区。
+ *
+ * 统计建连延迟、往返延迟（send写完到await读满）、收发字节、连接失败和被对端关闭的次数，每秒打印一行进度。
+ * 回环上超过约2.8万个连接时本地端口不够用，可以用client.bindAddresses指定多个127.x地址轮流绑定。
+ *
+ * @author MyAcme
+ */
+public class NioLoadClient {
+
+    private final InetSocketAddress remote;
+    private final int connections;
+    private final NioClientScript script;
+
+    private int connectRate = 5000;
+    private long connectTimeoutMillis = 10_000;
+    private int readBufferSize = 64 * 1024;
+    private boolean abortiveClose;
+    private boolean progress = true;
+    private List<InetAddress> bindAddresses = new ArrayList<>();
+
+    private Selector selector;
+    private ByteBuffer readBuffer;
+    private ByteBuffer[] payloads;
+    private final List<ClientConnection> all = new ArrayList<>();
+    private final PriorityQueue<ClientConnection> timers =
+            new PriorityQueue<>(Comparator.comparingLong((ClientConnection c) -> c.wakeAt));
+
+    /**
+     * 计数器只在客户端线程上写，TransportBakeoff等在其他线程上读，volatile保证读到最新值
+     */
+    private volatile long connectsStarted;
+    private volatile long connected;
+    private volatile long connectFailures;
+    private volatile long closedByPeer;
+    private volatile long closedByScript;
+    private volatile long active;
+    private volatile long bytesRead;
+    private volatile long bytesWritten;
+    private final LatencyHistogram connectLatency = new LatencyHistogram();
+    private final LatencyHistogram roundTrip = new LatencyHistogram();
+
+    public NioLoadClient(InetSocketAddress remote, int connections, NioClientScript script) {
+        this.remote = remote;
+        this.connections = connections;
+        this.script = script;
+    }
+
+    /**
+     * 每秒最多发起的连接数
+     */
+    public NioLoadClient connectRate(int connectRate) {
+        this.connectRate = connectRate;
+        return this;
+    }
+
+    public NioLoadClient connectTimeout(long millis) {
+        this.connectTimeoutMillis = millis;
+        return this;
+    }
+
+    public NioLoadClient readBufferSize(int readBufferSize) {
+        this.readBufferSize = readBufferSize;
+        return this;
+    }
+
+    /**
+     * 结束时用SO_LINGER=0直接复位连接，客户端不留TIME_WAIT，便于反复压测
+     */
+    public NioLoadClient abortiveClose(boolean abortiveClose) {
+        this.abortiveClose = abortiveClose;
+        return this;
+    }
+
+    /**
+     * 是否每秒打印进度和结束时打印汇总，嵌入其他压测时关闭
+     */
+    public NioLoadClient progress(boolean progress) {
+        this.progress = progress;
+        return this;
+    }
+
+    /**
+     * 本地绑定地址，轮流使用以突破单个源地址的临时端口数
+     */
+    public NioLoadClient bindAddresses(List<InetAddress> bindAddresses) {
+        this.bindAddresses = bindAddresses;
+        return this;
+    }
+
+    /**
+     * 在当前线程上运行指定时长，结束后关闭所有连接并打印汇总
+     */
+    public void run(long durationMillis) throws IOException {
+        script.compile();
+        payloads = new ByteBuffer[script.payloadArray.length];
+        for (int i = 0; i < payloads.length; i++) {
+            // 复制视图而不是字节，同一脚本可以同时被多个客户端线程使用
+            payloads[i] = script.payloadArray[i] == null ? null : script.payloadArray[i].duplicate();
+        }
+        readBuffer = ByteBuffer.allocateDirect(readBufferSize);
+        selector = Selector.open();
+        if (progress) {
+            System.out.println(String.format("连接 %s，目标连接数 %d，建连速率 %d/s，脚本 %s",
+                    remote, connections, connectRate, script));
+        }
+
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        long nextReport = start + TimeUnit.SECONDS.toNanos(1);
+        long lastRead = 0;
+        long lastWritten = 0;
+        long lastRoundTrips = 0;
+        try {
+            long now = start;
+            while (now < end) {
+                openConnections(start, now);
+                long wakeAt = Math.min(end, nextReport);
+                if (connectsStarted < connections) {
+                    wakeAt = Math.min(wakeAt, now + TimeUnit.MILLISECONDS.toNanos(10));
+                }
+                if (!timers.isEmpty()) {
+                    wakeAt = Math.min(wakeAt, timers.peek().wakeAt);
+                }
+                long timeout = TimeUnit.NANOSECONDS.toMillis(wakeAt - now);
+                if (timeout > 0) {
+                    selector.select(timeout);
+                } else {
+                    selector.selectNow();
+                }
+                now = System.nanoTime();
+                processSelectedKeys(now);
+                fireTimers(now);
+                if (now >= nextReport) {
+                    expireConnects(now);
+                    nextReport += TimeUnit.SECONDS.toNanos(1);
+                    if (!progress) {
+                        continue;
+                    }
+                    double seconds = TimeUnit.NANOSECONDS.toMillis(now - start) / 1000.0;
+                    System.out.println(String.format("t=%5.1fs 活跃 %d/%d 失败 %d 对端关闭 %d 收 %.2fMB/s 发 %.2fMB/s 往返 %d/s",
+                            seconds, active, connections, connectFailures, closedByPeer,
+                            (bytesRead - lastRead) / 1048576.0, (bytesWritten - lastWritten) / 1048576.0,
+                            roundTrip.getTotalCount() - lastRoundTrips));
+                    lastRead = bytesRead;
+                    lastWritten = bytesWritten;
+                    lastRoundTrips = roundTrip.getTotalCount();
+                }
+            }
+        } finally {
+            closeAll();
+            selector.close();
+        }
+        if (progress) {
+            printSummary(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 按建连速率发起新连接：到now为止应发起的数量减去已发起的
+     */
+    private void openConnections(long start, long now) {
+        long due = Math.min(connections, (now - start) * connectRate / TimeUnit.SECONDS.toNanos(1) + 1);
+        while (connectsStarted < due) {
+            connectsStarted++;
+            ClientConnection connection = new ClientConnection();
+            all.add(connection);
+            try {
+                SocketChannel channel = SocketChannel.open();
+                connection.channel = channel;
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                if (!bindAddresses.isEmpty()) {
+                    InetAddress local = bindAddresses.get((int) (connectsStarted % bindAddresses.size()));
+                    channel.bind(new InetSocketAddress(local, 0));
+                }
+                connection.connectStartedAt = now;
+                if (channel.connect(remote)) {
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    connected(connection, now);
+                } else {
+                    connection.key = channel.register(selector, SelectionKey.OP_CONNECT, connection);
+                }
+            } catch (IOException e) {
+                failed(connection, e);
+            }
+        }
+    }
+
+    private void processSelectedKeys(long now) {
+        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey key = iterator.next();
+            iterator.remove();
+            ClientConnection connection = (ClientConnection) key.attachment();
+            if (!key.isValid()) {
+                continue;
+            }
+            try {
+                int ready = key.readyOps();
+                if ((ready & SelectionKey.OP_CONNECT) != 0) {
+                    if (!connection.channel.finishConnect()) {
+                        continue;
+                    }
+                    key.interestOps(SelectionKey.OP_READ);
+                    connected(connection, now);
+                    continue;
+                }
+                if ((ready & SelectionKey.OP_WRITE) != 0) {
+                    key.interestOps(SelectionKey.OP_READ);
+                    advance(connection, now);
+                }
+                if ((ready & SelectionKey.OP_READ) != 0 && key.isValid()) {
+                    read(connection, now);
+                }
+            } catch (IOException e) {
+                failed(connection, e);
+            }
+        }
+    }
+
+    private void connected(ClientConnection connection, long now) throws IOException {
+        connection.connectedAt = now;
+        connected++;
+        active++;
+        connectLatency.record(now - connection.connectStartedAt);
+        advance(connection, now);
+    }
+
+    /**
+     * 连接上的IO异常：握手完成前算建连失败，之后（包括connected里的第一次写）算对端关闭
+     */
+    private void failed(ClientConnection connection, IOException e) {
+        if (connection.connectedAt == 0) {
+            connectFailed(connection, e);
+        } else {
+            closedByPeer++;
+            close(connection);
+        }
+    }
+
+    private void connectFailed(ClientConnection connection, IOException e) {
+        connectFailures++;
+        if (connectFailures <= 5) {
+            System.err.println("建连失败: " + e);
+        }
+        connection.closed = true;
+        if (connection.channel != null) {
+            try {
+                connection.channel.close();
+            } catch (IOException ignored) {
+                // 已经失败的连接，关闭异常不再关心
+            }
+        }
+    }
+
+    /**
+     * 超过建连超时仍未完成握手的连接计为失败
+     */
+    private void expireConnects(long now) {
+        long timeout = TimeUnit.MILLISECONDS.toNanos(connectTimeoutMillis);
+        for (ClientConnection connection : all) {
+            if (!connection.closed && connection.connectedAt == 0 && now - connection.connectStartedAt > timeout) {
+                connectFailed(connection, new IOException("建连超时"));
+            }
+        }
+    }
+
+    private void read(ClientConnection connection, long now) throws IOException {
+        while (true) {
+            readBuffer.clear();
+            int n = connection.channel.read(readBuffer);
+            if (n < 0) {
+                closedByPeer++;
+                close(connection);
+                return;
+            }
+            if (n == 0) {
+                break;
+            }
+            bytesRead += n;
+            connection.credit += n;
+            if (n < readBuffer.capacity()) {
+                break;
+            }
+        }
+        if (script.kindArray.length > 0 && connection.step < script.kindArray.length
+                && script.kindArray[connection.step] == NioClientScript.AWAIT) {
+            advance(connection, now);
+        }
+    }
+
+    /**
+     * 从当前步骤往下执行，直到需要等待（写不动、字节不够、暂停）或脚本结束
+     */
+    private void advance(ClientConnection connection, long now) throws IOException {
+        int[] kinds = script.kindArray;
+        while (!connection.closed && connection.step < kinds.length) {
+            int step = connection.step;
+            switch (kinds[step]) {
+                case NioClientScript.SEND: {
+                    ByteBuffer payload = payloads[step];
+                    int length = (int) script.argumentArray[step];
+                    payload.limit(length).position(connection.sendOffset);
+                    int written = connection.channel.write(payload);
+                    bytesWritten += written;
+                    connection.sendOffset += written;
+                    if (connection.sendOffset < length) {
+                        connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    connection.sendOffset = 0;
+                    connection.sentAt = now;
+                    connection.step++;
+                    break;
+                }
+                case NioClientScript.AWAIT: {
+                    long need = script.argumentArray[step];
+                    if (connection.credit < need) {
+                        return;
+                    }
+                    connection.credit -= need;
+                    if (connection.sentAt != 0) {
+                        roundTrip.record(now - connection.sentAt);
+                        connection.sentAt = 0;
+                    }
+                    connection.step++;
+                    break;
+                }
+                case NioClientScript.PAUSE:
+                    if (connection.wakeAt == 0) {
+                        connection.wakeAt = now + TimeUnit.MILLISECONDS.toNanos(script.argumentArray[step]);
+                        timers.add(connection);
+                        return;
+                    }
+                    if (now < connection.wakeAt) {
+                        return;
+                    }
+                    connection.wakeAt = 0;
+                    connection.step++;
+                    break;
+                case NioClientScript.REPEAT:
+                    connection.step = 0;
+                    break;
+                default:
+                    closedByScript++;
+                    close(connection);
+                    return;
+            }
+        }
+    }
+
+    private void fireTimers(long now) {
+        while (!timers.isEmpty() && timers.peek().wakeAt <= now) {
+            ClientConnection connection = timers.poll();
+            try {
+                advance(connection, now);
+            } catch (IOException e) {
+                closedByPeer++;
+                close(connection);
+            }
+        }
+    }
+
+    private void close(ClientConnection connection) {
+        if (connection.closed) {
+            return;
+        }
+        connection.closed = true;
+        active--;
+        try {
+            if (abortiveClose) {
+                connection.channel.setOption(StandardSocketOptions.SO_LINGER, 0);
+            }
+            connection.channel.close();
+        } catch (IOException e) {
+            System.err.println("关闭连接失败: " + e.getMessage());
+        }
+    }
+
+    private void closeAll() {
+        for (ClientConnection connection : all) {
+            if (connection.connectedAt != 0) {
+                close(connection);
+            } else if (!connection.closed && connection.channel != null) {
+                connection.closed = true;
+                try {
+                    connection.channel.close();
+                } catch (IOException ignored) {
+                    // 未建立的连接直接丢弃
+                }
+            }
+        }
+    }
+
+    private void printSummary(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.println("========== 汇总 ==========");
+        System.out.println(String.format("发起连接 %d，建立 %d，失败 %d，对端关闭 %d，脚本关闭 %d",
+                connectsStarted, connected, connectFailures, closedByPeer, closedByScript));
+        System.out.println(String.format("建连延迟(us) p50=%.1f p99=%.1f max=%.1f",
+                connectLatency.valueAtQuantile(0.5) / 1000.0, connectLatency.valueAtQuantile(0.99) / 1000.0,
+                connectLatency.getMaxValue() / 1000.0));
+        System.out.println(String.format("收 %.2fMB (%.2fMB/s)，发 %.2fMB (%.2fMB/s)",
+                bytesRead / 1048576.0, bytesRead / 1048576.0 / seconds,
+                bytesWritten / 1048576.0, bytesWritten / 1048576.0 / seconds));
+        if (roundTrip.getTotalCount() > 0) {
+            System.out.println(String.format("往返 %d 次 (%.0f/s) p50=%.1fus p99=%.1fus p999=%.1fus max=%.1fus",
+                    roundTrip.getTotalCount(), roundTrip.getTotalCount() / seconds,
+                    roundTrip.valueAtQuantile(0.5) / 1000.0, roundTrip.valueAtQuantile(0.99) / 1000.0,
+                    roundTrip.valueAtQuantile(0.999) / 1000.0, roundTrip.getMaxValue() / 1000.0));
+        }
+    }
+
+    public long connected() {
+        return connected;
+    }
+
+    public long connectFailures() {
+        return connectFailures;
+    }
+
+    public long bytesRead() {
+        return bytesRead;
+    }
+
+    public LatencyHistogram roundTrip() {
+        return roundTrip;
+    }
+
+    /**
+     * 单个连接的状态，只在客户端线程上访问
+     */
+    private static final class ClientConnection {
+        SocketChannel channel;
+        SelectionKey key;
+        int step;
+        int sendOffset;
+        long credit;
+        long sentAt;
+        long wakeAt;
+        long connectStartedAt;
+        long connectedAt;
+        boolean closed;
+    }
+
+    /**
+     * 主方法
+     * @param args 命令行参数：[主机] [端口] [连接数] [秒数]，默认127.0.0.1 8080 10000 30
+     * 系统属性：client.script（脚本文本，默认只保持连接）、client.connectRate（默认5000/s）、
+     * client.bindAddresses（逗号分隔的本地地址）、client.abortiveClose
+     */
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "127.0.0.1";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 30;
+
+        NioLoadClient client = new NioLoadClient(new InetSocketAddress(host, port), connections,
+                NioClientScript.parse(System.getProperty("client.script", "")))
+                .connectRate(Integer.getInteger("client.connectRate", 5000))
+                .abortiveClose(Boolean.getBoolean("client.abortiveClose"));
+        String bind = System.getProperty("client.bindAddresses");
+        if (bind != null) {
+            List<InetAddress> addresses = new ArrayList<>();
+            for (String address : bind.split(",")) {
+                addresses.add(InetAddress.getByName(address.trim()));
+            }
+            client.bindAddresses(addresses);
+        }
+        client.run(TimeUnit.SECONDS.toMillis(seconds));
+    }
+}
@@ -0,0 +1,228 @@
+package selector;
+
+
+import buffer.DirectBufferPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 反应器：一个线程 + 一个Selector，负责一组连接的读写
+ * 其他线程（接收线程、别的反应器）通过{@link #execute}提交任务，任务进入无锁队列，
+ * 只在反应器可能阻塞在select()时才调用一次selector.wakeup()：
+ * wakeupPending在每轮select返回后清零，同一轮里多次提交只唤醒一次，
+ * 先入队再唤醒，保证不会出现任务已入队而反应器仍在select()里睡眠的情况。
+ *
+ * 每轮循环：select -> 处理就绪键 -> 执行任务 -> flush本轮有新写入的连接，
+ * 同一轮里对一个连接的多次write合并为一次gathering write。
+ *
+ * @author MyAcme
+ */
+public class NioReactor implements Runnable {
+
+    /**
+     * 单次唤醒里一个连接最多连续读取的次数
+     */
+    private static final int MAX_READS_PER_WAKEUP = 16;
+
+    private final Selector selector;
+    private final NioHandler handler;
+    private final DirectBufferPool pool;
+    private final int readBufferSize;
+    private final int lowWaterMark;
+    private final int highWaterMark;
+    private final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private final List<NioConnection> flushQueue = new ArrayList<>();
+    private final ByteBuffer[] gather = new ByteBuffer[64];
+
+    private volatile boolean running = true;
+    private int connections;
+
+    NioReactor(String name, NioHandler handler, DirectBufferPool pool, int readBufferSize,
+               int lowWaterMark, int highWaterMark) throws IOException {
+        this.selector = Selector.open();
+        this.handler = handler;
+        this.pool = pool;
+        this.readBufferSize = readBufferSize;
+        this.lowWaterMark = lowWaterMark;
+        this.highWaterMark = highWaterMark;
+        this.thread = new Thread(this, name);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    public boolean inReactor() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * 在反应器线程上执行任务，可以从任意线程调用
+     */
+    public void execute(Runnable task) {
+        tasks.offer(task);
+        if (!inReactor() && wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * 接收线程把新连接交给反应器，注册和onOpen都在反应器线程上完成
+     */
+    void register(SocketChannel channel) {
+        execute(() -> {
+            NioConnection connection = new NioConnection(channel, this, pool, readBufferSize, lowWaterMark, highWaterMark);
+            try {
+                connection.registered(channel.register(selector, SelectionKey.OP_READ, connection));
+                connections++;
+                handler.onOpen(connection);
+            } catch (Exception e) {
+                System.err.println("注册连接失败: " + e.getMessage());
+                connection.close0();
+            }
+        });
+    }
+
+    /**
+     * 当前反应器上的连接数（只在反应器线程上准确）
+     */
+    public int connections() {
+        return connections;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                if (tasks.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.selectNow();
+                }
+                wakeupPending.set(false);
+                processSelectedKeys();
+                runTasks();
+                flushScheduled();
+            }
+        } catch (IOException e) {
+            System.err.println(thread.getName() + " 选择器异常: " + e.getMessage());
+        } finally {
+            closeAll();
+            // 连接归还的缓冲区都在本线程缓存里，线程结束前交回全局
+            pool.releaseThreadCache();
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey key = iterator.next();
+            iterator.remove();
+            NioConnection connection = (NioConnection) key.attachment();
+            try {
+                int ready = key.readyOps();
+                if ((ready & SelectionKey.OP_WRITE) != 0) {
+                    connection.flush();
+                }
+                if ((ready & SelectionKey.OP_READ) != 0 && connection.read(handler, MAX_READS_PER_WAKEUP)) {
+                    connection.close0();
+                }
+            } catch (CancelledKeyException e) {
+                connection.close0();
+            } catch (Exception e) {
+                System.err.println("连接处理异常 " + connection.remoteAddress() + ": " + e);
+                connection.close0();
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                System.err.println(thread.getName() + " 任务异常: " + e);
+            }
+        }
+    }
+
+    /**
+     * 连接本轮有新写入，本轮结束时flush
+     */
+    void scheduleFlush(NioConnection connection) {
+        flushQueue.add(connection);
+    }
+
+    /**
+     * gathering write用的数组，反应器内所有连接共用
+     */
+    ByteBuffer[] gatherArray() {
+        return gather;
+    }
+
+    private void flushScheduled() {
+        // flush中回调的处理器可能继续写入并追加到队列，按下标遍历
+        for (int i = 0; i < flushQueue.size(); i++) {
+            NioConnection connection = flushQueue.get(i);
+            try {
+                connection.scheduledFlush();
+            } catch (IOException e) {
+                System.err.println("写入失败，关闭连接 " + connection.remoteAddress() + ": " + e.getMessage());
+                connection.close0();
+            }
+        }
+        flushQueue.clear();
+    }
+
+    void writabilityChanged(NioConnection connection) {
+        try {
+            handler.onWritabilityChanged(connection);
+        } catch (Exception e) {
+            System.err.println("onWritabilityChanged异常: " + e);
+            connection.close0();
+        }
+    }
+
+    void closed(NioConnection connection) {
+        connections--;
+        try {
+            handler.onClose(connection);
+        } catch (Exception e) {
+            System.err.println("onClose异常: " + e);
+        }
+    }
+
+    private void closeAll() {
+        runTasks();
+        flushQueue.clear();
+        List<SelectionKey> keys = new ArrayList<>(selector.keys());
+        for (SelectionKey key : keys) {
+            ((NioConnection) key.attachment()).close0();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            System.err.println("关闭选择器失败: " + e.getMessage());
+        }
+    }
+
+    void shutdown() throws InterruptedException {
+        running = false;
+        selector.wakeup();
+        thread.join();
+    }
+}
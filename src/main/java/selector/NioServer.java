@@ -0,0 +1,236 @@
+package selector;
+
+
+import buffer.DirectBufferPool;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 多反应器原生NIO服务器引擎（不依赖Netty）
+ * 一个接收线程只关注OP_ACCEPT，每次唤醒把积压的连接一次接收完，
+ * 按轮询交给N个{@link NioReactor}，每个反应器一个线程一个Selector，负责所分配连接的全部读写。
+ * 连接的读缓冲区从直接缓冲区池取一次后复用，事件交给共享的{@link NioHandler}。
+ *
+ * 用于与Netty实现做对比：同样的处理逻辑，去掉Netty的管道、ByteBuf和事件循环抽象后的开销基线。
+ *
+ * @author MyAcme
+ */
+public class NioServer {
+
+    private final NioHandler handler;
+
+    private int reactorCount = Runtime.getRuntime().availableProcessors();
+    private int readBufferSize = 16 * 1024;
+    private int backlog = 1024;
+    private boolean tcpNoDelay = true;
+    private int lowWaterMark = 32 * 1024;
+    private int highWaterMark = 64 * 1024;
+    private DirectBufferPool pool = DirectBufferPool.DEFAULT;
+
+    private NioReactor[] reactors;
+    private ServerSocketChannel serverChannel;
+    private Selector acceptSelector;
+    private Thread acceptor;
+    private volatile boolean running;
+
+    public NioServer(NioHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * 反应器（I/O线程）数，默认CPU核数
+     */
+    public NioServer reactors(int reactorCount) {
+        this.reactorCount = reactorCount;
+        return this;
+    }
+
+    /**
+     * 每个连接的读缓冲区大小
+     */
+    public NioServer readBufferSize(int readBufferSize) {
+        this.readBufferSize = readBufferSize;
+        return this;
+    }
+
+    public NioServer backlog(int backlog) {
+        this.backlog = backlog;
+        return this;
+    }
+
+    public NioServer tcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+        return this;
+    }
+
+    /**
+     * 每个连接出站队列的低/高水位线（字节），见{@link NioConnection#isWritable()}
+     */
+    public NioServer writeBufferWaterMark(int lowWaterMark, int highWaterMark) {
+        if (lowWaterMark > highWaterMark) {
+            throw new IllegalArgumentException("低水位线不能大于高水位线: " + lowWaterMark + " > " + highWaterMark);
+        }
+        this.lowWaterMark = lowWaterMark;
+        this.highWaterMark = highWaterMark;
+        return this;
+    }
+
+    /**
+     * 读缓冲区和处理器写出用的直接缓冲区池
+     */
+    public NioServer pool(DirectBufferPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    /**
+     * 绑定端口、启动接收线程和反应器，不阻塞调用线程
+     * 端口为0时由操作系统分配临时端口
+     */
+    public InetSocketAddress bind(int port) throws IOException {
+        reactors = new NioReactor[reactorCount];
+        for (int i = 0; i < reactorCount; i++) {
+            reactors[i] = new NioReactor("nio-reactor-" + i, handler, pool, readBufferSize, lowWaterMark, highWaterMark);
+            reactors[i].start();
+        }
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.configureBlocking(false);
+        serverChannel.bind(new InetSocketAddress(port), backlog);
+        acceptSelector = Selector.open();
+        serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+
+        running = true;
+        acceptor = new Thread(this::acceptLoop, "nio-acceptor");
+        acceptor.start();
+        InetSocketAddress address = (InetSocketAddress) serverChannel.getLocalAddress();
+        System.out.println("NIO服务器启动，端口: " + address + "，反应器数: " + reactorCount);
+        return address;
+    }
+
+    public void start(int port) throws Exception {
+        bind(port);
+        try {
+            acceptor.join();
+        } finally {
+            stop();
+        }
+    }
+
+    private void acceptLoop() {
+        int next = 0;
+        try {
+            while (running) {
+                acceptSelector.select();
+                acceptSelector.selectedKeys().clear();
+                SocketChannel channel;
+                while ((channel = serverChannel.accept()) != null) {
+                    try {
+                        channel.configureBlocking(false);
+                        channel.setOption(StandardSocketOptions.TCP_NODELAY, tcpNoDelay);
+                    } catch (IOException e) {
+                        System.err.println("配置连接失败: " + e.getMessage());
+                        channel.close();
+                        continue;
+                    }
+                    reactors[next].register(channel);
+                    next = next + 1 == reactors.length ? 0 : next + 1;
+                }
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("接收连接异常: " + e.getMessage());
+            }
+        }
+    }
+
+    public void stop() throws InterruptedException {
+        running = false;
+        if (acceptSelector != null) {
+            acceptSelector.wakeup();
+        }
+        if (acceptor != null && acceptor != Thread.currentThread()) {
+            acceptor.join();
+        }
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+            if (acceptSelector != null) {
+                acceptSelector.close();
+            }
+        } catch (IOException e) {
+            System.err.println("关闭服务器通道失败: " + e.getMessage());
+        }
+        if (reactors != null) {
+            for (NioReactor reactor : reactors) {
+                reactor.shutdown();
+            }
+        }
+    }
+
+    /**
+     * 广播聊天示例（ServerDemo的多反应器版本）：
+     * 连接时发送欢迎语，收到的每段数据加上前缀广播给所有连接，
+     * 广播内容只拼一次（池化直接缓冲区），所有接收者共享同一个只读视图，全部写完后归还，积压超过高水位线的连接跳过
+     */
+    static class BroadcastHandler implements NioHandler {
+
+        private static final ByteBuffer WELCOME = directCopy("你已连接到服务器！\n".getBytes(StandardCharsets.UTF_8));
+        private static final byte[] PREFIX = "广播消息：".getBytes(StandardCharsets.UTF_8);
+
+        private final NioConnectionGroup group = new NioConnectionGroup();
+
+        @Override
+        public void onOpen(NioConnection connection) {
+            group.add(connection);
+            connection.write(WELCOME.duplicate());
+        }
+
+        @Override
+        public void onRead(NioConnection connection, ByteBuffer data) {
+            ByteBuffer message = connection.pool().acquire(PREFIX.length + data.remaining());
+            message.put(PREFIX).put(data).flip();
+            group.broadcast(message, connection.pool());
+        }
+
+        @Override
+        public void onWritabilityChanged(NioConnection connection) {
+            if (!connection.isWritable()) {
+                System.out.println("连接积压超过高水位线，暂停向其广播: " + connection.remoteAddress());
+            }
+        }
+
+        @Override
+        public void onClose(NioConnection connection) {
+            group.remove(connection);
+        }
+
+        private static ByteBuffer directCopy(byte[] bytes) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+            buffer.put(bytes).flip();
+            return buffer.asReadOnlyBuffer();
+        }
+    }
+
+    /**
+     * 主方法
+     * @param args 命令行参数：[端口号] [反应器数]，默认8080、CPU核数
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        NioServer server = new NioServer(new BroadcastHandler());
+        if (args.length > 1) {
+            server.reactors(Integer.parseInt(args[1]));
+        }
+        server.start(port);
+    }
+}
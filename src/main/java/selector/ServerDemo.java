@@ -1,6 +1,8 @@
 package selector;
 
 
+import buffer.DirectBufferPool;
+
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
@@ -8,6 +10,7 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
 import java.util.Set;
 
@@ -19,6 +22,8 @@ import java.util.Set;
 public class ServerDemo {
 
     public static void main(String[] args) throws IOException {
+        //池化直接缓冲区：读和广播都不再每次new堆缓冲区，写socket时也不经JDK的临时直接缓冲区拷贝
+        DirectBufferPool pool = DirectBufferPool.DEFAULT;
         ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
         serverSocketChannel.configureBlocking(false);
         serverSocketChannel.bind(new InetSocketAddress(8080));
@@ -37,22 +42,32 @@ public class ServerDemo {
                     accept.write(ByteBuffer.wrap("你已连接到服务器！".getBytes()));
                 } else if (next.isReadable()) {
                     SocketChannel channel = (SocketChannel) next.channel();
-                    ByteBuffer buffer = ByteBuffer.allocate(1024);
-                    int read = channel.read(buffer);
+                    ByteBuffer buffer = pool.acquire(1024);
                     String msg = null;
-                    if (read > 0) {
-                        buffer.flip();
-                        msg = new String(buffer.array(), 0, read);
-                        System.out.println(msg);
-                        buffer.clear();
+                    try {
+                        int read = channel.read(buffer);
+                        if (read > 0) {
+                            buffer.flip();
+                            msg = StandardCharsets.UTF_8.decode(buffer).toString();
+                            System.out.println(msg);
+                        }
+                    } finally {
+                        pool.release(buffer);
                     }
-                    //广播消息
+                    //广播消息：只编码一次，每个目标写一个duplicate
                     channel.register(selector, SelectionKey.OP_WRITE);
-                    for (SelectionKey key : selector.keys()) {
-                        if (key.isValid() && key.channel() instanceof SocketChannel) {
-                            SocketChannel targetChannel = (SocketChannel) key.channel();
-                            targetChannel.write(ByteBuffer.wrap(("广播消息：" + msg).getBytes()));
+                    byte[] bytes = ("广播消息：" + msg).getBytes(StandardCharsets.UTF_8);
+                    ByteBuffer broadcast = pool.acquire(bytes.length);
+                    broadcast.put(bytes).flip();
+                    try {
+                        for (SelectionKey key : selector.keys()) {
+                            if (key.isValid() && key.channel() instanceof SocketChannel) {
+                                SocketChannel targetChannel = (SocketChannel) key.channel();
+                                targetChannel.write(broadcast.duplicate());
+                            }
                         }
+                    } finally {
+                        pool.release(broadcast);
                     }
                 }
                 iterator.remove();
@@ -0,0 +1,241 @@
+package transport;
+
+
+import buffer.DirectBufferPool;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 阻塞套接字引擎，每个连接一个线程
+ * 接收线程阻塞在accept上，每个连接的线程阻塞在read上，写出在调用线程上阻塞直到写完。
+ * JDK 21+优先使用虚拟线程（反射创建，编译目标仍是Java 11），否则退回平台线程，
+ * 平台线程的数量和栈内存随连接数线性增长，这正是要和选择器引擎对比的开销。
+ *
+ * 写锁用ReentrantLock而不是synchronized：虚拟线程在synchronized里阻塞会钉住载体线程。
+ * 阻塞写没有水位线，广播时用tryLock跳过正被其他写者占住（多半阻塞在慢连接上）的连接；
+ * 没人在写、但内核发送缓冲区已满的慢连接无法提前发现（通道在读线程上阻塞着，不能切成非阻塞去试写），
+ * 广播线程会阻塞在它的write上，这是和选择器引擎在广播语义上的区别。
+ *
+ * @author MyAcme
+ */
+public class BlockingTransport implements Transport {
+
+    private static final ThreadFactory VIRTUAL_THREADS = virtualThreadFactory();
+
+    private final ThreadFactory threadFactory;
+    private final boolean virtual;
+    private final int readBufferSize = 16 * 1024;
+    private final DirectBufferPool pool = DirectBufferPool.DEFAULT;
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger threadIds = new AtomicInteger();
+
+    private ServerSocketChannel serverChannel;
+    private Thread acceptor;
+    private volatile boolean running;
+
+    /**
+     * @param preferVirtual JDK支持时是否使用虚拟线程
+     */
+    public BlockingTransport(boolean preferVirtual) {
+        this.virtual = preferVirtual && VIRTUAL_THREADS != null;
+        this.threadFactory = virtual ? VIRTUAL_THREADS : r -> {
+            Thread thread = new Thread(r, "blocking-conn-" + threadIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * 通过反射调用Thread.ofVirtual().factory()，JDK不支持（或未开启预览）时返回null
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String name() {
+        return virtual ? "blocking-virtual" : "blocking";
+    }
+
+    @Override
+    public InetSocketAddress bind(int port, TransportHandler handler) throws Exception {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        running = true;
+        acceptor = new Thread(() -> acceptLoop(handler), "blocking-acceptor");
+        acceptor.start();
+        InetSocketAddress address = (InetSocketAddress) serverChannel.getLocalAddress();
+        System.out.println("阻塞传输启动（" + name() + "），端口: " + address);
+        return address;
+    }
+
+    private void acceptLoop(TransportHandler handler) {
+        try {
+            while (running) {
+                SocketChannel channel = serverChannel.accept();
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Connection connection = new Connection(channel, handler);
+                connections.add(connection);
+                threadFactory.newThread(connection::readLoop).start();
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("接收连接异常: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public int broadcast(ByteBuffer message) {
+        ByteBuffer shared = pool.acquire(message.remaining());
+        shared.put(message).flip();
+        int count = 0;
+        try {
+            for (Connection connection : connections) {
+                if (connection.writeLock.tryLock()) {
+                    try {
+                        connection.write0(shared.duplicate());
+                        count++;
+                    } finally {
+                        connection.writeLock.unlock();
+                    }
+                }
+            }
+        } finally {
+            pool.release(shared);
+        }
+        return count;
+    }
+
+    @Override
+    public boolean broadcastSkipsSlowConnections() {
+        return false;
+    }
+
+    @Override
+    public int connections() {
+        return connections.size();
+    }
+
+    @Override
+    public void stop() throws Exception {
+        running = false;
+        if (serverChannel != null) {
+            serverChannel.close();
+        }
+        if (acceptor != null) {
+            acceptor.join();
+        }
+        for (Connection connection : connections) {
+            connection.close();
+        }
+    }
+
+    private final class Connection implements TransportConnection {
+        private final SocketChannel channel;
+        private final TransportHandler handler;
+        private final ReentrantLock writeLock = new ReentrantLock();
+
+        Connection(SocketChannel channel, TransportHandler handler) {
+            this.channel = channel;
+            this.handler = handler;
+        }
+
+        /**
+         * 连接线程：读到EOF或出错为止，读缓冲区在本线程取、本线程还
+         */
+        void readLoop() {
+            ByteBuffer buffer = pool.acquire(readBufferSize);
+            // 每个线程只用这一块缓冲区，refill批量搬进线程缓存的其余缓冲区立即还回全局，不在每个连接线程上囤积
+            pool.releaseThreadCache();
+            try {
+                handler.onOpen(this);
+                while (channel.read(buffer) >= 0) {
+                    buffer.flip();
+                    handler.onBytes(this, buffer);
+                    buffer.clear();
+                }
+            } catch (IOException e) {
+                // 对端复位或stop()关闭了通道
+            } catch (Exception e) {
+                System.err.println("处理连接数据异常: " + remoteAddress() + " " + e);
+            } finally {
+                close();
+                connections.remove(this);
+                pool.release(buffer);
+                pool.releaseThreadCache();
+                try {
+                    handler.onClose(this);
+                } catch (Exception e) {
+                    System.err.println("关闭回调异常: " + e);
+                }
+            }
+        }
+
+        @Override
+        public void write(ByteBuffer src) {
+            writeLock.lock();
+            try {
+                write0(src);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        /**
+         * 调用方持有写锁
+         */
+        void write0(ByteBuffer src) {
+            try {
+                while (src.hasRemaining()) {
+                    channel.write(src);
+                }
+            } catch (IOException e) {
+                src.position(src.limit());
+                close();
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("关闭连接失败: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public SocketAddress remoteAddress() {
+            try {
+                return channel.getRemoteAddress();
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public Transport transport() {
+            return BlockingTransport.this;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package transport;
+
+
+import java.nio.ByteBuffer;
+
+/**
+ * 广播处理器：任一连接读到的字节原样发给所有连接（包括发送者），用于比较各引擎的扇出能力
+ * 广播的拷贝和跳过慢连接的策略由{@link Transport#broadcast}实现
+ *
+ * @author MyAcme
+ */
+public class BroadcastHandler implements TransportHandler {
+
+    @Override
+    public void onBytes(TransportConnection connection, ByteBuffer data) {
+        connection.transport().broadcast(data);
+    }
+}
@@ -0,0 +1,17 @@
+package transport;
+
+
+import java.nio.ByteBuffer;
+
+/**
+ * 回显处理器：读到什么写回什么，用于在各引擎上比较单连接往返延迟和吞吐
+ *
+ * @author MyAcme
+ */
+public class EchoHandler implements TransportHandler {
+
+    @Override
+    public void onBytes(TransportConnection connection, ByteBuffer data) {
+        connection.write(data);
+    }
+}
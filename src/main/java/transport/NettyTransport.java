@@ -0,0 +1,225 @@
+package transport;
+
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.GlobalEventExecutor;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Netty引擎，NIO或原生epoll传输
+ * 管道里只有一个适配器，读到的ByteBuf以nioBuffer()视图交给处理器，不拷贝；
+ * 事件循环线程上、读回调期间的写出先write不flush，channelReadComplete时统一flush一次，
+ * 其他线程的写出直接writeAndFlush。广播只拷贝一次，各连接拿retainedDuplicate()，不可写的连接跳过。
+ *
+ * @author MyAcme
+ */
+public class NettyTransport implements Transport {
+
+    private final boolean epoll;
+    private final int threads;
+
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private Channel serverChannel;
+    private final ChannelGroup channels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+
+    /**
+     * @param epoll   是否使用原生epoll传输
+     * @param threads I/O线程数
+     */
+    public NettyTransport(boolean epoll, int threads) {
+        this.epoll = epoll;
+        this.threads = threads;
+    }
+
+    /**
+     * 当前平台能否使用epoll传输
+     */
+    public static boolean epollAvailable() {
+        return Epoll.isAvailable();
+    }
+
+    @Override
+    public String name() {
+        return epoll ? "netty-epoll" : "netty-nio";
+    }
+
+    @Override
+    public InetSocketAddress bind(int port, TransportHandler handler) throws Exception {
+        Class<? extends ServerChannel> channelClass;
+        if (epoll) {
+            if (!Epoll.isAvailable()) {
+                throw new IllegalStateException("epoll传输不可用: " + Epoll.unavailabilityCause());
+            }
+            bossGroup = new EpollEventLoopGroup(1);
+            workerGroup = new EpollEventLoopGroup(threads);
+            channelClass = EpollServerSocketChannel.class;
+        } else {
+            bossGroup = new NioEventLoopGroup(1);
+            workerGroup = new NioEventLoopGroup(threads);
+            channelClass = NioServerSocketChannel.class;
+        }
+        ServerBootstrap bootstrap = new ServerBootstrap();
+        bootstrap.group(bossGroup, workerGroup)
+                .channel(channelClass)
+                .option(ChannelOption.SO_BACKLOG, 1024)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(32 * 1024, 64 * 1024))
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        ch.pipeline().addLast(new Connection(handler));
+                    }
+                });
+        serverChannel = bootstrap.bind(port).sync().channel();
+        InetSocketAddress address = (InetSocketAddress) serverChannel.localAddress();
+        System.out.println("Netty传输启动（" + name() + "），端口: " + address + "，I/O线程数: " + threads);
+        return address;
+    }
+
+    @Override
+    public int broadcast(ByteBuffer message) {
+        ByteBuf shared = ByteBufAllocator.DEFAULT.directBuffer(message.remaining());
+        shared.writeBytes(message);
+        int count = 0;
+        try {
+            for (Channel channel : channels) {
+                if (!channel.isWritable()) {
+                    continue;
+                }
+                channel.writeAndFlush(shared.retainedDuplicate(), channel.voidPromise());
+                count++;
+            }
+        } finally {
+            shared.release();
+        }
+        return count;
+    }
+
+    @Override
+    public int connections() {
+        return channels.size();
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (serverChannel != null) {
+            serverChannel.close().sync();
+        }
+        channels.close().awaitUninterruptibly();
+        if (bossGroup != null) {
+            bossGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+            workerGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+        }
+    }
+
+    /**
+     * 每个连接一个实例，同时是管道里的适配器和交给处理器的连接对象
+     */
+    private final class Connection extends ChannelInboundHandlerAdapter implements TransportConnection {
+        private final TransportHandler handler;
+        private ChannelHandlerContext ctx;
+        private boolean reading;
+        private boolean needsFlush;
+
+        Connection(TransportHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) {
+            this.ctx = ctx;
+        }
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) throws Exception {
+            channels.add(ctx.channel());
+            handler.onOpen(this);
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            ByteBuf buf = (ByteBuf) msg;
+            reading = true;
+            try {
+                handler.onBytes(this, buf.nioBuffer());
+            } finally {
+                reading = false;
+                buf.release();
+            }
+        }
+
+        @Override
+        public void channelReadComplete(ChannelHandlerContext ctx) {
+            if (needsFlush) {
+                needsFlush = false;
+                ctx.flush();
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            handler.onClose(this);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            if (!(cause instanceof IOException)) {
+                System.err.println("连接异常: " + ctx.channel().remoteAddress() + " " + cause);
+            }
+            ctx.close();
+        }
+
+        @Override
+        public void write(ByteBuffer src) {
+            if (!src.hasRemaining()) {
+                return;
+            }
+            ByteBuf out = ctx.alloc().directBuffer(src.remaining());
+            out.writeBytes(src);
+            if (ctx.executor().inEventLoop() && reading) {
+                ctx.write(out, ctx.voidPromise());
+                needsFlush = true;
+            } else {
+                ctx.writeAndFlush(out, ctx.voidPromise());
+            }
+        }
+
+        @Override
+        public void close() {
+            ctx.close();
+        }
+
+        @Override
+        public SocketAddress remoteAddress() {
+            return ctx.channel().remoteAddress();
+        }
+
+        @Override
+        public Transport transport() {
+            return NettyTransport.this;
+        }
+    }
+}
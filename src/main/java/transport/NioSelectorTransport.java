@@ -0,0 +1,128 @@
+package transport;
+
+
+import buffer.DirectBufferPool;
+import selector.NioConnection;
+import selector.NioConnectionGroup;
+import selector.NioHandler;
+import selector.NioServer;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * 原生NIO选择器引擎，包装{@link NioServer}
+ * 写出时把字节拷进池化直接缓冲区再排进连接的出站队列，广播用{@link NioConnectionGroup}共享同一块缓冲区，
+ * 超过高水位线的连接跳过。
+ *
+ * @author MyAcme
+ */
+public class NioSelectorTransport implements Transport {
+
+    private final int reactors;
+    private final DirectBufferPool pool = DirectBufferPool.DEFAULT;
+    private final NioConnectionGroup group = new NioConnectionGroup();
+    private NioServer server;
+
+    /**
+     * @param reactors 反应器（I/O线程）数
+     */
+    public NioSelectorTransport(int reactors) {
+        this.reactors = reactors;
+    }
+
+    @Override
+    public String name() {
+        return "nio";
+    }
+
+    @Override
+    public InetSocketAddress bind(int port, TransportHandler handler) throws Exception {
+        server = new NioServer(new Adapter(handler)).reactors(reactors).pool(pool);
+        return server.bind(port);
+    }
+
+    @Override
+    public int broadcast(ByteBuffer message) {
+        return group.broadcast(copy(message), pool);
+    }
+
+    @Override
+    public int connections() {
+        return group.size();
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    private ByteBuffer copy(ByteBuffer src) {
+        ByteBuffer buffer = pool.acquire(src.remaining());
+        buffer.put(src).flip();
+        return buffer;
+    }
+
+    /**
+     * 把NioHandler事件转给TransportHandler，连接包装对象挂在NioConnection的附件上
+     */
+    private final class Adapter implements NioHandler {
+        private final TransportHandler handler;
+
+        Adapter(TransportHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void onOpen(NioConnection connection) throws Exception {
+            Connection wrapper = new Connection(connection);
+            connection.attach(wrapper);
+            group.add(connection);
+            handler.onOpen(wrapper);
+        }
+
+        @Override
+        public void onRead(NioConnection connection, ByteBuffer data) throws Exception {
+            handler.onBytes(connection.<Connection>attachment(), data);
+        }
+
+        @Override
+        public void onClose(NioConnection connection) throws Exception {
+            group.remove(connection);
+            handler.onClose(connection.<Connection>attachment());
+        }
+    }
+
+    private final class Connection implements TransportConnection {
+        private final NioConnection connection;
+
+        Connection(NioConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void write(ByteBuffer src) {
+            if (src.hasRemaining()) {
+                connection.writePooled(copy(src));
+            }
+        }
+
+        @Override
+        public void close() {
+            connection.close();
+        }
+
+        @Override
+        public SocketAddress remoteAddress() {
+            return connection.remoteAddress();
+        }
+
+        @Override
+        public Transport transport() {
+            return NioSelectorTransport.this;
+        }
+    }
+}
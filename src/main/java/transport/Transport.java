@@ -0,0 +1,81 @@
+package transport;
+
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * 可插拔的服务端传输层
+ * 只有接收连接、读到字节、写出字节三个动作，同一个{@link TransportHandler}可以跑在不同引擎上，
+ * 用同样的负载比较吞吐、延迟和每连接内存，再按测量结果选引擎（见perf.TransportBakeoff）。
+ *
+ * 实现：
+ * nio          原生NIO多反应器（selector.NioServer）
+ * netty-nio    Netty NioEventLoopGroup
+ * netty-epoll  Netty原生epoll传输（仅Linux，需要netty-transport-native-epoll）
+ * blocking     阻塞套接字，每连接一个线程（JDK 21+用虚拟线程）
+ *
+ * @author MyAcme
+ */
+public interface Transport {
+
+    /**
+     * 引擎名
+     */
+    String name();
+
+    /**
+     * 绑定端口并开始接收连接，不阻塞调用线程，端口为0时由操作系统分配
+     * 每个Transport实例只能绑定一次
+     */
+    InetSocketAddress bind(int port, TransportHandler handler) throws Exception;
+
+    /**
+     * 把message的剩余字节发给所有连接：只拷贝一次，各连接共享同一份字节，
+     * 出站积压过多（或正阻塞在写上）的连接跳过本条。返回前message已被拷贝，position移到limit
+     * 阻塞引擎（{@link BlockingTransport}）看不到出站积压，只能跳过正被其他线程写着的连接；
+     * 空闲但内核发送缓冲区已满的慢连接会让广播线程阻塞在它上面，排在后面的连接一起等，
+     * 见{@link #broadcastSkipsSlowConnections()}
+     *
+     * @return 实际投递的连接数
+     */
+    int broadcast(ByteBuffer message);
+
+    /**
+     * broadcast是否一定不阻塞：慢连接（发送缓冲区已满）跳过本条返回true，可能阻塞在慢连接上返回false
+     */
+    default boolean broadcastSkipsSlowConnections() {
+        return true;
+    }
+
+    /**
+     * 当前连接数
+     */
+    int connections();
+
+    /**
+     * 关闭所有连接并释放线程
+     */
+    void stop() throws Exception;
+
+    /**
+     * 按引擎名创建
+     *
+     * @param name nio、netty-nio、netty-epoll或blocking
+     */
+    static Transport create(String name) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        switch (name) {
+            case "nio":
+                return new NioSelectorTransport(threads);
+            case "netty-nio":
+                return new NettyTransport(false, threads);
+            case "netty-epoll":
+                return new NettyTransport(true, threads);
+            case "blocking":
+                return new BlockingTransport(true);
+            default:
+                throw new IllegalArgumentException("未知的传输引擎: " + name);
+        }
+    }
+}
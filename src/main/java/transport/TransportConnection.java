@@ -0,0 +1,31 @@
+package transport;
+
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * 传输层上的一个连接
+ *
+ * @author MyAcme
+ */
+public interface TransportConnection {
+
+    /**
+     * 写出src的剩余字节，返回前src已被拷贝或写完（position移到limit），调用方可以立即复用src，
+     * 因此onBytes里拿到的data可以直接回写。可以从任意线程调用。
+     */
+    void write(ByteBuffer src);
+
+    /**
+     * 关闭连接，积压未写出的数据丢弃
+     */
+    void close();
+
+    SocketAddress remoteAddress();
+
+    /**
+     * 连接所属的传输实现，处理器借此广播
+     */
+    Transport transport();
+}
@@ -0,0 +1,32 @@
+package transport;
+
+
+import java.nio.ByteBuffer;
+
+/**
+ * 传输层连接事件处理器，与具体引擎无关
+ * 同一个处理器实例可以挂到任何{@link Transport}实现上，由所有连接共享，必须无状态或线程安全。
+ * 同一个连接的回调依次调用，不会并发；不同连接的回调可能在不同线程上同时发生。
+ *
+ * @author MyAcme
+ */
+public interface TransportHandler {
+
+    /**
+     * 连接建立后调用
+     */
+    default void onOpen(TransportConnection connection) throws Exception {
+    }
+
+    /**
+     * 读到数据时调用
+     * data由引擎复用（读缓冲区或Netty的ByteBuf视图），只在本次调用内有效，需要保留时自行拷贝
+     */
+    void onBytes(TransportConnection connection, ByteBuffer data) throws Exception;
+
+    /**
+     * 连接关闭后调用
+     */
+    default void onClose(TransportConnection connection) throws Exception {
+    }
+}